@@ -5,23 +5,40 @@ import javafx.scene.control.CheckBoxTreeItem;
 import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
-import javafx.scene.control.cell.CheckBoxTreeCell;
 import javafx.util.Callback;
 import org.eclipse.jgit.api.errors.GitAPIException;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
  * AllFilesPanelView displays all files in the current repository,
  * whether tracked or otherwise, as well as their status. It does so
- * in a hierarchical manner
+ * in a hierarchical manner.
+ *
+ * Directories are loaded lazily: only the root and the directories the user has
+ * expanded are listed, and collapsing a directory forgets its contents again.
+ * The status of the listed files comes from a snapshot taken on each redraw.
  */
 public class AllFilesPanelView extends FileStructurePanelView{
 
+    private static final Path ROOT_DIRECTORY = Paths.get("");
+
     private Map<Path, TreeItem<RepoFile>> itemMap;
 
+    static final Logger logger = LogManager.getLogger();
+
+    // The directories whose contents are shown, relative to the repository
+    private Set<Path> loadedDirectories;
+
+    // The status of every changed or ignored file, as of the last redraw
+    private Map<Path, RepoFile> statusSnapshot;
+
     public AllFilesPanelView() {
         this.init();
     }
@@ -29,16 +46,19 @@ public class AllFilesPanelView extends FileStructurePanelView{
     @Override
     public void init(){
         this.itemMap = new HashMap<>();
+        this.loadedDirectories = new HashSet<>();
+        this.loadedDirectories.add(ROOT_DIRECTORY);
+        this.statusSnapshot = new HashMap<>();
         super.init();
     }
 
     /**
-     * @return a factory that generates a custom tree cell that includes a context menu for each
-     * item
+     * @return a factory that generates a custom tree cell that includes the status button and
+     * a context menu for each item
      */
     @Override
     protected Callback<TreeView<RepoFile>, TreeCell<RepoFile>> getTreeCellFactory() {
-        return arg -> new RepoFileTreeCell();
+        return arg -> new RepoFileTreeCell(sessionController);
     }
 
     @Override
@@ -93,7 +113,7 @@ public class AllFilesPanelView extends FileStructurePanelView{
                             itemsToRemove.remove(oldItem);
                         } else {
                             // The file is displayed, but needs its status updated. Replace the old with the new
-                            CheckBoxTreeItem<RepoFile> newItem = new CheckBoxTreeItem<>(repoFile, repoFile.diffButton);
+                            TreeItem<RepoFile> newItem = createTreeItem(repoFile);
                             TreeItem<RepoFile> parent = oldItem.getParent();
                             newItem.setExpanded(oldItem.isExpanded());
                             newItem.getChildren().setAll(oldItem.getChildren());
@@ -103,7 +123,7 @@ public class AllFilesPanelView extends FileStructurePanelView{
                         }
                     } else {
                         // The given file wasn't present, so need to add it
-                        CheckBoxTreeItem<RepoFile> newItem = new CheckBoxTreeItem<>(repoFile, repoFile.diffButton);
+                        TreeItem<RepoFile> newItem = createTreeItem(repoFile);
 
                         Path pathToParent = pathToFile.getParent();
                         boolean foundParent = false;
@@ -134,33 +154,102 @@ public class AllFilesPanelView extends FileStructurePanelView{
                 if(item.getParent() != null) item.getParent().getChildren().remove(item);
             });
             itemMap.remove(item.getValue().getFilePath());
+            loadedDirectories.remove(item.getValue().getFilePath());
+        }
+    }
+
+    /**
+     * Makes the tree item for a file. Directories get an item that can be expanded
+     * before its children are known, and that loads them when it is expanded
+     * @param repoFile the file to make an item for
+     * @return the new item
+     */
+    private TreeItem<RepoFile> createTreeItem(RepoFile repoFile) {
+        if(!(repoFile instanceof DirectoryRepoFile)) {
+            return new CheckBoxTreeItem<>(repoFile);
+        }
+
+        TreeItem<RepoFile> item = new LazyDirectoryTreeItem(repoFile);
+        item.expandedProperty().addListener((observable, wasExpanded, isExpanded) -> {
+            if(isExpanded) {
+                loadDirectory(item);
+            } else {
+                unloadDirectory(item);
+            }
+        });
+        return item;
+    }
+
+    /**
+     * Lists the contents of an expanded directory and adds them to the tree
+     * @param directoryItem the item of the directory
+     */
+    private void loadDirectory(TreeItem<RepoFile> directoryItem) {
+        Path directory = directoryItem.getValue().getFilePath();
+        if(!loadedDirectories.add(directory)) return;
+
+        try {
+            for(RepoFile repoFile : sessionModel.getRepoFilesInDirectory(directory, statusSnapshot)) {
+                if(itemMap.containsKey(repoFile.getFilePath())) continue;
+                TreeItem<RepoFile> newItem = createTreeItem(repoFile);
+                directoryItem.getChildren().add(newItem);
+                itemMap.put(repoFile.getFilePath(), newItem);
+            }
+        } catch(IOException e) {
+            loadedDirectories.remove(directory);
+            logger.error("IOException while listing a directory");
+            logger.debug(e.getStackTrace());
+        }
+    }
+
+    /**
+     * Forgets the contents of a collapsed directory, so that they aren't listed again
+     * on every redraw
+     * @param directoryItem the item of the directory
+     */
+    private void unloadDirectory(TreeItem<RepoFile> directoryItem) {
+        Path directory = directoryItem.getValue().getFilePath();
+        if(!loadedDirectories.remove(directory)) return;
+
+        Deque<TreeItem<RepoFile>> itemsToForget = new ArrayDeque<>(directoryItem.getChildren());
+        while(!itemsToForget.isEmpty()) {
+            TreeItem<RepoFile> item = itemsToForget.pop();
+            itemMap.remove(item.getValue().getFilePath());
+            loadedDirectories.remove(item.getValue().getFilePath());
+            itemsToForget.addAll(item.getChildren());
         }
+        directoryItem.getChildren().clear();
     }
 
     /**
-     * @return every file in the repository (included untracked, ignored, etc)
+     * @return every file (included untracked, ignored, etc) in the root of the repository
+     * and in the directories that are expanded
      * @throws GitAPIException
      * @throws IOException
      */
     @Override
     public List<RepoFile> getFilesToDisplay() throws GitAPIException, IOException {
-        return sessionModel.getAllRepoFiles();
+        statusSnapshot = sessionModel.getStatusSnapshot();
+
+        List<RepoFile> files = new ArrayList<>();
+        for(Path directory : loadedDirectories) {
+            files.addAll(sessionModel.getRepoFilesInDirectory(directory, statusSnapshot));
+        }
+        return files;
     }
 
     /**
-     * An overwritten version of TreeCell that adds a context menu to our
-     * tree structure
+     * A tree item for a directory, which shows as expandable even while its
+     * children haven't been loaded yet
      */
-    private class RepoFileTreeCell extends CheckBoxTreeCell<RepoFile> {
-        @Override
-        public void updateItem(RepoFile item, boolean empty){
-            super.updateItem(item, empty);
-
-            setText(getItem() == null ? "" : getItem().toString());
+    private class LazyDirectoryTreeItem extends CheckBoxTreeItem<RepoFile> {
+        LazyDirectoryTreeItem(RepoFile directory) {
+            super(directory);
+        }
 
-            setOnContextMenuRequested(event -> {
-                if(getTreeItem() != null) getTreeItem().getValue().showContextMenu(this, event.getScreenX(), event.getScreenY());
-            });
+        @Override
+        public boolean isLeaf() {
+            return loadedDirectories.contains(getValue().getFilePath()) && getChildren().isEmpty();
         }
     }
 }
@@ -0,0 +1,191 @@
+package elegit;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A size-capped, least-recently-used cache of computed blames. A blame is looked
+ * up by the blob of its file and the commit it was computed at, so the blame of
+ * a file that changed, or of another commit, is never handed out for it.
+ */
+public class BlameCache {
+
+    // Rough per-line and per-entry bookkeeping overhead, in bytes
+    private static final int LINE_OVERHEAD = 8;
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final long maxBytes;
+    private long currentBytes;
+
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxBytes approximately how much memory the cached blames may take up
+     */
+    public BlameCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.currentBytes = 0;
+        // Access order, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.hitCount = 0;
+        this.missCount = 0;
+    }
+
+    /**
+     * @param key the file and commit the blame is of
+     * @return the cached blame, or null if it isn't cached
+     */
+    public synchronized Blame get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.blame;
+    }
+
+    /**
+     * Caches a blame, evicting the least recently used blames until everything
+     * fits. Blames that are larger than the whole cache aren't cached
+     * @param key the file and commit the blame is of
+     * @param blame the blame
+     */
+    public synchronized void put(Key key, Blame blame) {
+        long size = ENTRY_OVERHEAD + (long) LINE_OVERHEAD * blame.getLineCount();
+        if (size > maxBytes) return;
+
+        Entry old = entries.put(key, new Entry(blame, size));
+        if (old != null) currentBytes -= old.size;
+        currentBytes += size;
+
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            currentBytes -= iterator.next().getValue().size;
+            iterator.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * The commit that last changed each line of one version of a file
+     */
+    public static class Blame {
+        private final ObjectId[] lineCommits;
+
+        /**
+         * @param lineCommits the commit that last changed each line. The array is kept, not copied
+         */
+        public Blame(ObjectId[] lineCommits) {
+            this.lineCommits = lineCommits;
+        }
+
+        public int getLineCount() {
+            return lineCommits.length;
+        }
+
+        /**
+         * @param line the index of a line, from 0
+         * @return the commit that last changed the line
+         */
+        public ObjectId getCommit(int line) {
+            return lineCommits[line];
+        }
+
+        /**
+         * Works out the blame of a commit from this one, the blame of its only parent.
+         * Lines outside the edits keep their commit, and the lines the edits put in
+         * are blamed on the new commit
+         * @param edits the edits from the parent's version of the file to the commit's
+         * @param newLineCount the number of lines in the commit's version of the file
+         * @param commit the commit
+         * @return the blame of the commit
+         */
+        public Blame apply(EditList edits, int newLineCount, ObjectId commit) {
+            ObjectId[] result = new ObjectId[newLineCount];
+            int oldLine = 0;
+            int newLine = 0;
+            for (Edit edit : edits) {
+                while (newLine < edit.getBeginB()) result[newLine++] = lineCommits[oldLine++];
+                while (newLine < edit.getEndB()) result[newLine++] = commit;
+                oldLine = edit.getEndA();
+            }
+            while (newLine < newLineCount) result[newLine++] = lineCommits[oldLine++];
+            return new Blame(result);
+        }
+    }
+
+    /**
+     * Identifies the blame of one file at one commit: the repository, the path of the
+     * file, its blob and the commit
+     */
+    public static class Key {
+        private final Path repoDirectory;
+        private final String path;
+        private final ObjectId blobId;
+        private final ObjectId commitId;
+
+        public Key(Path repoDirectory, String path, ObjectId blobId, ObjectId commitId) {
+            this.repoDirectory = repoDirectory;
+            this.path = path;
+            this.blobId = blobId.copy();
+            this.commitId = commitId.copy();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return Objects.equals(repoDirectory, other.repoDirectory)
+                    && Objects.equals(path, other.path)
+                    && Objects.equals(blobId, other.blobId)
+                    && Objects.equals(commitId, other.commitId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(repoDirectory, path, blobId, commitId);
+        }
+    }
+
+    private static class Entry {
+        final Blame blame;
+        final long size;
+
+        Entry(Blame blame, long size) {
+            this.blame = blame;
+            this.size = size;
+        }
+    }
+}
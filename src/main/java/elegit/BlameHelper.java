@@ -0,0 +1,397 @@
+package elegit;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.scene.Node;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.text.Text;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A BlameHelper shows which commit last changed each line of a file, as of HEAD.
+ * The blame is computed off the FX thread, and the lines of the file are shown
+ * straight away, with their commits filled in as the regions of the file are
+ * resolved. Blames are kept in a BlameCache by blob and commit.
+ *
+ * When the blame of an ancestor of HEAD along a line of single-parent commits is
+ * cached, and the file only changed by a few lines since, the blame is worked out
+ * from it by diffing the file at each commit in between instead of walking the
+ * whole history again.
+ *
+ * Only HEAD is resolved under the repository's read lock. Commits and blobs never
+ * change once they're written, so the history is walked from HEAD's id without
+ * holding up writes to the repository.
+ */
+public class BlameHelper {
+
+    // Number of resolved lines handed to the FX thread at a time
+    private static final int BATCH_SIZE = 500;
+    // Files larger than this aren't blamed, same as the diff
+    private static final int BIG_FILE_THRESHOLD = 50 * 1024 * 1024;
+    // How many commits back to look for a cached blame to start from
+    private static final int MAX_REUSE_DEPTH = 100;
+    // The most lines that may have changed since a cached blame for it to be reused
+    private static final int MAX_REUSE_CHANGED_LINES = 1000;
+
+    // Computed blames, shared by all BlameHelpers
+    private static final BlameCache cache = new BlameCache(16 * 1024 * 1024);
+
+    private final Repository repo;
+    private final RepoHelper repoHelper;
+    private final String pathFilter;
+
+    private volatile boolean isCancelled;
+
+    static final Logger logger = LogManager.getLogger();
+
+    public BlameHelper(Path relativeFilePath, RepoHelper repo) {
+        this.repo = repo.getRepo();
+        this.repoHelper = repo;
+        this.pathFilter = relativeFilePath.toString().replaceAll("\\\\","/");
+        this.isCancelled = false;
+    }
+
+    /**
+     * Creates a list view of the lines of the file, whose commits are filled in as
+     * they are computed in the background. Only the visible lines get a node
+     *
+     * @return the view of the blame
+     */
+    public Node getBlameView() {
+        ObservableList<BlameLine> lines = FXCollections.observableArrayList();
+
+        ListView<BlameLine> listView = new ListView<>(lines);
+        listView.setCellFactory(view -> new BlameLineCell());
+        listView.getStyleClass().add("diffList");
+        listView.setPrefSize(800, 400);
+        listView.setMaxWidth(800);
+        listView.setMaxHeight(400);
+
+        OperationScheduler.submit("Blame of " + pathFilter, OperationScheduler.Priority.INTERACTIVE, new Task<Void>() {
+            @Override
+            protected Void call() {
+                try {
+                    ObjectId headId;
+                    repoHelper.lockForReading();
+                    try {
+                        headId = repo.resolve(Constants.HEAD);
+                    } finally {
+                        repoHelper.unlockForReading();
+                    }
+                    computeBlame(headId, lines);
+                } catch (IOException e) {
+                    logger.error("IOException while computing blame");
+                    logger.debug(e.getStackTrace());
+                }
+                return null;
+            }
+        });
+
+        return listView;
+    }
+
+    /**
+     * Stops computing the blame, e.g. because its view was closed
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * Computes the blame of the file as of the given commit, without showing it
+     * @param commitId the commit to blame the file at
+     * @return the blame, or null if the file isn't a text file in the commit
+     * @throws IOException
+     */
+    BlameCache.Blame computeBlame(ObjectId commitId) throws IOException {
+        return computeBlame(commitId, null);
+    }
+
+    /**
+     * Shows the lines of the file at the given commit in the given list, then the commits
+     * that last changed them, from the cache, from the cached blame of an ancestor, or by
+     * walking the history
+     * @param headId the commit to blame the file at, or null if there are no commits yet
+     * @param lines the list backing the view, or null if the blame isn't shown
+     * @return the blame, or null if there isn't one
+     * @throws IOException
+     */
+    private BlameCache.Blame computeBlame(ObjectId headId, ObservableList<BlameLine> lines) throws IOException {
+        try (RevWalk walk = new RevWalk(this.repo)) {
+            if (headId == null) {
+                showMessage(lines, "No commits yet, no blame shown");
+                return null;
+            }
+            RevCommit head = walk.parseCommit(headId);
+            ObjectId blobId = getBlobId(head);
+            if (blobId == null) {
+                showMessage(lines, "File isn't in HEAD, no blame shown");
+                return null;
+            }
+
+            RawText text;
+            try {
+                byte[] content = this.repo.open(blobId, Constants.OBJ_BLOB).getCachedBytes(BIG_FILE_THRESHOLD);
+                if (RawText.isBinary(content)) {
+                    showMessage(lines, "Binary file, no blame shown");
+                    return null;
+                }
+                text = new RawText(content);
+            } catch (LargeObjectException e) {
+                showMessage(lines, "File too large, no blame shown");
+                return null;
+            }
+
+            if (lines != null) {
+                List<BlameLine> pending = new ArrayList<>(text.size());
+                for (int i = 0; i < text.size(); i++) {
+                    pending.add(new BlameLine(text.getString(i), null));
+                }
+                Platform.runLater(() -> lines.setAll(pending));
+            }
+
+            BlameCache.Key key = new BlameCache.Key(this.repo.getWorkTree().toPath(), this.pathFilter, blobId, headId);
+            BlameCache.Blame blame = cache.get(key);
+            if (blame == null) blame = deriveFromAncestor(walk, head, blobId, text);
+            if (blame == null) {
+                blame = walkHistory(walk, headId, text, lines);
+            } else {
+                publish(walk, text, blame, 0, blame.getLineCount(), lines);
+            }
+
+            if (blame != null) cache.put(key, blame);
+            return blame;
+        }
+    }
+
+    /**
+     * Looks back along the first parents of the given commit for a commit whose blame of the
+     * file is cached, and works the blame forward from it
+     * @return the blame, or null if there's no cached blame close enough to start from
+     */
+    private BlameCache.Blame deriveFromAncestor(RevWalk walk, RevCommit head, ObjectId headBlobId, RawText headText) throws IOException {
+        List<RevCommit> commits = new ArrayList<>();
+        List<ObjectId> blobIds = new ArrayList<>();
+        commits.add(head);
+        blobIds.add(headBlobId);
+
+        BlameCache.Blame blame = null;
+        RevCommit current = head;
+        for (int depth = 0; depth < MAX_REUSE_DEPTH && blame == null; depth++) {
+            // Past a merge, lines may come from more than one parent
+            if (current.getParentCount() != 1) return null;
+            current = walk.parseCommit(current.getParent(0));
+            ObjectId blobId = getBlobId(current);
+            if (blobId == null) return null;
+
+            commits.add(current);
+            blobIds.add(blobId);
+            blame = cache.get(new BlameCache.Key(this.repo.getWorkTree().toPath(), this.pathFilter, blobId, current));
+        }
+        if (blame == null) return null;
+
+        DiffAlgorithm algorithm = getDiffAlgorithm();
+        int changedLines = 0;
+        RawText oldText = null;
+        for (int i = commits.size() - 2; i >= 0; i--) {
+            if (isCancelled) return null;
+            if (blobIds.get(i).equals(blobIds.get(i + 1))) continue;
+
+            if (oldText == null) oldText = readText(blobIds.get(i + 1));
+            RawText newText = i == 0 ? headText : readText(blobIds.get(i));
+            if (oldText == null || newText == null) return null;
+
+            EditList edits = algorithm.diff(RawTextComparator.DEFAULT, oldText, newText);
+            for (int j = 0; j < edits.size(); j++) {
+                changedLines += edits.get(j).getLengthB();
+            }
+            if (changedLines > MAX_REUSE_CHANGED_LINES) return null;
+
+            blame = blame.apply(edits, newText.size(), commits.get(i).copy());
+            oldText = newText;
+        }
+        return blame;
+    }
+
+    /**
+     * Computes the blame by walking the history, and publishes each region of lines as
+     * soon as the commit that last changed it is found
+     * @return the blame, or null if it was cancelled
+     */
+    private BlameCache.Blame walkHistory(RevWalk walk, ObjectId headId, RawText text, ObservableList<BlameLine> lines) throws IOException {
+        ObjectId[] lineCommits = new ObjectId[text.size()];
+        // One copy of each commit's id, so the blame doesn't hold on to the parsed commits
+        Map<ObjectId, ObjectId> commitIds = new HashMap<>();
+
+        try (BlameGenerator generator = new BlameGenerator(this.repo, this.pathFilter)) {
+            generator.setDiffAlgorithm(getDiffAlgorithm());
+            generator.push(null, headId);
+
+            int unpublishedStart = 0;
+            int unpublishedEnd = 0;
+            int unpublishedLines = 0;
+            while (generator.next()) {
+                if (isCancelled) return null;
+
+                ObjectId commitId = commitIds.computeIfAbsent(generator.getSourceCommit(), ObjectId::copy);
+                for (int i = generator.getResultStart(); i < generator.getResultEnd(); i++) {
+                    lineCommits[i] = commitId;
+                }
+
+                // Regions come in any order, so publish the span they cover every so often
+                if (unpublishedLines == 0) {
+                    unpublishedStart = generator.getResultStart();
+                    unpublishedEnd = generator.getResultEnd();
+                } else {
+                    unpublishedStart = Math.min(unpublishedStart, generator.getResultStart());
+                    unpublishedEnd = Math.max(unpublishedEnd, generator.getResultEnd());
+                }
+                unpublishedLines += generator.getResultEnd() - generator.getResultStart();
+                if (unpublishedLines >= BATCH_SIZE) {
+                    publish(walk, text, new BlameCache.Blame(lineCommits), unpublishedStart, unpublishedEnd, lines);
+                    unpublishedLines = 0;
+                }
+            }
+            if (unpublishedLines > 0) {
+                publish(walk, text, new BlameCache.Blame(lineCommits), unpublishedStart, unpublishedEnd, lines);
+            }
+        }
+        return new BlameCache.Blame(lineCommits);
+    }
+
+    /**
+     * Hands the lines in the given range whose commits are known to the FX thread
+     */
+    private void publish(RevWalk walk, RawText text, BlameCache.Blame blame, int start, int end, ObservableList<BlameLine> lines) throws IOException {
+        if (lines == null) return;
+        Map<ObjectId, String> labels = new HashMap<>();
+        List<Integer> indices = new ArrayList<>();
+        List<BlameLine> resolved = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            ObjectId commitId = blame.getCommit(i);
+            if (commitId == null) continue;
+
+            String label = labels.get(commitId);
+            if (label == null) {
+                RevCommit commit = walk.parseCommit(commitId);
+                label = String.format("%s %-15.15s %tF", commitId.abbreviate(8).name(),
+                        commit.getAuthorIdent().getName(), commit.getAuthorIdent().getWhen());
+                labels.put(commitId, label);
+            }
+            indices.add(i);
+            resolved.add(new BlameLine(text.getString(i), label));
+
+            if (resolved.size() >= BATCH_SIZE || i == end - 1) {
+                List<Integer> indicesToPublish = indices;
+                List<BlameLine> toPublish = resolved;
+                indices = new ArrayList<>();
+                resolved = new ArrayList<>();
+                Platform.runLater(() -> {
+                    if (isCancelled) return;
+                    for (int j = 0; j < toPublish.size(); j++) {
+                        if (indicesToPublish.get(j) < lines.size()) lines.set(indicesToPublish.get(j), toPublish.get(j));
+                    }
+                });
+            }
+        }
+    }
+
+    private void showMessage(ObservableList<BlameLine> lines, String message) {
+        if (lines == null) return;
+        Platform.runLater(() -> lines.setAll(new BlameLine(message, "")));
+    }
+
+    /**
+     * @return the blob of the file in the given commit, or null if it isn't there
+     */
+    private ObjectId getBlobId(RevCommit commit) throws IOException {
+        try (TreeWalk walk = TreeWalk.forPath(this.repo, this.pathFilter, commit.getTree())) {
+            return walk == null ? null : walk.getObjectId(0);
+        }
+    }
+
+    /**
+     * @return the text of the given blob, or null if it's binary or too large
+     */
+    private RawText readText(ObjectId blobId) throws IOException {
+        try {
+            byte[] content = this.repo.open(blobId, Constants.OBJ_BLOB).getCachedBytes(BIG_FILE_THRESHOLD);
+            return RawText.isBinary(content) ? null : new RawText(content);
+        } catch (LargeObjectException e) {
+            return null;
+        }
+    }
+
+    private DiffAlgorithm getDiffAlgorithm() {
+        DiffAlgorithm.SupportedAlgorithm algorithm = this.repo.getConfig().getEnum(
+                ConfigConstants.CONFIG_DIFF_SECTION, null,
+                ConfigConstants.CONFIG_KEY_ALGORITHM, DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+        return DiffAlgorithm.getAlgorithm(algorithm);
+    }
+
+    /**
+     * A single line of the file, along with the commit that last changed it
+     */
+    static class BlameLine {
+        final String text;
+        // The commit that last changed the line, or null while it isn't known yet
+        final String label;
+
+        BlameLine(String text, String label) {
+            this.text = text;
+            this.label = label;
+        }
+    }
+
+    /**
+     * A reusable cell that shows a line of the blame as a single Text node
+     */
+    private static class BlameLineCell extends ListCell<BlameLine> {
+        private final Text text;
+
+        BlameLineCell() {
+            this.text = new Text();
+            this.text.getStyleClass().add("diffText");
+        }
+
+        @Override
+        protected void updateItem(BlameLine item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                setGraphic(null);
+            } else if (item.label == null) {
+                text.setText(String.format("%-35s  %s", "...", item.text));
+                text.setId("gitAnnotationDiffText");
+                setGraphic(text);
+            } else {
+                text.setText(item.label.isEmpty() ? item.text : item.label + "  " + item.text);
+                text.setId("unchangedDiffText");
+                setGraphic(text);
+            }
+        }
+    }
+}
@@ -62,7 +62,7 @@ public abstract class BranchHelper extends RefHelper {
     /**
      * @return Full string representation of this branch, e.g. 'remotes/origin/master'
      */
-    String getRefPathString() {
+    public String getRefPathString() {
         return refPathString;
     }
 
@@ -260,16 +260,21 @@ public class BranchModel {
      * @throws IOException
      */
     public MergeResult mergeWithBranch(BranchHelper branchToMergeFrom) throws GitAPIException, IOException {
-        Git git = new Git(this.repoHelper.getRepo());
+        this.repoHelper.lockForWriting();
+        try {
+            Git git = new Git(this.repoHelper.getRepo());
 
-        MergeCommand merge = git.merge();
-        merge.include(this.repoHelper.getRepo().resolve(branchToMergeFrom.getRefPathString()));
+            MergeCommand merge = git.merge();
+            merge.include(this.repoHelper.getRepo().resolve(branchToMergeFrom.getRefPathString()));
 
-        MergeResult mergeResult = merge.call();
+            MergeResult mergeResult = merge.call();
 
-        git.close();
+            git.close();
 
-        return mergeResult;
+            return mergeResult;
+        } finally {
+            this.repoHelper.unlockForWriting();
+        }
     }
 
     // ************************* GETTERS AND SETTERS **************************
@@ -465,6 +470,8 @@ public class BranchModel {
 
         for(BranchHelper branch : branches){
             CommitHelper head = branch.getCommit();
+            // The head hasn't been read yet
+            if(head == null) continue;
             if(heads.containsKey(head)){
                 heads.get(head).add(branch);
             }else{
@@ -0,0 +1,364 @@
+package elegit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Keeps a Bloom filter of the paths each commit changed, the way git's commit-graph
+ * keeps changed paths, so the history of a file can skip the commits that didn't
+ * touch it without reading their trees.
+ *
+ * A commit's filter holds every path that differs from its first parent, along with
+ * the directories those paths are in. A filter can say a commit might have changed
+ * a path when it didn't, but never the other way round, so the commits it lets
+ * through are checked against their trees. Commits that changed too many paths
+ * get no bits at all, and are always checked.
+ *
+ * The filters are saved in the .git directory, so they only have to be computed
+ * once for each commit. New filters are added to the end of the file, so saving
+ * after each page of history doesn't write the whole index again.
+ */
+public class ChangedPathIndex {
+
+    // The file the filters are saved in, relative to the .git directory
+    static final String INDEX_FILE = "elegit" + File.separator + "changed-paths";
+
+    private static final int MAGIC = 0x45435048;
+    private static final int VERSION = 2;
+
+    // The same settings git uses for its changed-path filters
+    private static final int BITS_PER_PATH = 10;
+    private static final int NUM_HASHES = 7;
+    private static final int MAX_CHANGED_PATHS = 512;
+    private static final int SEED_0 = 0x293ae76f;
+    private static final int SEED_1 = 0x7e646e2c;
+
+    // Stands in for the filter of a commit that changed too many paths
+    private static final byte[] TOO_MANY_PATHS = new byte[0];
+
+    private final Repository repo;
+    private final File indexFile;
+    private final Map<ObjectId, byte[]> filters;
+    // The commits whose filters have been computed since the last save
+    private final List<ObjectId> unsavedIds;
+    // Whether the file holds exactly the filters that were saved, so new ones can be
+    // added to its end. If not, the next save writes the whole file again
+    private boolean isFileCurrent;
+
+    // Keeps more than one thread from computing the same filters at once
+    private final Object updateLock = new Object();
+    // Keeps more than one thread from writing the file at once
+    private final Object saveLock = new Object();
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Creates the index of a repository and reads the filters that were saved for it
+     * @param repo the repository
+     */
+    public ChangedPathIndex(Repository repo) {
+        this.repo = repo;
+        this.indexFile = new File(repo.getDirectory(), INDEX_FILE);
+        this.filters = new HashMap<>();
+        this.unsavedIds = new ArrayList<>();
+        this.isFileCurrent = false;
+        this.load();
+    }
+
+    /**
+     * @return the number of commits that have a filter
+     */
+    public synchronized int size() {
+        return filters.size();
+    }
+
+    /**
+     * @param commitId the id of a commit
+     * @return whether the commit has a filter
+     */
+    public synchronized boolean contains(ObjectId commitId) {
+        return filters.containsKey(commitId);
+    }
+
+    /**
+     * Computes the filters of the given commits that don't have one yet
+     * @param commitIds the ids of the commits
+     * @return the number of filters that were computed
+     * @throws IOException if a commit or tree can't be read
+     */
+    public int update(Collection<? extends ObjectId> commitIds) throws IOException {
+        synchronized (updateLock) {
+            Map<ObjectId, byte[]> newFilters = new HashMap<>();
+            try (RevWalk walk = new RevWalk(repo)) {
+                ObjectReader reader = walk.getObjectReader();
+                for (ObjectId commitId : commitIds) {
+                    if (contains(commitId) || newFilters.containsKey(commitId)) continue;
+                    RevCommit commit = walk.parseCommit(commitId);
+                    newFilters.put(commitId.copy(), computeFilter(reader, walk, commit));
+                }
+            }
+
+            synchronized (this) {
+                filters.putAll(newFilters);
+                unsavedIds.addAll(newFilters.keySet());
+            }
+            return newFilters.size();
+        }
+    }
+
+    /**
+     * @param commitId the id of a commit
+     * @param path the path of a file or directory, relative to the work tree and separated by /
+     * @return false if the commit has a filter that shows it didn't change the path, otherwise true
+     */
+    public synchronized boolean mightHaveChanged(ObjectId commitId, String path) {
+        byte[] filter = filters.get(commitId);
+        if (filter == null || filter == TOO_MANY_PATHS) return true;
+
+        int numBits = filter.length * 8;
+        int h0 = murmur3(SEED_0, path);
+        int h1 = murmur3(SEED_1, path);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = Integer.remainderUnsigned(h0 + i * h1, numBits);
+            if ((filter[bit >>> 3] & (1 << (bit & 7))) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the commits that changed a path. Only the commits whose filter lets the
+     * path through have their trees read
+     * @param commitIds the ids of the commits to look through
+     * @param path the path of a file or directory, relative to the work tree and separated by /
+     * @return the ids of the commits that changed the path, in the order they were given
+     * @throws IOException if a commit or tree can't be read
+     */
+    public List<ObjectId> getHistory(Collection<? extends ObjectId> commitIds, String path) throws IOException {
+        List<ObjectId> history = new ArrayList<>();
+        try (RevWalk walk = new RevWalk(repo)) {
+            ObjectReader reader = walk.getObjectReader();
+            for (ObjectId commitId : commitIds) {
+                if (!mightHaveChanged(commitId, path)) continue;
+
+                RevCommit commit = walk.parseCommit(commitId);
+                ObjectId entry = getEntryId(reader, path, commit);
+                ObjectId parentEntry = null;
+                if (commit.getParentCount() > 0) {
+                    parentEntry = getEntryId(reader, path, walk.parseCommit(commit.getParent(0)));
+                }
+                if (!Objects.equals(entry, parentEntry)) history.add(commitId);
+            }
+        }
+        return history;
+    }
+
+    /**
+     * @return the id of the blob or tree at the given path in the commit, or null if there isn't one
+     */
+    private static ObjectId getEntryId(ObjectReader reader, String path, RevCommit commit) throws IOException {
+        try (TreeWalk treeWalk = TreeWalk.forPath(reader, path, commit.getTree())) {
+            return treeWalk == null ? null : treeWalk.getObjectId(0);
+        }
+    }
+
+    /**
+     * Works out which paths differ between a commit and its first parent, and adds them
+     * and the directories they're in to a new filter
+     */
+    private static byte[] computeFilter(ObjectReader reader, RevWalk walk, RevCommit commit) throws IOException {
+        Set<String> paths = new HashSet<>();
+        try (TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            if (commit.getParentCount() > 0) {
+                treeWalk.addTree(walk.parseCommit(commit.getParent(0)).getTree());
+            } else {
+                treeWalk.addTree(new EmptyTreeIterator());
+            }
+            treeWalk.addTree(commit.getTree());
+
+            while (treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                paths.add(path);
+                for (int i = path.lastIndexOf('/'); i > 0; i = path.lastIndexOf('/', i - 1)) {
+                    if (!paths.add(path.substring(0, i))) break;
+                }
+                if (paths.size() > MAX_CHANGED_PATHS) return TOO_MANY_PATHS;
+            }
+        }
+
+        byte[] filter = new byte[Math.max(1, (paths.size() * BITS_PER_PATH + 7) / 8)];
+        int numBits = filter.length * 8;
+        for (String path : paths) {
+            int h0 = murmur3(SEED_0, path);
+            int h1 = murmur3(SEED_1, path);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int bit = Integer.remainderUnsigned(h0 + i * h1, numBits);
+                filter[bit >>> 3] |= 1 << (bit & 7);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * The 32 bit version of MurmurHash3, over the UTF-8 bytes of a path
+     */
+    static int murmur3(int seed, String path) {
+        byte[] data = path.getBytes(StandardCharsets.UTF_8);
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        int hash = seed;
+
+        int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i++) {
+            int k = (data[4 * i] & 0xff) | ((data[4 * i + 1] & 0xff) << 8)
+                    | ((data[4 * i + 2] & 0xff) << 16) | ((data[4 * i + 3] & 0xff) << 24);
+            k *= c1;
+            k = Integer.rotateLeft(k, 15);
+            k *= c2;
+            hash ^= k;
+            hash = Integer.rotateLeft(hash, 13);
+            hash = hash * 5 + 0xe6546b64;
+        }
+
+        int k = 0;
+        int tail = blocks * 4;
+        switch (data.length & 3) {
+            case 3:
+                k ^= (data[tail + 2] & 0xff) << 16;
+            case 2:
+                k ^= (data[tail + 1] & 0xff) << 8;
+            case 1:
+                k ^= data[tail] & 0xff;
+                k *= c1;
+                k = Integer.rotateLeft(k, 15);
+                k *= c2;
+                hash ^= k;
+        }
+
+        hash ^= data.length;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    /**
+     * Saves the filters in the .git directory. Only the filters computed since the last
+     * save are written, at the end of the file. If the file is missing or out of date,
+     * it's written again with every filter and replaced in one step, so a failed save
+     * leaves the last one in place
+     * @throws IOException if the file can't be written
+     */
+    public void save() throws IOException {
+        synchronized (saveLock) {
+            Map<ObjectId, byte[]> toWrite = new LinkedHashMap<>();
+            boolean isAppending;
+            synchronized (this) {
+                isAppending = isFileCurrent;
+                for (ObjectId id : isAppending ? unsavedIds : filters.keySet()) {
+                    toWrite.put(id, filters.get(id));
+                }
+                unsavedIds.clear();
+            }
+            if (isAppending && toWrite.isEmpty()) return;
+
+            try {
+                if (isAppending) {
+                    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)))) {
+                        writeFilters(out, toWrite);
+                    }
+                } else {
+                    rewrite(toWrite);
+                }
+            } catch (IOException e) {
+                // Part of the filters may have been added, so write all of them next time
+                synchronized (this) {
+                    isFileCurrent = false;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                isFileCurrent = true;
+            }
+        }
+    }
+
+    /**
+     * Writes a new file with the given filters and puts it in place of the old one
+     */
+    private void rewrite(Map<ObjectId, byte[]> allFilters) throws IOException {
+        File directory = indexFile.getParentFile();
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Couldn't create " + directory);
+
+        File tempFile = File.createTempFile("changed-paths", ".tmp", directory);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeFilters(out, allFilters);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile.toPath());
+            throw e;
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFilters(DataOutputStream out, Map<ObjectId, byte[]> toWrite) throws IOException {
+        for (Map.Entry<ObjectId, byte[]> entry : toWrite.entrySet()) {
+            entry.getKey().copyRawTo(out);
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads the filters that were saved for the repository, if there are any. A file
+     * that can't be read is ignored, and the filters are computed again. If the last
+     * save was cut short, the filters before it are kept
+     */
+    private synchronized void load() {
+        if (!indexFile.exists()) return;
+
+        Map<ObjectId, byte[]> loaded = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return;
+
+            byte[] rawId = new byte[20];
+            int first;
+            while ((first = in.read()) >= 0) {
+                rawId[0] = (byte) first;
+                in.readFully(rawId, 1, rawId.length - 1);
+                int length = in.readInt();
+                byte[] filter = length == 0 ? TOO_MANY_PATHS : new byte[length];
+                in.readFully(filter);
+                loaded.put(ObjectId.fromRaw(rawId), filter);
+            }
+            isFileCurrent = true;
+        } catch (EOFException e) {
+            logger.warn("The changed path index was cut short, so it will be saved again");
+            logger.debug(e.getStackTrace());
+        } catch (IOException e) {
+            logger.warn("Couldn't read the changed path index, so it will be computed again");
+            logger.debug(e.getStackTrace());
+            return;
+        }
+        filters.putAll(loaded);
+    }
+}
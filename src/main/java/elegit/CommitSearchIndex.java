@@ -0,0 +1,320 @@
+package elegit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * An index of the commits in a commit tree that's used to find them by their
+ * message, author, id or the refs that point to them.
+ *
+ * Each commit gets a dense int number when it's added. The short message and
+ * author of a commit are split into trigrams, and each trigram keeps the sorted
+ * numbers of the commits that contain it, so a search only has to look at the
+ * commits that contain every trigram of the query. The ids are kept sorted so a
+ * prefix of one can be looked up directly, and the names of refs are kept in a trie.
+ *
+ * Commits are added and removed as the tree changes. Removed commits keep their
+ * number until enough of them pile up, when the index is packed again.
+ */
+public class CommitSearchIndex {
+
+    // The number of characters in each term of the text index
+    private static final int GRAM_LENGTH = 3;
+    // The fewest removed commits that make the index get packed
+    private static final int MIN_REMOVED_TO_COMPACT = 1000;
+    // Queries that can be the start of an id
+    private static final Pattern ID_PREFIX = Pattern.compile("[0-9a-f]{4,40}");
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size;
+    private int numRemoved;
+
+    private String[] ids;
+    private long[] times;
+    // The lower case text of each commit, or null once it's removed
+    private String[] texts;
+
+    // The number of each commit in the index
+    private final Map<String, Integer> numbers;
+    // The commits that contain each trigram, in increasing order
+    private final Map<Long, IntList> postings;
+    // The ids of the commits, in order
+    private final TreeMap<String, Integer> idTable;
+    // The refs, by name
+    private RefTrie refs;
+
+    public CommitSearchIndex() {
+        this.ids = new String[INITIAL_CAPACITY];
+        this.times = new long[INITIAL_CAPACITY];
+        this.texts = new String[INITIAL_CAPACITY];
+        this.numbers = new HashMap<>();
+        this.postings = new HashMap<>();
+        this.idTable = new TreeMap<>();
+        this.refs = new RefTrie();
+    }
+
+    /**
+     * Adds a commit to the index, unless it's in it already
+     * @param id the id of the commit
+     * @param time the time of the commit
+     * @param message the message of the commit
+     * @param author the author of the commit
+     */
+    public synchronized void add(String id, long time, String message, String author) {
+        if (numbers.containsKey(id)) return;
+
+        if (size == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            times = Arrays.copyOf(times, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+
+        int number = size++;
+        String text = (message + "\n" + author).toLowerCase(Locale.ROOT);
+        ids[number] = id;
+        times[number] = time;
+        texts[number] = text;
+        numbers.put(id, number);
+        idTable.put(id, number);
+        addGrams(text, number);
+    }
+
+    /**
+     * Adds a commit to the lists of the trigrams in its text
+     */
+    private void addGrams(String text, int number) {
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+            IntList list = postings.computeIfAbsent(gram(text, i), g -> new IntList());
+            // Commits are added in order, so a repeated trigram is already at the end
+            if (list.size == 0 || list.values[list.size - 1] != number) list.add(number);
+        }
+    }
+
+    /**
+     * Removes a commit from the index
+     * @param id the id of the commit
+     */
+    public synchronized void remove(String id) {
+        Integer number = numbers.remove(id);
+        if (number == null) return;
+
+        texts[number] = null;
+        idTable.remove(id);
+        numRemoved++;
+
+        if (numRemoved >= MIN_REMOVED_TO_COMPACT && numRemoved * 2 > size) compact();
+    }
+
+    /**
+     * Replaces the refs in the index
+     * @param refCommits the id of the commit each ref points to, by the name of the ref
+     */
+    public synchronized void setRefs(Map<String, String> refCommits) {
+        RefTrie trie = new RefTrie();
+        for (Map.Entry<String, String> ref : refCommits.entrySet()) {
+            String name = ref.getKey().toLowerCase(Locale.ROOT);
+            trie.add(name, ref.getValue());
+            // Let e.g. origin/master be found by typing master
+            for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+                trie.add(name.substring(i + 1), ref.getValue());
+            }
+        }
+        this.refs = trie;
+    }
+
+    /**
+     * @return the number of commits in the index
+     */
+    public synchronized int size() {
+        return size - numRemoved;
+    }
+
+    /**
+     * Finds the commits that match a query. Commits that a ref starting with the query
+     * points to come first, then those whose id starts with it, then the newest commits
+     * whose message or author contains it
+     * @param query the text to look for. Case doesn't matter
+     * @param limit the most commits to return
+     * @return the ids of the matching commits
+     */
+    public synchronized List<String> search(String query, int limit) {
+        String text = query.trim().toLowerCase(Locale.ROOT);
+        if (text.isEmpty() || limit <= 0) return Collections.emptyList();
+
+        Set<String> results = new LinkedHashSet<>();
+        refs.find(text, results, limit);
+
+        if (results.size() < limit && ID_PREFIX.matcher(text).matches()) {
+            for (String id : idTable.tailMap(text).keySet()) {
+                if (!id.startsWith(text) || results.size() >= limit) break;
+                results.add(id);
+            }
+        }
+
+        if (results.size() < limit) {
+            for (int number : findText(text, limit)) {
+                if (results.size() >= limit) break;
+                results.add(ids[number]);
+            }
+        }
+
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * @param text the lower case text to look for
+     * @param limit the most commits to return
+     * @return the numbers of the newest commits whose text contains the given text, newest first
+     */
+    private int[] findText(String text, int limit) {
+        // The newest matches found so far, oldest at the head
+        PriorityQueue<Integer> newest = new PriorityQueue<>(limit + 1, (n1, n2) -> Long.compare(times[n1], times[n2]));
+
+        if (text.length() < GRAM_LENGTH) {
+            for (int number = 0; number < size; number++) {
+                if (texts[number] != null && texts[number].contains(text)) keepNewest(newest, number, limit);
+            }
+        } else {
+            List<IntList> lists = new ArrayList<>();
+            for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+                IntList list = postings.get(gram(text, i));
+                if (list == null) return new int[0];
+                lists.add(list);
+            }
+            lists.sort((l1, l2) -> Integer.compare(l1.size, l2.size));
+
+            IntList shortest = lists.get(0);
+            candidates:
+            for (int i = 0; i < shortest.size; i++) {
+                int number = shortest.values[i];
+                if (texts[number] == null || !isNewer(newest, number, limit)) continue;
+                for (int j = 1; j < lists.size(); j++) {
+                    if (!lists.get(j).contains(number)) continue candidates;
+                }
+                // The trigrams can all be there without being next to each other
+                if (texts[number].contains(text)) keepNewest(newest, number, limit);
+            }
+        }
+
+        int[] result = new int[newest.size()];
+        for (int i = result.length - 1; i >= 0; i--) result[i] = newest.poll();
+        return result;
+    }
+
+    private void keepNewest(PriorityQueue<Integer> newest, int number, int limit) {
+        if (!isNewer(newest, number, limit)) return;
+        newest.add(number);
+        if (newest.size() > limit) newest.poll();
+    }
+
+    /**
+     * @return whether the commit would be one of the newest matches, if it matched
+     */
+    private boolean isNewer(PriorityQueue<Integer> newest, int number, int limit) {
+        return newest.size() < limit || times[number] > times[newest.peek()];
+    }
+
+    /**
+     * Numbers the commits that are left from 0 again and drops the removed ones
+     */
+    private void compact() {
+        String[] oldIds = ids;
+        long[] oldTimes = times;
+        String[] oldTexts = texts;
+        int oldSize = size;
+
+        ids = new String[Math.max(INITIAL_CAPACITY, oldSize - numRemoved)];
+        times = new long[ids.length];
+        texts = new String[ids.length];
+        size = 0;
+        numRemoved = 0;
+        numbers.clear();
+        postings.clear();
+        idTable.clear();
+
+        for (int number = 0; number < oldSize; number++) {
+            if (oldTexts[number] == null) continue;
+            int newNumber = size++;
+            ids[newNumber] = oldIds[number];
+            times[newNumber] = oldTimes[number];
+            texts[newNumber] = oldTexts[number];
+            numbers.put(oldIds[number], newNumber);
+            idTable.put(oldIds[number], newNumber);
+            addGrams(oldTexts[number], newNumber);
+        }
+    }
+
+    private static long gram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    /**
+     * A growable list of increasing ints
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        boolean contains(int value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+    }
+
+    /**
+     * A trie of ref names, where each node keeps the commits of the refs whose names end there
+     */
+    private static class RefTrie {
+        final Map<Character, RefTrie> children = new TreeMap<>();
+        final Set<String> commitIds = new LinkedHashSet<>();
+
+        void add(String name, String commitId) {
+            RefTrie node = this;
+            for (int i = 0; i < name.length(); i++) {
+                node = node.children.computeIfAbsent(name.charAt(i), c -> new RefTrie());
+            }
+            node.commitIds.add(commitId);
+        }
+
+        /**
+         * Adds the commits of the refs whose names start with the given prefix to the results,
+         * shortest names first
+         */
+        void find(String prefix, Set<String> results, int limit) {
+            RefTrie node = this;
+            for (int i = 0; i < prefix.length() && node != null; i++) {
+                node = node.children.get(prefix.charAt(i));
+            }
+            if (node == null) return;
+
+            List<RefTrie> level = Collections.singletonList(node);
+            while (!level.isEmpty() && results.size() < limit) {
+                List<RefTrie> next = new ArrayList<>();
+                for (RefTrie current : level) {
+                    for (String commitId : current.commitIds) {
+                        if (results.size() >= limit) return;
+                        results.add(commitId);
+                    }
+                    next.addAll(current.children.values());
+                }
+                level = next;
+            }
+        }
+    }
+}
@@ -8,6 +8,8 @@ import javafx.beans.property.SimpleObjectProperty;
 import elegit.treefx.Cell;
 import elegit.treefx.Highlighter;
 import elegit.treefx.TreeGraphModel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.errors.GitAPIException;
 
 import java.io.IOException;
@@ -17,28 +19,39 @@ import java.util.Map;
 
 /**
  * The controller class for the commit trees. Handles mouse interaction, cell selection/highlighting,
- * as well as updating the views when necessary
+ * as well as updating the views when necessary. Each session has its own controller
  */
 public class CommitTreeController{
 
-    // The list of all models controlled by this controller
-    public static CommitTreeModel commitTreeModel;
+    // The model controlled by this controller
+    public CommitTreeModel commitTreeModel;
 
     // The list of selected cells
-    private static List<String> selectedCellIds = new ArrayList<>();
+    private final List<String> selectedCellIds = new ArrayList<>();
 
     // The session controller if this controller needs to access other models/views
-    public static SessionController sessionController;
+    public final SessionController sessionController;
 
-    private static ObjectProperty<String> selectedIDProperty = new SimpleObjectProperty<>();
-    static Property<Boolean> multipleNotSelectedProperty = new SimpleBooleanProperty(true);
+    private final ObjectProperty<String> selectedIDProperty = new SimpleObjectProperty<>();
+    // Whether commits other than the selected ones are highlighted, e.g. the history of a file
+    private boolean hasHighlightedCommits = false;
+    final Property<Boolean> multipleNotSelectedProperty = new SimpleBooleanProperty(true);
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * @param sessionController the session whose commit tree this controls
+     */
+    public CommitTreeController(SessionController sessionController){
+        this.sessionController = sessionController;
+    }
 
     /**
      * Takes in the cell that was clicked on, and either selects or deselects
      * it depending on whether it had already been selected
      * @param clickedCellId the id of the cell that was clicked
      */
-    public static void handleMouseClicked(String clickedCellId){
+    public void handleMouseClicked(String clickedCellId){
         if(selectedCellIds.size()==1 && clickedCellId.equals(selectedCellIds.get(0))){
             resetSelection();
         } else if (selectedCellIds.size()==0) {
@@ -55,13 +68,13 @@ public class CommitTreeController{
      * selected group
      * @param cell the cell that was clicked with shift down
      */
-    public static void handleMouseClickedShift(Cell cell) {
+    public void handleMouseClickedShift(Cell cell) {
         if (selectedCellIds.contains(cell.getCellId())) {
             if (isSelected(cell.getCellId())) {
                 selectedIDProperty.set(null);
                 sessionController.clearSelectedCommit();
             }
-            Highlighter.resetCell(cell);
+            getHighlighter().resetCell(cell);
             selectedCellIds.remove(cell.getCellId());
             multipleNotSelectedProperty.setValue(selectedCellIds.size()<2);
         } else if (selectedCellIds.size() == 0) {
@@ -75,14 +88,14 @@ public class CommitTreeController{
      * Getter method for all selected cells
      * @return the list of selected cells
      */
-    static List<String> getSelectedIds() {
+    List<String> getSelectedIds() {
         return selectedCellIds;
     }
 
     /**
      * Handles mouse clicks that didn't happen on a cell. Deselects everything.
      */
-    static void handleMouseClicked(){
+    void handleMouseClicked(){
         resetSelection();
     }
 
@@ -91,7 +104,7 @@ public class CommitTreeController{
      * @param cell the cell generated the mouseover event
      * @param isOverCell whether the mouse is entering or exiting the cell
      */
-    public static void handleMouseover(Cell cell, boolean isOverCell){
+    public void handleMouseover(Cell cell, boolean isOverCell){
         highlightCommitInGraph(cell.getCellId(), isOverCell);
     }
 
@@ -102,7 +115,7 @@ public class CommitTreeController{
      * @param descendants whether to highlight the commit's children
      * @param allGenerations whether to highlight further generations than just parents/children (i.e. grandparents, grandchildren etc)
      */
-    private static void selectCommitInGraph(String commitID, boolean ancestors, boolean descendants, boolean allGenerations){
+    private void selectCommitInGraph(String commitID, boolean ancestors, boolean descendants, boolean allGenerations){
         if (commitTreeModel.treeGraph != null) {
             TreeGraphModel m = commitTreeModel.treeGraph.treeGraphModel;
             selectCommitInGraph(commitID, m, true, ancestors, descendants, allGenerations);
@@ -119,13 +132,13 @@ public class CommitTreeController{
      * @param commitID the id of the commit to select
      * @param isOverCell whether to highlight or un-highlight the corresponding cells
      */
-    private static void highlightCommitInGraph(String commitID, boolean isOverCell){
+    private void highlightCommitInGraph(String commitID, boolean isOverCell){
         if (commitTreeModel.treeGraph != null) {
             TreeGraphModel m = commitTreeModel.treeGraph.treeGraphModel;
 
             if(selectedCellIds.size()>0 && !isSelected(commitID)){
-                Highlighter.highlightCell(commitID, selectedCellIds.get(0), m, isOverCell);
-                Highlighter.updateCellEdges(commitID, selectedCellIds.get(0), m, isOverCell);
+                getHighlighter().highlightCell(commitID, selectedCellIds.get(0), m, isOverCell);
+                getHighlighter().updateCellEdges(commitID, selectedCellIds.get(0), m, isOverCell);
             }
         }
     }
@@ -140,12 +153,13 @@ public class CommitTreeController{
      * @param descendants whether to highlight the commit's children
      * @param allGenerations whether to highlight further generations than just parents/children (i.e. grandparents, grandchildren etc)
      */
-    private static void selectCommitInGraph(String commitID, TreeGraphModel model, boolean enable, boolean ancestors, boolean descendants, boolean allGenerations){
-        Highlighter.highlightSelectedCell(commitID, model, enable, ancestors, descendants, allGenerations);
+    private void selectCommitInGraph(String commitID, TreeGraphModel model, boolean enable, boolean ancestors, boolean descendants, boolean allGenerations){
+        Highlighter highlighter = getHighlighter();
+        highlighter.highlightSelectedCell(commitID, model, enable, ancestors, descendants, allGenerations);
         if(enable){
-            Highlighter.updateCellEdges(commitID, commitID, model, true);
+            highlighter.updateCellEdges(commitID, commitID, model, true);
         }else{
-            Highlighter.updateCellEdges(commitID, null, model, false);
+            highlighter.updateCellEdges(commitID, null, model, false);
         }
     }
 
@@ -157,8 +171,9 @@ public class CommitTreeController{
      * @param descendants whether to highlight the commit's children
      * @param allGenerations whether to highlight further generations than just parents/children (i.e. grandparents, grandchildren etc)
      */
-    public static void selectCommit(String id, boolean ancestors, boolean descendants, boolean allGenerations){
+    public void selectCommit(String id, boolean ancestors, boolean descendants, boolean allGenerations){
         resetSelection();
+        expandCollapsedChain(id);
         selectCommitInGraph(id, ancestors, descendants, allGenerations);
         sessionController.selectCommit(id);
     }
@@ -166,9 +181,10 @@ public class CommitTreeController{
     /**
      * Deselects the currently selected commit, if there is one
      */
-    public static void resetSelection(){
-        if(selectedCellIds.size() > 0){
-            Highlighter.resetAll();
+    public void resetSelection(){
+        if(selectedCellIds.size() > 0 || hasHighlightedCommits){
+            if(getHighlighter() != null) getHighlighter().resetAll();
+            hasHighlightedCommits = false;
             selectedCellIds.clear();
             selectedIDProperty.set(null);
             multipleNotSelectedProperty.setValue(true);
@@ -181,7 +197,7 @@ public class CommitTreeController{
      * @param cellID the id to check
      * @return true if it is selected, false otherwise
      */
-    private static boolean isSelected(String cellID){
+    private boolean isSelected(String cellID){
         return selectedCellIds.size()==1 && selectedCellIds.get(0).equals(cellID);
     }
 
@@ -191,7 +207,7 @@ public class CommitTreeController{
      * but does not update their view
      * @param commitTreeModel the model whose view should be updated
      */
-    public static void init(CommitTreeModel commitTreeModel){
+    public void init(CommitTreeModel commitTreeModel){
         RepoHelper repo = commitTreeModel.sessionModel.getCurrentRepoHelper();
 
         commitTreeModel.treeGraph.update();
@@ -208,7 +224,7 @@ public class CommitTreeController{
      * but does not update their view
      * @param commitTreeModel the model whose view should be updated
      */
-    public static void update(CommitTreeModel commitTreeModel){
+    public void update(CommitTreeModel commitTreeModel){
         RepoHelper repo = commitTreeModel.sessionModel.getCurrentRepoHelper();
 
         commitTreeModel.treeGraph.update();
@@ -224,13 +240,14 @@ public class CommitTreeController{
      * to the given commit in every view corresponding to a tracked CommitTreeModel
      * @param commit the commit to focus
      */
-    public static void focusCommitInGraph(CommitHelper commit){
+    public void focusCommitInGraph(CommitHelper commit){
         if(commit == null)
             return;
 
         if(commitTreeModel.treeGraph != null && commitTreeModel.treeGraph.treeGraphModel.containsID(commit.getId())){
+            expandCollapsedChain(commit.getId());
             Cell c = commitTreeModel.treeGraph.treeGraphModel.cellMap.get(commit.getId());
-            Highlighter.emphasizeCell(c);
+            getHighlighter().emphasizeCell(c);
         }
     }
 
@@ -239,13 +256,62 @@ public class CommitTreeController{
      * to the cell with the given ID in every view corresponding to a tracked CommitTreeModel
      * @param commitID the ID of the commit to focus
      */
-    public static void focusCommitInGraph(String commitID){
+    public void focusCommitInGraph(String commitID){
         if(commitID == null)
             return;
 
         if(commitTreeModel.treeGraph != null && commitTreeModel.treeGraph.treeGraphModel.containsID(commitID)){
+            expandCollapsedChain(commitID);
             Cell c = commitTreeModel.treeGraph.treeGraphModel.cellMap.get(commitID);
-            Highlighter.emphasizeCell(c);
+            getHighlighter().emphasizeCell(c);
+        }
+    }
+
+    /**
+     * Deselects the selected commit and highlights the given ones instead, then focuses the
+     * first of them. Any of them in collapsed chains are shown first
+     * @param commits the commits to highlight, e.g. the ones that changed a file
+     */
+    public void highlightCommits(List<CommitHelper> commits){
+        resetSelection();
+        if(commitTreeModel.treeGraph == null || commits.isEmpty())
+            return;
+
+        TreeGraphModel model = commitTreeModel.treeGraph.treeGraphModel;
+        List<String> commitIDs = new ArrayList<>();
+        boolean expanded = false;
+        for(CommitHelper commit : commits){
+            commitIDs.add(commit.getId());
+            expanded |= model.expandChain(commit.getId());
+        }
+        if(expanded){
+            try {
+                commitTreeModel.updateView();
+            } catch (IOException e) {
+                logger.error("IOException while expanding collapsed commits");
+                logger.debug(e.getStackTrace());
+            }
+        }
+
+        getHighlighter().highlightCells(commitIDs, model);
+        hasHighlightedCommits = true;
+        focusCommitInGraph(commits.get(0));
+    }
+
+    /**
+     * Shows the commits of the collapsed chain the given commit is in, if it's in one,
+     * and lays the tree out again
+     * @param commitID the id of the commit
+     */
+    public void expandCollapsedChain(String commitID){
+        if(commitTreeModel.treeGraph == null || !commitTreeModel.treeGraph.treeGraphModel.expandChain(commitID))
+            return;
+
+        try {
+            commitTreeModel.updateView();
+        } catch (IOException e) {
+            logger.error("IOException while expanding collapsed commits");
+            logger.debug(e.getStackTrace());
         }
     }
 
@@ -277,14 +343,21 @@ public class CommitTreeController{
         return true;
     }
 
-    public static ObjectProperty<String> selectedIDProperty(){
+    public ObjectProperty<String> selectedIDProperty(){
         return selectedIDProperty;
     }
 
     /**
      * @return the commit tree model for the current session
      */
-    public static CommitTreeModel getCommitTreeModel() {
+    public CommitTreeModel getCommitTreeModel() {
         return commitTreeModel;
     }
+
+    /**
+     * @return the highlighter of the graph currently shown, or null if there is none
+     */
+    private Highlighter getHighlighter() {
+        return commitTreeModel == null || commitTreeModel.treeGraph == null ? null : commitTreeModel.treeGraph.getHighlighter();
+    }
 }
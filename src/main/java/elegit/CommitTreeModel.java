@@ -3,6 +3,7 @@ package elegit;
 import elegit.exceptions.MissingRepoException;
 import elegit.treefx.*;
 import elegit.treefx.Cell;
+import javafx.application.Platform;
 import javafx.scene.control.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,6 +12,7 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,7 +23,7 @@ import java.util.stream.Collectors;
  * tree structure. It also takes care of updating the view its given to
  * display the new tree whenever the graph is updated.
  */
-public class CommitTreeModel{
+public class CommitTreeModel implements CellContentFactory {
 
     // The view corresponding to this model
     CommitTreePanelView view;
@@ -31,6 +33,9 @@ public class CommitTreeModel{
     // The graph corresponding to this model
     TreeGraph treeGraph;
 
+    // Handles interaction with the graph and selection of its commits
+    private final CommitTreeController controller;
+
     // A list of commits in this model
     private List<CommitHelper> commitsInModel;
     private List<CommitHelper> localCommitsInModel;
@@ -41,6 +46,19 @@ public class CommitTreeModel{
     // A list of tags that haven't been pushed yet
     public List<TagHelper> tagsToBePushed;
 
+    // The commits in the tree, for finding them by message, author, id or ref
+    private CommitSearchIndex searchIndex;
+
+    // Whether runs of commits with one parent and one child are collapsed into one cell
+    private volatile boolean collapseLinearChains = true;
+
+    // How long to wait before loading the next page of older commits in the background
+    private static final long HISTORY_LOAD_DELAY = 5000;
+    // How long to wait before computing the changed paths of new commits in the background
+    private static final long CHANGED_PATH_INDEX_DELAY = 10000;
+    // How far down the scroll pane has to be scrolled to load older commits
+    private static final double HISTORY_LOAD_SCROLL_POS = 0.95;
+
     static final Logger logger = LogManager.getLogger();
 
     /**
@@ -48,15 +66,18 @@ public class CommitTreeModel{
      * view
      * @param model the model with which this class accesses the commits
      * @param view the view that will be updated with the new graph
+     * @param controller the controller that handles interaction with the graph
      */
-    public CommitTreeModel(SessionModel model, CommitTreePanelView view){
+    public CommitTreeModel(SessionModel model, CommitTreePanelView view, CommitTreeController controller){
         this.sessionModel = model;
         this.view = view;
+        this.controller = controller;
         this.view.setName("Local commit tree");
         this.commitsInModel = new ArrayList<>();
         this.localCommitsInModel = new ArrayList<>();
         this.remoteCommitsInModel = new ArrayList<>();
         this.branchesInModel = new ArrayList<>();
+        this.searchIndex = new CommitSearchIndex();
     }
 
     /**
@@ -75,6 +96,38 @@ public class CommitTreeModel{
         return repoHelper.getAllCommits();
     }
 
+    /**
+     * Stops moving the cells of the graph into place, e.g. because a different repository
+     * is about to be shown
+     */
+    public void stopMovingCells(){
+        if (treeGraph != null) treeGraph.stopMovingCells();
+    }
+
+    /**
+     * @return the controller that handles interaction with the graph
+     */
+    public CommitTreeController getController(){
+        return controller;
+    }
+
+    /**
+     * Sets whether runs of commits with one parent and one child are collapsed into one
+     * cell, in this graph and the ones made for later repositories
+     * @param collapse whether to collapse chains
+     */
+    public void setCollapseLinearChains(boolean collapse) {
+        this.collapseLinearChains = collapse;
+        if (treeGraph != null) treeGraph.setCollapseLinearChains(collapse);
+    }
+
+    /**
+     * @return whether runs of commits with one parent and one child are collapsed into one cell
+     */
+    public boolean isCollapseLinearChains() {
+        return collapseLinearChains;
+    }
+
     /**
      * @param id the id to check
      * @return true if the given id corresponds to a commit in the tree, false otherwise
@@ -89,35 +142,117 @@ public class CommitTreeModel{
      */
     public synchronized void init(){
         treeGraph = this.createNewTreeGraph();
+        searchIndex = new CommitSearchIndex();
 
-        CommitTreeController.resetSelection();
+        controller.resetSelection();
 
         if (this.sessionModel.getCurrentRepoHelper() != null) {
             this.addAllCommitsToTree();
             //this.branchesInModel = getAllBranches(this.sessionModel.getCurrentRepoHelper());
             this.branchesInModel = this.sessionModel.getCurrentRepoHelper().getBranchModel().getAllBranches();
+            this.scheduleHistoryLoad(this.sessionModel.getCurrentRepoHelper());
+            this.scheduleChangedPathIndexUpdate(this.sessionModel.getCurrentRepoHelper());
         }
 
         this.initView();
     }
 
+    /**
+     * Reads the next page of older commits and adds them to the tree, unless the whole
+     * history is in the tree already. Requests made while a page is still being read
+     * are merged into it
+     */
+    public void loadMoreHistory() {
+        RepoHelper repo = this.sessionModel.getCurrentRepoHelper();
+        if (repo == null || !repo.hasMoreHistory()) return;
+
+        OperationScheduler.submitRefresh("Load history", done -> {
+            try {
+                if (this.sessionModel.getCurrentRepoHelper() != repo || !repo.loadMoreHistory()) {
+                    done.run();
+                    return;
+                }
+            } catch (IOException e) {
+                logger.error("IOException while loading older commits");
+                logger.debug(e.getStackTrace());
+                done.run();
+                return;
+            }
+
+            // Only done once the tree is updated, so the next page doesn't start before then
+            Platform.runLater(() -> {
+                try {
+                    // If the layout is still going, the commits are added with the next update
+                    if (!this.view.isLayoutThreadRunning && this.sessionModel.getCurrentRepoHelper() == repo)
+                        this.update();
+                } catch (GitAPIException | IOException e) {
+                    logger.error("Exception while adding older commits to the tree");
+                    logger.debug(e.getStackTrace());
+                } finally {
+                    done.run();
+                }
+
+                this.scheduleChangedPathIndexUpdate(repo);
+                this.scheduleHistoryLoad(repo);
+            });
+        });
+    }
+
+    /**
+     * Loads the next page of older commits in the background after a while, as long as
+     * the given repository is still the one shown
+     * @param repo the repository to load the commits of
+     */
+    private void scheduleHistoryLoad(RepoHelper repo) {
+        if (!repo.hasMoreHistory()) return;
+
+        OperationScheduler.schedule("Load history", OperationScheduler.Priority.BACKGROUND, HISTORY_LOAD_DELAY, () -> {
+            if (this.sessionModel.getCurrentRepoHelper() == repo) this.loadMoreHistory();
+        });
+    }
+
+    /**
+     * Computes the changed paths of the commits that were read since the last time in the
+     * background after a while, as long as the given repository is still the one shown
+     * @param repo the repository whose commits to index
+     */
+    private void scheduleChangedPathIndexUpdate(RepoHelper repo) {
+        OperationScheduler.schedule("Index changed paths", OperationScheduler.Priority.BACKGROUND, CHANGED_PATH_INDEX_DELAY, () -> {
+            if (this.sessionModel.getCurrentRepoHelper() != repo) return;
+            try {
+                repo.updateChangedPathIndex();
+            } catch (IOException e) {
+                logger.error("IOException while indexing the paths changed by commits");
+                logger.debug(e.getStackTrace());
+            }
+        });
+    }
+
     public synchronized void update() throws GitAPIException, IOException {
         // Handles rare edge case with the RepositoryMonitor and removing repos
         if(this.sessionModel.getCurrentRepoHelper() != null){
-            // Get the changes between this model and the repo after updating the repo
-            this.sessionModel.getCurrentRepoHelper().updateModel();
-            UpdateModel updates = this.getChanges();
-
-            if (!updates.hasChanges()) return;
-
-            this.removeCommitsFromTree(updates.getCommitsToRemove());
-            this.addCommitsToTree(updates.getCommitsToAdd());
-            this.updateCommitFills(updates.getCommitsToUpdate());
+            // If only commits, merges or fetches made here changed the repo, just their commits need updating
+            List<CommitHelper> changedCommits = this.sessionModel.getCurrentRepoHelper().takeChangedCommits();
+            if (changedCommits != null) {
+                this.applyChangedCommits(changedCommits);
+                // Tags on commits that were just read get labelled now
+                this.sessionModel.getCurrentRepoHelper().getTagModel().updateTags();
+            } else {
+                // Get the changes between this model and the repo after updating the repo
+                this.sessionModel.getCurrentRepoHelper().updateModel();
+                UpdateModel updates = this.getChanges();
+
+                if (!updates.hasChanges()) return;
+
+                this.removeCommitsFromTree(updates.getCommitsToRemove());
+                this.addCommitsToTree(updates.getCommitsToAdd());
+                this.updateCommitFills(updates.getCommitsToUpdate());
+            }
             this.sessionModel.getCurrentRepoHelper().getBranchModel().updateAllBranches();
             this.resetBranchHeads();
             this.updateAllRefLabels();
 
-            TreeLayout.stopMovingCells();
+            this.stopMovingCells();
             this.updateView();
         }
     }
@@ -177,7 +312,8 @@ public class CommitTreeModel{
         // Check for added and changed branches
         for (BranchHelper branch : branchesToUpdate) {
             if (currentBranchMap.containsKey(branch.getRefName())){
-                if(currentBranchMap.get(branch.getRefName()).getCommit().getId().equals(branch.getHeadId().getName())){
+                CommitHelper oldHead = currentBranchMap.get(branch.getRefName()).getCommit();
+                if(oldHead != null && oldHead.getId().equals(branch.getHeadId().getName())){
                     continue;
                 }
             }
@@ -221,7 +357,13 @@ public class CommitTreeModel{
      */
     private TreeGraph createNewTreeGraph(){
         TreeGraphModel graphModel = new TreeGraphModel();
-        treeGraph = new TreeGraph(graphModel);
+        treeGraph = new TreeGraph(graphModel, controller, this);
+        treeGraph.setCollapseLinearChains(collapseLinearChains);
+        // The oldest commits are at the bottom, so scrolling down loads older ones
+        treeGraph.getScrollPane().vvalueProperty().addListener((observable, oldValue, newValue) -> {
+            if (newValue.doubleValue() >= HISTORY_LOAD_SCROLL_POS && oldValue.doubleValue() < HISTORY_LOAD_SCROLL_POS)
+                this.loadMoreHistory();
+        });
         return treeGraph;
     }
 
@@ -241,6 +383,37 @@ public class CommitTreeModel{
         return true;
     }
 
+    /**
+     * Brings the given commits in the treeGraph up to date with the repo. Commits that are
+     * new to the repo are added, those that are gone are removed, and the rest, e.g. remote
+     * commits that were merged in, only change their fill
+     * @param commits the commits that changed
+     * @return true if commits were changed, else false
+     */
+    private boolean applyChangedCommits(List<CommitHelper> commits){
+        if(commits.size() == 0) return false;
+
+        RepoHelper repo = this.sessionModel.getCurrentRepoHelper();
+        List<CommitHelper> commitsToAdd = new ArrayList<>();
+        List<CommitHelper> commitsToRemove = new ArrayList<>();
+        List<CommitHelper> commitsToUpdate = new ArrayList<>();
+        for(CommitHelper curCommitHelper : commits){
+            boolean isInTree = treeGraph.treeGraphModel.containsID(RepoHelper.getCommitId(curCommitHelper));
+            if(!repo.hasCommit(curCommitHelper)) {
+                if(isInTree) commitsToRemove.add(curCommitHelper);
+            }else if(isInTree) {
+                commitsToUpdate.add(curCommitHelper);
+            }else {
+                commitsToAdd.add(curCommitHelper);
+            }
+        }
+        this.removeCommitsFromTree(commitsToRemove);
+        this.addCommitsToTree(commitsToAdd);
+        this.updateCommitFills(commitsToUpdate);
+
+        return true;
+    }
+
     /**
      * Removes the given list of commits from the treeGraph
      * @param commits the commits to remove
@@ -275,8 +448,6 @@ public class CommitTreeModel{
         List<String> parentIds = new ArrayList<>(parents.size());
 
         RepoHelper repo = sessionModel.getCurrentRepoHelper();
-        String displayLabel = repo.getCommitDescriptorString(commitHelper, false);
-        List<String> branchLabels = repo.getBranchModel().getBranchesWithHead(commitHelper);
         List<RefHelper> refLabels = repo.getRefsForCommit(commitHelper);
         Cell.CellType computedType = repo.getCommitType(commitHelper);
 
@@ -299,7 +470,15 @@ public class CommitTreeModel{
             return;
         }
 
-        graphModel.addCell(commitID, commitHelper.getWhen().getTime(), displayLabel, refLabels, getContextMenu(commitHelper), parentIds, computedType);
+        graphModel.addCell(commitID, commitHelper.getWhen().getTime(), refLabels, parentIds, computedType);
+        searchIndex.add(commitID, commitHelper.getWhen().getTime(), commitHelper.getMessage(false),
+                commitHelper.getAuthorName() + " " + commitHelper.getAuthorEmail());
+
+        // Children from newer history that were added before this commit was read
+        for(CommitHelper child : commitHelper.getChildren()){
+            String childID = RepoHelper.getCommitId(child);
+            if(graphModel.containsID(childID)) graphModel.addParentEdge(childID, commitID);
+        }
     }
 
 
@@ -317,11 +496,11 @@ public class CommitTreeModel{
         this.remoteCommitsInModel.remove(commitHelper);
 
         graphModel.removeCell(commitID);
+        searchIndex.remove(commitID);
     }
 
     private void updateCommitFill(CommitHelper helper, TreeGraphModel graphModel, RepoHelper repo) {
-        Cell.CellType type = (repo.getLocalCommits().contains(helper)) ?
-                (repo.getRemoteCommits().contains(helper)) ? Cell.CellType.BOTH : Cell.CellType.LOCAL : Cell.CellType.REMOTE;
+        Cell.CellType type = repo.getCommitType(helper);
         this.localCommitsInModel.remove(helper);
         this.remoteCommitsInModel.remove(helper);
         switch (type) {
@@ -341,6 +520,29 @@ public class CommitTreeModel{
         graphModel.setCellType(helper.getId(), type);
     }
 
+    @Override
+    public String getDisplayLabel(String cellId) {
+        RepoHelper repo = sessionModel.getCurrentRepoHelper();
+        CommitHelper commit = repo == null ? null : repo.getCommit(cellId);
+        return commit == null ? cellId : repo.getCommitDescriptorString(commit, false);
+    }
+
+    @Override
+    public ContextMenu getCellMenu(String cellId) {
+        RepoHelper repo = sessionModel.getCurrentRepoHelper();
+        CommitHelper commit = repo == null ? null : repo.getCommit(cellId);
+        return commit == null ? null : getContextMenu(commit);
+    }
+
+    @Override
+    public ContextMenu getRefLabelMenu(RefHelper ref) {
+        if (ref instanceof TagHelper)
+            return getTagLabelMenu((TagHelper) ref);
+        else if (ref instanceof BranchHelper)
+            return getBranchLabelMenu((BranchHelper) ref);
+        return null;
+    }
+
     /**
      * Constructs and returns a context menu corresponding to the given tag. Will
      * be shown on right click on the tag label
@@ -377,12 +579,16 @@ public class CommitTreeModel{
         ContextMenu contextMenu = new ContextMenu();
 
         MenuItem checkoutItem = new MenuItem("Checkout");
-        checkoutItem.setOnAction(event -> CommitTreeController.sessionController.checkoutBranch(branch) );
+        checkoutItem.setOnAction(event -> controller.sessionController.checkoutBranch(branch) );
 
         MenuItem deleteitem = new MenuItem("Delete");
-        deleteitem.setOnAction(event -> CommitTreeController.sessionController.deleteBranch(branch) );
+        deleteitem.setOnAction(event -> controller.sessionController.deleteBranch(branch) );
+
+        MenuItem showOnlyItem = new MenuItem("Show only this branch");
+        showOnlyItem.setOnAction(event -> controller.sessionController.applyHistoryFilter(
+                HistoryFilter.selected(Collections.singletonList(branch.getRefPathString()))));
 
-        contextMenu.getItems().addAll(checkoutItem, deleteitem);
+        contextMenu.getItems().addAll(checkoutItem, deleteitem, new SeparatorMenuItem(), showOnlyItem);
 
         return contextMenu;
     }
@@ -400,7 +606,7 @@ public class CommitTreeModel{
         MenuItem checkoutItem = new MenuItem("Checkout files...");
         checkoutItem.setOnAction(event -> {
             logger.info("Checkout files from commit button clicked");
-            CommitTreeController.sessionController.handleCheckoutFilesButton(commit);
+            controller.sessionController.handleCheckoutFilesButton(commit);
         });
         Menu relativesMenu = getRelativesMenu(commit);
         Menu revertMenu = getRevertMenu(commit);
@@ -422,19 +628,19 @@ public class CommitTreeModel{
         MenuItem parentsItem = new MenuItem("Parents");
         parentsItem.setOnAction(event -> {
             logger.info("Selected see parents");
-            CommitTreeController.selectCommit(commit.getId(), true, false, false);
+            controller.selectCommit(commit.getId(), true, false, false);
         });
 
         MenuItem childrenItem = new MenuItem("Children");
         childrenItem.setOnAction(event -> {
             logger.info("Selected see children");
-            CommitTreeController.selectCommit(commit.getId(), false, true, false);
+            controller.selectCommit(commit.getId(), false, true, false);
         });
 
         MenuItem parentsAndChildrenItem = new MenuItem("Both");
         parentsAndChildrenItem.setOnAction(event -> {
             logger.info("Selected see children and parents");
-            CommitTreeController.selectCommit(commit.getId(), true, true, false);
+            controller.selectCommit(commit.getId(), true, true, false);
         });
 
         relativesMenu.getItems().setAll(parentsItem, childrenItem, parentsAndChildrenItem);
@@ -451,16 +657,16 @@ public class CommitTreeModel{
         Menu revertMenu = new Menu("Revert...");
         MenuItem revertItem = new MenuItem("Revert this commit");
         MenuItem revertMultipleItem = new MenuItem("Revert multiple commits...");
-        revertMultipleItem.disableProperty().bind(CommitTreeController.multipleNotSelectedProperty);
+        revertMultipleItem.disableProperty().bind(controller.multipleNotSelectedProperty);
         MenuItem helpItem = new MenuItem("Help");
 
-        revertItem.setOnAction(event -> CommitTreeController.sessionController.handleRevertButton(commit));
+        revertItem.setOnAction(event -> controller.sessionController.handleRevertButton(commit));
 
         revertMultipleItem.setOnAction(event -> {
             // Some fancy lambda syntax and collect call
             List<CommitHelper> commits = commitsInModel.stream().filter(commitHelper ->
-                    CommitTreeController.getSelectedIds().contains(commitHelper.getName())).collect(Collectors.toList());
-            CommitTreeController.sessionController.handleRevertMultipleButton(commits);
+                    controller.getSelectedIds().contains(commitHelper.getName())).collect(Collectors.toList());
+            controller.sessionController.handleRevertMultipleButton(commits);
         });
 
         helpItem.setOnAction(event -> PopUpWindows.showRevertHelpAlert());
@@ -476,7 +682,7 @@ public class CommitTreeModel{
         MenuItem helpItem = new MenuItem("Help");
         Menu advancedMenu = getAdvancedResetMenu(commit);
 
-        resetItem.setOnAction(event -> CommitTreeController.sessionController.handleResetButton(commit));
+        resetItem.setOnAction(event -> controller.sessionController.handleResetButton(commit));
 
         helpItem.setOnAction(event -> PopUpWindows.showResetHelpAlert());
 
@@ -492,11 +698,11 @@ public class CommitTreeModel{
         MenuItem softItem = new MenuItem("reset --soft");
 
         hardItem.setOnAction(event ->
-                CommitTreeController.sessionController.handleAdvancedResetButton(commit, ResetCommand.ResetType.HARD));
+                controller.sessionController.handleAdvancedResetButton(commit, ResetCommand.ResetType.HARD));
         mixedItem.setOnAction(event ->
-                CommitTreeController.sessionController.handleAdvancedResetButton(commit, ResetCommand.ResetType.MIXED));
+                controller.sessionController.handleAdvancedResetButton(commit, ResetCommand.ResetType.MIXED));
         softItem.setOnAction(event ->
-                CommitTreeController.sessionController.handleAdvancedResetButton(commit, ResetCommand.ResetType.SOFT));
+                controller.sessionController.handleAdvancedResetButton(commit, ResetCommand.ResetType.SOFT));
 
         resetMenu.getItems().setAll(hardItem, mixedItem, softItem);
 
@@ -508,7 +714,7 @@ public class CommitTreeModel{
      */
     public void updateView() throws IOException{
         if(this.sessionModel != null && this.sessionModel.getCurrentRepoHelper() != null){
-            CommitTreeController.update(this);
+            controller.update(this);
         }else{
             view.displayEmptyView();
         }
@@ -519,7 +725,7 @@ public class CommitTreeModel{
      */
     private void initView(){
         if(this.sessionModel != null && this.sessionModel.getCurrentRepoHelper() != null){
-            CommitTreeController.init(this);
+            controller.init(this);
         }else{
             view.displayEmptyView();
         }
@@ -532,6 +738,8 @@ public class CommitTreeModel{
      * @param tracked whether or not the commit is the head of a tracked branch
      */
     public void setCommitAsBranchHead(CommitHelper helper, boolean tracked) {
+        // The history filter may leave the head out of the tree
+        if (!isInTree(helper)) return;
         String commitId;
         commitId = helper.getId();
         CellShape shape = (tracked) ? Cell.TRACKED_BRANCH_HEAD_SHAPE : Cell.UNTRACKED_BRANCH_HEAD_SHAPE;
@@ -551,20 +759,32 @@ public class CommitTreeModel{
     public void updateAllRefLabels() {
         RepoHelper repo = sessionModel.getCurrentRepoHelper();
 
+        List<RefHelper> allRefHelpers = new ArrayList<>();
+        allRefHelpers.addAll(repo.getBranchModel().getAllBranches());
+        allRefHelpers.addAll(repo.getTagModel().getAllTags());
+
+        // Refs whose heads are in a page that hasn't been read yet, or that the history
+        // filter leaves out, have no cell to be shown on
         List<RefHelper> refHelpers = new ArrayList<>();
-        refHelpers.addAll(repo.getBranchModel().getAllBranches());
-        refHelpers.addAll(repo.getTagModel().getAllTags());
+        for (RefHelper helper : allRefHelpers) {
+            if (isInTree(helper.getCommit())) refHelpers.add(helper);
+        }
 
         List<RemoteBranchHelper> remotes = repo.getBranchModel().getRemoteBranchesTyped();
 
-        Map<RefHelper, ContextMenu> menuMap = new HashMap<>();
         List<String> remoteBranches = new ArrayList<>();
 
         this.tagsInModel = repo.getTagModel().getAllTags();
 
         Map<String, List<RefHelper>> commitLabelMap = new HashMap<>();
 
-        addCommitRefMaps(refHelpers, commitLabelMap, menuMap);
+        addCommitRefMaps(refHelpers, commitLabelMap);
+
+        Map<String, String> refCommits = new HashMap<>();
+        for (RefHelper helper : refHelpers) {
+            refCommits.put(helper.getRefName(), helper.getCommit().getId());
+        }
+        searchIndex.setRefs(refCommits);
 
         for (RemoteBranchHelper helper : remotes) {
             remoteBranches.add(helper.getRefName());
@@ -578,27 +798,27 @@ public class CommitTreeModel{
                     //System.out.println("Does not yet contain "+commit);
                     continue;
                 }
-                String displayLabel = repo.getCommitDescriptorString(commit, false);
-                treeGraph.treeGraphModel.setCellLabels(commit, displayLabel, commitLabelMap.get(commit));
+                treeGraph.treeGraphModel.setCellLabels(commit, commitLabelMap.get(commit));
                 treeGraph.treeGraphModel.setCurrentCellLabels(commit, this.sessionModel.getCurrentRepoHelper().getBranchModel().getCurrentAbbrevBranches());
 
-                treeGraph.treeGraphModel.setLabelMenus(commit, menuMap);
                 treeGraph.treeGraphModel.setRemoteBranchCells(commit, remoteBranches);
             }
         }
     }
 
-    private void addCommitRefMaps(List<RefHelper> helpers, Map<String, List<RefHelper>> commitLabelMap,
-                                                          Map<RefHelper, ContextMenu> menuMap) {
+    /**
+     * @param commit a commit, or null
+     * @return whether the commit has a cell in the tree
+     */
+    private boolean isInTree(CommitHelper commit) {
+        return commit != null && treeGraph.treeGraphModel.containsID(commit.getId());
+    }
+
+    private void addCommitRefMaps(List<RefHelper> helpers, Map<String, List<RefHelper>> commitLabelMap) {
         String commitId;
         for (RefHelper helper : helpers) {
             commitId = helper.getCommit().getId();
 
-            if (helper instanceof TagHelper)
-                menuMap.put(helper, getTagLabelMenu((TagHelper)helper));
-            else
-                menuMap.put(helper, getBranchLabelMenu((BranchHelper)helper));
-
             if (commitLabelMap.containsKey(commitId))
                 commitLabelMap.get(commitId).add(helper);
             else {
@@ -618,13 +838,30 @@ public class CommitTreeModel{
         this.branchesInModel = repo.getBranchModel().getAllBranches();
         for(String id : resetIDs){
             if(this.sessionModel.getCurrentRepoHelper().getCommit(id) != null) {
-                String displayLabel = repo.getCommitDescriptorString(id, false);
                 List<RefHelper> branchLabels = new ArrayList<>();
-                treeGraph.treeGraphModel.setCellLabels(id, displayLabel, branchLabels);
+                treeGraph.treeGraphModel.setCellLabels(id, branchLabels);
             }
         }
     }
 
+    /**
+     * Finds the commits in the tree that match a query, see CommitSearchIndex.search
+     * @param query the text to look for
+     * @param limit the most commits to return
+     * @return the matching commits
+     */
+    public List<CommitHelper> searchCommits(String query, int limit) {
+        RepoHelper repo = this.sessionModel.getCurrentRepoHelper();
+        List<CommitHelper> commits = new ArrayList<>();
+        if (repo == null) return commits;
+
+        for (String id : searchIndex.search(query, limit)) {
+            CommitHelper commit = repo.getCommit(id);
+            if (commit != null) commits.add(commit);
+        }
+        return commits;
+    }
+
     public List<TagHelper> getTagsToBePushed() {
         return tagsToBePushed;
     }
@@ -34,7 +34,7 @@ public class CommitTreePanelView extends Region{
      */
     private void initCommitTreeScrollPanes(TreeGraph treeGraph) {
         ScrollPane sp = treeGraph.getScrollPane();
-        sp.setOnMouseClicked(event -> CommitTreeController.handleMouseClicked());
+        sp.setOnMouseClicked(event -> treeGraph.getController().handleMouseClicked());
         getChildren().clear();
         getChildren().add(anchorScrollPane(sp));
         isLayoutThreadRunning = false;
@@ -80,7 +80,7 @@ public class CommitTreePanelView extends Region{
                 } finally {
                     isLayoutThreadRunning = false;
                 }
-                Platform.runLater(() -> CommitTreeController.focusCommitInGraph(commitToFocusOnLoad));
+                Platform.runLater(() -> treeGraph.getController().focusCommitInGraph(commitToFocusOnLoad));
                 return null;
             }
         };
@@ -1,137 +1,232 @@
 package elegit;
 
-import javafx.concurrent.Task;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by connellyj on 6/29/16.
  *
  * Class used to watch a conflictingRepoFile to see if it's been modified
- * after the user has been informed that the file was conflicting
+ * after the user has been informed that the file was conflicting.
+ *
+ * Each repository has its own watcher, with a thread that watches every directory
+ * containing one of its conflicting files through one WatchService, and notifies a
+ * listener as soon as one of those files is modified. The thread is only started
+ * once the repository has conflicting files to look for, and stops when the
+ * repository is closed.
  */
 
 public class ConflictingFileWatcher {
 
     // list of files that were modified after the user was informed they were conflicting
-    private static ArrayList<String> conflictingThenModifiedFiles = new ArrayList<>();
-    private static ArrayList<String> conflictingFiles = new ArrayList<>();
-    private static final long CONFLICT_CHECK_INTERVAL = 1000;
+    private final Set<String> conflictingThenModifiedFiles = ConcurrentHashMap.newKeySet();
+    private final Set<String> conflictingFiles = ConcurrentHashMap.newKeySet();
+
+    // The directories being watched, by the key they were registered with
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+
+    // Whether the conflicting files need to be looked up again
+    private final AtomicBoolean isScanNeeded = new AtomicBoolean(false);
+
+    // How long the watcher waits for events before it checks whether to scan, in milliseconds
+    private static final long SCAN_CHECK_INTERVAL = 500;
+
+    private final RepoHelper repo;
+
+    // Only ever touched by the watcher thread
+    private WatchService watchService;
+
+    private Thread watcherThread;
+    private volatile boolean isClosed = false;
+
+    // Called from the watcher thread whenever a conflicting file is modified
+    private volatile Runnable onConflictingFileModified;
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * @param repo the repository whose conflicting files to watch
+     */
+    ConflictingFileWatcher(RepoHelper repo) {
+        this.repo = repo;
+    }
 
     /**
-     * returns a list of the files that were conflicting and then recently modified
-     * @return ArrayList<String>
+     * returns the files that were conflicting and then recently modified
+     * @return Set<String>
      */
-    public static ArrayList<String> getConflictingThenModifiedFiles() {
-        return conflictingThenModifiedFiles;
+    public Set<String> getConflictingThenModifiedFiles() {
+        return Collections.unmodifiableSet(conflictingThenModifiedFiles);
     }
 
     /**
      * removes the given file from the list
      * @param fileToRemove String
      */
-    public static void removeFile(String fileToRemove) {
+    public void removeFile(String fileToRemove) {
         conflictingThenModifiedFiles.remove(fileToRemove);
     }
 
     /**
-     * Spins off a new thread to watch the directories that contain conflicting files
-     *
-     * @param currentRepo RepoHelper
-     * @throws GitAPIException
-     * @throws IOException
+     * Sets the action to run when a conflicting file is modified, e.g. refreshing the status
+     * of the repository. It runs on the watcher thread
+     * @param listener the action to run
      */
-    public static void watchConflictingFiles(RepoHelper currentRepo) throws GitAPIException, IOException {
+    public void setOnConflictingFileModified(Runnable listener) {
+        onConflictingFileModified = listener;
+    }
 
-        if(currentRepo == null) return;
+    /**
+     * Looks up the conflicting files of the repository and watches the directories
+     * that contain them. The lookup itself happens on the watcher thread
+     */
+    public synchronized void watchConflictingFiles() {
+        if(isClosed) return;
+
+        isScanNeeded.set(true);
+
+        if(watcherThread == null) {
+            watcherThread = new Thread(this::watch);
+            watcherThread.setDaemon(true);
+            watcherThread.setName("Conflicting file watcher");
+            watcherThread.setPriority(2);
+            watcherThread.start();
+        }
+    }
 
-        Thread watcherThread = new Thread(new Task<Void>() {
+    /**
+     * Stops watching. The watcher thread finishes within SCAN_CHECK_INTERVAL
+     */
+    public synchronized void close() {
+        isClosed = true;
+    }
 
-            @Override
-            protected Void call() throws IOException, GitAPIException {
-                // gets the conflicting files
-                Set<String> newConflictingFiles = (new Git(currentRepo.getRepo()).status().call()).getConflicting();
-                for(String newFile : newConflictingFiles) {
-                    if(!conflictingFiles.contains(newFile)) {
-                        conflictingFiles.add(newFile);
-                    }
-                }
-                // removes files that aren't conflicting anymore from conflictingThenModifiedFiles
-                for(String marked : conflictingThenModifiedFiles) {
-                    if(!conflictingFiles.contains(marked)) {
-                        conflictingThenModifiedFiles.remove(marked);
+    /**
+     * Body of the watcher thread. Waits for a watched directory to change, and scans
+     * the repository if it was asked to in the meantime every SCAN_CHECK_INTERVAL.
+     * The thread is never interrupted, since an interrupt would close any file
+     * channel it happens to be reading from
+     */
+    private void watch() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch(IOException e) {
+            logger.error("Could not create a watch service for conflicting files");
+            return;
+        }
+
+        try {
+            while(!isClosed) {
+                if(isScanNeeded.getAndSet(false)) {
+                    try {
+                        scan();
+                    } catch(GitAPIException | IOException e) {
+                        logger.error("Could not look up conflicting files");
                     }
                 }
 
-                // gets the path to the repo directory
-                Path directory = (new File(currentRepo.getRepo().getDirectory().getParent())).toPath();
+                WatchKey key;
+                try {
+                    key = watchService.poll(SCAN_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch(InterruptedException e) {
+                    return;
+                }
+                if(key == null || isClosed) continue;
 
-                // for each conflicting file, watch its parent directory
-                for(String fileToWatch : conflictingFiles) {
-                    Path fileToWatchPath = directory.resolve((new File(fileToWatch)).toPath()).getParent();
-                    watch(fileToWatchPath, fileToWatch);
+                if(handleEvents(key)) {
+                    Runnable listener = onConflictingFileModified;
+                    if(listener != null) listener.run();
                 }
-                return null;
             }
+        } finally {
+            try {
+                watchService.close();
+            } catch(IOException e) {
+                logger.warn("Could not close the watch service for conflicting files");
+            }
+            watchedDirectories.clear();
+        }
+    }
 
-            /**
-             * Spins off a new thread to watch each directory
-             * @param directoryToWatch Path
-             * @throws IOException
-             */
-            private void watch(Path directoryToWatch, String fileToWatch) throws IOException {
-                Thread watch = new Thread(new Task<Void>() {
-                    @Override
-                    protected Void call() throws IOException {
-                        // creates a WatchService
-                        WatchService watcher = FileSystems.getDefault().newWatchService();
-                        WatchKey key = directoryToWatch.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY);
-
-                        // while the file is conflicting, check to see if its been modified
-                        while(conflictingFiles.contains(fileToWatch)) {
-                            List<WatchEvent<?>> events = key.pollEvents();
-                            for(WatchEvent<?> event : events) {
-
-                                // if a conflicting file was modified, remove it from conflictingFiles and add it to conflictingThenModifiedFiles
-                                String path = event.context().toString();
-                                Path tmp = (new File(fileToWatch)).toPath();
-                                // the path in conflictingFiles is either the file name itself or a path that ends with the file name
-                                if(tmp.endsWith(path) || tmp.toString().equals(path)) {
-                                    conflictingFiles.remove(tmp.toString());
-                                    conflictingThenModifiedFiles.add(tmp.toString());
-                                }
-                            }
-                            boolean valid = key.reset();
-                            if(!valid) {
-                                break;
-                            }
-
-                            try{
-                                Thread.sleep(CONFLICT_CHECK_INTERVAL);
-                            }catch(InterruptedException e){
-                                // TODO: SOMETHING REASONABLE
-                            }
-
-                        }
-                        return null;
-                    }
-                });
-                watch.setDaemon(true);
-                watch.setName("watching a directory");
-                watch.setPriority(2);
-                watch.start();
+    /**
+     * Gets the conflicting files of the repository, forgets files that aren't conflicting
+     * anymore and makes sure exactly the directories containing conflicting files are watched
+     * @throws GitAPIException
+     * @throws IOException
+     */
+    private void scan() throws GitAPIException, IOException {
+        Path directory = repo.getRepo().getWorkTree().toPath();
+
+        // gets the conflicting files, without racing a merge or checkout that's writing the index
+        Set<String> newConflictingFiles;
+        repo.lockForReading();
+        try {
+            newConflictingFiles = new Git(repo.getRepo()).status().call().getConflicting();
+        } finally {
+            repo.unlockForReading();
+        }
+        conflictingFiles.retainAll(newConflictingFiles);
+        conflictingThenModifiedFiles.retainAll(newConflictingFiles);
+        for(String newFile : newConflictingFiles) {
+            if(!conflictingThenModifiedFiles.contains(newFile)) {
+                conflictingFiles.add(newFile);
+            }
+        }
+
+        // for each conflicting file, watch its parent directory
+        Set<Path> directoriesToWatch = new HashSet<>();
+        for(String fileToWatch : conflictingFiles) {
+            directoriesToWatch.add(directory.resolve(fileToWatch).getParent());
+        }
+        for(Map.Entry<WatchKey, Path> entry : watchedDirectories.entrySet()) {
+            if(!directoriesToWatch.remove(entry.getValue())) {
+                entry.getKey().cancel();
+                watchedDirectories.remove(entry.getKey());
+            }
+        }
+        for(Path directoryToWatch : directoriesToWatch) {
+            WatchKey key = directoryToWatch.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedDirectories.put(key, directoryToWatch);
+        }
+    }
+
+    /**
+     * Moves each conflicting file that was modified from conflictingFiles to
+     * conflictingThenModifiedFiles
+     * @param key the key that was signalled
+     * @return true if any conflicting file was modified
+     */
+    private boolean handleEvents(WatchKey key) {
+        Path directory = watchedDirectories.get(key);
+        boolean hasModifiedConflictingFile = false;
+
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(directory == null || event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+
+            Path modified = directory.resolve((Path) event.context());
+            String modifiedFile = repo.getRepo().getWorkTree().toPath().relativize(modified).toString().replace(File.separatorChar, '/');
+            if(conflictingFiles.remove(modifiedFile)) {
+                conflictingThenModifiedFiles.add(modifiedFile);
+                hasModifiedConflictingFile = true;
             }
-        });
+        }
 
-        watcherThread.setDaemon(true);
-        watcherThread.setName("initializing a watcher");
-        watcherThread.start();
+        if(!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return hasModifiedConflictingFile;
     }
 }
@@ -5,7 +5,6 @@ import javafx.application.Platform;
 import javafx.scene.control.*;
 import javafx.scene.control.Button;
 import javafx.scene.control.Dialog;
-import javafx.scene.control.MenuItem;
 import javafx.scene.image.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -35,11 +34,7 @@ public class ConflictingRepoFile extends RepoFile {
 
     public ConflictingRepoFile(Path filePath, RepoHelper repo) {
         super(filePath, repo);
-        diffButton.setText("CONFLICTING");
-        diffButton.setId("conflictingDiffButton");
-        diffButton.setTooltip(getToolTip("This file caused a merge conflict.\nEdit the file to fix the conflict."));
-        MenuItem resolveMerge = new MenuItem("Resolve conflict...");
-        contextMenu.getItems().add(resolveMerge);
+        setStatus("CONFLICTING", "conflictingDiffButton", "This file caused a merge conflict.\nEdit the file to fix the conflict.");
     }
 
     public ConflictingRepoFile(String filePathString, RepoHelper repo) {
@@ -0,0 +1,149 @@
+package elegit;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A size-capped, least-recently-used cache of computed diffs. A diff is looked
+ * up by the blobs of its file in HEAD and in the index, plus the size and
+ * modification time of the file in the working tree, so any change to the
+ * file on either side makes its old entry unreachable.
+ */
+public class DiffCache {
+
+    // Rough per-entry bookkeeping overhead, in bytes
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final long maxBytes;
+    private long currentBytes;
+
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxBytes approximately how much memory the cached diffs may take up
+     */
+    public DiffCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.currentBytes = 0;
+        // Access order, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.hitCount = 0;
+        this.missCount = 0;
+    }
+
+    /**
+     * @param key the file and versions the diff is between
+     * @return the cached diff, or null if it isn't cached
+     */
+    public synchronized FileDiff get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.diff;
+    }
+
+    /**
+     * Caches a diff, evicting the least recently used diffs until everything
+     * fits. Diffs that are larger than the whole cache aren't cached
+     * @param key the file and versions the diff is between
+     * @param diff the diff
+     */
+    public synchronized void put(Key key, FileDiff diff) {
+        long size = ENTRY_OVERHEAD + diff.getSize();
+        if (size > maxBytes) return;
+
+        Entry old = entries.put(key, new Entry(diff, size));
+        if (old != null) currentBytes -= old.size;
+        currentBytes += size;
+
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            currentBytes -= iterator.next().getValue().size;
+            iterator.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Identifies one version of the diff of one file: the file's blob in HEAD and
+     * in the index (either may be null if the file isn't there), and the size and
+     * modification time of the file in the working tree (-1 if it doesn't exist)
+     */
+    public static class Key {
+        private final Path repoDirectory;
+        private final String path;
+        private final ObjectId headBlobId;
+        private final ObjectId indexBlobId;
+        private final long lastModified;
+        private final long length;
+
+        public Key(Path repoDirectory, String path, ObjectId headBlobId, ObjectId indexBlobId,
+                   long lastModified, long length) {
+            this.repoDirectory = repoDirectory;
+            this.path = path;
+            this.headBlobId = headBlobId == null ? null : headBlobId.copy();
+            this.indexBlobId = indexBlobId == null ? null : indexBlobId.copy();
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return lastModified == other.lastModified
+                    && length == other.length
+                    && Objects.equals(repoDirectory, other.repoDirectory)
+                    && Objects.equals(path, other.path)
+                    && Objects.equals(headBlobId, other.headBlobId)
+                    && Objects.equals(indexBlobId, other.indexBlobId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(repoDirectory, path, headBlobId, indexBlobId, lastModified, length);
+        }
+    }
+
+    private static class Entry {
+        final FileDiff diff;
+        final long size;
+
+        Entry(FileDiff diff, long size) {
+            this.diff = diff;
+            this.size = size;
+        }
+    }
+}
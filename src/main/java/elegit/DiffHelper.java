@@ -1,31 +1,37 @@
 package elegit;
 
-import javafx.geometry.Insets;
-import javafx.scene.control.ScrollPane;
-import javafx.scene.layout.VBox;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.scene.Node;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
 import javafx.scene.text.Text;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.diff.DiffFormatter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.AbstractTreeIterator;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
-import org.eclipse.jgit.treewalk.FileTreeIterator;
-import org.eclipse.jgit.treewalk.filter.PathFilter;
-
-import java.io.ByteArrayOutputStream;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  *
  * A DiffHelper helps interact with the diff for a given file in a repository.
- * This class reads, formats, and returns the string in a ScrollPane.
+ * This class reads and formats the diff off the FX thread, and streams its lines
+ * into a virtualized ListView as they are produced. Very long diffs are cut off
+ * after MAX_LINES lines, with an item the user can click to format the next lines
+ * from where the last ones stopped. Diffs are kept in a DiffCache until the file
+ * changes.
  *
  *  ---
  *
@@ -40,93 +46,261 @@ import java.util.ArrayList;
  */
 public class DiffHelper {
 
+    // Number of lines shown at first, and added each time the user expands the diff
+    static final int MAX_LINES = 2000;
+    // Number of lines handed to the FX thread at a time
+    private static final int BATCH_SIZE = 200;
+
+    // Complete diffs, shared by all DiffHelpers
+    private static final DiffCache cache = new DiffCache(32 * 1024 * 1024);
+
     Repository repo;
+    RepoHelper repoHelper;
     String pathFilter;
 
+    private volatile boolean isCancelled;
+
+    static final Logger logger = LogManager.getLogger();
+
     public DiffHelper(Path relativeFilePath, RepoHelper repo) throws IOException {
         this.repo = repo.getRepo();
-        this.pathFilter = relativeFilePath.toString();
+        this.repoHelper = repo;
+        this.pathFilter = relativeFilePath.toString().replaceAll("\\\\","/");
+        this.isCancelled = false;
+    }
+
+    /**
+     * Creates a list view that fills up with the lines of the diff as they are
+     * computed in the background. Only the visible lines get a node
+     *
+     * @return the view of the diff
+     */
+    public Node getDiffView() {
+        ObservableList<DiffLine> lines = FXCollections.observableArrayList();
+
+        ListView<DiffLine> listView = new ListView<>(lines);
+        listView.setCellFactory(view -> new DiffLineCell(lines));
+        listView.getStyleClass().add("diffList");
+        listView.setPrefSize(800, 400);
+        listView.setMaxWidth(800);
+        listView.setMaxHeight(400);
+
+        loadLines(lines);
+
+        return listView;
     }
 
-    private String getDiffString() throws GitAPIException, IOException {
-        ObjectId head = this.repo.resolve("HEAD");
-        if(head == null) return "";
+    /**
+     * Stops computing the diff, e.g. because its view was closed
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * Starts a background task that reads the diff and appends its first MAX_LINES
+     * lines to the given list
+     * @param lines the list backing the view
+     */
+    private void loadLines(ObservableList<DiffLine> lines) {
+        OperationScheduler.submit("Diff of " + pathFilter, OperationScheduler.Priority.INTERACTIVE, new Task<Void>() {
+            @Override
+            protected Void call() {
+                Iterator<DiffLine> diffLines;
+                repoHelper.lockForReading();
+                try {
+                    diffLines = readDiff();
+                } catch (IOException e) {
+                    logger.error("IOException while computing diff");
+                    logger.debug(e.getStackTrace());
+                    return null;
+                } finally {
+                    repoHelper.unlockForReading();
+                }
+                showLines(lines, diffLines);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Starts a background task that appends the next MAX_LINES lines of a diff
+     * that was cut off to the given list
+     * @param lines the list backing the view
+     * @param rest the lines after the ones that are shown
+     */
+    private void loadMoreLines(ObservableList<DiffLine> lines, Iterator<DiffLine> rest) {
+        OperationScheduler.submit("Diff of " + pathFilter, OperationScheduler.Priority.INTERACTIVE, new Task<Void>() {
+            @Override
+            protected Void call() {
+                showLines(lines, rest);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Reads the diff between HEAD and the working tree version of the file. Only the
+     * one file is read: its blob is looked up by path in HEAD, and the working tree
+     * isn't scanned. Diffs are cached, so reopening the diff of a file that hasn't
+     * changed doesn't read or diff it again
+     * @return the lines of the diff, which are formatted as they're asked for
+     * @throws IOException
+     */
+    private Iterator<DiffLine> readDiff() throws IOException {
+        ObjectId headTree = this.repo.resolve(Constants.HEAD + "^{tree}");
+        if(headTree == null) return Collections.emptyIterator();
+
+        ObjectId headBlobId = null;
+        try (TreeWalk walk = TreeWalk.forPath(this.repo, this.pathFilter, headTree)) {
+            if (walk != null) headBlobId = walk.getObjectId(0);
+        }
+        DirCacheEntry indexEntry = this.repo.readDirCache().getEntry(this.pathFilter);
+        ObjectId indexBlobId = indexEntry == null ? null : indexEntry.getObjectId();
 
-        // The following code is largely written by Tk421 on StackOverflow
-        //      (http://stackoverflow.com/q/23486483)
-        // Thanks! NOTE: comments are mine.
-        ByteArrayOutputStream diffOutputStream = new ByteArrayOutputStream();
-        DiffFormatter formatter = new DiffFormatter(diffOutputStream);
-        formatter.setRepository(this.repo);
-        formatter.setPathFilter(PathFilter.create(this.pathFilter.replaceAll("\\\\","/")));
+        File workTreeFile = new File(this.repo.getWorkTree(), this.pathFilter);
+        boolean isInWorkTree = workTreeFile.isFile();
+        if (headBlobId == null && !isInWorkTree) return Collections.emptyIterator();
 
-        AbstractTreeIterator commitTreeIterator = prepareTreeParser(this.repo, head.getName());
-        FileTreeIterator workTreeIterator = new FileTreeIterator(this.repo);
+        DiffCache.Key key = new DiffCache.Key(this.repo.getWorkTree().toPath(), this.pathFilter,
+                headBlobId, indexBlobId,
+                isInWorkTree ? workTreeFile.lastModified() : -1,
+                isInWorkTree ? workTreeFile.length() : -1);
+        FileDiff diff = cache.get(key);
+        if (diff == null) {
+            diff = FileDiff.read(this.repo, this.pathFilter, headBlobId, isInWorkTree);
+            cache.put(key, diff);
+        }
+        return new DiffLines(diff);
+    }
 
-        // Scan gets difference between the two iterators.
-        formatter.format(commitTreeIterator, workTreeIterator);
+    /**
+     * Hands up to MAX_LINES lines of a diff to the FX thread in batches. If there are
+     * more, a line that loads the rest is added at the end, and the formatter carries
+     * on from where it stopped when it's clicked
+     * @param lines the list backing the view
+     * @param diffLines the lines of the diff that aren't shown yet
+     */
+    private void showLines(ObservableList<DiffLine> lines, Iterator<DiffLine> diffLines) {
+        List<DiffLine> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < MAX_LINES && diffLines.hasNext(); i++) {
+            if (isCancelled) return;
+            DiffLine line = diffLines.next();
+            batch.add(line);
+            if (batch.size() >= BATCH_SIZE) {
+                publish(lines, batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
 
-        return diffOutputStream.toString();
+        if (diffLines.hasNext()) batch.add(DiffLine.expand(diffLines));
+        publish(lines, batch);
     }
 
-    private ArrayList<Text> getColoredDiffList() throws GitAPIException, IOException {
-        String diffText = this.getDiffString();
+    private void publish(ObservableList<DiffLine> lines, List<DiffLine> batch) {
+        if (batch.isEmpty() || isCancelled) return;
+        Platform.runLater(() -> lines.addAll(batch));
+    }
 
-        ArrayList<Text> coloredDiffList = new ArrayList<>();
+    /**
+     * A single line of a diff, along with the style it is shown in
+     */
+    static class DiffLine {
+        final String text;
+        final String styleId;
+        // The lines after this one if it marks a truncated diff, otherwise null
+        final Iterator<DiffLine> rest;
 
-        String[] lines = diffText.split("\n");
-        for (String line : lines) {
-            Text text = new Text(line);
-            text.getStyleClass().add("diffText");
+        private DiffLine(String text, String styleId, Iterator<DiffLine> rest) {
+            this.text = text;
+            this.styleId = styleId;
+            this.rest = rest;
+        }
 
+        static DiffLine parse(String line) {
             if (line.length() > 0 && line.charAt(0) == '+') {
-                text.setId("addedDiffText");
+                return new DiffLine(line, "addedDiffText", null);
             } else if (line.length() > 0 && line.charAt(0) == '-') {
-                text.setId("deletedDiffText");
+                return new DiffLine(line, "deletedDiffText", null);
             } else if (line.length() > 1 && line.charAt(0) == '@' && line.charAt(1) == '@') {
-                text.setId("gitAnnotationDiffText");
+                return new DiffLine(line, "gitAnnotationDiffText", null);
             } else {
-                text.setText(" "+text.getText());
-                text.setId("unchangedDiffText");
+                return new DiffLine(" " + line, "unchangedDiffText", null);
             }
-            coloredDiffList.add(text);
         }
 
-        return coloredDiffList;
+        static DiffLine annotation(String text) {
+            return new DiffLine(text, "gitAnnotationDiffText", null);
+        }
+
+        static DiffLine expand(Iterator<DiffLine> rest) {
+            return new DiffLine("Diff truncated. Click to show the next " + MAX_LINES + " lines...",
+                    "gitAnnotationDiffText", rest);
+        }
     }
 
-    public ScrollPane getDiffScrollPane() throws GitAPIException, IOException {
-        ScrollPane scrollPane = new ScrollPane();
+    /**
+     * A reusable cell that shows a diff line as a single Text node. Clicking the
+     * line that marks a truncated diff loads more lines
+     */
+    private class DiffLineCell extends ListCell<DiffLine> {
+        private final Text text;
 
-        VBox verticalListOfColoredDiffs = new VBox();
-        verticalListOfColoredDiffs.getChildren().setAll(this.getColoredDiffList());
-        
-        scrollPane.setContent(verticalListOfColoredDiffs);
+        DiffLineCell(ObservableList<DiffLine> lines) {
+            this.text = new Text();
+            this.text.getStyleClass().add("diffText");
 
-        scrollPane.setFitToHeight(true);
-        scrollPane.setFitToWidth(true);
+            setOnMouseClicked(event -> {
+                DiffLine item = getItem();
+                if (item != null && item.rest != null) {
+                    lines.remove(item);
+                    loadMoreLines(lines, item.rest);
+                }
+            });
+        }
 
-        scrollPane.setMaxWidth(800);
-        scrollPane.setMaxHeight(400);
+        @Override
+        protected void updateItem(DiffLine item, boolean empty) {
+            super.updateItem(item, empty);
+            if (empty || item == null) {
+                setGraphic(null);
+            } else {
+                text.setText(item.text);
+                text.setId(item.styleId);
+                setGraphic(text);
+            }
+        }
+    }
 
-        scrollPane.setPadding(new Insets(0, 0, 0, 10));
+    /**
+     * The header lines of a diff followed by the lines of its hunks, which are
+     * formatted one at a time
+     */
+    private static class DiffLines implements Iterator<DiffLine> {
+        private final Iterator<String> header;
+        private String message;
+        private final DiffLineIterator hunks;
 
-        return scrollPane;
-    }
+        DiffLines(FileDiff diff) {
+            this.header = diff.getHeader().iterator();
+            this.message = diff.getMessage();
+            this.hunks = diff.getHunkLines();
+        }
 
-    private static AbstractTreeIterator prepareTreeParser(Repository repository, String objectId) throws IOException {
-        // from the commit we can build the tree which allows us to construct the TreeParser
-        try (RevWalk walk = new RevWalk(repository)){
-            RevCommit commit = walk.parseCommit(ObjectId.fromString(objectId));
-            RevTree tree = walk.parseTree(commit.getTree().getId());
+        @Override
+        public boolean hasNext() {
+            return header.hasNext() || message != null || (hunks != null && hunks.hasNext());
+        }
 
-            CanonicalTreeParser oldTreeParser = new CanonicalTreeParser();
-            try (ObjectReader oldReader = repository.newObjectReader()){
-                oldTreeParser.reset(oldReader, tree.getId());
+        @Override
+        public DiffLine next() {
+            if (header.hasNext()) return DiffLine.parse(header.next());
+            if (message != null) {
+                DiffLine line = DiffLine.annotation(message);
+                message = null;
+                return line;
             }
-
-            walk.dispose();
-            return oldTreeParser;
+            return DiffLine.parse(hunks.next());
         }
     }
 }
@@ -0,0 +1,137 @@
+package elegit;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Produces the lines of a unified diff one at a time, the same lines JGit's
+ * DiffFormatter writes for the hunks of an edit list. It only ever looks at the
+ * next line, so a long diff can be shown a page at a time, carrying on from
+ * where the last page stopped instead of formatting the diff again.
+ */
+public class DiffLineIterator implements Iterator<String> {
+
+    // Number of unchanged lines shown around each change, same as DiffFormatter's default
+    static final int CONTEXT_LINES = 3;
+
+    static final String NO_NEWLINE = "\\ No newline at end of file";
+
+    private final EditList edits;
+    private final RawText oldText;
+    private final RawText newText;
+
+    // The first edit of the next hunk
+    private int nextHunk;
+
+    // The current hunk: the edit being written, the last edit in the hunk and
+    // where the hunk is up to on each side
+    private boolean isInHunk;
+    private int curIdx;
+    private int endIdx;
+    private int aCur;
+    private int bCur;
+    private int aEnd;
+    private int bEnd;
+
+    private boolean isNoNewlinePending;
+
+    /**
+     * @param edits the edits from the old text to the new one
+     * @param oldText the old text
+     * @param newText the new text
+     */
+    public DiffLineIterator(EditList edits, RawText oldText, RawText newText) {
+        this.edits = edits;
+        this.oldText = oldText;
+        this.newText = newText;
+        this.nextHunk = 0;
+        this.isInHunk = false;
+        this.isNoNewlinePending = false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return isNoNewlinePending || isInHunk || nextHunk < edits.size();
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+
+        if (isNoNewlinePending) {
+            isNoNewlinePending = false;
+            return NO_NEWLINE;
+        }
+        if (!isInHunk) return startHunk();
+
+        String line;
+        if (curIdx > endIdx || aCur < edits.get(curIdx).getBeginA()) {
+            line = " " + oldText.getString(aCur);
+            isNoNewlinePending = isEndOfLineMissing(oldText, aCur);
+            aCur++;
+            bCur++;
+        } else if (aCur < edits.get(curIdx).getEndA()) {
+            line = "-" + oldText.getString(aCur);
+            isNoNewlinePending = isEndOfLineMissing(oldText, aCur);
+            aCur++;
+        } else {
+            line = "+" + newText.getString(bCur);
+            isNoNewlinePending = isEndOfLineMissing(newText, bCur);
+            bCur++;
+        }
+
+        while (curIdx <= endIdx && edits.get(curIdx).getEndA() <= aCur && edits.get(curIdx).getEndB() <= bCur) {
+            curIdx++;
+        }
+        if (aCur >= aEnd && bCur >= bEnd) {
+            isInHunk = false;
+            nextHunk = endIdx + 1;
+        }
+        return line;
+    }
+
+    /**
+     * Works out the extent of the next hunk, merging edits that are close enough
+     * for their context to touch
+     * @return the header of the hunk
+     */
+    private String startHunk() {
+        curIdx = nextHunk;
+        endIdx = curIdx;
+        while (endIdx + 1 < edits.size()
+                && (edits.get(endIdx + 1).getBeginA() - edits.get(endIdx).getEndA() <= 2 * CONTEXT_LINES
+                || edits.get(endIdx + 1).getBeginB() - edits.get(endIdx).getEndB() <= 2 * CONTEXT_LINES)) {
+            endIdx++;
+        }
+
+        Edit curEdit = edits.get(curIdx);
+        Edit endEdit = edits.get(endIdx);
+        aCur = Math.max(0, curEdit.getBeginA() - CONTEXT_LINES);
+        bCur = Math.max(0, curEdit.getBeginB() - CONTEXT_LINES);
+        aEnd = Math.min(oldText.size(), endEdit.getEndA() + CONTEXT_LINES);
+        bEnd = Math.min(newText.size(), endEdit.getEndB() + CONTEXT_LINES);
+        isInHunk = true;
+
+        return "@@ " + formatRange('-', aCur + 1, aEnd - aCur) + " " + formatRange('+', bCur + 1, bEnd - bCur) + " @@";
+    }
+
+    private static String formatRange(char prefix, int begin, int count) {
+        switch (count) {
+            case 0:
+                // An empty range starts at the line before it
+                return prefix + String.valueOf(begin - 1) + ",0";
+            case 1:
+                return prefix + String.valueOf(begin);
+            default:
+                return prefix + String.valueOf(begin) + "," + count;
+        }
+    }
+
+    private static boolean isEndOfLineMissing(RawText text, int line) {
+        return line + 1 == text.size() && text.isMissingNewlineAtEnd();
+    }
+}
@@ -14,7 +14,7 @@ public class DirectoryRepoFile extends RepoFile {
 
     public DirectoryRepoFile(Path filePath, RepoHelper repo) {
         super(filePath, repo);
-        this.diffButton = null;
+        setStatus(null, null, null);
         this.children = new ArrayList<>();
         this.showFullPath = false;
     }
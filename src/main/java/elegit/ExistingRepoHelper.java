@@ -21,7 +21,16 @@ public class ExistingRepoHelper extends RepoHelper {
 
     ExistingRepoHelper(Path directoryPath, UserInfo userInfo) throws IOException, GitAPIException,
             CancelledAuthorizationException{
+        this(directoryPath, userInfo, HISTORY_PAGE_SIZE);
+    }
+
+    /**
+     * @param historyPageSize how many commits are read at a time
+     */
+    ExistingRepoHelper(Path directoryPath, UserInfo userInfo, int historyPageSize) throws IOException, GitAPIException,
+            CancelledAuthorizationException{
         super(directoryPath, userInfo);
+        this.historyPageSize = historyPageSize;
         repo = obtainRepository();
         setup();
     }
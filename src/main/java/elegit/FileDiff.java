@@ -0,0 +1,161 @@
+package elegit;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.util.IO;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The diff between the HEAD and working tree versions of one file, ready to be
+ * formatted: the two texts and the edits between them, or a message saying why
+ * there's no diff to show. The lines of the diff are only formatted when they're
+ * asked for, so a diff can be cached and shown again without keeping its lines.
+ *
+ * The working tree version goes through the same clean filters and line ending
+ * conversion as it would when it's added, so files with CRLF line endings or
+ * filters don't show up as changed everywhere.
+ */
+public class FileDiff {
+
+    // Files larger than this aren't diffed, same as JGit's default
+    static final int BIG_FILE_THRESHOLD = 50 * 1024 * 1024;
+
+    private final List<String> header;
+    private final String message;
+    private final RawText oldText;
+    private final RawText newText;
+    private final EditList edits;
+    private final long size;
+
+    private FileDiff(List<String> header, String message, RawText oldText, RawText newText, EditList edits, long size) {
+        this.header = Collections.unmodifiableList(header);
+        this.message = message;
+        this.oldText = oldText;
+        this.newText = newText;
+        this.edits = edits;
+        this.size = size;
+    }
+
+    /**
+     * Reads the HEAD and working tree versions of a file and diffs them. Only the
+     * directories on the file's path are listed, the rest of the working tree isn't scanned
+     * @param repo the repository the file is in
+     * @param path the path of the file, relative to the work tree and separated by /
+     * @param headBlobId the blob of the file in HEAD, or null if it isn't in HEAD
+     * @param isInWorkTree whether the file is in the working tree
+     * @return the diff of the file
+     * @throws IOException if the file or its blob can't be read
+     */
+    public static FileDiff read(Repository repo, String path, ObjectId headBlobId, boolean isInWorkTree) throws IOException {
+        List<String> header = Arrays.asList(
+                headBlobId == null ? "--- " + DiffEntry.DEV_NULL : "--- a/" + path,
+                isInWorkTree ? "+++ b/" + path : "+++ " + DiffEntry.DEV_NULL);
+
+        byte[] oldContent;
+        byte[] newContent;
+        try {
+            oldContent = headBlobId == null ? new byte[0]
+                    : repo.open(headBlobId, Constants.OBJ_BLOB).getCachedBytes(BIG_FILE_THRESHOLD);
+            newContent = isInWorkTree ? readWorkTreeFile(repo, path) : new byte[0];
+        } catch (LargeObjectException e) {
+            return new FileDiff(header, "File too large, no diff shown", null, null, null, 0);
+        }
+
+        DiffAlgorithm.SupportedAlgorithm algorithm = repo.getConfig().getEnum(
+                ConfigConstants.CONFIG_DIFF_SECTION, null,
+                ConfigConstants.CONFIG_KEY_ALGORITHM, DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+        return compute(header, oldContent, newContent, algorithm);
+    }
+
+    /**
+     * Diffs two versions of a file
+     * @param header the lines that come before the hunks
+     * @param oldContent the old version
+     * @param newContent the new version
+     * @param algorithm the diff algorithm to use
+     * @return the diff
+     */
+    static FileDiff compute(List<String> header, byte[] oldContent, byte[] newContent,
+                            DiffAlgorithm.SupportedAlgorithm algorithm) {
+        if (RawText.isBinary(oldContent) || RawText.isBinary(newContent)) {
+            return new FileDiff(header, "Binary file, no diff shown", null, null, null, 0);
+        }
+        RawText oldText = new RawText(oldContent);
+        RawText newText = new RawText(newContent);
+        EditList edits = DiffAlgorithm.getAlgorithm(algorithm).diff(RawTextComparator.DEFAULT, oldText, newText);
+        return new FileDiff(header, null, oldText, newText, edits, (long) oldContent.length + newContent.length);
+    }
+
+    /**
+     * Reads a file from the working tree the way it would be added to the index, i.e.
+     * through its clean filter and with its line endings converted
+     * @throws LargeObjectException if the file is larger than BIG_FILE_THRESHOLD
+     */
+    private static byte[] readWorkTreeFile(Repository repo, String path) throws IOException {
+        try (TreeWalk walk = new TreeWalk(repo)) {
+            walk.setOperationType(TreeWalk.OperationType.CHECKIN_OP);
+            walk.addTree(new FileTreeIterator(repo));
+            walk.setFilter(PathFilter.create(path));
+            walk.setRecursive(true);
+            while (walk.next()) {
+                if (!walk.getPathString().equals(path)) continue;
+
+                WorkingTreeIterator file = walk.getTree(0, WorkingTreeIterator.class);
+                if (file.getEntryLength() > BIG_FILE_THRESHOLD) throw new LargeObjectException();
+                try (InputStream in = file.openEntryStream()) {
+                    ByteBuffer buffer = IO.readWholeStream(in, (int) file.getEntryLength());
+                    byte[] content = new byte[buffer.remaining()];
+                    buffer.get(content);
+                    return content;
+                }
+            }
+        }
+        return new byte[0];
+    }
+
+    /**
+     * @return the lines that come before the hunks, e.g. --- a/file
+     */
+    public List<String> getHeader() {
+        return header;
+    }
+
+    /**
+     * @return why there are no hunks, e.g. the file is binary, or null if there are
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the lines of the hunks, formatted as they're asked for, or null if there is a message instead
+     */
+    public DiffLineIterator getHunkLines() {
+        return message == null ? new DiffLineIterator(edits, oldText, newText) : null;
+    }
+
+    /**
+     * @return roughly how much memory the diff takes up, in bytes
+     */
+    public long getSize() {
+        return size + 32L * (edits == null ? 0 : edits.size());
+    }
+}
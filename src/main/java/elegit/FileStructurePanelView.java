@@ -1,5 +1,6 @@
 package elegit;
 
+import elegit.controllers.SessionController;
 import javafx.application.Platform;
 import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
@@ -22,6 +23,9 @@ public abstract class FileStructurePanelView extends Region{
 
     public SessionModel sessionModel;
 
+    // The session this view belongs to, which handles the actions of its context menus
+    protected SessionController sessionController;
+
     /**
      * Simple constructor that calls init()
      */
@@ -119,4 +123,12 @@ public abstract class FileStructurePanelView extends Region{
     public void setSessionModel(SessionModel sessionModel) {
         this.sessionModel = sessionModel;
     }
+
+    /**
+     * Set the session this view belongs to
+     * @param sessionController the session
+     */
+    public void setSessionController(SessionController sessionController) {
+        this.sessionController = sessionController;
+    }
 }
@@ -0,0 +1,136 @@
+package elegit;
+
+import org.eclipse.jgit.lib.Repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which branches the commit history is read from. Only the branches a filter
+ * includes are used as start points when the history is walked, so the commits that only
+ * the other branches reach aren't read at all.
+ */
+public class HistoryFilter {
+
+    public enum Type {
+        // Every local and remote-tracking branch
+        ALL,
+        // The checked out branch and the remote-tracking branch it tracks
+        CURRENT_BRANCH,
+        // The branches with the given names
+        SELECTED,
+        // The branches whose short names match a glob, e.g. origin/feature/*
+        PATTERN
+    }
+
+    public static final HistoryFilter ALL = new HistoryFilter(Type.ALL, Collections.emptySet(), null);
+
+    private final Type type;
+    private final Set<String> refNames;
+    private final String glob;
+    private final Pattern pattern;
+
+    private HistoryFilter(Type type, Set<String> refNames, String glob) {
+        this.type = type;
+        this.refNames = refNames;
+        this.glob = glob;
+        this.pattern = glob == null ? null : Pattern.compile(globToRegex(glob));
+    }
+
+    /**
+     * @return a filter for the checked out branch and the remote-tracking branch it tracks
+     */
+    public static HistoryFilter currentBranch() {
+        return new HistoryFilter(Type.CURRENT_BRANCH, Collections.emptySet(), null);
+    }
+
+    /**
+     * @param refNames the full names of the branches to include, e.g. refs/heads/master
+     * @return a filter for the given branches
+     */
+    public static HistoryFilter selected(Collection<String> refNames) {
+        return new HistoryFilter(Type.SELECTED, Collections.unmodifiableSet(new HashSet<>(refNames)), null);
+    }
+
+    /**
+     * @param glob the glob to match the short names of branches against. * and ? don't
+     *             match a /, ** matches anything
+     * @return a filter for the branches that match the glob
+     */
+    public static HistoryFilter matching(String glob) {
+        return new HistoryFilter(Type.PATTERN, Collections.emptySet(), glob);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getGlob() {
+        return glob;
+    }
+
+    /**
+     * @param refName the full name of a local or remote-tracking branch
+     * @param currentBranch the full name of the checked out branch, or null if HEAD is detached
+     * @param upstream the full name of the remote-tracking branch the checked out branch tracks, or null
+     * @return whether the history of the branch is read
+     */
+    public boolean includes(String refName, String currentBranch, String upstream) {
+        switch (type) {
+            case CURRENT_BRANCH:
+                return refName.equals(currentBranch) || refName.equals(upstream);
+            case SELECTED:
+                return refNames.contains(refName);
+            case PATTERN:
+                return pattern.matcher(Repository.shortenRefName(refName)).matches()
+                        || pattern.matcher(refName).matches();
+            case ALL:
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @param currentBranch the full name of the checked out branch, or null if HEAD is detached
+     * @return whether the history of HEAD is read
+     */
+    public boolean includesHead(String currentBranch) {
+        if (type == Type.ALL || type == Type.CURRENT_BRANCH) return true;
+        return currentBranch != null && includes(currentBranch, currentBranch, null);
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof HistoryFilter)) return false;
+        HistoryFilter other = (HistoryFilter) o;
+        return type == other.type && refNames.equals(other.refNames) && Objects.equals(glob, other.glob);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, refNames, glob);
+    }
+}
@@ -0,0 +1,427 @@
+package elegit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.ignore.IgnoreNode;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Keeps the ignore rules of a repository parsed, one IgnoreNode per directory,
+ * and remembers which tracked files they ignore.
+ *
+ * Rules are only read for directories that are tracked, so untracked trees are
+ * never walked. Each directory whose rules were read is watched for changes to
+ * its .gitignore, as are info/exclude and core.excludesFile. When a rule file
+ * changes, only the subtrees it can affect are evaluated again; other subtrees
+ * reuse their last result as long as their tree in HEAD is the same. Directories
+ * that couldn't be watched have their .gitignore checked by modification time on
+ * each use instead, and watching them is tried again.
+ */
+public class IgnoreRuleCache {
+
+    private static final String ROOT = "";
+
+    private final Repository repo;
+    private final Path workTree;
+
+    // Parsed .gitignore of each directory, relative to the work tree
+    private final Map<String, DirectoryRules> directoryRules;
+
+    // Rules from info/exclude and core.excludesFile, which apply to every path
+    private IgnoreNode infoExcludeRules;
+    private IgnoreNode globalRules;
+    private Path globalIgnorePath;
+
+    // Tracked ignored files in each subtree, as of the last time it was evaluated
+    private final Map<String, SubtreeResult> subtreeResults;
+
+    // Logical clock, and the time at which each directory's rules last changed
+    private long clock;
+    private final Map<String, Long> changedDirectories;
+
+    private WatchService watchService;
+    private final Map<WatchKey, String> watchedDirectories;
+    // The keys of the directories holding info/exclude and the global ignore file
+    private WatchKey infoWatchKey;
+    private WatchKey globalWatchKey;
+    // Directories whose rules were read but that couldn't be watched
+    private final Set<String> unwatchedDirectories;
+
+    static final Logger logger = LogManager.getLogger();
+
+    public IgnoreRuleCache(Repository repo) {
+        this.repo = repo;
+        this.workTree = repo.getWorkTree().toPath();
+        this.directoryRules = new HashMap<>();
+        this.subtreeResults = new HashMap<>();
+        this.changedDirectories = new HashMap<>();
+        this.watchedDirectories = new HashMap<>();
+        this.unwatchedDirectories = new HashSet<>();
+        this.clock = 0;
+
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            // Rule files will be checked by their modification time instead
+            logger.warn("Could not watch ignore files, falling back to checking them on each use");
+            this.watchService = null;
+        }
+    }
+
+    /**
+     * Checks all tracked files and directories in the given tree for whether they
+     * match an ignore pattern
+     *
+     * @param tree the tree to check, usually the one of HEAD
+     * @param globalIgnorePath the configured core.excludesFile, or null
+     * @return the paths (relative to the repo) of all tracked files that match an ignore pattern
+     * @throws IOException
+     */
+    public synchronized Collection<String> getTrackedIgnoredFiles(ObjectId tree, Path globalIgnorePath) throws IOException {
+        processWatchEvents();
+        checkUnwatchedDirectories();
+        updateRepositoryRules(globalIgnorePath);
+
+        Collection<String> trackedIgnoredFiles = new HashSet<>();
+        evaluate(ROOT, tree, false, trackedIgnoredFiles);
+        pruneChanges();
+        return trackedIgnoredFiles;
+    }
+
+    /**
+     * Forgets everything, e.g. after the watch service lost events
+     */
+    public synchronized void invalidateAll() {
+        directoryRules.clear();
+        subtreeResults.clear();
+        unwatchedDirectories.clear();
+        infoExcludeRules = null;
+        globalRules = null;
+        markChanged(ROOT);
+    }
+
+    /**
+     * Stops watching the rule files, e.g. because the repository was closed
+     */
+    public synchronized void close() {
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the watch service for ignore files");
+            logger.debug(e.getStackTrace());
+        }
+        watchService = null;
+        watchedDirectories.clear();
+        infoWatchKey = null;
+        globalWatchKey = null;
+    }
+
+    /**
+     * Adds the tracked ignored files in one directory, and recursively in its
+     * subdirectories, to the given collection. Subtrees whose HEAD tree and
+     * relevant rules haven't changed since their last evaluation are reused
+     */
+    private void evaluate(String directory, ObjectId tree, boolean isDirectoryIgnored,
+                          Collection<String> trackedIgnoredFiles) throws IOException {
+        SubtreeResult cached = subtreeResults.get(directory);
+        if (cached != null && cached.tree.equals(tree) && cached.isDirectoryIgnored == isDirectoryIgnored
+                && !hasChangedSince(directory, cached.evaluatedAt)) {
+            trackedIgnoredFiles.addAll(cached.trackedIgnoredFiles);
+            return;
+        }
+
+        long evaluatedAt = clock;
+        List<String> ignoredInSubtree = new ArrayList<>();
+
+        // The rules that apply in this directory, closest first
+        List<String> ruleDirectories = new ArrayList<>();
+        List<IgnoreNode> rules = new ArrayList<>();
+        for (String dir = directory; dir != null; dir = getParent(dir)) {
+            IgnoreNode dirRules = getDirectoryRules(dir);
+            if (dirRules != null) {
+                ruleDirectories.add(dir);
+                rules.add(dirRules);
+            }
+        }
+
+        try (TreeWalk treeWalk = new TreeWalk(repo)) {
+            treeWalk.addTree(tree);
+            treeWalk.setRecursive(false);
+
+            while (treeWalk.next()) {
+                String name = treeWalk.getNameString();
+                String path = directory.isEmpty() ? name : directory + "/" + name;
+                boolean isSubtree = treeWalk.isSubtree();
+
+                IgnoreNode.MatchResult result = match(ruleDirectories, rules, path, isSubtree);
+                boolean isIgnored = (result == IgnoreNode.MatchResult.IGNORED)
+                        || (isDirectoryIgnored && result == IgnoreNode.MatchResult.CHECK_PARENT);
+                if (isIgnored) ignoredInSubtree.add(path);
+
+                if (isSubtree) {
+                    // TODO: Does not support a result of 'CHECK_PARENT_NEGATE_FIRST_MATCH'
+                    boolean isChildIgnored = (result == IgnoreNode.MatchResult.CHECK_PARENT)
+                            ? isDirectoryIgnored : isIgnored;
+                    List<String> childResults = new ArrayList<>();
+                    evaluate(path, treeWalk.getObjectId(0), isChildIgnored, childResults);
+                    ignoredInSubtree.addAll(childResults);
+                }
+            }
+        }
+
+        subtreeResults.put(directory, new SubtreeResult(tree, isDirectoryIgnored, evaluatedAt, ignoredInSubtree));
+        trackedIgnoredFiles.addAll(ignoredInSubtree);
+    }
+
+    /**
+     * Matches a path against the rules of its directory and each of its ancestors,
+     * closest first, then info/exclude and the global ignore file
+     */
+    private IgnoreNode.MatchResult match(List<String> ruleDirectories, List<IgnoreNode> rules,
+                                         String path, boolean isDirectory) {
+        for (int i = 0; i < rules.size(); i++) {
+            String dir = ruleDirectories.get(i);
+            String relativePath = dir.isEmpty() ? path : path.substring(dir.length() + 1);
+            IgnoreNode.MatchResult result = rules.get(i).isIgnored(relativePath, isDirectory);
+            if (result != IgnoreNode.MatchResult.CHECK_PARENT) return result;
+        }
+        for (IgnoreNode repositoryRules : new IgnoreNode[]{infoExcludeRules, globalRules}) {
+            if (repositoryRules == null) continue;
+            IgnoreNode.MatchResult result = repositoryRules.isIgnored(path, isDirectory);
+            if (result != IgnoreNode.MatchResult.CHECK_PARENT) return result;
+        }
+        return IgnoreNode.MatchResult.CHECK_PARENT;
+    }
+
+    /**
+     * @return the parsed .gitignore of the given directory, or null if it has none. Reads
+     * and starts watching the file the first time the directory is asked for
+     */
+    private IgnoreNode getDirectoryRules(String directory) throws IOException {
+        DirectoryRules rules = directoryRules.get(directory);
+        if (rules != null) {
+            if (rules.isWatched || rules.isUpToDate()) return rules.rules;
+            markChanged(directory);
+        }
+
+        Path directoryPath = workTree.resolve(directory);
+        rules = new DirectoryRules(directoryPath.resolve(Constants.DOT_GIT_IGNORE));
+        rules.isWatched = watch(directoryPath, directory) != null;
+        if (rules.isWatched) unwatchedDirectories.remove(directory);
+        else unwatchedDirectories.add(directory);
+        directoryRules.put(directory, rules);
+        return rules.rules;
+    }
+
+    /**
+     * Rereads info/exclude and the global ignore file if they changed
+     */
+    private void updateRepositoryRules(Path globalIgnorePath) throws IOException {
+        Path infoDirectory = repo.getDirectory().toPath().resolve(Constants.INFO_EXCLUDE).getParent();
+        if (infoExcludeRules == null) {
+            infoExcludeRules = parse(infoDirectory.resolve("exclude"));
+            infoWatchKey = watch(infoDirectory, ROOT);
+        }
+
+        boolean isPathChanged = !Objects.equals(globalIgnorePath, this.globalIgnorePath);
+        if (isPathChanged || globalRules == null) {
+            if (isPathChanged && globalRules != null) markChanged(ROOT);
+            this.globalIgnorePath = globalIgnorePath;
+            globalRules = globalIgnorePath == null ? new IgnoreNode() : parse(globalIgnorePath);
+            globalWatchKey = null;
+            if (globalIgnorePath != null && globalIgnorePath.getParent() != null) {
+                globalWatchKey = watch(globalIgnorePath.getParent(), ROOT);
+            }
+        }
+    }
+
+    /**
+     * Turns the events the watch service has queued up since the last call into
+     * invalidated rules
+     */
+    private void processWatchEvents() {
+        if (watchService == null) return;
+
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            String directory = watchedDirectories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    invalidateAll();
+                    continue;
+                }
+                if (directory == null) continue;
+
+                String fileName = event.context().toString();
+                if (fileName.equals(Constants.DOT_GIT_IGNORE)) {
+                    directoryRules.remove(directory);
+                    markChanged(directory);
+                }
+                // Files named like these elsewhere in the work tree aren't rule files
+                if (key.equals(infoWatchKey) && fileName.equals("exclude")) {
+                    infoExcludeRules = null;
+                    markChanged(ROOT);
+                }
+                if (key.equals(globalWatchKey) && globalIgnorePath.getFileName().toString().equals(fileName)) {
+                    globalRules = null;
+                    markChanged(ROOT);
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+                if (directory != null) directoryRules.remove(directory);
+                // Read and watch the repository's rules again on the next use
+                if (key.equals(infoWatchKey)) infoExcludeRules = null;
+                if (key.equals(globalWatchKey)) globalRules = null;
+            }
+        }
+    }
+
+    /**
+     * Tries again to watch the directories that couldn't be watched, and marks the
+     * ones whose .gitignore changed on disk, so only their subtrees are evaluated again
+     */
+    private void checkUnwatchedDirectories() throws IOException {
+        Iterator<String> iterator = unwatchedDirectories.iterator();
+        while (iterator.hasNext()) {
+            String directory = iterator.next();
+            DirectoryRules rules = directoryRules.get(directory);
+            if (rules == null) {
+                iterator.remove();
+                continue;
+            }
+
+            if (!rules.isUpToDate()) {
+                directoryRules.remove(directory);
+                markChanged(directory);
+                iterator.remove();
+            } else if (watch(workTree.resolve(directory), directory) != null) {
+                rules.isWatched = true;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if the rules of the directory, of one of its ancestors or of one
+     * of its descendants changed after the given time
+     */
+    private boolean hasChangedSince(String directory, long time) {
+        for (Map.Entry<String, Long> change : changedDirectories.entrySet()) {
+            if (change.getValue() <= time) continue;
+            String changed = change.getKey();
+            if (isAncestorOrSelf(changed, directory) || isAncestorOrSelf(directory, changed)) return true;
+        }
+        return false;
+    }
+
+    private void markChanged(String directory) {
+        clock++;
+        changedDirectories.put(directory, clock);
+    }
+
+    /**
+     * Forgets the changes that no cached subtree result was evaluated before, since
+     * hasChangedSince is never asked about times before those of the cached results
+     */
+    private void pruneChanges() {
+        long oldestEvaluation = Long.MAX_VALUE;
+        for (SubtreeResult result : subtreeResults.values()) {
+            oldestEvaluation = Math.min(oldestEvaluation, result.evaluatedAt);
+        }
+        final long oldest = oldestEvaluation;
+        changedDirectories.values().removeIf(changedAt -> changedAt <= oldest);
+    }
+
+    /**
+     * @return the key the directory is watched with, or null if it couldn't be watched
+     */
+    private WatchKey watch(Path directory, String key) {
+        if (watchService == null || !Files.isDirectory(directory)) return null;
+        try {
+            WatchKey watchKey = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirectories.put(watchKey, key);
+            return watchKey;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static IgnoreNode parse(Path file) throws IOException {
+        IgnoreNode node = new IgnoreNode();
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                node.parse(in);
+            }
+        }
+        return node;
+    }
+
+    private static String getParent(String directory) {
+        if (directory.isEmpty()) return null;
+        int slash = directory.lastIndexOf('/');
+        return slash < 0 ? ROOT : directory.substring(0, slash);
+    }
+
+    private static boolean isAncestorOrSelf(String ancestor, String directory) {
+        return ancestor.isEmpty() || directory.equals(ancestor) || directory.startsWith(ancestor + "/");
+    }
+
+    /**
+     * The parsed .gitignore of one directory. If the directory couldn't be watched,
+     * the file's modification time and size are used to notice changes
+     */
+    private static class DirectoryRules {
+        final Path file;
+        final IgnoreNode rules;
+        final long lastModified;
+        final long size;
+        boolean isWatched;
+
+        DirectoryRules(Path file) throws IOException {
+            this.file = file;
+            if (Files.isRegularFile(file)) {
+                this.lastModified = Files.getLastModifiedTime(file).toMillis();
+                this.size = Files.size(file);
+                this.rules = parse(file);
+            } else {
+                this.lastModified = -1;
+                this.size = -1;
+                this.rules = null;
+            }
+        }
+
+        boolean isUpToDate() throws IOException {
+            if (!Files.isRegularFile(file)) return lastModified == -1;
+            return Files.getLastModifiedTime(file).toMillis() == lastModified && Files.size(file) == size;
+        }
+    }
+
+    /**
+     * The tracked ignored files found in a subtree, along with what they depend on
+     */
+    private static class SubtreeResult {
+        final ObjectId tree;
+        final boolean isDirectoryIgnored;
+        final long evaluatedAt;
+        final List<String> trackedIgnoredFiles;
+
+        SubtreeResult(ObjectId tree, boolean isDirectoryIgnored, long evaluatedAt, List<String> trackedIgnoredFiles) {
+            this.tree = tree.copy();
+            this.isDirectoryIgnored = isDirectoryIgnored;
+            this.evaluatedAt = evaluatedAt;
+            this.trackedIgnoredFiles = trackedIgnoredFiles;
+        }
+    }
+}
@@ -10,9 +10,7 @@ public class IgnoredRepoFile extends RepoFile {
 
     private IgnoredRepoFile(Path filePath, RepoHelper repo) {
         super(filePath, repo);
-        diffButton.setText("IGNORED");
-        diffButton.setId("ignoredDiffButton");
-        diffButton.setTooltip(getToolTip("This file is being ignored because it's in your .gitignore.\nRemove it from your .gitignore if you want to add it to git"));
+        setStatus("IGNORED", "ignoredDiffButton", "This file is being ignored because it's in your .gitignore.\nRemove it from your .gitignore if you want to add it to git");
     }
 
     IgnoredRepoFile(String filePathString, RepoHelper repo) {
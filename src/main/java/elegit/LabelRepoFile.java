@@ -10,8 +10,7 @@ public class LabelRepoFile extends RepoFile {
 
     public LabelRepoFile(Path filePath, RepoHelper repo) {
         super(filePath, repo);
-        diffButton.setText("LABEL");
-        diffButton.setTooltip(getToolTip("This is the root directory for the below files."));
+        setStatus("LABEL", null, "This is the root directory for the below files.");
     }
 
     public LabelRepoFile(String filePathString, RepoHelper repo) {
@@ -64,7 +64,12 @@ public class LocalBranchHelper extends BranchHelper {
      * Checks out the branch in git.
      */
     public void checkoutBranch() throws GitAPIException, IOException {
-        new Git(this.repoHelper.getRepo()).checkout().setName(this.refName).call();
-        this.repoHelper.getBranchModel().refreshCurrentBranch();
+        this.repoHelper.lockForWriting();
+        try {
+            new Git(this.repoHelper.getRepo()).checkout().setName(this.refName).call();
+            this.repoHelper.getBranchModel().refreshCurrentBranch();
+        } finally {
+            this.repoHelper.unlockForWriting();
+        }
     }
 }
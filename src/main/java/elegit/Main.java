@@ -60,9 +60,6 @@ public class Main extends Application {
     @Override
     public void start(Stage primaryStage) throws Exception{
 
-        // Handles some concurrency issues with gitStatus()
-        RepositoryMonitor.pause();
-
         // Initialize the busy window
         BusyWindow.setParentWindow(primaryStage);
 
@@ -108,9 +105,6 @@ public class Main extends Application {
 
 
         primaryStage.show();
-
-        // Handles some concurrency issues with gitStatus()
-        RepositoryMonitor.unpause();
     }
 
     private static void clearPreferences() {
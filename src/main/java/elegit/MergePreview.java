@@ -0,0 +1,306 @@
+package elegit;
+
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.errors.NoMergeBaseException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Works out what merging one commit into another would do, without touching the work
+ * tree, the index or the object database: whether it would be a fast-forward, how many
+ * files it would bring in and which of them would conflict.
+ *
+ * The merge is done in memory by a ResolveMerger. Its merged blobs and trees are only
+ * hashed, never written. Commits don't change, so the preview of a pair of commits is
+ * cached and shown again right away. The index and work tree do change, so the files
+ * the merge would change are checked for uncommitted changes every time, since the
+ * merge stops before touching anything if it would overwrite them.
+ */
+public class MergePreview {
+
+    public enum Status {
+        // The commit being merged in is already part of the other one
+        UP_TO_DATE,
+        // The branch would just be moved forward
+        FAST_FORWARD,
+        // A merge commit would be made without conflicts
+        CLEAN,
+        // Some files would conflict
+        CONFLICTING,
+        // The merge would change files that have uncommitted changes, so it would fail
+        DIRTY,
+        // The merge can't be worked out ahead of time, e.g. there's more than one merge base
+        UNKNOWN
+    }
+
+    // The most previews that are kept
+    private static final int MAX_CACHED_PREVIEWS = 64;
+
+    // Access order, so the eldest entry is the least recently used one
+    private static final Map<Key, MergePreview> cache = new LinkedHashMap<Key, MergePreview>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, MergePreview> eldest) {
+            return size() > MAX_CACHED_PREVIEWS;
+        }
+    };
+
+    private final Status status;
+    private final List<String> changedPaths;
+    private final List<String> conflictingPaths;
+    private final List<String> dirtyPaths;
+
+    MergePreview(Status status, List<String> changedPaths, List<String> conflictingPaths, List<String> dirtyPaths) {
+        this.status = status;
+        this.changedPaths = Collections.unmodifiableList(changedPaths);
+        this.conflictingPaths = Collections.unmodifiableList(conflictingPaths);
+        this.dirtyPaths = Collections.unmodifiableList(dirtyPaths);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the number of files the merged in commit changed since the merge base
+     */
+    public int getChangedFileCount() {
+        return changedPaths.size();
+    }
+
+    /**
+     * @return the paths of the files that would conflict, in order
+     */
+    public List<String> getConflictingPaths() {
+        return conflictingPaths;
+    }
+
+    /**
+     * @return the paths of the files the merge would change that have uncommitted changes, in order
+     */
+    public List<String> getDirtyPaths() {
+        return dirtyPaths;
+    }
+
+    /**
+     * Previews merging a commit into another one, reusing the cached preview of the pair if
+     * there is one. If the commit being merged into is checked out, the index and work tree
+     * are then checked for uncommitted changes to the files the merge would change
+     * @param repo the repository the commits are in
+     * @param ours the commit being merged into, e.g. HEAD
+     * @param theirs the commit being merged in
+     * @return the preview of the merge
+     * @throws IOException if a commit, tree, the index or a file can't be read
+     */
+    public static MergePreview of(Repository repo, ObjectId ours, ObjectId theirs) throws IOException {
+        Key key = new Key(repo.getDirectory().toPath(), ours, theirs);
+        MergePreview preview;
+        synchronized (cache) {
+            preview = cache.get(key);
+        }
+        if (preview == null) {
+            preview = compute(repo, ours, theirs);
+            synchronized (cache) {
+                cache.put(key, preview);
+            }
+        }
+
+        List<String> dirtyPaths = findDirtyPaths(repo, ours, preview.changedPaths);
+        if (dirtyPaths.isEmpty()) return preview;
+        return new MergePreview(Status.DIRTY, preview.changedPaths, preview.conflictingPaths, dirtyPaths);
+    }
+
+    /**
+     * @return the cached preview of the pair, which doesn't look at uncommitted changes,
+     * or null if there isn't one
+     */
+    public static MergePreview getCached(Repository repo, ObjectId ours, ObjectId theirs) {
+        synchronized (cache) {
+            return cache.get(new Key(repo.getDirectory().toPath(), ours, theirs));
+        }
+    }
+
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static MergePreview compute(Repository repo, ObjectId ours, ObjectId theirs) throws IOException {
+        try (RevWalk walk = new RevWalk(repo)) {
+            RevCommit ourCommit = walk.parseCommit(ours);
+            RevCommit theirCommit = walk.parseCommit(theirs);
+
+            if (walk.isMergedInto(theirCommit, ourCommit))
+                return new MergePreview(Status.UP_TO_DATE, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+            if (walk.isMergedInto(ourCommit, theirCommit))
+                return new MergePreview(Status.FAST_FORWARD, getChangedPaths(repo, ourCommit, theirCommit),
+                        Collections.emptyList(), Collections.emptyList());
+        }
+
+        ResolveMerger merger = (ResolveMerger) MergeStrategy.RESOLVE.newMerger(repo, true);
+        merger.setObjectInserter(new HashingInserter(repo.newObjectInserter()));
+        boolean merged;
+        try {
+            merged = merger.merge(false, ours, theirs);
+        } catch (NoMergeBaseException e) {
+            // Criss-cross histories need the recursive merger, which has to write a
+            // virtual merge base, so those aren't previewed
+            return new MergePreview(Status.UNKNOWN, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        }
+
+        List<String> changedPaths;
+        try (RevWalk walk = new RevWalk(repo)) {
+            ObjectId baseId = merger.getBaseCommitId();
+            RevCommit base = baseId == null ? null : walk.parseCommit(baseId);
+            changedPaths = getChangedPaths(repo, base, walk.parseCommit(theirs));
+        }
+
+        if (merged) return new MergePreview(Status.CLEAN, changedPaths, Collections.emptyList(), Collections.emptyList());
+
+        List<String> conflictingPaths = new ArrayList<>(merger.getUnmergedPaths());
+        Collections.sort(conflictingPaths);
+        return new MergePreview(Status.CONFLICTING, changedPaths, conflictingPaths, Collections.emptyList());
+    }
+
+    /**
+     * @return the paths of the files that differ between the two commits, in order. A null commit is empty
+     */
+    private static List<String> getChangedPaths(Repository repo, RevCommit from, RevCommit to) throws IOException {
+        try (TreeWalk treeWalk = new TreeWalk(repo)) {
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            if (from == null) treeWalk.addTree(new EmptyTreeIterator());
+            else treeWalk.addTree(from.getTree());
+            treeWalk.addTree(to.getTree());
+
+            List<String> paths = new ArrayList<>();
+            while (treeWalk.next()) paths.add(treeWalk.getPathString());
+            return paths;
+        }
+    }
+
+    /**
+     * Finds the files the merge would change whose staged version differs from ours, or whose
+     * working tree version differs from the staged one, the same checks the merge makes before
+     * it starts. Untracked files the merge would overwrite count too
+     * @param ours the commit being merged into
+     * @param paths the paths the merge would change
+     * @return the paths of the files with uncommitted changes, in order, or none if ours isn't checked out
+     */
+    private static List<String> findDirtyPaths(Repository repo, ObjectId ours, List<String> paths) throws IOException {
+        List<String> dirtyPaths = new ArrayList<>();
+        if (paths.isEmpty() || repo.isBare() || !ours.equals(repo.resolve(Constants.HEAD))) return dirtyPaths;
+
+        Set<String> changedPaths = new HashSet<>(paths);
+        try (RevWalk walk = new RevWalk(repo); TreeWalk treeWalk = new TreeWalk(repo)) {
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+            int oursTree = treeWalk.addTree(walk.parseCommit(ours).getTree());
+            int indexTree = treeWalk.addTree(new DirCacheIterator(repo.readDirCache()));
+            int workTree = treeWalk.addTree(new FileTreeIterator(repo));
+
+            while (treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                // The filter also lets through files under a changed path, e.g. if it's a directory here
+                if (!changedPaths.contains(path)) continue;
+
+                DirCacheIterator indexEntry = treeWalk.getTree(indexTree, DirCacheIterator.class);
+                WorkingTreeIterator file = treeWalk.getTree(workTree, WorkingTreeIterator.class);
+                boolean isIndexDirty = treeWalk.getRawMode(oursTree) != treeWalk.getRawMode(indexTree)
+                        || !treeWalk.idEqual(oursTree, indexTree);
+                boolean isWorkTreeDirty;
+                if (file == null) isWorkTreeDirty = false;
+                else if (indexEntry == null) isWorkTreeDirty = !file.isEntryIgnored();
+                else isWorkTreeDirty = file.isModified(indexEntry.getDirCacheEntry(), true, treeWalk.getObjectReader());
+
+                if (isIndexDirty || isWorkTreeDirty) dirtyPaths.add(path);
+            }
+        }
+        Collections.sort(dirtyPaths);
+        return dirtyPaths;
+    }
+
+    /**
+     * Works out the ids of the objects the merger makes without storing them. Reads
+     * still go to the repository
+     */
+    private static class HashingInserter extends ObjectInserter.Filter {
+        private final ObjectInserter delegate;
+
+        HashingInserter(ObjectInserter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected ObjectInserter delegate() {
+            return delegate;
+        }
+
+        @Override
+        public ObjectId insert(int type, byte[] data) {
+            return idFor(type, data);
+        }
+
+        @Override
+        public ObjectId insert(int type, byte[] data, int off, int len) {
+            return idFor(type, data, off, len);
+        }
+
+        @Override
+        public ObjectId insert(int type, long length, InputStream in) throws IOException {
+            return idFor(type, length, in);
+        }
+
+        @Override
+        public void flush() {
+            // Nothing was stored, so there's nothing to flush
+        }
+    }
+
+    /**
+     * Identifies the merge of one commit into another in one repository
+     */
+    private static class Key {
+        private final Path repoDirectory;
+        private final ObjectId ours;
+        private final ObjectId theirs;
+
+        Key(Path repoDirectory, ObjectId ours, ObjectId theirs) {
+            this.repoDirectory = repoDirectory;
+            this.ours = ours.copy();
+            this.theirs = theirs.copy();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return Objects.equals(repoDirectory, other.repoDirectory)
+                    && Objects.equals(ours, other.ours)
+                    && Objects.equals(theirs, other.theirs);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(repoDirectory, ours, theirs);
+        }
+    }
+}
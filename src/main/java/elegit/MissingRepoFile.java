@@ -10,9 +10,7 @@ public class MissingRepoFile extends RepoFile {
 
     MissingRepoFile(Path filePath, RepoHelper repo) {
         super(filePath, repo);
-        diffButton.setText("MISSING");
-        diffButton.setId("missingDiffButton");
-        diffButton.setTooltip(getToolTip("This file is missing."));
+        setStatus("MISSING", "missingDiffButton", "This file is missing.");
     }
 
     MissingRepoFile(String filePathString, RepoHelper repo) {
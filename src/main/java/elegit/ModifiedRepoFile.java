@@ -10,9 +10,7 @@ public class ModifiedRepoFile extends RepoFile {
 
     ModifiedRepoFile(Path filePath, RepoHelper repo) {
         super(filePath, repo);
-        diffButton.setText("MODIFIED");
-        diffButton.setId("modifiedDiffButton");
-        diffButton.setTooltip(getToolTip("This file was modified after your most recent commit."));
+        setStatus("MODIFIED", "modifiedDiffButton", "This file was modified after your most recent commit.");
         showPopover = true;
     }
 
@@ -0,0 +1,408 @@
+package elegit;
+
+import javafx.concurrent.Task;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs git operations on a small, shared pool of threads instead of a new thread
+ * per operation.
+ *
+ * Operations are started in order of their priority: things the user asked for
+ * come first, then refreshes of the view, then the background monitors. One
+ * thread is kept for things the user asked for, so refreshes and background
+ * work can't hold them up by taking every thread. Operations
+ * that write to a repository are run one at a time for that repository, in the
+ * order of their priority. Refreshes with the same key run one at a time too, and
+ * are coalesced while one is waiting to run. An operation can be cancelled until
+ * it starts.
+ *
+ * How long operations wait and run is recorded per priority.
+ */
+public class OperationScheduler {
+
+    public enum Priority {
+        INTERACTIVE, REFRESH, BACKGROUND
+    }
+
+    // Git operations mostly wait on disk and network, so this doesn't depend on the number of cores
+    private static final int POOL_SIZE = 4;
+
+    // Refreshes and background operations only run on this many threads at once
+    private static final int MAX_NON_INTERACTIVE = POOL_SIZE - 1;
+
+    // Operations that took longer than this to start are logged
+    private static final long SLOW_START_WARNING = 2000;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+            r -> {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                thread.setName("Git operation " + threadCount.incrementAndGet());
+                return thread;
+            });
+
+    // Hands delayed operations to the executor once they're due
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        thread.setName("Operation scheduler timer");
+        thread.setPriority(2);
+        return thread;
+    });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final AtomicLong sequence = new AtomicLong();
+
+    // Guards the maps below
+    private static final Object lock = new Object();
+
+    // Operations waiting for an earlier one with the same key (a repository they write
+    // to, or a refresh key) to finish
+    private static final Map<Object, Queue<Operation>> waitingOperations = new HashMap<>();
+    // Keys that have an operation running or handed to the executor
+    private static final Set<Object> busyKeys = new HashSet<>();
+    // Refreshes that haven't started yet, by key
+    private static final Map<String, Operation> pendingRefreshes = new HashMap<>();
+    // Operations that aren't interactive and were due while MAX_NON_INTERACTIVE of them were running
+    private static final Queue<Operation> deferredOperations = new PriorityQueue<>();
+    private static int runningNonInteractive = 0;
+
+    private static final Map<Priority, OperationStats> stats = new EnumMap<>(Priority.class);
+
+    static {
+        for (Priority priority : Priority.values()) {
+            stats.put(priority, new OperationStats());
+        }
+    }
+
+    static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Runs an operation that doesn't change any repository, e.g. computing a diff
+     * @param name a description of the operation
+     * @param priority the priority of the operation
+     * @param task the operation
+     * @return the task, so it can be cancelled
+     */
+    public static <T> Task<T> submit(String name, Priority priority, Task<T> task) {
+        return submit(name, priority, null, task);
+    }
+
+    /**
+     * Runs an operation that writes to the given repository once every write to it
+     * that was submitted earlier with the same or a higher priority has finished
+     * @param name a description of the operation
+     * @param priority the priority of the operation
+     * @param repo the repository the operation writes to, or null if it doesn't write
+     * @param task the operation
+     * @return the task, so it can be cancelled
+     */
+    public static <T> Task<T> submit(String name, Priority priority, RepoHelper repo, Task<T> task) {
+        Path repoKey = repo == null ? null : repo.getLocalPath();
+        Operation operation = new Operation(name, priority, repoKey, null, done -> task.run(), task);
+        stats.get(priority).submitted.incrementAndGet();
+
+        if (repoKey == null) {
+            executor.execute(operation);
+        } else {
+            executeInTurn(operation);
+        }
+        return task;
+    }
+
+    /**
+     * Runs a refresh, unless a refresh with the same key is already waiting to run.
+     * Refreshes with the same key don't overlap: requests made while one is running
+     * are merged into a single refresh that runs after it
+     * @param key identifies refreshes that do the same thing
+     * @param action the refresh. It is given a callback to run once the refresh is done,
+     *               including any work it hands to the FX thread, so it doesn't have to
+     *               keep a thread waiting for that work
+     */
+    public static void submitRefresh(String key, Consumer<Runnable> action) {
+        Operation operation = new Operation(key, Priority.REFRESH, key, key, action, null);
+        synchronized (lock) {
+            if (pendingRefreshes.containsKey(key)) {
+                stats.get(Priority.REFRESH).coalesced.incrementAndGet();
+                return;
+            }
+            pendingRefreshes.put(key, operation);
+        }
+        stats.get(Priority.REFRESH).submitted.incrementAndGet();
+        executeInTurn(operation);
+    }
+
+    /**
+     * Hands the operation to the executor if nothing else with its key is running,
+     * otherwise makes it wait for its turn
+     */
+    private static void executeInTurn(Operation operation) {
+        synchronized (lock) {
+            if (!busyKeys.add(operation.serialKey)) {
+                waitingOperations.computeIfAbsent(operation.serialKey, key -> new PriorityQueue<>()).add(operation);
+                return;
+            }
+        }
+        executor.execute(operation);
+    }
+
+    /**
+     * Runs an operation that doesn't change any repository after the given delay
+     * @param name a description of the operation
+     * @param priority the priority of the operation once it is due
+     * @param delayMillis how long to wait before submitting the operation
+     * @param action the operation
+     */
+    public static void schedule(String name, Priority priority, long delayMillis, Runnable action) {
+        timer.schedule(() -> {
+            stats.get(priority).submitted.incrementAndGet();
+            executor.execute(new Operation(name, priority, null, null, done -> action.run(), null));
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels an operation. If it hasn't started it never will, and if it is running
+     * it is up to the task to check whether it was cancelled
+     * @param task the task that was submitted
+     * @return true if the task was cancelled
+     */
+    public static boolean cancel(Task<?> task) {
+        boolean isCancelled = task.cancel();
+
+        List<Operation> removed = new ArrayList<>();
+        for (Runnable runnable : executor.getQueue()) {
+            Operation operation = (Operation) runnable;
+            if (operation.task == task && executor.remove(operation)) removed.add(operation);
+        }
+        synchronized (lock) {
+            for (Queue<Operation> queue : waitingOperations.values()) {
+                queue.removeIf(operation -> operation.task == task);
+            }
+            for (Iterator<Operation> iterator = deferredOperations.iterator(); iterator.hasNext(); ) {
+                Operation operation = iterator.next();
+                if (operation.task == task) {
+                    iterator.remove();
+                    removed.add(operation);
+                }
+            }
+        }
+        // A write that was handed to the executor held its repository's turn
+        removed.forEach(Operation::finish);
+        return isCancelled;
+    }
+
+    /**
+     * @return the number of operations that are waiting to run
+     */
+    public static int getQueueDepth() {
+        int depth = executor.getQueue().size();
+        synchronized (lock) {
+            depth += deferredOperations.size();
+            for (Queue<Operation> queue : waitingOperations.values()) {
+                depth += queue.size();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of operations that are running
+     */
+    public static int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @param priority the priority to get the number for
+     * @return how many operations of the given priority finished
+     */
+    public static long getCompletedCount(Priority priority) {
+        return stats.get(priority).completed.get();
+    }
+
+    /**
+     * @param priority the priority to get the number for
+     * @return how many operations of the given priority were submitted
+     */
+    public static long getSubmittedCount(Priority priority) {
+        return stats.get(priority).submitted.get();
+    }
+
+    /**
+     * @return how many refresh requests were dropped because an identical refresh was waiting
+     */
+    public static long getCoalescedRefreshCount() {
+        return stats.get(Priority.REFRESH).coalesced.get();
+    }
+
+    /**
+     * @param priority the priority to get the latency for
+     * @return the average time (in milliseconds) operations of the given priority waited
+     * before they started, or 0 if none have run
+     */
+    public static long getAverageWaitMillis(Priority priority) {
+        return stats.get(priority).getAverage(stats.get(priority).totalWaitNanos);
+    }
+
+    /**
+     * @param priority the priority to get the latency for
+     * @return the average time (in milliseconds) operations of the given priority took
+     * to run, or 0 if none have run
+     */
+    public static long getAverageRunMillis(Priority priority) {
+        return stats.get(priority).getAverage(stats.get(priority).totalRunNanos);
+    }
+
+    /**
+     * Counters for the operations of one priority
+     */
+    private static class OperationStats {
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+        final AtomicLong totalWaitNanos = new AtomicLong();
+        final AtomicLong totalRunNanos = new AtomicLong();
+
+        long getAverage(AtomicLong totalNanos) {
+            long count = completed.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count);
+        }
+    }
+
+    /**
+     * A queued operation. Orders by priority, then by the order of submission
+     */
+    private static class Operation implements Runnable, Comparable<Operation> {
+        final String name;
+        final Priority priority;
+        final Object serialKey;
+        final String refreshKey;
+        final Consumer<Runnable> action;
+        final Task<?> task;
+        final long sequenceNumber;
+        final long submitTime;
+
+        Operation(String name, Priority priority, Object serialKey, String refreshKey, Consumer<Runnable> action, Task<?> task) {
+            this.name = name;
+            this.priority = priority;
+            this.serialKey = serialKey;
+            this.refreshKey = refreshKey;
+            this.action = action;
+            this.task = task;
+            this.sequenceNumber = sequence.incrementAndGet();
+            this.submitTime = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            if (priority != Priority.INTERACTIVE) {
+                synchronized (lock) {
+                    if (runningNonInteractive >= MAX_NON_INTERACTIVE) {
+                        deferredOperations.add(this);
+                        return;
+                    }
+                    runningNonInteractive++;
+                }
+            }
+
+            try {
+                start();
+            } finally {
+                if (priority != Priority.INTERACTIVE) {
+                    Operation next;
+                    synchronized (lock) {
+                        runningNonInteractive--;
+                        next = deferredOperations.poll();
+                    }
+                    if (next != null) executor.execute(next);
+                }
+            }
+        }
+
+        /**
+         * Runs the action. The operation is done once the action calls back, which
+         * may be after this returns
+         */
+        private void start() {
+            if (refreshKey != null) {
+                synchronized (lock) {
+                    pendingRefreshes.remove(refreshKey, this);
+                }
+            }
+
+            if (task != null && task.isCancelled()) {
+                finish();
+                return;
+            }
+
+            long startTime = System.nanoTime();
+            long waitNanos = startTime - submitTime;
+            if (TimeUnit.NANOSECONDS.toMillis(waitNanos) > SLOW_START_WARNING) {
+                logger.warn("{} waited {}ms to start", name, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            }
+
+            AtomicBoolean isDone = new AtomicBoolean(false);
+            Runnable done = () -> {
+                if (!isDone.compareAndSet(false, true)) return;
+                OperationStats operationStats = stats.get(priority);
+                operationStats.completed.incrementAndGet();
+                operationStats.totalWaitNanos.addAndGet(waitNanos);
+                operationStats.totalRunNanos.addAndGet(System.nanoTime() - startTime);
+                finish();
+            };
+
+            String threadName = Thread.currentThread().getName();
+            Thread.currentThread().setName(threadName + ": " + name);
+            try {
+                action.accept(done);
+                // Only refreshes call back later, everything else is done when the action returns
+                if (refreshKey == null) done.run();
+            } catch (Throwable e) {
+                logger.error("Unexpected error in {}", name);
+                logger.debug(e.getStackTrace());
+                done.run();
+            } finally {
+                Thread.currentThread().setName(threadName);
+            }
+        }
+
+        /**
+         * Lets the next operation with the same key run
+         */
+        void finish() {
+            if (serialKey == null) return;
+
+            Operation next;
+            synchronized (lock) {
+                Queue<Operation> queue = waitingOperations.get(serialKey);
+                next = queue == null ? null : queue.poll();
+                if (next == null) {
+                    waitingOperations.remove(serialKey);
+                    busyKeys.remove(serialKey);
+                }
+            }
+            if (next != null) executor.execute(next);
+        }
+
+        @Override
+        public int compareTo(Operation other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequenceNumber, other.sequenceNumber);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package elegit;
+
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.JschConfigSessionFactory;
+import org.eclipse.jgit.transport.OpenSshConfig;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An SSH session factory that keeps authenticated JSch sessions open after a
+ * remote operation finishes, so that back-to-back operations against the same
+ * host (ls-remote, fetch, push) can open a new channel on the existing session
+ * instead of going through a full handshake and key exchange again.
+ *
+ * Sessions that haven't been used for IDLE_TIMEOUT milliseconds are disconnected,
+ * unless an operation still has them, however long it's been running.
+ */
+public class PooledSshSessionFactory extends JschConfigSessionFactory {
+
+    public static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    // All live factories, weakly held so that a discarded repository doesn't keep its factory around
+    private static final Set<PooledSshSessionFactory> factories =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    // Shared by all factories to disconnect idle sessions
+    private static final ScheduledExecutorService idleReaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        thread.setName("Idle SSH session reaper");
+        thread.setPriority(2);
+        return thread;
+    });
+
+    static {
+        idleReaper.scheduleWithFixedDelay(() -> {
+            List<PooledSshSessionFactory> toReap;
+            synchronized (factories) {
+                toReap = new ArrayList<>(factories);
+            }
+            toReap.forEach(PooledSshSessionFactory::disconnectIdleSessions);
+        }, IDLE_TIMEOUT / 2, IDLE_TIMEOUT / 2, TimeUnit.MILLISECONDS);
+    }
+
+    // user@host:port -> open session
+    private final Map<String, PooledSession> sessions;
+    // The pooled session behind each remote session that's been handed out and not released yet
+    private final Map<RemoteSession, PooledSession> handedOut;
+    // The session the last call to createSession returned
+    private PooledSession lastCreated;
+
+    private final AtomicLong handshakeCount;
+    private final AtomicLong reuseCount;
+
+    static final Logger logger = LogManager.getLogger();
+
+    public PooledSshSessionFactory() {
+        this.sessions = new HashMap<>();
+        this.handedOut = new IdentityHashMap<>();
+        this.handshakeCount = new AtomicLong();
+        this.reuseCount = new AtomicLong();
+        factories.add(this);
+    }
+
+    /**
+     * Returns a connected session to the given host if one is pooled, otherwise
+     * creates a new one. JGit only connects sessions that aren't connected yet,
+     * so returning a pooled session skips the handshake entirely
+     */
+    @Override
+    protected synchronized Session createSession(OpenSshConfig.Host hc, String user, String host, int port, FS fs)
+            throws JSchException {
+        String key = getKey(user, host, port);
+        PooledSession pooled = sessions.get(key);
+        if (pooled != null && pooled.session.isConnected()) {
+            pooled.lastUsed = System.currentTimeMillis();
+            reuseCount.incrementAndGet();
+            logger.debug("Reusing SSH session for {}", key);
+            lastCreated = pooled;
+            return pooled.session;
+        }
+
+        Session session = super.createSession(hc, user, host, port, fs);
+        lastCreated = new PooledSession(session);
+        sessions.put(key, lastCreated);
+        handshakeCount.incrementAndGet();
+        logger.debug("Opening new SSH session for {}", key);
+        return session;
+    }
+
+    /**
+     * Remembers which pooled session is behind the remote session JGit gets, so it
+     * can be marked as used when it's released
+     */
+    @Override
+    public synchronized RemoteSession getSession(URIish uri, CredentialsProvider credentialsProvider, FS fs, int tms)
+            throws TransportException {
+        lastCreated = null;
+        RemoteSession remoteSession = super.getSession(uri, credentialsProvider, fs, tms);
+        if (lastCreated != null) {
+            handedOut.put(remoteSession, lastCreated);
+            lastCreated.handOutCount++;
+        }
+        return remoteSession;
+    }
+
+    /**
+     * Keeps the session open for the next operation instead of disconnecting it.
+     * Idle sessions are disconnected later by the reaper
+     */
+    @Override
+    public synchronized void releaseSession(RemoteSession session) {
+        PooledSession pooled = handedOut.remove(session);
+        if (pooled != null) {
+            pooled.handOutCount--;
+            pooled.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param uri the address of a remote
+     * @return true if a connected session to the remote's host is pooled
+     */
+    public synchronized boolean hasOpenSession(URIish uri) {
+        String user = uri.getUser() != null ? uri.getUser() : "";
+        int port = uri.getPort() > 0 ? uri.getPort() : 22;
+        for (Map.Entry<String, PooledSession> entry : sessions.entrySet()) {
+            if (entry.getValue().session.isConnected()
+                    && entry.getKey().endsWith("@" + uri.getHost() + ":" + port)
+                    && (user.isEmpty() || entry.getKey().startsWith(user + "@"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Disconnects every pooled session, e.g. when the credentials change
+     */
+    public synchronized void disconnectAll() {
+        for (PooledSession pooled : sessions.values()) {
+            pooled.session.disconnect();
+        }
+        sessions.clear();
+        handedOut.clear();
+    }
+
+    private void disconnectIdleSessions() {
+        disconnectIdleSessions(System.currentTimeMillis());
+    }
+
+    /**
+     * Disconnects and forgets sessions that have been idle for longer than IDLE_TIMEOUT.
+     * Sessions that are handed out aren't idle, e.g. during a long clone
+     * @param now the current time, in milliseconds
+     */
+    synchronized void disconnectIdleSessions(long now) {
+        Iterator<PooledSession> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            PooledSession pooled = iterator.next();
+            if (pooled.handOutCount > 0) continue;
+            if (!pooled.session.isConnected() || now - pooled.lastUsed > IDLE_TIMEOUT) {
+                pooled.session.disconnect();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of sessions that required a new handshake
+     */
+    public long getHandshakeCount() {
+        return handshakeCount.get();
+    }
+
+    /**
+     * @return the number of times an open session was reused instead of handshaking
+     */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    private static String getKey(String user, String host, int port) {
+        return (user == null ? "" : user) + "@" + host + ":" + (port > 0 ? port : 22);
+    }
+
+    /**
+     * A JSch session along with the last time it was handed out or released, and how
+     * many remote sessions that haven't been released yet use it
+     */
+    private static class PooledSession {
+        final Session session;
+        long lastUsed;
+        int handOutCount;
+
+        PooledSession(Session session) {
+            this.session = session;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+}
@@ -29,6 +29,9 @@ public class PopUpWindows {
 
     static final Logger logger = LogManager.getLogger();
 
+    // The most commits to list when finding a commit
+    private static final int FIND_COMMIT_RESULTS = 100;
+
     /**
      * Informs the user that they are about to commit a conflicting file
      *
@@ -449,6 +452,103 @@ public class PopUpWindows {
             return null;
     }
 
+    /**
+     * Asks the user which branches to show the history of
+     * @param branches the branches to choose from
+     * @return the chosen branches, or null if the user cancelled or didn't choose any
+     */
+    public static List<BranchHelper> pickBranchesToShow(List<BranchHelper> branches) {
+        Alert alert = new Alert(Alert.AlertType.NONE);
+        alert.setTitle("Show branches");
+        alert.setHeaderText("Select the branches to show the history of.");
+
+        CheckListView<BranchHelper> branchList = new CheckListView<>(FXCollections.observableArrayList(branches));
+
+        ButtonType cancelButton = new ButtonType("Cancel", ButtonBar.ButtonData.CANCEL_CLOSE);
+        ButtonType showButton = new ButtonType("Show", ButtonBar.ButtonData.APPLY);
+        alert.getDialogPane().setContent(branchList);
+        alert.getButtonTypes().addAll(showButton, cancelButton);
+
+        Optional<?> alertResult = alert.showAndWait();
+
+        if (alertResult.isPresent() && alertResult.get() == showButton && branchList.getCheckModel().getCheckedItems().size() > 0)
+            return new ArrayList<>(branchList.getCheckModel().getCheckedItems());
+        return null;
+    }
+
+    /**
+     * Asks the user for a pattern that the branches to show the history of match
+     * @param current the pattern to start with, or null
+     * @return the pattern, or null if the user cancelled or left it empty
+     */
+    public static String getBranchPattern(String current) {
+        Alert alert = new Alert(Alert.AlertType.NONE);
+        alert.setTitle("Show branches");
+        alert.setHeaderText("Show the history of the branches that match a pattern, e.g. origin/feature/*");
+
+        TextField patternField = new TextField(current == null ? "" : current);
+        patternField.setPromptText("Pattern...");
+
+        ButtonType cancelButton = new ButtonType("Cancel", ButtonBar.ButtonData.CANCEL_CLOSE);
+        ButtonType showButton = new ButtonType("Show", ButtonBar.ButtonData.APPLY);
+        alert.getDialogPane().setContent(patternField);
+        alert.getButtonTypes().addAll(showButton, cancelButton);
+
+        Optional<?> alertResult = alert.showAndWait();
+
+        if (alertResult.isPresent() && alertResult.get() == showButton && !patternField.getText().trim().isEmpty())
+            return patternField.getText().trim();
+        return null;
+    }
+
+    /**
+     * Lets the user look for a commit by its message, author, id or a ref that points to it
+     * @param commitTreeModel the commit tree to look for the commit in
+     * @return the commit the user chose, or null if they cancelled
+     */
+    public static CommitHelper findCommit(CommitTreeModel commitTreeModel) {
+        Alert alert = new Alert(Alert.AlertType.NONE);
+        alert.setTitle("Find commit");
+        alert.setHeaderText("Find a commit by its message, author, id or branch.");
+
+        TextField queryField = new TextField();
+        queryField.setPromptText("Search...");
+        ListView<CommitHelper> resultList = new ListView<>();
+        resultList.setCellFactory(list -> new ListCell<CommitHelper>() {
+            @Override
+            protected void updateItem(CommitHelper commit, boolean empty) {
+                super.updateItem(commit, empty);
+                setText(empty || commit == null ? null
+                        : commit.getName().substring(0, 8) + "  " + commit.getMessage(false) + " (" + commit.getAuthorName() + ")");
+            }
+        });
+        queryField.textProperty().addListener((observable, oldValue, newValue) -> {
+            resultList.getItems().setAll(commitTreeModel.searchCommits(newValue, FIND_COMMIT_RESULTS));
+            resultList.getSelectionModel().selectFirst();
+        });
+
+        VBox content = new VBox(10, queryField, resultList);
+        content.setPrefWidth(500);
+
+        ButtonType cancelButton = new ButtonType("Cancel", ButtonBar.ButtonData.CANCEL_CLOSE);
+        ButtonType showButton = new ButtonType("Show", ButtonBar.ButtonData.APPLY);
+        alert.getDialogPane().setContent(content);
+        alert.getButtonTypes().addAll(showButton, cancelButton);
+        alert.getDialogPane().lookupButton(showButton).disableProperty()
+                .bind(resultList.getSelectionModel().selectedItemProperty().isNull());
+        resultList.setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2 && resultList.getSelectionModel().getSelectedItem() != null)
+                alert.setResult(showButton);
+        });
+        Platform.runLater(queryField::requestFocus);
+
+        Optional<?> alertResult = alert.showAndWait();
+
+        if (alertResult.isPresent() && alertResult.get() == showButton)
+            return resultList.getSelectionModel().getSelectedItem();
+        return null;
+    }
+
     static boolean trackCurrentBranchRemotely(String branchName) {
 
         final boolean[] result = new boolean[1];
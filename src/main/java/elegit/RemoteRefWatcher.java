@@ -0,0 +1,171 @@
+package elegit;
+
+import elegit.exceptions.MissingRepoException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Polls every configured remote of a repository for its advertised branch heads
+ * and compares them against the local remote-tracking branches.
+ *
+ * The tips advertised on the last poll are kept per remote, so a remote that hasn't
+ * changed (or can't be reached) is polled less and less often, up to a maximum interval.
+ */
+public class RemoteRefWatcher {
+
+    // Bounds on the time to wait between polls
+    public static final long MIN_POLL_INTERVAL = RepositoryMonitor.REMOTE_CHECK_INTERVAL;
+    public static final long MAX_POLL_INTERVAL = MIN_POLL_INTERVAL * 16;
+
+    // Size of a pkt-line ref advertisement, excluding the ref name: length header, id, space and newline
+    private static final int ADVERTISED_REF_OVERHEAD = 4 + Constants.OBJECT_ID_STRING_LENGTH + 2;
+
+    private final RepoHelper repo;
+
+    // remote name -> (advertised ref name -> tip) as seen on the last poll
+    private final Map<String, Map<String, ObjectId>> lastAdvertisedTips;
+
+    private long pollInterval;
+
+    private volatile long lastPollLatency;
+    private volatile long lastPollBytes;
+
+    static final Logger logger = LogManager.getLogger();
+
+    public RemoteRefWatcher(RepoHelper repo) {
+        this.repo = repo;
+        this.lastAdvertisedTips = new HashMap<>();
+        this.pollInterval = MIN_POLL_INTERVAL;
+        this.lastPollLatency = -1;
+        this.lastPollBytes = -1;
+    }
+
+    /**
+     * Queries each remote once and updates the stored tips and the polling interval.
+     * The interval is reset to its minimum whenever a remote advertises something new,
+     * and is doubled when every remote is either idle or unreachable.
+     *
+     * @return true if any remote advertises a head that the local remote-tracking
+     * branches don't have yet
+     */
+    public boolean poll() {
+        long start = System.currentTimeMillis();
+        long bytes = 0;
+        boolean hasFoundNewChanges = false;
+        boolean hasAdvertisementChanged = false;
+
+        for (String remote : repo.getRemoteNames()) {
+            Collection<Ref> heads;
+            try {
+                heads = repo.getRefsFromRemote(remote);
+            } catch (GitAPIException e) {
+                // Unreachable remotes count as idle
+                continue;
+            }
+
+            Map<String, ObjectId> tips = new HashMap<>(heads.size() * 2);
+            for (Ref ref : heads) {
+                tips.put(ref.getName(), ref.getObjectId());
+                bytes += ADVERTISED_REF_OVERHEAD + ref.getName().length();
+            }
+
+            if (!tips.equals(lastAdvertisedTips.put(remote, tips))) {
+                hasAdvertisementChanged = true;
+            }
+            if (!hasFoundNewChanges) {
+                hasFoundNewChanges = hasUnfetchedTips(remote, tips);
+            }
+        }
+
+        pollInterval = hasAdvertisementChanged ? MIN_POLL_INTERVAL : Math.min(pollInterval * 2, MAX_POLL_INTERVAL);
+        lastPollLatency = System.currentTimeMillis() - start;
+        lastPollBytes = bytes;
+
+        logger.debug("Polled remotes of {} in {} ms ({} bytes advertised), next poll in {} ms",
+                repo, lastPollLatency, lastPollBytes, pollInterval);
+
+        return hasFoundNewChanges;
+    }
+
+    /**
+     * Downloads, in the background, the objects of every remote whose advertised
+     * tips from the last poll haven't been fetched or prefetched yet
+     * @see RepoHelper#prefetch(String)
+     */
+    public void prefetch() {
+        for (Map.Entry<String, Map<String, ObjectId>> entry : lastAdvertisedTips.entrySet()) {
+            String remote = entry.getKey();
+            try {
+                if (hasUnfetchedTips(remote, entry.getValue())
+                        && isMissingTips(repo.getPrefetchRefs(remote), entry.getValue())) {
+                    repo.prefetch(remote);
+                }
+            } catch (GitAPIException | IOException | MissingRepoException e) {
+                logger.debug("Prefetch from {} failed", remote);
+            }
+        }
+    }
+
+    /**
+     * @param remote the name of the remote
+     * @param tips the advertised heads of the remote, keyed by full ref name
+     * @return true if any advertised head is missing from the remote-tracking
+     * branches or points somewhere else
+     */
+    private boolean hasUnfetchedTips(String remote, Map<String, ObjectId> tips) {
+        try {
+            return isMissingTips(repo.getRemoteTrackingRefs(remote), tips);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks advertised tips against a set of local refs
+     * @param localRefs local refs for the remote, keyed by branch name
+     * @param tips the advertised heads of the remote, keyed by full ref name
+     * @return true if any advertised head is missing locally or points somewhere else
+     */
+    private static boolean isMissingTips(Map<String, Ref> localRefs, Map<String, ObjectId> tips) {
+        for (Map.Entry<String, ObjectId> tip : tips.entrySet()) {
+            String branchName = Repository.shortenRefName(tip.getKey());
+            Ref localRef = localRefs.get(branchName);
+            if (localRef == null || !tip.getValue().equals(localRef.getObjectId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how long to wait (in milliseconds) before the next poll
+     */
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * @return the time (in milliseconds) the last poll took across all remotes, or -1 if none has run
+     */
+    public long getLastPollLatency() {
+        return lastPollLatency;
+    }
+
+    /**
+     * @return the estimated number of bytes advertised by all remotes on the last poll,
+     * or -1 if none has run
+     */
+    public long getLastPollBytes() {
+        return lastPollBytes;
+    }
+}
@@ -1,15 +1,7 @@
 package elegit;
 
-import elegit.controllers.SessionController;
-import javafx.scene.Node;
-import javafx.scene.control.Button;
-import javafx.scene.control.ContextMenu;
-import javafx.scene.control.MenuItem;
-import javafx.scene.control.Tooltip;
-import javafx.scene.text.Font;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.controlsfx.control.PopOver;
 import org.eclipse.jgit.api.errors.GitAPIException;
 
 import java.io.IOException;
@@ -42,12 +34,15 @@ public class RepoFile implements Comparable<RepoFile> {
     static final Logger logger = LogManager.getLogger();
     protected ArrayList<RepoFile> children; // Only directories will use this!
 
-    Button diffButton;
+    // How the file's status is shown: the label and css id of its status button, and
+    // the button's tooltip. The controls themselves are only made by RepoFileTreeCell,
+    // for the files that are actually on screen
+    private String statusText;
+    private String statusId;
+    private String statusTooltip;
 
+    // Whether clicking the status button shows the diff of the file
     boolean showPopover;
-    PopOver diffPopover;
-
-    ContextMenu contextMenu;
 
     public RepoFile(Path filePath, RepoHelper repo) {
         this.repo = repo;
@@ -60,37 +55,7 @@ public class RepoFile implements Comparable<RepoFile> {
 
         showPopover = false;
 
-        this.diffButton = new Button("UNCHANGED");
-        this.diffButton.getStyleClass().add("diffButton");
-
-        this.diffPopover = new PopOver();
-
-        this.diffButton.setOnAction(e -> {
-            try {
-                this.showDiffPopover(this.diffButton);
-            } catch (IOException e1) {
-                logger.error("IOException in creating repo file");
-                logger.debug(e1.getStackTrace());
-                e1.printStackTrace();
-            } catch (GitAPIException e1) {
-                logger.error("GitAPIException in creating repo file");
-                logger.debug(e1.getStackTrace());
-                e1.printStackTrace();
-            }
-        });
-
-        this.contextMenu = new ContextMenu();
-
-        MenuItem addToIgnoreItem = new MenuItem("Add to .gitignore...");
-        addToIgnoreItem.setOnAction(event -> GitIgnoreEditor.show(this.repo, this.filePath));
-
-        MenuItem checkoutItem = new MenuItem("Checkout...");
-        SessionController controller = CommitTreeController.sessionController;
-        checkoutItem.setOnAction(event -> {
-            controller.handleCheckoutButton(filePath);
-        });
-
-        this.contextMenu.getItems().addAll(addToIgnoreItem, checkoutItem);
+        this.statusText = "UNCHANGED";
     }
 
     public RepoFile(String filePathString, RepoHelper repo) {
@@ -154,26 +119,45 @@ public class RepoFile implements Comparable<RepoFile> {
         System.err.println("Can't add children to this type of RepoFile.");
     }
 
-    public void showDiffPopover(Node owner) throws IOException, GitAPIException {
-        if(showPopover) {
-            contextMenu.hide();
+    /**
+     * Sets how the status of this file is displayed. Only meant to be called
+     * from constructors
+     * @param text the label of the status button, or null for no button
+     * @param id the css id of the status button
+     * @param tooltip the tooltip of the status button
+     */
+    protected void setStatus(String text, String id, String tooltip) {
+        this.statusText = text;
+        this.statusId = id;
+        this.statusTooltip = tooltip;
+    }
 
-            DiffHelper diffHelper = new DiffHelper(this.filePath, this.repo);
-            this.diffPopover.setContentNode(diffHelper.getDiffScrollPane());
-            this.diffPopover.setTitle("File Diffs");
-            this.diffPopover.show(owner);
-        }
+    /**
+     * @return the label of the status button of this file, or null if it shouldn't have one
+     */
+    public String getStatusText() {
+        return this.statusText;
+    }
+
+    /**
+     * @return the css id of the status button of this file
+     */
+    public String getStatusId() {
+        return this.statusId;
     }
 
-    public void showContextMenu(Node owner, double x, double y){
-        this.diffPopover.hide();
-        this.contextMenu.show(owner, x, y);
+    /**
+     * @return the tooltip of the status button of this file
+     */
+    public String getStatusTooltip() {
+        return this.statusTooltip;
     }
 
-    protected Tooltip getToolTip(String message) {
-        Tooltip tooltip = new Tooltip(message);
-        tooltip.setFont(new Font(10));
-        return tooltip;
+    /**
+     * @return whether clicking this file's status button shows its diff
+     */
+    public boolean canShowDiff() {
+        return this.showPopover;
     }
 
     public boolean equals(Object o){
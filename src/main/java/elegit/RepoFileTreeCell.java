@@ -0,0 +1,156 @@
+package elegit;
+
+import elegit.controllers.SessionController;
+import javafx.scene.Node;
+import javafx.scene.control.Button;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.Tooltip;
+import javafx.scene.control.cell.CheckBoxTreeCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.text.Font;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.controlsfx.control.PopOver;
+
+import java.io.IOException;
+
+/**
+ * A tree cell that shows a RepoFile with a checkbox and its status button. The
+ * button, its tooltip and the diff popover belong to the cell, not the file, so
+ * they are only created for the cells that are on screen and are reused as the
+ * tree scrolls. Context menus are built when they are requested.
+ */
+public class RepoFileTreeCell extends CheckBoxTreeCell<RepoFile> {
+
+    private Button diffButton;
+    private Tooltip diffTooltip;
+    private HBox graphicBox;
+    private PopOver diffPopover;
+    private DiffHelper diffHelper;
+
+    // The session that handles the actions of the context menu
+    private final SessionController sessionController;
+
+    static final Logger logger = LogManager.getLogger();
+
+    public RepoFileTreeCell(SessionController sessionController) {
+        super();
+        this.sessionController = sessionController;
+        setOnContextMenuRequested(event -> {
+            if(diffPopover != null) diffPopover.hide();
+            if(getItem() != null) showContextMenu(this.sessionController, getItem(), this, event.getScreenX(), event.getScreenY());
+        });
+    }
+
+    @Override
+    public void updateItem(RepoFile item, boolean empty) {
+        super.updateItem(item, empty);
+
+        if(empty || item == null || item.getStatusText() == null) return;
+
+        Button button = getDiffButton();
+        button.setText(item.getStatusText());
+        button.setId(item.getStatusId());
+        if(item.getStatusTooltip() == null) {
+            button.setTooltip(null);
+        } else {
+            if(diffTooltip == null) {
+                diffTooltip = new Tooltip();
+                diffTooltip.setFont(new Font(10));
+            }
+            diffTooltip.setText(item.getStatusTooltip());
+            button.setTooltip(diffTooltip);
+        }
+
+        // The superclass has set the graphic to the checkbox
+        Node checkBox = getGraphic();
+        if(graphicBox == null) graphicBox = new HBox(3);
+        graphicBox.getChildren().setAll(checkBox, button);
+        setGraphic(graphicBox);
+    }
+
+    private Button getDiffButton() {
+        if(diffButton == null) {
+            diffButton = new Button();
+            diffButton.getStyleClass().add("diffButton");
+            diffButton.setOnAction(e -> {
+                if(getItem() != null) showDiffPopover(getItem());
+            });
+        }
+        return diffButton;
+    }
+
+    /**
+     * Shows the diff of the given file in a popover anchored at the status button,
+     * if the file's status has a diff to show
+     * @param file the file whose diff to show
+     */
+    private void showDiffPopover(RepoFile file) {
+        if(!file.canShowDiff()) return;
+
+        if(diffPopover == null) {
+            diffPopover = new PopOver();
+            diffPopover.setTitle("File Diffs");
+            // Stop computing the diff if the popover is closed before it's done
+            diffPopover.setOnHidden(event -> {
+                if(diffHelper != null) diffHelper.cancel();
+            });
+        }
+
+        try {
+            diffHelper = new DiffHelper(file.getFilePath(), file.getRepo());
+            diffPopover.setContentNode(diffHelper.getDiffView());
+            diffPopover.show(diffButton);
+        } catch (IOException e) {
+            logger.error("IOException in showing a diff");
+            logger.debug(e.getStackTrace());
+        }
+    }
+
+    /**
+     * Shows which commit last changed each line of the given file in a popover anchored
+     * at the given node. Computing the blame stops if the popover is closed first
+     * @param file the file to blame
+     * @param owner the node to show the popover on
+     */
+    static void showBlamePopover(RepoFile file, Node owner) {
+        BlameHelper blameHelper = new BlameHelper(file.getFilePath(), file.getRepo());
+        PopOver blamePopover = new PopOver(blameHelper.getBlameView());
+        blamePopover.setTitle("Blame");
+        blamePopover.setOnHidden(event -> blameHelper.cancel());
+        blamePopover.show(owner);
+    }
+
+    /**
+     * Builds the context menu for a file and shows it
+     * @param controller the session that handles the actions of the menu
+     * @param file the file the menu is for
+     * @param owner the node to show the menu on
+     * @param x the screen x coordinate to show the menu at
+     * @param y the screen y coordinate to show the menu at
+     */
+    static void showContextMenu(SessionController controller, RepoFile file, Node owner, double x, double y) {
+        ContextMenu contextMenu = new ContextMenu();
+
+        MenuItem addToIgnoreItem = new MenuItem("Add to .gitignore...");
+        addToIgnoreItem.setOnAction(event -> GitIgnoreEditor.show(file.getRepo(), file.getFilePath()));
+
+        MenuItem checkoutItem = new MenuItem("Checkout...");
+        checkoutItem.setOnAction(event -> controller.handleCheckoutButton(file.getFilePath()));
+
+        MenuItem historyItem = new MenuItem("Show History");
+        historyItem.setOnAction(event -> controller.handleShowFileHistory(file.getFilePath()));
+
+        MenuItem blameItem = new MenuItem("Blame");
+        blameItem.setOnAction(event -> showBlamePopover(file, owner));
+
+        contextMenu.getItems().addAll(addToIgnoreItem, checkoutItem, historyItem, blameItem);
+
+        if(file instanceof ConflictingRepoFile) {
+            contextMenu.getItems().add(new MenuItem("Resolve conflict..."));
+        }
+
+        contextMenu.show(owner, x, y);
+    }
+}
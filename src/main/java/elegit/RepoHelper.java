@@ -13,24 +13,25 @@ import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.*;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidRemoteException;
-import org.eclipse.jgit.ignore.IgnoreNode;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revplot.PlotCommitList;
 import org.eclipse.jgit.revplot.PlotLane;
 import org.eclipse.jgit.revplot.PlotWalk;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.*;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.util.FS;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * The RepoHelper class, used for interacting with a repository.
@@ -48,19 +49,69 @@ public class RepoHelper {
     protected File credentialsFile;
     protected List<String> credentialsList;
     protected UserInfo userInfo;
-    protected SshSessionFactory sshSessionFactory;
+    protected PooledSshSessionFactory sshSessionFactory;
 
     private List<CommitHelper> localCommits;
     private List<CommitHelper> remoteCommits;
+    // The same commits, for quick lookups
+    private Set<CommitHelper> localCommitSet;
+    private Set<CommitHelper> remoteCommitSet;
+
+    // Commits that commits, merges and fetches made here added, removed or moved between
+    // local and remote since the commit tree last caught up. Also guards knownRefs
+    private final Set<CommitHelper> changedCommits = new LinkedHashSet<>();
+    // Where the refs pointed when the commits were last parsed or updated, or null if
+    // the parsed commits might not match the repository anymore
+    private Map<String, ObjectId> knownRefs;
 
     private Map<String, CommitHelper> commitIdMap;
     private Map<ObjectId, String> idMap;
 
+    // How many commits are read at a time. The newest commits of all branches are read
+    // first, so the commit tree can be shown without walking the whole history
+    public static final int HISTORY_PAGE_SIZE = 2000;
+    // The page size this repository uses, smaller in tests
+    int historyPageSize = HISTORY_PAGE_SIZE;
+    // Walks the history of all branches, newest first, and is kept open for the next page
+    private RevWalk historyWalk;
+    // Carried from the local and remote branch heads down to the commits they reach
+    private RevFlag localFlag;
+    private RevFlag remoteFlag;
+    private int numHistoryCommits;
+    private boolean hasMoreHistory;
+    // Commits whose parents haven't been read yet, by the id of the missing parent
+    private Map<ObjectId, List<CommitHelper>> commitsMissingParents = new HashMap<>();
+    // Which branches the history is read from
+    private HistoryFilter historyFilter = HistoryFilter.ALL;
+
     private BranchModel branchModel;
     private TagModel tagModel;
 
     public BooleanProperty hasRemoteProperty;
 
+    // Namespace for branch heads downloaded in the background, kept apart from the remote-tracking branches
+    public static final String PREFETCH_REF_PREFIX = "refs/prefetch/";
+
+    // Keeps a background prefetch and a user fetch from writing objects and refs at the same time
+    private final Object fetchLock = new Object();
+
+    // Parsed ignore rules and the tracked files they match, created on first use
+    private IgnoreRuleCache ignoreRuleCache;
+
+    // Bloom filters of the paths each commit changed, created on first use
+    private ChangedPathIndex changedPathIndex;
+
+    // Watches the files of this repository that are conflicting, created on first use
+    private ConflictingFileWatcher conflictingFileWatcher;
+    // How many commits get their changed paths computed under one hold of the read lock
+    private static final int CHANGED_PATH_BATCH_SIZE = 500;
+
+    // Reads of the repository run in parallel, writes (commit, checkout, merge,
+    // reset, ...) run alone. Reentrant, so a write may call other writes and reads
+    private final ReentrantReadWriteLock accessLock = new ReentrantReadWriteLock();
+    // Odd while a write is in progress, and bumped at the start and end of every write
+    private final AtomicLong writeStamp = new AtomicLong();
+
     static final Logger logger = LogManager.getLogger();
     public UsernamePasswordCredentialsProvider ownerAuth;
 
@@ -137,7 +188,10 @@ public class RepoHelper {
     }
 
     public void setupSshSessionFactory() {
-        sshSessionFactory = new JschConfigSessionFactory() {
+        if (sshSessionFactory != null) {
+            sshSessionFactory.disconnectAll();
+        }
+        sshSessionFactory = new PooledSshSessionFactory() {
             @Override
             protected void configure(OpenSshConfig.Host host, Session session) {
                 session.setPassword(password);
@@ -214,6 +268,29 @@ public class RepoHelper {
                 });
     }
 
+    /**
+     * Lets the command reuse an SSH session that an earlier authenticated operation
+     * left open, without setting up authentication of its own. If no such session is
+     * open, the command connects as it would have otherwise. Used by background
+     * operations that should never prompt the user
+     *
+     * @param command the command to configure
+     */
+    void reuseOpenSshSession(TransportCommand command) {
+        command.setTransportConfigCallback(transport -> {
+            if (transport instanceof TransportGitSsh && sshSessionFactory.hasOpenSession(transport.getURI())) {
+                ((SshTransport) transport).setSshSessionFactory(sshSessionFactory);
+            }
+        });
+    }
+
+    /**
+     * @return the factory that pools this repository's SSH sessions
+     */
+    public PooledSshSessionFactory getSshSessionFactory() {
+        return sshSessionFactory;
+    }
+
     protected void myWrapAuthentication(TransportCommand command) {
         wrapAuthentication(command, this.ownerAuth, this.password, this.credentialsFile, this.credentialsList,
                            this.userInfo);
@@ -226,11 +303,13 @@ public class RepoHelper {
 
         this.commitIdMap = new HashMap<>();
         this.idMap = new HashMap<>();
+        this.commitsMissingParents = new HashMap<>();
 
         this.branchModel = new BranchModel(this);
 
-        this.localCommits = this.parseAllLocalCommits();
-        this.remoteCommits = this.parseAllRemoteCommits();
+        Map<String, ObjectId> parsedRefs = this.getRefIds();
+        this.parseHistory(historyPageSize);
+        this.setKnownRefs(parsedRefs);
 
         this.tagModel = new TagModel(this);
 
@@ -250,11 +329,12 @@ public class RepoHelper {
     public void updateModel() throws GitAPIException, IOException {
         this.commitIdMap = new HashMap<>();
         this.idMap = new HashMap<>();
+        this.commitsMissingParents = new HashMap<>();
 
         branchModel.updateAllBranches();
-        // Reparse commits
-        this.localCommits = this.parseAllLocalCommits();
-        this.remoteCommits = this.parseAllRemoteCommits();
+        Map<String, ObjectId> parsedRefs = this.getRefIds();
+        this.reparseHistory();
+        this.setKnownRefs(parsedRefs);
 
         tagModel.updateTags();
     }
@@ -323,21 +403,26 @@ public class RepoHelper {
      * @throws GitAPIException if the `git add` call fails.
      */
     public void addFilePaths(ArrayList<Path> filePaths) throws GitAPIException {
-        Git git = new Git(this.repo);
-        // git add:
-        AddCommand adder = git.add();
-        for (Path filePath : filePaths) {
-            String pathToAdd = filePath.toString();
-            if (!File.separator.equals("/")) {
-                if (File.separator.equals("\\"))
-                    pathToAdd = pathToAdd.replaceAll("\\\\", "/");
-                else
-                    pathToAdd = pathToAdd.replaceAll(File.separator, "/");
+        lockForWriting();
+        try {
+            Git git = new Git(this.repo);
+            // git add:
+            AddCommand adder = git.add();
+            for (Path filePath : filePaths) {
+                String pathToAdd = filePath.toString();
+                if (!File.separator.equals("/")) {
+                    if (File.separator.equals("\\"))
+                        pathToAdd = pathToAdd.replaceAll("\\\\", "/");
+                    else
+                        pathToAdd = pathToAdd.replaceAll(File.separator, "/");
+                }
+                adder.addFilepattern(pathToAdd);
             }
-            adder.addFilepattern(pathToAdd);
+            adder.call();
+            git.close();
+        } finally {
+            unlockForWriting();
         }
-        adder.call();
-        git.close();
     }
 
     /**
@@ -345,9 +430,14 @@ public class RepoHelper {
      * @param filePath the file to check out
      */
     public void checkoutFile(Path filePath) throws GitAPIException {
-        Git git = new Git(this.repo);
-        git.checkout().addPath(filePath.toString()).call();
-        git.close();
+        lockForWriting();
+        try {
+            Git git = new Git(this.repo);
+            git.checkout().addPath(filePath.toString()).call();
+            git.close();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -355,12 +445,17 @@ public class RepoHelper {
      * @param filePaths the files to check out
      */
     public void checkoutFiles(List<Path> filePaths) throws GitAPIException {
-        Git git = new Git(this.repo);
-        CheckoutCommand checkout = git.checkout();
-        for (Path filePath : filePaths)
-            checkout.addPath(filePath.toString());
-        checkout.call();
-        git.close();
+        lockForWriting();
+        try {
+            Git git = new Git(this.repo);
+            CheckoutCommand checkout = git.checkout();
+            for (Path filePath : filePaths)
+                checkout.addPath(filePath.toString());
+            checkout.call();
+            git.close();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -369,9 +464,14 @@ public class RepoHelper {
      * @param startPoint the tree-ish point to checkout the file from
      */
     public void checkoutFile(String filePath, String startPoint) throws GitAPIException {
-        Git git = new Git(this.repo);
-        git.checkout().setStartPoint(startPoint).addPath(filePath).call();
-        git.close();
+        lockForWriting();
+        try {
+            Git git = new Git(this.repo);
+            git.checkout().setStartPoint(startPoint).addPath(filePath).call();
+            git.close();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -382,12 +482,17 @@ public class RepoHelper {
      * @return the result of the checkout
      */
     public CheckoutResult checkoutFiles(List<String> filePaths, String startPoint) throws GitAPIException {
-        Git git = new Git(this.repo);
-        CheckoutCommand checkout = git.checkout().setStartPoint(startPoint);
-        for (String filePath : filePaths)
-            checkout.addPath(filePath);
-        checkout.call();
-        return checkout.getResult();
+        lockForWriting();
+        try {
+            Git git = new Git(this.repo);
+            CheckoutCommand checkout = git.checkout().setStartPoint(startPoint);
+            for (String filePath : filePaths)
+                checkout.addPath(filePath);
+            checkout.call();
+            return checkout.getResult();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -397,12 +502,17 @@ public class RepoHelper {
      * @throws GitAPIException if the `git rm` call fails.
      */
     public void removeFilePath(Path filePath) throws GitAPIException {
-        Git git = new Git(this.repo);
-        // git rm:
-        git.rm()
-                .addFilepattern(filePath.toString())
-                .call();
-        git.close();
+        lockForWriting();
+        try {
+            Git git = new Git(this.repo);
+            // git rm:
+            git.rm()
+                    .addFilepattern(filePath.toString())
+                    .call();
+            git.close();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -412,14 +522,19 @@ public class RepoHelper {
      * @throws GitAPIException if the `git rm` call fails.
      */
     public void removeFilePaths(ArrayList<Path> filePaths) throws GitAPIException {
-        Git git = new Git(this.repo);
-        // git rm:
-        RmCommand remover = git.rm();
-        for (Path filePath : filePaths) {
-            remover.addFilepattern(filePath.toString());
+        lockForWriting();
+        try {
+            Git git = new Git(this.repo);
+            // git rm:
+            RmCommand remover = git.rm();
+            for (Path filePath : filePaths) {
+                remover.addFilepattern(filePath.toString());
+            }
+            remover.call();
+            git.close();
+        } finally {
+            unlockForWriting();
         }
-        remover.call();
-        git.close();
     }
 
     /**
@@ -484,33 +599,47 @@ public class RepoHelper {
      * @throws GitAPIException if the `git commit` call fails.
      */
     public void commit(String commitMessage) throws GitAPIException, MissingRepoException {
-        logger.info("Attempting commit");
-        if (!exists()) throw new MissingRepoException();
+        lockForWriting();
+        try {
+            logger.info("Attempting commit");
+            if (!exists()) throw new MissingRepoException();
 
-        Git git = new Git(this.repo);
-        // git commit:
-        git.commit()
-                .setMessage(commitMessage)
-                .call();
-        git.close();
+            Map<String, ObjectId> refsBefore = getRefIdsIfKnown();
 
-        // Update the local commits
-        try {
-            this.localCommits = parseAllLocalCommits();
-        } catch (IOException e) {
-            e.printStackTrace();
+            Git git = new Git(this.repo);
+            // git commit:
+            RevCommit newCommit = git.commit()
+                    .setMessage(commitMessage)
+                    .call();
+            git.close();
+
+            // Update the local commits
+            try {
+                appendLocalCommits(refsBefore, newCommit);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            unlockForWriting();
         }
     }
 
     public void commitAll(String message) throws MissingRepoException, GitAPIException, IOException {
-        if (!exists()) throw new MissingRepoException();
+        lockForWriting();
+        try {
+            if (!exists()) throw new MissingRepoException();
 
 
-        Git git = new Git(repo);
-        git.commit().setMessage(message).setAll(true).call();
-        git.close();
+            Map<String, ObjectId> refsBefore = getRefIdsIfKnown();
+
+            Git git = new Git(repo);
+            RevCommit newCommit = git.commit().setMessage(message).setAll(true).call();
+            git.close();
 
-        localCommits = parseAllLocalCommits();
+            appendLocalCommits(refsBefore, newCommit);
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -551,19 +680,77 @@ public class RepoHelper {
 
     public void pushCurrentBranch(PushCommand push) throws GitAPIException, PushToAheadRemoteError, IOException {
         myWrapAuthentication(push);
+        Map<String, ObjectId> refsBefore = readRefIdsIfKnown();
         Iterable<PushResult> pushResult = push.call();
 
-        for(PushResult result : pushResult) {
-            for(RemoteRefUpdate remoteRefUpdate : result.getRemoteUpdates()) {
-                if(!remoteRefUpdate.getStatus().equals(RemoteRefUpdate.Status.OK)) {
-                    throw new PushToAheadRemoteError(false);
+        Map<String, RemoteRefUpdate.Status> statuses = updateAfterPush(refsBefore, pushResult);
+
+        push.getRepository().close();
+
+        for (RemoteRefUpdate.Status status : statuses.values()) {
+            if (!status.equals(RemoteRefUpdate.Status.OK)) {
+                throw new PushToAheadRemoteError(false);
+            }
+        }
+    }
+
+    /**
+     * Brings the remote commits and the tags up to date with what a push did. JGit moves
+     * the remote-tracking branches of the refs that were pushed, so only the commits
+     * between their old and new ids need updating, like after a fetch. The push itself
+     * doesn't hold the lock, only this update takes the write lock
+     *
+     * @param refsBefore the refs from before the push, or null if they weren't known
+     * @param pushResults the results of the push
+     * @return the status of each ref that was pushed, by the name of the ref on the remote
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    private Map<String, RemoteRefUpdate.Status> updateAfterPush(Map<String, ObjectId> refsBefore,
+                                                               Iterable<PushResult> pushResults)
+            throws IOException, GitAPIException {
+        Map<String, RemoteRefUpdate.Status> statuses = new LinkedHashMap<>();
+        List<TrackingRefUpdate> trackingRefUpdates = new ArrayList<>();
+        List<String> pushedTags = new ArrayList<>();
+
+        for (PushResult result : pushResults) {
+            trackingRefUpdates.addAll(result.getTrackingRefUpdates());
+            for (RemoteRefUpdate remoteRefUpdate : result.getRemoteUpdates()) {
+                RemoteRefUpdate.Status status = remoteRefUpdate.getStatus();
+                statuses.put(remoteRefUpdate.getRemoteName(), status);
+                if (remoteRefUpdate.getRemoteName().startsWith(Constants.R_TAGS)
+                        && (status == RemoteRefUpdate.Status.OK || status == RemoteRefUpdate.Status.UP_TO_DATE)) {
+                    pushedTags.add(Repository.shortenRefName(remoteRefUpdate.getRemoteName()));
                 }
             }
         }
 
-        push.getRepository().close();
+        lockForWriting();
+        try {
+            if (!trackingRefUpdates.isEmpty()) updateRemoteCommits(refsBefore, trackingRefUpdates);
+            this.tagModel.markTagsPushed(pushedTags);
+        } finally {
+            unlockForWriting();
+        }
+        return statuses;
+    }
+
+    /**
+     * Throws an error if any of the pushed refs was rejected because the remote is ahead
+     *
+     * @param statuses the status of each pushed ref, by name
+     * @throws PushToAheadRemoteError if any ref was rejected
+     */
+    private static void checkForRejectedRefs(Map<String, RemoteRefUpdate.Status> statuses) throws PushToAheadRemoteError {
+        List<String> rejectedRefs = new ArrayList<>();
+        for (Map.Entry<String, RemoteRefUpdate.Status> status : statuses.entrySet()) {
+            if (status.getValue() == RemoteRefUpdate.Status.REJECTED_NONFASTFORWARD)
+                rejectedRefs.add(Repository.shortenRefName(status.getKey()));
+        }
 
-        this.remoteCommits = parseAllRemoteCommits();
+        if (!rejectedRefs.isEmpty()) {
+            throw new PushToAheadRemoteError(rejectedRefs.size() == statuses.size(), rejectedRefs);
+        }
     }
 
     /**
@@ -601,6 +788,18 @@ public class RepoHelper {
      */
     public PushCommand prepareToPushAll() throws GitAPIException, MissingRepoException, PushToAheadRemoteError,
             IOException, NoCommitsToPushException {
+        return prepareToPushAll(false);
+    }
+
+    /**
+     * Prepares a push of all tracked branches, and optionally all tags, so they are
+     * all sent in one push over one connection
+     *
+     * @param includeTags whether to push all tags along with the branches
+     * @throws GitAPIException if the `git push` call fails.
+     */
+    public PushCommand prepareToPushAll(boolean includeTags) throws GitAPIException, MissingRepoException,
+            PushToAheadRemoteError, IOException, NoCommitsToPushException {
         logger.info("Attempting push");
         if (!exists()) throw new MissingRepoException();
         if (!hasRemote()) throw new InvalidRemoteException("No remote repository");
@@ -635,12 +834,14 @@ public class RepoHelper {
                     setUpstreamBranch(branch, remote);
                 }
             }else {
-                if(this.getAheadCountAll() < 1) {
+                if(this.getAheadCountAll() < 1 && !includeTags) {
                     throw new NoCommitsToPushException();
                 }
             }
         }
 
+        if (includeTags) push.setPushTags();
+
         ProgressMonitor progress = new SimpleProgressMonitor();
         push.setProgressMonitor(progress);
 
@@ -648,29 +849,22 @@ public class RepoHelper {
         //pushAll(git, push);
     }
 
+    /**
+     * Runs a push prepared by prepareToPushAll
+     *
+     * @param push the push to run
+     * @throws PushToAheadRemoteError if any ref was rejected because the remote is ahead
+     */
     public void pushAll(PushCommand push) throws GitAPIException, PushToAheadRemoteError, IOException {
         myWrapAuthentication(push);
+        Map<String, ObjectId> refsBefore = readRefIdsIfKnown();
         Iterable<PushResult> pushResult = push.call();
-        boolean allPushesWereRejected = true;
-        boolean anyPushWasRejected = false;
-
-        for (PushResult result : pushResult) {
-            for (RemoteRefUpdate remoteRefUpdate : result.getRemoteUpdates()) {
-                if (remoteRefUpdate.getStatus() != (RemoteRefUpdate.Status.REJECTED_NONFASTFORWARD)) {
-                    allPushesWereRejected = false;
-                } else {
-                    anyPushWasRejected = true;
-                }
-            }
-        }
 
-        if (allPushesWereRejected || anyPushWasRejected) {
-            throw new PushToAheadRemoteError(allPushesWereRejected);
-        }
+        Map<String, RemoteRefUpdate.Status> statuses = updateAfterPush(refsBefore, pushResult);
 
         push.getRepository().close();
 
-        this.remoteCommits = parseAllRemoteCommits();
+        checkForRejectedRefs(statuses);
     }
 
     /**
@@ -688,35 +882,23 @@ public class RepoHelper {
         ProgressMonitor progress = new SimpleProgressMonitor();
         push.setProgressMonitor(progress);
 
+        Map<String, ObjectId> refsBefore = readRefIdsIfKnown();
         Iterable<PushResult> pushResult = push.setPushTags().call();
-        boolean allPushesWereRejected = true;
-        boolean anyPushWasRejected = false;
-
-        for (PushResult result : pushResult) {
-            for (RemoteRefUpdate remoteRefUpdate : result.getRemoteUpdates()) {
-                if (remoteRefUpdate.getStatus() != (RemoteRefUpdate.Status.REJECTED_NONFASTFORWARD)) {
-                    allPushesWereRejected = false;
-                } else {
-                    anyPushWasRejected = true;
-                    System.out.println(remoteRefUpdate);
-                }
-            }
-        }
 
-        if (allPushesWereRejected || anyPushWasRejected) {
-            throw new PushToAheadRemoteError(allPushesWereRejected);
-        }
+        // Tags don't move the remote-tracking branches, so this just marks them as pushed
+        Map<String, RemoteRefUpdate.Status> statuses = updateAfterPush(refsBefore, pushResult);
 
         git.close();
 
-        this.tagModel.updateTags();
-
+        checkForRejectedRefs(statuses);
         return pushResult;
     }
 
     /**
      * Fetches changes into FETCH_HEAD (`git -fetch`).
      *
+     * @param prune whether to remove remote-tracking branches whose branch was deleted on the remote
+     * @return true if any ref was updated
      * @throws GitAPIException
      * @throws MissingRepoException
      */
@@ -724,15 +906,12 @@ public class RepoHelper {
             GitAPIException, MissingRepoException, IOException {
         logger.info("Attempting fetch");
         if (!exists()) throw new MissingRepoException();
-        Git git = new Git(this.repo);
-        StoredConfig config = this.repo.getConfig();
+        Map<String, ObjectId> refsBefore = readRefIdsIfKnown();
 
-        if(prune){
-            config.setString("fetch", null, "prune", "true");
-            config.save();
-        }
+        Git git = new Git(this.repo);
 
-        FetchCommand fetch = git.fetch().setTagOpt(TagOpt.AUTO_FOLLOW);
+        // Removes remote-tracking branches whose branch is gone from the remote, just for this fetch
+        FetchCommand fetch = git.fetch().setTagOpt(TagOpt.AUTO_FOLLOW).setRemoveDeletedRefs(prune);
 
         myWrapAuthentication(fetch);
 
@@ -745,25 +924,75 @@ public class RepoHelper {
         ProgressMonitor progress = new SimpleProgressMonitor();
         fetch.setProgressMonitor(progress);
 
-        FetchResult result = fetch.call();
+        // The download doesn't need the lock: JGit updates the refs on disk itself, and
+        // only the commits and branches kept here are brought up to date afterwards
+        FetchResult result;
+        synchronized (fetchLock) {
+            result = fetch.call();
+        }
         git.close();
 
+        lockForWriting();
         try {
-            this.remoteCommits = parseAllRemoteCommits();
-        } catch (IOException e) {
-            // This shouldn't occur once we have the repo up and running.
+            try {
+                updateRemoteCommits(refsBefore, result.getTrackingRefUpdates());
+            } catch (IOException e) {
+                // This shouldn't occur once we have the repo up and running.
+            }
+
+            this.branchModel.updateRemoteBranches();
+
+            return !result.getTrackingRefUpdates().isEmpty();
+        } finally {
+            unlockForWriting();
         }
+    }
 
-        this.branchModel.updateRemoteBranches();
+    /**
+     * Downloads the objects of every branch of the given remote into
+     * refs/prefetch/[remote]/*, without touching the remote-tracking branches,
+     * tags or the user's view of the repository. A later fetch then finds all
+     * the objects it needs locally and only has to update refs.
+     *
+     * Meant to be called from a background thread: it never prompts for
+     * credentials and only reuses an SSH session that is already open.
+     *
+     * @param remote the name of the remote to prefetch from
+     * @return true if any prefetched ref was updated
+     * @throws GitAPIException
+     * @throws MissingRepoException
+     */
+    public boolean prefetch(String remote) throws GitAPIException, MissingRepoException {
+        if (!exists()) throw new MissingRepoException();
+        Git git = new Git(this.repo);
 
-        if(prune){
-            config.unsetSection("fetch", null);
-            config.save();
+        FetchCommand fetch = git.fetch()
+                .setRemote(remote)
+                .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + "*:" + PREFETCH_REF_PREFIX + remote + "/*"))
+                .setTagOpt(TagOpt.NO_TAGS)
+                .setRemoveDeletedRefs(true)
+                .setCheckFetchedObjects(true);
+        reuseOpenSshSession(fetch);
+
+        FetchResult result;
+        synchronized (fetchLock) {
+            result = fetch.call();
         }
+        git.close();
 
+        logger.debug("Prefetched {} refs from {}", result.getTrackingRefUpdates().size(), remote);
         return !result.getTrackingRefUpdates().isEmpty();
     }
 
+    /**
+     * @param remote the name of the remote
+     * @return the prefetched branch heads of the remote, keyed by branch name
+     * @throws IOException
+     */
+    public Map<String, Ref> getPrefetchRefs(String remote) throws IOException {
+        return this.repo.getRefDatabase().getRefs(PREFETCH_REF_PREFIX + remote + "/");
+    }
+
     /**
      * Merges the current branch with the remote branch that this is tracking, as
      * found in the config for the repo
@@ -775,33 +1004,45 @@ public class RepoHelper {
      */
     public MergeResult.MergeStatus mergeFromFetch() throws IOException, GitAPIException, MissingRepoException,
             ConflictingFilesException, NoTrackingException {
-        logger.info("Attempting merge from fetch");
-        if (!exists()) throw new MissingRepoException();
-        if (!hasRemote()) throw new InvalidRemoteException("No remote repository");
+        lockForWriting();
+        try {
+            logger.info("Attempting merge from fetch");
+            if (!exists()) throw new MissingRepoException();
+            if (!hasRemote()) throw new InvalidRemoteException("No remote repository");
+
+            // Get the remote branch the current branch is tracking
+            // and merge the current branch with the just fetched remote branch
+            Map<String, ObjectId> refsBefore = getRefIdsIfKnown();
+
+            MergeResult result;
+            Config config = repo.getConfig();
+            // Check if this branch is being tracked locally
+            if (config.getSubsections("branch").contains(this.repo.getBranch())) {
+                String remote = config.getString("branch", this.repo.getBranch(), "remote")+"/";
+                String remote_tracking = config.getString("branch", this.repo.getBranch(), "merge");
+                result = branchModel.mergeWithBranch(this.branchModel.getBranchByName(BranchModel.BranchType.REMOTE, remote+this.repo.shortenRefName(remote_tracking)));
+            } else {
+                throw new NoTrackingException();
+            }
 
-        // Get the remote branch the current branch is tracking
-        // and merge the current branch with the just fetched remote branch
-        MergeResult result;
-        Config config = repo.getConfig();
-        // Check if this branch is being tracked locally
-        if (config.getSubsections("branch").contains(this.repo.getBranch())) {
-            String remote = config.getString("branch", this.repo.getBranch(), "remote")+"/";
-            String remote_tracking = config.getString("branch", this.repo.getBranch(), "merge");
-            result = branchModel.mergeWithBranch(this.branchModel.getBranchByName(BranchModel.BranchType.REMOTE, remote+this.repo.shortenRefName(remote_tracking)));
-        } else {
-            throw new NoTrackingException();
-        }
+            MergeResult.MergeStatus status = result.getMergeStatus();
+            try {
+                if (status != MergeResult.MergeStatus.ALREADY_UP_TO_DATE) {
+                    // A fast forward or a merge commit adds commits, anything else falls back to reparsing
+                    boolean addsCommits = status == MergeResult.MergeStatus.FAST_FORWARD
+                            || status == MergeResult.MergeStatus.MERGED;
+                    appendLocalCommits(refsBefore, addsCommits ? result.getNewHead() : null);
+                }
+            } catch (IOException e) {
+                // This shouldn't occur once we have the repo up and running.
+            }
 
-        try {
-            this.localCommits = parseAllLocalCommits();
-        } catch (IOException e) {
-            // This shouldn't occur once we have the repo up and running.
+            if (status == MergeResult.MergeStatus.CONFLICTING) throw new ConflictingFilesException(result.getConflicts());
+            //return result.getMergeStatus().isSuccessful();
+            return status;
+        } finally {
+            unlockForWriting();
         }
-
-        MergeResult.MergeStatus status = result.getMergeStatus();
-        if (status == MergeResult.MergeStatus.CONFLICTING) throw new ConflictingFilesException(result.getConflicts());
-        //return result.getMergeStatus().isSuccessful();
-        return status;
     }
 
     //******************** REVERT SECTION ********************
@@ -826,20 +1067,25 @@ public class RepoHelper {
      * @throws GitAPIException
      */
     void revert(List<AnyObjectId> commits) throws MissingRepoException, GitAPIException {
-        logger.info("Attempting reverts");
-        if (!exists()) throw new MissingRepoException();
-        Git git = new Git(this.repo);
-        RevertCommand revertCommand = git.revert();
-        for (AnyObjectId commit : commits)
-            revertCommand.include(commit);
-        revertCommand.call();
-        git.close();
-
-        // Update the local commits
+        lockForWriting();
         try {
-            this.localCommits = parseAllLocalCommits();
-        } catch (IOException e) {
-            // This shouldn't occur once we have the repo up and running.
+            logger.info("Attempting reverts");
+            if (!exists()) throw new MissingRepoException();
+            Git git = new Git(this.repo);
+            RevertCommand revertCommand = git.revert();
+            for (AnyObjectId commit : commits)
+                revertCommand.include(commit);
+            revertCommand.call();
+            git.close();
+
+            // Update the local commits
+            try {
+                reparseHistory();
+            } catch (IOException e) {
+                // This shouldn't occur once we have the repo up and running.
+            }
+        } finally {
+            unlockForWriting();
         }
     }
 
@@ -852,21 +1098,24 @@ public class RepoHelper {
      * @throws GitAPIException
      */
     public void revert(CommitHelper helper) throws MissingRepoException, GitAPIException {
-        logger.info("Attempting revert");
-        if (!exists()) throw new MissingRepoException();
-        Git git = new Git(this.repo);
-        // git revert:
-        git.revert().include(helper.getObjectId()).call();
-        git.close();
-
-        // Update the local commits
+        lockForWriting();
         try {
-            this.localCommits = parseAllLocalCommits();
-        } catch (IOException e) {
-            // This shouldn't occur once we have the repo up and running.
+            logger.info("Attempting revert");
+            if (!exists()) throw new MissingRepoException();
+            Git git = new Git(this.repo);
+            // git revert:
+            git.revert().include(helper.getObjectId()).call();
+            git.close();
+
+            // Update the local commits
+            try {
+                reparseHistory();
+            } catch (IOException e) {
+                // This shouldn't occur once we have the repo up and running.
+            }
+        } finally {
+            unlockForWriting();
         }
-
-
     }
 
     //******************** RESET SECTION ********************
@@ -881,11 +1130,16 @@ public class RepoHelper {
      * @throws GitAPIException
      */
     void reset(Path path) throws MissingRepoException, GitAPIException {
-        logger.info("Attempting reset file");
-        if (!exists()) throw new MissingRepoException();
-        Git git = new Git(this.repo);
-        git.reset().addPath(this.localPath.relativize(path).toString()).call();
-        git.close();
+        lockForWriting();
+        try {
+            logger.info("Attempting reset file");
+            if (!exists()) throw new MissingRepoException();
+            Git git = new Git(this.repo);
+            git.reset().addPath(this.localPath.relativize(path).toString()).call();
+            git.close();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -896,13 +1150,18 @@ public class RepoHelper {
      * @throws GitAPIException
      */
     void reset(List<Path> paths) throws MissingRepoException, GitAPIException {
-        logger.info("Attempting reset files");
-        if (!exists()) throw new MissingRepoException();
-        Git git = new Git(this.repo);
-        ResetCommand resetCommand = git.reset();
-        paths.forEach(path -> resetCommand.addPath(this.localPath.relativize(path).toString()));
-        resetCommand.call();
-        git.close();
+        lockForWriting();
+        try {
+            logger.info("Attempting reset files");
+            if (!exists()) throw new MissingRepoException();
+            Git git = new Git(this.repo);
+            ResetCommand resetCommand = git.reset();
+            paths.forEach(path -> resetCommand.addPath(this.localPath.relativize(path).toString()));
+            resetCommand.call();
+            git.close();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     // Commit resetting
@@ -925,11 +1184,16 @@ public class RepoHelper {
      * @throws GitAPIException
      */
     public void reset(String ref, ResetCommand.ResetType mode) throws MissingRepoException, GitAPIException {
-        logger.info("Attempting reset");
-        if (!exists()) throw new MissingRepoException();
-        Git git = new Git(this.repo);
-        git.reset().setRef(ref).setMode(mode).call();
-        git.close();
+        lockForWriting();
+        try {
+            logger.info("Attempting reset");
+            if (!exists()) throw new MissingRepoException();
+            Git git = new Git(this.repo);
+            git.reset().setRef(ref).setMode(mode).call();
+            git.close();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     //******************** STASH SECTION ********************
@@ -943,10 +1207,15 @@ public class RepoHelper {
      * @param includeUntracked: whether or not to include untracked files
      */
     public void stashSave(boolean includeUntracked) throws GitAPIException, NoFilesToStashException {
-        logger.info("Attempting stash save");
-        Git git = new Git(this.repo);
-        RevCommit stash = git.stashCreate().setIncludeUntracked(includeUntracked).call();
-        if (stash == null) throw new NoFilesToStashException();
+        lockForWriting();
+        try {
+            logger.info("Attempting stash save");
+            Git git = new Git(this.repo);
+            RevCommit stash = git.stashCreate().setIncludeUntracked(includeUntracked).call();
+            if (stash == null) throw new NoFilesToStashException();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -958,11 +1227,16 @@ public class RepoHelper {
      * @param indexMessage: the messaged used when committing the index changes
      */
     public void stashSave(boolean includeUntracked, String wdMessage, String indexMessage) throws GitAPIException, NoFilesToStashException {
-        logger.info("Attempting stash save with message");
-        Git git = new Git(this.repo);
-        RevCommit stash = git.stashCreate().setIncludeUntracked(includeUntracked).setWorkingDirectoryMessage(wdMessage)
-                .setIndexMessage(indexMessage).call();
-        if (stash == null) throw new NoFilesToStashException();
+        lockForWriting();
+        try {
+            logger.info("Attempting stash save with message");
+            Git git = new Git(this.repo);
+            RevCommit stash = git.stashCreate().setIncludeUntracked(includeUntracked).setWorkingDirectoryMessage(wdMessage)
+                    .setIndexMessage(indexMessage).call();
+            if (stash == null) throw new NoFilesToStashException();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -989,9 +1263,14 @@ public class RepoHelper {
      * @param force whether or not to force apply
      */
     public void stashApply(String stashRef, boolean force) throws GitAPIException {
-        logger.info("Attempting stash apply");
-        Git git = new Git(this.repo);
-        git.stashApply().setStashRef(stashRef).ignoreRepositoryState(force).call();
+        lockForWriting();
+        try {
+            logger.info("Attempting stash apply");
+            Git git = new Git(this.repo);
+            git.stashApply().setStashRef(stashRef).ignoreRepositoryState(force).call();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -1004,12 +1283,17 @@ public class RepoHelper {
      * @param applyUntracked true if the command should restore the untracked files
      */
     void stashApply(String stashRef, boolean force, boolean applyIndex, boolean applyUntracked) throws GitAPIException {
-        logger.info("Attempting stash apply with params");
-        Git git = new Git(this.repo);
-        StashApplyCommand stashApply = git.stashApply().setStashRef(stashRef).ignoreRepositoryState(force);
-        stashApply.setApplyIndex(applyIndex);
-        stashApply.setApplyUntracked(applyUntracked);
-        stashApply.call();
+        lockForWriting();
+        try {
+            logger.info("Attempting stash apply with params");
+            Git git = new Git(this.repo);
+            StashApplyCommand stashApply = git.stashApply().setStashRef(stashRef).ignoreRepositoryState(force);
+            stashApply.setApplyIndex(applyIndex);
+            stashApply.setApplyUntracked(applyUntracked);
+            stashApply.call();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -1018,9 +1302,14 @@ public class RepoHelper {
      * @return the value of the stash reference after the drop occurs
      */
     public ObjectId stashClear() throws GitAPIException{
-        logger.info("Attempting stash drop all");
-        Git git = new Git(this.repo);
-        return git.stashDrop().setAll(true).call();
+        lockForWriting();
+        try {
+            logger.info("Attempting stash drop all");
+            Git git = new Git(this.repo);
+            return git.stashDrop().setAll(true).call();
+        } finally {
+            unlockForWriting();
+        }
     }
 
     /**
@@ -1030,11 +1319,108 @@ public class RepoHelper {
      * @return the value of the value of the stashed reference
      */
     public ObjectId stashDrop(int stashRef) throws GitAPIException{
-        logger.info("Attempting stash drop");
-        Git git = new Git(this.repo);
-        return git.stashDrop().setStashRef(stashRef).call();
+        lockForWriting();
+        try {
+            logger.info("Attempting stash drop");
+            Git git = new Git(this.repo);
+            return git.stashDrop().setStashRef(stashRef).call();
+        } finally {
+            unlockForWriting();
+        }
+    }
+
+
+    //******************** ACCESS SECTION ********************
+
+    /**
+     * Blocks until no write to the repository is in progress, and keeps writes
+     * out until unlockForReading is called. Any number of threads may read at once
+     */
+    public void lockForReading() {
+        accessLock.readLock().lock();
     }
 
+    public void unlockForReading() {
+        accessLock.readLock().unlock();
+    }
+
+    /**
+     * Blocks until nothing else reads or writes the repository, and keeps them
+     * out until unlockForWriting is called. Must not be called while holding the
+     * read lock
+     */
+    public void lockForWriting() {
+        accessLock.writeLock().lock();
+        if (accessLock.getWriteHoldCount() == 1) writeStamp.incrementAndGet();
+    }
+
+    public void unlockForWriting() {
+        if (accessLock.getWriteHoldCount() == 1) writeStamp.incrementAndGet();
+        accessLock.writeLock().unlock();
+    }
+
+    /**
+     * Starts an optimistic read, which doesn't keep writes out
+     * @return a stamp to pass to validateReadStamp, or -1 if a write is in progress
+     */
+    public long tryOptimisticRead() {
+        long stamp = writeStamp.get();
+        return stamp % 2 == 0 ? stamp : -1;
+    }
+
+    /**
+     * Waits for any write in progress to finish, then starts an optimistic read
+     * @return a stamp to pass to validateReadStamp
+     */
+    public long awaitReadStamp() {
+        lockForReading();
+        try {
+            return writeStamp.get();
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    /**
+     * @param stamp a stamp from tryOptimisticRead or awaitReadStamp
+     * @return true if the repository wasn't written to since the stamp was taken
+     */
+    public boolean validateReadStamp(long stamp) {
+        return stamp >= 0 && writeStamp.get() == stamp;
+    }
+
+    /**
+     * Runs a cheap query without locking, and runs it again under the read lock
+     * if the repository was written to in the meantime
+     * @param query the query, which must not change the repository
+     * @return the result of the query
+     * @throws IOException if the query fails while nothing writes to the repository
+     */
+    public <T> T readOptimistically(RepoQuery<T> query) throws IOException {
+        long stamp = tryOptimisticRead();
+        if (stamp >= 0) {
+            try {
+                T result = query.get();
+                if (validateReadStamp(stamp)) return result;
+            } catch (IOException e) {
+                // A write may have moved things from under the query
+                if (validateReadStamp(stamp)) throw e;
+            }
+        }
+        lockForReading();
+        try {
+            return query.get();
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    /**
+     * A query of the repository that doesn't change it
+     */
+    public interface RepoQuery<T> {
+        T get() throws IOException;
+    }
 
     /**
      * Checks if the remote tracking head refers to the same commit
@@ -1058,7 +1444,20 @@ public class RepoHelper {
         }
     }
 
+    /**
+     * Closes the repository and stops watching its ignore files and conflicting files
+     */
     public void closeRepo() {
+        synchronized (this) {
+            if (this.ignoreRuleCache != null) {
+                this.ignoreRuleCache.close();
+                this.ignoreRuleCache = null;
+            }
+            if (this.conflictingFileWatcher != null) {
+                this.conflictingFileWatcher.close();
+                this.conflictingFileWatcher = null;
+            }
+        }
         this.repo.close();
     }
 
@@ -1166,6 +1565,14 @@ public class RepoHelper {
         }
     }
 
+    /**
+     * @param helper the commit to check
+     * @return true if the commit is reachable from a local or a remote-tracking branch
+     */
+    public boolean hasCommit(CommitHelper helper) {
+        return this.localCommitSet.contains(helper) || this.remoteCommitSet.contains(helper);
+    }
+
     /**
      * Helper method to determine if a commit is on both local and remote,
      * just on remote, or not merged in/tracked on local
@@ -1173,8 +1580,8 @@ public class RepoHelper {
      * @return the cell type, useful for drawing the tree
      */
     public Cell.CellType getCommitType(CommitHelper helper) {
-        if (this.localCommits.contains(helper))
-            if (this.remoteCommits.contains(helper))
+        if (this.localCommitSet.contains(helper))
+            if (this.remoteCommitSet.contains(helper))
                 return Cell.CellType.BOTH;
             else
                 return Cell.CellType.LOCAL;
@@ -1250,136 +1657,531 @@ public class RepoHelper {
     }
 
 
+    private void setLocalCommits(List<CommitHelper> commits) {
+        this.localCommits = commits;
+        this.localCommitSet = new HashSet<>(commits);
+    }
+
+    private void setRemoteCommits(List<CommitHelper> commits) {
+        this.remoteCommits = commits;
+        this.remoteCommitSet = new HashSet<>(commits);
+    }
+
+    /**
+     * @return the commit each branch, remote-tracking branch and HEAD points to, by the name
+     * of the ref. These are where the commits are parsed from, so other refs are left out
+     * @throws IOException
+     */
+    private Map<String, ObjectId> getRefIds() throws IOException {
+        Map<String, ObjectId> refIds = new HashMap<>();
+        for (String prefix : new String[]{Constants.R_HEADS, Constants.R_REMOTES}) {
+            for (Ref ref : repo.getRefDatabase().getRefs(prefix).values())
+                refIds.put(ref.getName(), ref.getObjectId());
+        }
+        refIds.put(Constants.HEAD, repo.resolve(Constants.HEAD));
+        return refIds;
+    }
+
+    /**
+     * @return the refs as they are now, or null if the parsed commits might already be out
+     * of date or the refs couldn't be read
+     */
+    private Map<String, ObjectId> getRefIdsIfKnown() {
+        synchronized (changedCommits) {
+            if (knownRefs == null) return null;
+        }
+        try {
+            return getRefIds();
+        } catch (IOException e) {
+            logger.error("IOException while reading refs");
+            logger.debug(e.getStackTrace());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the refs under the read lock, for a fetch or push that talks to the remote
+     * without holding the lock. If anything moves the refs before the remote commits
+     * are updated, they don't match the parsed commits anymore and all are parsed again
+     * @return the refs as they are now, or null if they aren't known
+     */
+    private Map<String, ObjectId> readRefIdsIfKnown() {
+        lockForReading();
+        try {
+            return getRefIdsIfKnown();
+        } finally {
+            unlockForReading();
+        }
+    }
+
+    /**
+     * Marks the parsed commits as matching the given refs, and forgets the commits that
+     * changed before
+     * @param refs the refs the commits were parsed from
+     */
+    private void setKnownRefs(Map<String, ObjectId> refs) {
+        synchronized (changedCommits) {
+            this.knownRefs = refs;
+            this.changedCommits.clear();
+        }
+    }
+
     /**
-     * Constructs a list of all local commits found by parsing the repository for raw RevCommit objects,
-     * then wrapping them into a CommitHelper with the appropriate parents and children
+     * Brings the local commits up to date after a commit or a merge. If the repository didn't
+     * change in other ways since the commits were parsed, only the new commit and the commits
+     * it brings onto a local branch are added, and the commit tree can pick them up with
+     * takeChangedCommits. Otherwise all local commits are parsed again
      *
-     * @return a list of CommitHelpers for all local commits
+     * @param refsBefore the refs from before the commit or merge, or null if they weren't known
+     * @param newHead the commit HEAD points to now, or null if the change didn't add commits
      * @throws IOException
+     * @throws GitAPIException
      */
-    private List<CommitHelper> parseAllLocalCommits() throws IOException, GitAPIException {
-        PlotCommitList<PlotLane> commitList = this.parseAllRawLocalCommits();
-        return wrapRawCommits(commitList);
+    private void appendLocalCommits(Map<String, ObjectId> refsBefore, ObjectId newHead) throws IOException, GitAPIException {
+        synchronized (changedCommits) {
+            if (newHead != null && refsBefore != null && refsBefore.equals(knownRefs)
+                    && historyFilter.includesHead(getCurrentBranchRefName())) {
+                List<CommitHelper> newLocalCommits = wrapNewLocalCommits(newHead);
+                if (newLocalCommits != null) {
+                    this.localCommits.addAll(newLocalCommits);
+                    this.localCommitSet.addAll(newLocalCommits);
+                    this.changedCommits.addAll(newLocalCommits);
+                    this.knownRefs = getRefIds();
+                    return;
+                }
+            }
+            // The commit tree has to reparse everything on its next update
+            this.knownRefs = null;
+            this.changedCommits.clear();
+        }
+        reparseHistory();
     }
 
     /**
-     * Constructs a list of all remote commits found by parsing the repository for raw RevCommit objects,
-     * then wrapping them into a CommitHelper with the appropriate parents and children
+     * Wraps the given commit if it is new, and finds the commits it brings onto a local branch
+     * by following its parents until they reach local commits
      *
-     * @return a list of CommitHelpers for all remote commits
+     * @param newHead the new head of the current branch
+     * @return the commits that aren't local yet, or null if the new commit has a parent that
+     * hasn't been parsed
      * @throws IOException
      */
-    private List<CommitHelper> parseAllRemoteCommits() throws IOException, GitAPIException {
-        PlotCommitList<PlotLane> commitList = this.parseAllRawRemoteCommits();
-        return wrapRawCommits(commitList);
+    private List<CommitHelper> wrapNewLocalCommits(ObjectId newHead) throws IOException {
+        CommitHelper head = getCommit(newHead);
+        if (head == null) {
+            RevCommit newCommit = parseRawCommit(newHead);
+            List<CommitHelper> parents = new ArrayList<>();
+            for (RevCommit p : newCommit.getParents()) {
+                CommitHelper parent = getCommit(p.getId());
+                if (parent == null) return null;
+                parents.add(parent);
+            }
+            head = new CommitHelper(newCommit);
+            commitIdMap.put(head.getId(), head);
+            idMap.put(newCommit.getId(), head.getId());
+            for (CommitHelper parent : parents)
+                head.addParent(parent);
+        }
+
+        List<CommitHelper> newLocalCommits = new ArrayList<>();
+        Set<CommitHelper> visited = new HashSet<>();
+        Deque<CommitHelper> toVisit = new ArrayDeque<>();
+        toVisit.push(head);
+        while (!toVisit.isEmpty()) {
+            CommitHelper commit = toVisit.pop();
+            if (localCommitSet.contains(commit) || !visited.add(commit)) continue;
+            newLocalCommits.add(commit);
+            toVisit.addAll(commit.getParents());
+        }
+        return newLocalCommits;
     }
 
     /**
-     * Given a list of raw JGit commit objects, constructs CommitHelper objects to wrap them and gives
-     * them the appropriate parents and children. Updates the commit id and id maps appropriately.
+     * Hands over the commits that commits, merges and fetches made here have added, removed,
+     * or moved between local and remote since the last call, so the commit tree can update
+     * just those instead of reparsing everything
      *
-     * @param commitList the raw commits to wrap
-     * @return a list of CommitHelpers for the given commits
+     * @return the changed commits, or null if there are none or the repository has changed in
+     * other ways too. In that case the commit tree has to call updateModel
      * @throws IOException
      */
-    private List<CommitHelper> wrapRawCommits(PlotCommitList<PlotLane> commitList) throws IOException {
-        List<CommitHelper> commitHelperList = new ArrayList<>();
-        List<ObjectId> wrappedIDs = new ArrayList<>();
-        List<CommitHelper> commitsWithMissingParents = new ArrayList<>();
-        for (int i = commitList.size() - 1; i >= 0; i--) {
-            RevCommit curCommit = commitList.get(i);
-            ObjectId curCommitID = curCommit.getId();
+    public List<CommitHelper> takeChangedCommits() throws IOException {
+        synchronized (changedCommits) {
+            if (changedCommits.isEmpty() || knownRefs == null || !knownRefs.equals(getRefIds())) return null;
+            List<CommitHelper> commits = new ArrayList<>(changedCommits);
+            changedCommits.clear();
+            return commits;
+        }
+    }
 
-            if (wrappedIDs.contains(curCommitID)) {
-                continue;
+    /**
+     * Brings the remote commits up to date after a fetch. If the repository didn't change in
+     * other ways since the commits were parsed, only the commits between the old and new ids
+     * of the remote-tracking branches the fetch moved are walked: new ones are added, and
+     * ones no remote-tracking branch reaches anymore are removed. The commit tree can pick
+     * them up with takeChangedCommits. Otherwise all remote commits are parsed again
+     *
+     * @param refsBefore the refs from before the fetch, or null if they weren't known
+     * @param updates the refs the fetch changed
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    private void updateRemoteCommits(Map<String, ObjectId> refsBefore, Collection<TrackingRefUpdate> updates)
+            throws IOException, GitAPIException {
+        synchronized (changedCommits) {
+            if (refsBefore != null && refsBefore.equals(knownRefs)) {
+                try {
+                    Map<String, ObjectId> refsAfter = getRefIds();
+                    applyRemoteRefUpdates(refsBefore, refsAfter, updates);
+                    this.knownRefs = refsAfter;
+                    return;
+                } catch (IOException e) {
+                    // E.g. an old commit is gone already
+                    logger.error("IOException while updating the remote commits");
+                    logger.debug(e.getStackTrace());
+                }
             }
+            // The commit tree has to reparse everything on its next update
+            this.knownRefs = null;
+            this.changedCommits.clear();
+        }
+        reparseHistory();
+    }
 
-            CommitHelper curCommitHelper = new CommitHelper(curCommit);
-            String curCommitHelperID = curCommitHelper.getId();
+    /**
+     * Adds and removes the remote commits that moved remote-tracking branches now reach,
+     * or don't reach anymore
+     *
+     * @param refsBefore the refs from before the fetch
+     * @param refsAfter the refs after the fetch
+     * @param updates the refs the fetch changed
+     * @throws IOException
+     */
+    private void applyRemoteRefUpdates(Map<String, ObjectId> refsBefore, Map<String, ObjectId> refsAfter,
+                                       Collection<TrackingRefUpdate> updates) throws IOException {
+        List<ObjectId> movedFrom = new ArrayList<>();
+        List<ObjectId> movedTo = new ArrayList<>();
+        for (TrackingRefUpdate update : updates) {
+            if (!update.getLocalName().startsWith(Constants.R_REMOTES) || !isInHistory(update.getLocalName())) continue;
+            if (!ObjectId.zeroId().equals(update.getOldObjectId())) movedFrom.add(update.getOldObjectId());
+            if (!ObjectId.zeroId().equals(update.getNewObjectId())) movedTo.add(update.getNewObjectId());
+        }
 
-            if (!commitIdMap.containsKey(curCommitHelperID)) {
-                commitIdMap.put(curCommitHelper.getId(), curCommitHelper);
-                idMap.put(curCommitID, curCommitHelper.getId());
-            } else {
-                curCommitHelper = commitIdMap.get(curCommitHelperID);
-            }
-            wrappedIDs.add(curCommitID);
+        // Commits that a remote-tracking branch reaches now, but none did before. Their parents
+        // are either among them or were reachable before, so they have been parsed already
+        List<CommitHelper> addedCommits = wrapRawCommits(walkCommits(movedTo, getRemoteHeads(refsBefore)));
+        for (CommitHelper commit : addedCommits) {
+            if (remoteCommitSet.add(commit)) remoteCommits.add(commit);
+        }
+        changedCommits.addAll(addedCommits);
 
-            RevCommit[] parents = curCommit.getParents();
-            for (RevCommit p : parents) {
-                CommitHelper parentCommitHelper = getCommit(p.getId());
-                if (parentCommitHelper == null) {
-                    commitsWithMissingParents.add(curCommitHelper);
-                } else {
-                    curCommitHelper.addParent(parentCommitHelper);
+        // Commits that a remote-tracking branch reached before, but none does now
+        Set<CommitHelper> removedCommits = new HashSet<>();
+        for (RevCommit commit : walkCommits(movedFrom, getRemoteHeads(refsAfter))) {
+            CommitHelper helper = getCommit(commit.getId());
+            if (helper != null) removedCommits.add(helper);
+        }
+        if (!removedCommits.isEmpty()) {
+            remoteCommits.removeIf(removedCommits::contains);
+            remoteCommitSet.removeAll(removedCommits);
+            for (CommitHelper commit : removedCommits) {
+                if (!localCommitSet.contains(commit)) {
+                    commitIdMap.remove(commit.getId());
+                    idMap.remove(commit.getObjectId());
                 }
             }
+            changedCommits.addAll(removedCommits);
+        }
+    }
 
-            commitHelperList.add(curCommitHelper);
+    /**
+     * @param refIds the ids of refs, by name
+     * @return the ids of the remote-tracking branches among them that the history is read from
+     * @throws IOException
+     */
+    private List<ObjectId> getRemoteHeads(Map<String, ObjectId> refIds) throws IOException {
+        List<ObjectId> heads = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> ref : refIds.entrySet()) {
+            if (ref.getKey().startsWith(Constants.R_REMOTES) && ref.getValue() != null && isInHistory(ref.getKey()))
+                heads.add(ref.getValue());
         }
-        while (!commitsWithMissingParents.isEmpty()) {
-            CommitHelper curCommitHelper = commitsWithMissingParents.remove(0);
-            RevCommit[] parents = curCommitHelper.commit.getParents();
-            for (RevCommit p : parents) {
-                CommitHelper parentCommitHelper = getCommit(p.getId());
-                if (parentCommitHelper == null) {
-                    commitsWithMissingParents.add(curCommitHelper);
-                } else if (!curCommitHelper.getParents().contains(parentCommitHelper)) {
-                    curCommitHelper.addParent(parentCommitHelper);
-                }
+        return heads;
+    }
+
+    /**
+     * Walks the commits that are reachable from the start points, but not from the stop points.
+     * Unlike parseHistory, this only costs as much as the commits it finds
+     *
+     * @param startPoints the ids to walk from
+     * @param stopPoints the ids at which the walk stops
+     * @return the commits found, children before their parents
+     * @throws IOException
+     */
+    private List<RevCommit> walkCommits(List<ObjectId> startPoints, List<ObjectId> stopPoints) throws IOException {
+        List<RevCommit> commits = new ArrayList<>();
+        if (startPoints.isEmpty()) return commits;
+
+        RevWalk w = new RevWalk(repo);
+        try {
+            for (ObjectId stopId : stopPoints)
+                w.markUninteresting(w.parseCommit(stopId));
+            for (ObjectId startId : startPoints)
+                w.markStart(w.parseCommit(startId));
+            for (RevCommit commit : w)
+                commits.add(commit);
+        } finally {
+            w.dispose();
+        }
+        return commits;
+    }
+
+    /**
+     * Starts a new walk of the history of HEAD and all local and remote-tracking branches,
+     * newest commits first, and reads the given number of commits from it into the local and
+     * remote commits. Older commits can be read later with loadMoreHistory
+     *
+     * @param numCommits the number of commits to read
+     * @throws IOException
+     */
+    private void parseHistory(int numCommits) throws IOException {
+        if (historyWalk != null) historyWalk.dispose();
+        historyWalk = new RevWalk(repo);
+        historyWalk.sort(RevSort.COMMIT_TIME_DESC);
+        localFlag = historyWalk.newFlag("local");
+        remoteFlag = historyWalk.newFlag("remote");
+        historyWalk.carry(localFlag);
+        historyWalk.carry(remoteFlag);
+        numHistoryCommits = 0;
+        hasMoreHistory = true;
+
+        // Only the branches the filter includes are walked from
+        String currentBranch = getCurrentBranchRefName();
+        String upstream = getUpstreamRefName(currentBranch);
+        if (historyFilter.includesHead(currentBranch))
+            markHistoryStart(repo.resolve(Constants.HEAD), localFlag);
+        for (BranchHelper branch : branchModel.getLocalBranchesTyped()) {
+            if (historyFilter.includes(branch.getRefPathString(), currentBranch, upstream))
+                markHistoryStart(branch.getHeadId(), localFlag);
+        }
+        for (BranchHelper branch : branchModel.getRemoteBranchesTyped()) {
+            if (historyFilter.includes(branch.getRefPathString(), currentBranch, upstream))
+                markHistoryStart(branch.getHeadId(), remoteFlag);
+        }
+
+        List<CommitHelper> newLocalCommits = new ArrayList<>();
+        List<CommitHelper> newRemoteCommits = new ArrayList<>();
+        readHistory(numCommits, newLocalCommits, newRemoteCommits);
+        setLocalCommits(newLocalCommits);
+        setRemoteCommits(newRemoteCommits);
+    }
+
+    /**
+     * @return the full name of the checked out branch, or null if HEAD is detached
+     * @throws IOException
+     */
+    private String getCurrentBranchRefName() throws IOException {
+        String fullBranch = repo.getFullBranch();
+        return fullBranch != null && fullBranch.startsWith(Constants.R_HEADS) ? fullBranch : null;
+    }
+
+    /**
+     * @param refName the full name of a branch
+     * @return whether the history filter includes the branch
+     * @throws IOException
+     */
+    private boolean isInHistory(String refName) throws IOException {
+        if (historyFilter.getType() == HistoryFilter.Type.ALL) return true;
+        String currentBranch = getCurrentBranchRefName();
+        return historyFilter.includes(refName, currentBranch, getUpstreamRefName(currentBranch));
+    }
+
+    /**
+     * @param branchRefName the full name of a local branch, or null
+     * @return the full name of the remote-tracking branch it tracks, or null if there isn't one
+     */
+    private String getUpstreamRefName(String branchRefName) {
+        if (branchRefName == null) return null;
+        return new BranchConfig(repo.getConfig(), Repository.shortenRefName(branchRefName)).getRemoteTrackingBranch();
+    }
+
+    /**
+     * Changes which branches the history is read from. The history is walked again from the
+     * branches the filter includes, reusing the commits that were already read, and the
+     * commits that are shown or hidden because of it can be picked up with takeChangedCommits
+     *
+     * @param filter the new filter
+     * @throws IOException
+     */
+    public void setHistoryFilter(HistoryFilter filter) throws IOException {
+        lockForWriting();
+        try {
+            if (filter.equals(historyFilter)) return;
+            historyFilter = filter;
+
+            Set<CommitHelper> oldLocalCommits = localCommitSet;
+            Set<CommitHelper> oldRemoteCommits = remoteCommitSet;
+            reparseHistory();
+
+            synchronized (changedCommits) {
+                // If the refs are out of date, the next update reads the history again anyway
+                if (knownRefs == null) return;
+                Set<CommitHelper> changed = new LinkedHashSet<>();
+                for (CommitHelper commit : oldLocalCommits)
+                    if (!localCommitSet.contains(commit)) changed.add(commit);
+                for (CommitHelper commit : oldRemoteCommits)
+                    if (!remoteCommitSet.contains(commit)) changed.add(commit);
+                for (CommitHelper commit : localCommits)
+                    if (!oldLocalCommits.contains(commit)) changed.add(commit);
+                for (CommitHelper commit : remoteCommits)
+                    if (!oldRemoteCommits.contains(commit)) changed.add(commit);
+                changedCommits.addAll(changed);
             }
+        } finally {
+            unlockForWriting();
         }
-        return commitHelperList;
     }
 
     /**
-     * Utilizes JGit to walk through the repo and create raw commit objects - more
-     * specifically, JGit objects of (super)type RevCommit. This is an expensive
-     * operation and should only be called when necessary
+     * @return which branches the history is read from
+     */
+    public HistoryFilter getHistoryFilter() {
+        return historyFilter;
+    }
+
+    /**
+     * Parses the history again, reading as many commits as were read before so the older
+     * pages that are shown stay
+     *
+     * @throws IOException
+     */
+    private void reparseHistory() throws IOException {
+        parseHistory(Math.max(historyPageSize, numHistoryCommits));
+    }
+
+    private void markHistoryStart(ObjectId id, RevFlag flag) throws IOException {
+        if (id == null) return;
+        RevCommit start = historyWalk.parseCommit(id);
+        start.add(flag);
+        historyWalk.markStart(start);
+    }
+
+    /**
+     * Reads the next commits from the history walk and wraps them
+     *
+     * @param numCommits the most commits to read
+     * @param newLocalCommits the list to add the commits a local branch reaches to
+     * @param newRemoteCommits the list to add the commits a remote-tracking branch reaches to
+     * @throws IOException
+     */
+    private void readHistory(int numCommits, List<CommitHelper> newLocalCommits, List<CommitHelper> newRemoteCommits)
+            throws IOException {
+        List<RevCommit> page = new ArrayList<>();
+        RevCommit commit = null;
+        while (page.size() < numCommits && (commit = historyWalk.next()) != null)
+            page.add(commit);
+        if (commit == null) hasMoreHistory = false;
+        numHistoryCommits += page.size();
+
+        List<CommitHelper> helpers = wrapRawCommits(page);
+        for (int i = 0; i < helpers.size(); i++) {
+            // The helpers are in the opposite order of the page
+            RevCommit raw = page.get(page.size() - 1 - i);
+            if (raw.has(localFlag)) newLocalCommits.add(helpers.get(i));
+            if (raw.has(remoteFlag)) newRemoteCommits.add(helpers.get(i));
+        }
+    }
+
+    /**
+     * Reads the next page of older commits into the local and remote commits, if the
+     * whole history hasn't been read yet. The commit tree can pick them up with
+     * takeChangedCommits
      *
-     * @return a list of raw local commits
+     * @return true if more commits were read
      * @throws IOException
      */
-    private PlotCommitList<PlotLane> parseAllRawLocalCommits() throws IOException, GitAPIException {
-        ObjectId headId = repo.resolve("HEAD");
-        if (headId == null) return new PlotCommitList<>();
-        List<ObjectId> examinedCommitIDs = new ArrayList<>();
-        PlotCommitList<PlotLane> rawLocalCommits = parseRawCommits(headId, examinedCommitIDs);
-        examinedCommitIDs.add(headId);
-
-        List<LocalBranchHelper> branches = this.branchModel.getLocalBranchesTyped();
-        for (BranchHelper branch : branches) {
-            ObjectId branchId = branch.getHeadId();
-            PlotCommitList<PlotLane> toAdd = parseRawCommits(branchId, examinedCommitIDs);
-            if (toAdd.size() > 0) {
-                rawLocalCommits.addAll(toAdd);
-                examinedCommitIDs.add(toAdd.get(0).getId());
+    public boolean loadMoreHistory() throws IOException {
+        lockForWriting();
+        try {
+            if (!hasMoreHistory || historyWalk == null) return false;
+
+            List<CommitHelper> newLocalCommits = new ArrayList<>();
+            List<CommitHelper> newRemoteCommits = new ArrayList<>();
+            readHistory(historyPageSize, newLocalCommits, newRemoteCommits);
+            for (CommitHelper commit : newLocalCommits) {
+                if (localCommitSet.add(commit)) localCommits.add(commit);
+            }
+            for (CommitHelper commit : newRemoteCommits) {
+                if (remoteCommitSet.add(commit)) remoteCommits.add(commit);
+            }
+            synchronized (changedCommits) {
+                // If the refs are out of date, the next update reads these pages again anyway
+                if (knownRefs != null) {
+                    changedCommits.addAll(newLocalCommits);
+                    changedCommits.addAll(newRemoteCommits);
+                }
             }
+            return !newLocalCommits.isEmpty() || !newRemoteCommits.isEmpty();
+        } finally {
+            unlockForWriting();
         }
-        return rawLocalCommits;
     }
 
     /**
-     * Utilizes JGit to walk through the repo and create raw commit objects - more
-     * specifically, JGit objects of (super)type RevCommit. This is an expensive
-     * operation and should only be called when necessary
+     * @return whether there are older commits that haven't been read yet
+     */
+    public boolean hasMoreHistory() {
+        return hasMoreHistory;
+    }
+
+    /**
+     * Given a list of raw JGit commit objects, constructs CommitHelper objects to wrap them and gives
+     * them the appropriate parents and children. Updates the commit id and id maps appropriately.
+     * Parents that haven't been wrapped yet, because they're in an older page of the history, are
+     * linked once they are
      *
-     * @return a list of raw remote commits
+     * @param commitList the raw commits to wrap, children before their parents
+     * @return a list of CommitHelpers for the given commits, parents before their children
      * @throws IOException
      */
-    private PlotCommitList<PlotLane> parseAllRawRemoteCommits() throws IOException, GitAPIException {
-        List<ObjectId> examinedCommitIDs = new ArrayList<>();
-        PlotCommitList<PlotLane> rawRemoteCommits = new PlotCommitList<>();
+    private List<CommitHelper> wrapRawCommits(List<? extends RevCommit> commitList) throws IOException {
+        List<CommitHelper> commitHelperList = new ArrayList<>();
+        List<CommitHelper> newCommitHelpers = new ArrayList<>();
+        Map<ObjectId, CommitHelper> wrapped = new HashMap<>();
+        for (int i = commitList.size() - 1; i >= 0; i--) {
+            RevCommit curCommit = commitList.get(i);
+            if (wrapped.containsKey(curCommit.getId())) {
+                continue;
+            }
+
+            CommitHelper curCommitHelper = getCommit(curCommit.getId());
+            if (curCommitHelper == null) {
+                curCommitHelper = new CommitHelper(curCommit);
+                commitIdMap.put(curCommitHelper.getId(), curCommitHelper);
+                idMap.put(curCommit.getId(), curCommitHelper.getId());
+                newCommitHelpers.add(curCommitHelper);
+            }
+            wrapped.put(curCommit.getId(), curCommitHelper);
+            commitHelperList.add(curCommitHelper);
+        }
 
-        for (BranchHelper branch : this.branchModel.getRemoteBranchesTyped()) {
-            ObjectId branchId = branch.getHeadId();
-            PlotCommitList<PlotLane> toAdd = parseRawCommits(branchId, examinedCommitIDs);
-            if (toAdd.size() > 0) {
-                rawRemoteCommits.addAll(toAdd);
-                examinedCommitIDs.add(toAdd.get(0).getId());
+        for (CommitHelper curCommitHelper : newCommitHelpers) {
+            // Children that were wrapped before this commit
+            List<CommitHelper> children = commitsMissingParents.remove(curCommitHelper.getObjectId());
+            if (children != null) {
+                for (CommitHelper child : children)
+                    child.addParent(curCommitHelper);
+            }
+
+            for (RevCommit p : curCommitHelper.commit.getParents()) {
+                CommitHelper parentCommitHelper = getCommit(p.getId());
+                if (parentCommitHelper == null) {
+                    commitsMissingParents.computeIfAbsent(p.copy(), id -> new ArrayList<>()).add(curCommitHelper);
+                } else {
+                    curCommitHelper.addParent(parentCommitHelper);
+                }
             }
         }
-        return rawRemoteCommits;
+        return commitHelperList;
     }
 
     /**
@@ -1415,22 +2217,6 @@ public class RepoHelper {
         return plotCommitList;
     }
 
-    /**
-     * Utilizes JGit to walk through the repo and create raw commit objects - more
-     * specifically, JGit objects of (super)type RevCommit. This is an expensive
-     * operation and should only be called when necessary
-     *
-     * @param startingID the starting point to parse from
-     * @param stopPoints the ids at which parsing should stop
-     * @return a list of raw commits starting from the given id
-     * @throws IOException
-     */
-    private PlotCommitList<PlotLane> parseRawCommits(ObjectId startingID, List<ObjectId> stopPoints) throws IOException {
-        List<ObjectId> asList = new ArrayList<>(1);
-        asList.add(startingID);
-        return parseRawCommits(asList, stopPoints);
-    }
-
     /**
      * Utilizes JGit to parse a commit with the given ID and returns it in
      * raw format
@@ -1446,85 +2232,98 @@ public class RepoHelper {
     }
 
     /**
-     * Parses all relevant git ignore files for ignore patterns, and then checks all
-     * tracked files and directories for whether they match an ignore pattern.
+     * Checks all tracked files and directories for whether they match an ignore pattern.
+     * The ignore rules and the results are cached by an IgnoreRuleCache, so only the parts
+     * of the tree whose rules or contents changed since the last call are checked again.
      *
      * @return the set of paths (relative to the repo) of all tracked files that match an ignore pattern
      * @throws IOException
      */
     public Collection<String> getTrackedIgnoredFiles() throws IOException {
-        // Build the ignore pattern matcher
-        IgnoreNode ignoreNode = new IgnoreNode();
-        for (Path path : getGitIgnorePaths()) {
-            ignoreNode.parse(new BufferedInputStream(Files.newInputStream(path)));
-        }
+        ObjectId headTree = this.repo.resolve(Constants.HEAD + "^{tree}");
+        if (headTree == null) return new HashSet<>();
 
-        // Set up the walks
-        RevWalk walk = new RevWalk(this.repo);
-        RevCommit head = walk.parseCommit(this.repo.resolve(Constants.HEAD));
+        IgnoreRuleCache cache;
+        synchronized (this) {
+            if (this.ignoreRuleCache == null) this.ignoreRuleCache = new IgnoreRuleCache(this.repo);
+            cache = this.ignoreRuleCache;
+        }
+        return cache.getTrackedIgnoredFiles(headTree, getGlobalGitIgnorePath());
+    }
 
-        TreeWalk treeWalk = new TreeWalk(this.repo);
-        treeWalk.addTree(head.getTree());
-        treeWalk.setRecursive(false);
+    /**
+     * @return the watcher of the conflicting files of this repository
+     */
+    public synchronized ConflictingFileWatcher getConflictingFileWatcher() {
+        if (this.conflictingFileWatcher == null) this.conflictingFileWatcher = new ConflictingFileWatcher(this);
+        return this.conflictingFileWatcher;
+    }
 
-        // Keep track of whether the ancestors are being ignored
-        Stack<Boolean> isParentAtDepthIgnored = new Stack<>();
-        // Set the top level 'parent' to be false
-        isParentAtDepthIgnored.push(false);
+    /**
+     * @return the changed path index of this repository, read from disk the first time
+     */
+    private synchronized ChangedPathIndex getChangedPathIndex() {
+        if (this.changedPathIndex == null) this.changedPathIndex = new ChangedPathIndex(this.repo);
+        return this.changedPathIndex;
+    }
 
-        Collection<String> trackedIgnoredFiles = new HashSet<>();
+    /**
+     * Computes the changed path filters of the parsed commits that don't have one yet,
+     * and saves the index if any were computed. The read lock is let go between batches
+     * so writes to the repository aren't held up
+     * @throws IOException if a commit can't be read or the index can't be saved
+     */
+    public void updateChangedPathIndex() throws IOException {
+        ChangedPathIndex index = getChangedPathIndex();
 
-        // Loop through all tracked files (depth first)
-        while (treeWalk.next()) {
-            String pathString = treeWalk.getPathString();
-            // Make sure the stack matches the appropriate depth of this file/directory
-            while (treeWalk.getDepth() + 1 < isParentAtDepthIgnored.size()) {
-                isParentAtDepthIgnored.pop();
+        List<ObjectId> commitIds = new ArrayList<>();
+        lockForReading();
+        try {
+            for (CommitHelper commit : getAllCommits()) {
+                if (!index.contains(commit.getObjectId())) commitIds.add(commit.getObjectId());
             }
-            boolean isParentIgnored = isParentAtDepthIgnored.peek();
-            IgnoreNode.MatchResult result;
-
-            // The current item is a directory
-            if (treeWalk.isSubtree()) {
-                result = ignoreNode.isIgnored(pathString, true);
-
-                // TODO: Does not support a result of 'CHECK_PARENT_NEGATE_FIRST_MATCH' (mainly because I don't know what that means)
-                // Update the stack with the information from this item
-                if (result == IgnoreNode.MatchResult.IGNORED) isParentAtDepthIgnored.push(true);
-                else if (result == IgnoreNode.MatchResult.NOT_IGNORED) isParentAtDepthIgnored.push(false);
-                else isParentAtDepthIgnored.push(isParentAtDepthIgnored.peek());
+        } finally {
+            unlockForReading();
+        }
+        if (commitIds.isEmpty()) return;
 
-                treeWalk.enterSubtree();
-            } else {
-                result = ignoreNode.isIgnored(pathString, false);
+        for (int start = 0; start < commitIds.size(); start += CHANGED_PATH_BATCH_SIZE) {
+            lockForReading();
+            try {
+                index.update(commitIds.subList(start, Math.min(start + CHANGED_PATH_BATCH_SIZE, commitIds.size())));
+            } finally {
+                unlockForReading();
             }
-            boolean isIgnored = (result == IgnoreNode.MatchResult.IGNORED) || (isParentIgnored && result == IgnoreNode.MatchResult.CHECK_PARENT);
-            if (isIgnored) trackedIgnoredFiles.add(pathString);
         }
-        return trackedIgnoredFiles;
+        index.save();
     }
 
     /**
-     * Finds and returns a list of all files from which ignore patterns are pulled for this repository.
-     * This includes the global ignore file (if it exists), the info/exclude file, and any .gitignore
-     * files in the repositories file structure
-     *
-     * @return a list of paths to files that define ignore rules for this repository
+     * Finds the parsed commits that changed a file or directory. The changed path index is
+     * used to skip most commits, and only the rest have their trees read
+     * @param path the path of the file or directory, relative to the repository
+     * @return the commits that changed the path, newest first
+     * @throws IOException if a commit or tree can't be read
      */
-    public List<Path> getGitIgnorePaths() throws IOException {
-        List<Path> gitIgnorePaths = new LinkedList<>();
-
-        Path globalIgnore = getGlobalGitIgnorePath();
-        if (globalIgnore != null) gitIgnorePaths.add(globalIgnore);
-
-        Path infoExclude = getInfoExcludePath();
-        if (infoExclude != null) gitIgnorePaths.add(infoExclude);
-
-        GitIgnoreFinder finder = new GitIgnoreFinder();
-        Files.walkFileTree(this.localPath, finder);
-        gitIgnorePaths.addAll(finder.getMatchedPaths());
+    public List<CommitHelper> getFileHistory(String path) throws IOException {
+        Map<ObjectId, CommitHelper> commits = new LinkedHashMap<>();
+        List<ObjectId> history;
+        lockForReading();
+        try {
+            for (CommitHelper commit : getAllCommits()) {
+                commits.put(commit.getObjectId(), commit);
+            }
+            history = getChangedPathIndex().getHistory(commits.keySet(), path);
+        } finally {
+            unlockForReading();
+        }
 
-        return gitIgnorePaths;
+        List<CommitHelper> result = new ArrayList<>();
+        for (ObjectId id : history) {
+            result.add(commits.get(id));
+        }
+        result.sort((c1, c2) -> c2.getWhen().compareTo(c1.getWhen()));
+        return result;
     }
 
     /**
@@ -1547,18 +2346,6 @@ public class RepoHelper {
         return null;
     }
 
-    /**
-     * Returns the path to this repositories info/exclude file, or null if that file does not exists.
-     * The path to this is defined by Git as '$GIT_DIR/info/exclude'
-     *
-     * @return path to this repositories info/exclude file
-     */
-    public Path getInfoExcludePath() {
-        FS fs = this.repo.getFS();
-
-        File repoExclude = fs.resolve(this.repo.getDirectory(), Constants.INFO_EXCLUDE);
-        return repoExclude.exists() ? repoExclude.toPath() : null;
-    }
 
     @Override
     public String toString() {
@@ -1603,6 +2390,38 @@ public class RepoHelper {
         else return new Git(repo).lsRemote().setHeads(true).call();
     }
 
+    /**
+     * Gets the branch heads advertised by the given remote without fetching
+     * any changes. Equivalent to 'git ls-remote --heads [remote]'
+     *
+     * @param remote the name of the remote to query
+     * @return the branch heads of the remote
+     * @throws GitAPIException
+     */
+    public Collection<Ref> getRefsFromRemote(String remote) throws GitAPIException {
+        LsRemoteCommand lsRemote = new Git(repo).lsRemote().setRemote(remote).setHeads(true);
+        reuseOpenSshSession(lsRemote);
+        return lsRemote.call();
+    }
+
+    /**
+     * @return the names of all remotes configured for this repository
+     */
+    public Set<String> getRemoteNames() {
+        return this.repo.getConfig().getSubsections("remote");
+    }
+
+    /**
+     * Gets the locally stored remote-tracking branches of the given remote
+     *
+     * @param remote the name of the remote
+     * @return the remote-tracking refs, keyed by branch name without the 'refs/remotes/[remote]/' prefix
+     * @throws IOException
+     */
+    public Map<String, Ref> getRemoteTrackingRefs(String remote) throws IOException {
+        return this.repo.getRefDatabase().getRefs(Constants.R_REMOTES + remote + "/");
+    }
+
     public List<RefHelper> getRefsForCommit(CommitHelper helper) {
         List<RefHelper> helpers = new ArrayList<>();
         if (this.branchModel.getBranchesWithHead(helper).size() > 0)
@@ -1643,40 +2462,6 @@ public class RepoHelper {
         return this.ownerAuth;
     }
 
-    /**
-     * A FileVisitor that keeps a list of all '.gitignore' files it finds
-     */
-    private class GitIgnoreFinder extends SimpleFileVisitor<Path> {
-        private final PathMatcher matcher;
-        private List<Path> matchedPaths;
-
-        GitIgnoreFinder() {
-            matcher = FileSystems.getDefault().getPathMatcher("glob:" + Constants.DOT_GIT_IGNORE);
-            matchedPaths = new LinkedList<>();
-        }
-
-        @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-            Path name = file.getFileName();
-
-            if (name != null && matcher.matches(name)) {
-                matchedPaths.add(file);
-            }
-
-            return FileVisitResult.CONTINUE;
-        }
-
-        @Override
-        public FileVisitResult visitFileFailed(Path file, IOException e) {
-            e.printStackTrace();
-            return FileVisitResult.CONTINUE;
-        }
-
-        public Collection<Path> getMatchedPaths() {
-            return matchedPaths;
-        }
-    }
-
     /**
      * Determine whether this repo is compatible with HTTP or SSH authentication.
      * Those are the only two that this will particularly return, because these are the only
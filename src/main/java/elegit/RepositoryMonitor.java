@@ -2,16 +2,13 @@ package elegit;
 
 import elegit.controllers.SessionController;
 import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.Ref;
-
-import java.io.IOException;
-import java.util.Collection;
-import java.util.List;
 
 /**
- * A class that creates a thread to watch the current remote repository for new changes
+ * A class that regularly checks the current repository and its remotes for new
+ * changes. The checks run as background operations of the OperationScheduler.
+ * Each session has its own monitor
  */
 public class RepositoryMonitor{
 
@@ -20,32 +17,43 @@ public class RepositoryMonitor{
     public static final long LOCAL_CHECK_INTERVAL = 5000;
 
     // Whether there are new remote changes
-    public static BooleanProperty hasFoundNewRemoteChanges = new SimpleBooleanProperty(false);
+    public final BooleanProperty hasFoundNewRemoteChanges = new SimpleBooleanProperty(false);
 
     // Whether to ignore any new changes
-    private static boolean ignoreNewRemoteChanges = false;
-    private static boolean pauseLocalMonitor = false;
+    private volatile boolean ignoreNewRemoteChanges = false;
+    // Bumped every time the ignore period is reset, so an older timer doesn't end a newer period
+    private long ignoreGeneration = 0;
+
+    // Polls the remotes of the current repository
+    private volatile RemoteRefWatcher remoteWatcher;
 
-    private static int pauseCounter = 0;
+    // Whether to download new remote changes in the background as soon as they're found
+    private volatile boolean isPrefetchEnabled = false;
 
-    private static boolean ignoreUnpause = false;
+    // Whether the main window has focus. Remotes aren't polled while it doesn't
+    private final Object focusLock = new Object();
+    private boolean isWindowFocused = true;
 
-    // Thread information
-    private static Thread th;
-    private static boolean interrupted = false;
+    // Only the most recently scheduled poll runs, earlier ones are dropped
+    private long pollGeneration = 0;
 
-    private static SessionModel currentModel;
+    private final SessionModel currentModel;
+    private final SessionController controller;
 
-    private static boolean alreadyWatching = false;
+    private boolean alreadyWatching = false;
 
-    public static void setSessionModel(SessionModel model) {
-        currentModel = model;
+    /**
+     * @param model the model whose current repository to watch
+     * @param controller the session to refresh when the repository changes
+     */
+    public RepositoryMonitor(SessionModel model, SessionController controller) {
+        this.currentModel = model;
+        this.controller = controller;
     }
 
-    public static void startWatching(SessionModel model, SessionController controller) {
-        setSessionModel(model);
+    public synchronized void startWatching() {
         if(!alreadyWatching){
-            beginWatchingLocal(controller);
+            beginWatchingLocal();
             beginWatchingRemote();
             alreadyWatching = true;
         }
@@ -56,7 +64,7 @@ public class RepositoryMonitor{
      * repository will cause the monitor to stop watching the old repository
      * and begin watching the new one
      */
-    private static void beginWatchingRemote(){
+    private void beginWatchingRemote(){
         currentModel.currentRepoHelperProperty.addListener(
             (observable, oldValue, newValue) -> watchRepoForRemoteChanges(newValue)
         );
@@ -64,82 +72,118 @@ public class RepositoryMonitor{
     }
 
     /**
-     * Creates a low priority thread that will monitor the remote repository
-     * and compare it to the locally stored copy of the remote. When new changes
-     * are detected in the remote, sets hasFoundNewRemoteChanges to true (if not ignoring
-     * changes)
+     * Regularly polls all remotes of the repository in the background and compares
+     * them to the locally stored remote-tracking branches. When new changes are
+     * detected in a remote, sets hasFoundNewRemoteChanges to true (if not ignoring
+     * changes). Idle or unreachable remotes are polled less often, and nothing is
+     * polled while the main window is unfocused
      * @param repo the repository to monitor
      */
-    private static synchronized void watchRepoForRemoteChanges(RepoHelper repo){
-        pause();
-        if(th != null){
-            interrupted = true;
-            try{
-                th.join();
-            }catch(InterruptedException ignored){
-            }finally{
-                interrupted = false;
-                th = null;
+    private synchronized void watchRepoForRemoteChanges(RepoHelper repo){
+        if(repo == null || !repo.exists() || !repo.hasRemoteProperty.get()) {
+            synchronized(focusLock){
+                remoteWatcher = null;
+                pollGeneration++;
             }
+            return;
         }
 
-        if(repo == null || !repo.exists() || !repo.hasRemoteProperty.get()) {
-            unpause();
-            return;
+        RemoteRefWatcher watcher = new RemoteRefWatcher(repo);
+        synchronized(focusLock){
+            remoteWatcher = watcher;
         }
+        schedulePoll(watcher, 0);
+    }
 
-        th = new Thread(() -> {
+    /**
+     * Schedules the next poll of the given watcher, replacing any poll that was
+     * scheduled before
+     * @param watcher the watcher to poll
+     * @param delay how long to wait before polling, in milliseconds
+     */
+    private void schedulePoll(RemoteRefWatcher watcher, long delay){
+        long generation;
+        synchronized(focusLock){
+            // The repository was changed in the meantime
+            if(watcher != remoteWatcher) return;
+            generation = ++pollGeneration;
+        }
+        OperationScheduler.schedule("Remote monitor",
+                OperationScheduler.Priority.BACKGROUND, delay, () -> poll(watcher, generation));
+    }
 
-            while(!interrupted){
-                try{
-                    List<BranchHelper> localOriginHeads = repo.getBranchModel().getBranchListUntyped(BranchModel.BranchType.REMOTE);
-                    Collection<Ref> remoteHeads = repo.getRefsFromRemote(false);
+    /**
+     * Polls the remotes once and schedules the next poll, unless this poll was
+     * replaced or the main window doesn't have focus. Regaining focus starts the
+     * polls again
+     */
+    private void poll(RemoteRefWatcher watcher, long generation){
+        synchronized(focusLock){
+            if(generation != pollGeneration || !isWindowFocused) return;
+        }
 
-                    if(localOriginHeads.size() >= remoteHeads.size()){
-                        for(Ref ref : remoteHeads){
-                            boolean hasFoundMatchingBranch = false;
-                            boolean hasFoundNewChanges = false;
+        if(watcher.poll()){
+            setFoundNewChanges();
+            if(isPrefetchEnabled && !ignoreNewRemoteChanges){
+                watcher.prefetch();
+            }
+        }
+        schedulePoll(watcher, watcher.getPollInterval());
+    }
 
-                            for(BranchHelper branch : localOriginHeads){
-                                if(ref.getName().equals("refs/heads/"+repo.getRepo().shortenRemoteBranchName(branch.getRefPathString()))){
-                                    hasFoundMatchingBranch = true;
-                                    if(!branch.getHeadId().equals(ref.getObjectId())){
-                                        hasFoundNewChanges = true;
-                                    }
-                                    break;
-                                }
-                            }
+    /**
+     * Turns background prefetching of new remote changes on or off. Prefetched
+     * objects are stored under refs/prefetch so the remote-tracking branches
+     * only change when the user fetches
+     * @param enabled whether to prefetch
+     */
+    public void setPrefetchEnabled(boolean enabled){
+        isPrefetchEnabled = enabled;
+    }
 
-                            if(hasFoundNewChanges || !hasFoundMatchingBranch){
-                                setFoundNewChanges();
-                                break;
-                            }
-                        }
-                    }else{
-                        setFoundNewChanges();
-                    }
-                }catch(GitAPIException | IOException ignored){}
+    /**
+     * Keeps track of whether the main window has focus, so that remotes are
+     * only polled while the user is looking at the application. Regaining
+     * focus triggers an immediate poll
+     * @param focusedProperty the focused property of the main window
+     */
+    public void watchWindowFocus(ReadOnlyBooleanProperty focusedProperty){
+        setWindowFocused(focusedProperty.get());
+        focusedProperty.addListener((observable, oldValue, newValue) -> setWindowFocused(newValue));
+    }
 
-                try{
-                    Thread.sleep(REMOTE_CHECK_INTERVAL);
-                }catch(InterruptedException e){
-                    interrupted = true;
-                }
-            }
-        });
+    private void setWindowFocused(boolean focused){
+        RemoteRefWatcher watcher;
+        synchronized(focusLock){
+            boolean hasRegainedFocus = focused && !isWindowFocused;
+            isWindowFocused = focused;
+            watcher = hasRegainedFocus ? remoteWatcher : null;
+        }
+        if(watcher != null) schedulePoll(watcher, 0);
+    }
 
-        th.setDaemon(true);
-        th.setName("Remote monitor for repository \"" + repo + "\"");
-        th.setPriority(2);
-        th.start();
+    /**
+     * @return how long (in milliseconds) the last poll of the remotes took, or -1
+     * if no remote is being watched
+     */
+    public long getLastRemotePollLatency(){
+        RemoteRefWatcher watcher = remoteWatcher;
+        return watcher == null ? -1 : watcher.getLastPollLatency();
+    }
 
-        unpause();
+    /**
+     * @return the estimated number of bytes the remotes advertised on the last
+     * poll, or -1 if no remote is being watched
+     */
+    public long getLastRemotePollBytes(){
+        RemoteRefWatcher watcher = remoteWatcher;
+        return watcher == null ? -1 : watcher.getLastPollBytes();
     }
 
     /**
      * Sets hasFoundNewRemoteChanges to true if not ignoring new changes
      */
-    private static void setFoundNewChanges(){
+    private void setFoundNewChanges(){
         if(!ignoreNewRemoteChanges) hasFoundNewRemoteChanges.set(true);
     }
 
@@ -149,7 +193,7 @@ public class RepositoryMonitor{
      * period (2 check cycles) and then begins monitoring again
      * @param ignore whether to ignore new changes indefinitely
      */
-    public static synchronized void resetFoundNewChanges(boolean ignore){
+    public synchronized void resetFoundNewChanges(boolean ignore){
         if(ignore){
             resetFoundNewChanges(-1);
         }else{
@@ -166,91 +210,31 @@ public class RepositoryMonitor{
      *               new changes. A negative value indicates an
      *               indefinite wait.
      */
-    public static synchronized void resetFoundNewChanges(long millis){
+    public synchronized void resetFoundNewChanges(long millis){
         pauseWatchingRemote(millis);
         hasFoundNewRemoteChanges.set(false);
     }
 
-    private static synchronized void beginWatchingLocal(SessionController controller){
-        Thread thread = new Thread(() -> {
-            while(true){
-                if(!pauseLocalMonitor && currentModel.getCurrentRepoHelper() != null && currentModel.getCurrentRepoHelper().exists()){
-                    controller.gitStatus();
-                }
-
-                try{
-                    Thread.sleep(LOCAL_CHECK_INTERVAL);
-                }catch(InterruptedException ignored){}
+    private synchronized void beginWatchingLocal(){
+        OperationScheduler.schedule("Local monitor", OperationScheduler.Priority.BACKGROUND, LOCAL_CHECK_INTERVAL, () -> {
+            if(currentModel.getCurrentRepoHelper() != null && currentModel.getCurrentRepoHelper().exists()){
+                controller.gitStatus();
             }
+            beginWatchingLocal();
         });
-        thread.setDaemon(true);
-        thread.setName("Local monitor");
-        thread.setPriority(2);
-        thread.start();
     }
 
-    private static void pauseWatchingRemote(long millis){
+    private void pauseWatchingRemote(long millis){
         ignoreNewRemoteChanges = true;
+        long generation = ++ignoreGeneration;
 
-        if(millis < 0){
-            ignoreUnpause = true;
-            return;
-        }else{
-            ignoreUnpause = false;
-        }
-
-        Thread waitThread = new Thread(() -> {
-            try{
-                Thread.sleep(millis);
-            }catch(InterruptedException ignored){
-            }finally{
-                ignoreNewRemoteChanges = false;
-            }
-        });
-
-        waitThread.setDaemon(true);
-        waitThread.setName("Remote monitor ignore timer");
-        waitThread.setPriority(2);
-        waitThread.start();
-    }
-
-    private static void pauseWatchingLocal(long millis){
-        pauseLocalMonitor = true;
+        // Ignore indefinitely
+        if(millis < 0) return;
 
-        if(millis < 0){
-            ignoreUnpause = true;
-            return;
-        }else{
-            ignoreUnpause = false;
-        }
-
-        Thread waitThread = new Thread(() -> {
-            try{
-                Thread.sleep(millis);
-            }catch(InterruptedException ignored){
-            }finally{
-                pauseLocalMonitor = false;
+        OperationScheduler.schedule("Remote monitor ignore timer", OperationScheduler.Priority.BACKGROUND, millis, () -> {
+            synchronized(this){
+                if(generation == ignoreGeneration) ignoreNewRemoteChanges = false;
             }
         });
-
-        waitThread.setDaemon(true);
-        waitThread.setName("Local monitor pause timer");
-        waitThread.setPriority(2);
-        waitThread.start();
-    }
-
-    public static synchronized void pause(long millis){
-        pauseWatchingLocal(millis);
-        pauseWatchingRemote(millis);
-    }
-
-    public static synchronized void pause(){
-        if(pauseCounter == 0) pause(-1);
-        pauseCounter++;
-    }
-
-    public static synchronized void unpause(){
-        pauseCounter--;
-        if(pauseCounter == 0) pause(0);
     }
 }
@@ -12,7 +12,6 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.Repository;
 
 import javax.xml.bind.DatatypeConverter;
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
@@ -23,7 +22,6 @@ import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
-import java.util.stream.Stream;
 
 /**
  * The singleton SessionModel stores all the Repos (contained in RepoHelper objects)
@@ -419,7 +417,8 @@ public class SessionModel {
         Set<String> untrackedFiles = getUntrackedFiles(status);
         Set<String> conflictingFiles = getConflictingFiles(status);
         Set<String> stagedFiles = getStagedFiles(status);
-        ArrayList<String> conflictingThenModifiedFiles = ConflictingFileWatcher.getConflictingThenModifiedFiles();
+        ConflictingFileWatcher conflictingFileWatcher = this.getCurrentRepoHelper().getConflictingFileWatcher();
+        Set<String> conflictingThenModifiedFiles = conflictingFileWatcher.getConflictingThenModifiedFiles();
 
         List<RepoFile> changedRepoFiles = new ArrayList<>();
 
@@ -453,7 +452,7 @@ public class SessionModel {
             }
         }
         for (String str : toRemove) {
-            ConflictingFileWatcher.removeFile(str);
+            conflictingFileWatcher.removeFile(str);
         }
         for (String stagedFileString : stagedFiles) {
             if (!conflictingRepoFileStrings.contains(stagedFileString) && !modifiedFiles.contains(stagedFileString)) {
@@ -489,52 +488,83 @@ public class SessionModel {
         return changedRepoFiles;
     }
     /**
-     * Assembles all files in the repository's folder into RepoFiles
-     * and returns a list of them.
+     * Gets the status of every file in the repository that isn't unchanged: changed
+     * files as well as ignored ones. Files that aren't in here are unchanged
      *
-     * @return a list of changed files, contained in RepoFile objects.
+     * @return the status of each such file, by its path relative to the repository
      * @throws GitAPIException if the `git status` calls fail.
      */
-    List<RepoFile> getAllRepoFiles() throws GitAPIException, IOException {
-        List<RepoFile> allFiles = getAllChangedRepoFiles();
-
-        Status status = new Git(this.getCurrentRepo()).status().call();
-
-        for(String ignoredFileString : getIgnoredFiles(status)){
+    Map<Path, RepoFile> getStatusSnapshot() throws GitAPIException {
+        Map<Path, RepoFile> snapshot = new HashMap<>();
+        for(RepoFile changedFile : getAllChangedRepoFiles()){
+            snapshot.put(changedFile.getFilePath(), changedFile);
+        }
+        for(String ignoredFileString : getIgnoredFiles(null)){
             IgnoredRepoFile ignoredRepoFile = new IgnoredRepoFile(ignoredFileString, this.getCurrentRepoHelper());
-            allFiles.add(ignoredRepoFile);
+            snapshot.putIfAbsent(ignoredRepoFile.getFilePath(), ignoredRepoFile);
         }
+        return snapshot;
+    }
 
-        List<Path> allPaths = new LinkedList<>();
-
-        try (Stream<Path> paths = Files.walk(currentRepoHelper.getLocalPath())
-                .filter(path -> !path.toString().contains(File.separator + ".git" + File.separator)
-                        && !path.equals(currentRepoHelper.getLocalPath())
-                        && !path.endsWith(".git"))) {
-            paths.forEach(allPaths::add);
+    /**
+     * Lists the files directly inside one directory of the repository, with their status
+     * taken from the given snapshot. Subdirectories are not looked into. Files that are
+     * in the snapshot but no longer on disk (e.g. missing files) are included too.
+     *
+     * @param directory the directory to list, relative to the repository. The empty path is the root
+     * @param statusSnapshot the status of changed and ignored files, as from getStatusSnapshot
+     * @return the files in the directory
+     * @throws IOException if the directory can't be read
+     */
+    List<RepoFile> getRepoFilesInDirectory(Path directory, Map<Path, RepoFile> statusSnapshot) throws IOException {
+        Path repoPath = currentRepoHelper.getLocalPath();
+        Path absoluteDirectory = repoPath.resolve(directory);
+        boolean isRoot = directory.toString().isEmpty();
+
+        List<RepoFile> files = new ArrayList<>();
+        if(!Files.isDirectory(absoluteDirectory)) return files;
+
+        // Git only reports an ignored directory, not the files inside it
+        boolean isInIgnoredDirectory = false;
+        for(Path parent = directory; parent != null && !isInIgnoredDirectory; parent = parent.getParent()){
+            isInIgnoredDirectory = statusSnapshot.get(parent) instanceof IgnoredRepoFile;
         }
 
         Set<Path> addedPaths = new HashSet<>();
-        for(RepoFile file : allFiles){
-            addedPaths.add(file.getFilePath());
-        }
-
-        for(Path path : allPaths){
-            path = currentRepoHelper.getLocalPath().relativize(path);
-            if(!addedPaths.contains(path)){
-                RepoFile temp;
-                if(path.toFile().isDirectory()){
-                    temp = new DirectoryRepoFile(path, currentRepoHelper);
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(absoluteDirectory)) {
+            for(Path child : children){
+                if(child.getFileName().toString().equals(".git")) continue;
+
+                Path path = repoPath.relativize(child);
+                RepoFile repoFile;
+                if(Files.isDirectory(child)){
+                    repoFile = new DirectoryRepoFile(path, currentRepoHelper);
+                }else if(statusSnapshot.containsKey(path)){
+                    repoFile = statusSnapshot.get(path);
+                }else if(isInIgnoredDirectory){
+                    repoFile = new IgnoredRepoFile(path.toString(), currentRepoHelper);
                 }else{
-                    temp = new RepoFile(path, currentRepoHelper);
+                    repoFile = new RepoFile(path, currentRepoHelper);
                 }
-                allFiles.add(temp);
+                files.add(repoFile);
                 addedPaths.add(path);
             }
         }
 
-        Collections.sort(allFiles);
-        return allFiles;
+        for(Map.Entry<Path, RepoFile> entry : statusSnapshot.entrySet()){
+            Path path = entry.getKey();
+            if(addedPaths.contains(path)) continue;
+
+            Path parent = path.getParent();
+            // Files whose directory is gone entirely are shown at the root
+            if((parent == null && isRoot) || directory.equals(parent)
+                    || (isRoot && parent != null && !Files.isDirectory(repoPath.resolve(parent)))){
+                files.add(entry.getValue());
+            }
+        }
+
+        Collections.sort(files);
+        return files;
     }
 
     /**
@@ -639,6 +669,7 @@ public class SessionModel {
     public void removeRepoHelpers(List<RepoHelper> checkedItems) {
         for (RepoHelper item : checkedItems) {
             this.allRepoHelpers.remove(item);
+            item.closeRepo();
         }
     }
 
@@ -111,7 +111,7 @@ public class StagedTreePanelView extends FileStructurePanelView{
             setGraphic(getTreeItem() == null ? null : getTreeItem().getGraphic());
 
             setOnContextMenuRequested(event -> {
-                if(getTreeItem() != null) getTreeItem().getValue().showContextMenu(this, event.getScreenX(), event.getScreenY());
+                if(getTreeItem() != null) elegit.RepoFileTreeCell.showContextMenu(sessionController, getTreeItem().getValue(), this, event.getScreenX(), event.getScreenY());
             });
         }
     }
@@ -2,6 +2,7 @@ package elegit;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,6 +16,7 @@ import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidTagNameException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
@@ -67,8 +69,9 @@ public class TagModel {
                 else commitName = tagMap.get(s).getObjectId().getName();
                 // Re add the tag if it isn't there
 
-                if (!this.repoHelper.getCommit(commitName).hasTag(s)) {
-                    this.repoHelper.getCommit(commitName).addTag(this.tagIdMap.get(s));
+                CommitHelper commit = this.repoHelper.getCommit(commitName);
+                if (commit != null && !commit.hasTag(s)) {
+                    commit.addTag(this.tagIdMap.get(s));
                 }
 
                 oldTagNames.remove(s);
@@ -82,7 +85,8 @@ public class TagModel {
         }
         if (oldTagNames.size() > 0) { //There are tags that were deleted, so we remove them
             for (String s : oldTagNames) {
-                this.repoHelper.getCommit(this.tagIdMap.get(s).getCommitId()).removeTag(s);
+                CommitHelper commit = this.repoHelper.getCommit(this.tagIdMap.get(s).getCommitId());
+                if (commit != null) commit.removeTag(s);
                 this.unpushedTags.remove(s);
                 this.upToDateTags.remove(tagIdMap.get(s));
                 tagsWithUnpushedCommits.remove(s);
@@ -92,6 +96,20 @@ public class TagModel {
         return !(oldSize == getAllTagNames().size() && oldTagNames.size() == 0);
     }
 
+    /**
+     * Marks the given tags as pushed, without looking through the tags again
+     *
+     * @param tagNames the names of the tags that are on the remote now
+     */
+    public void markTagsPushed(Collection<String> tagNames) {
+        for (String tagName : tagNames) {
+            TagHelper tag = this.tagIdMap.get(tagName);
+            if (tag != null && this.unpushedTags.remove(tag)) {
+                this.upToDateTags.add(tag);
+            }
+        }
+    }
+
     /**
      * Tags a commit
      *
@@ -139,10 +157,12 @@ public class TagModel {
         CommitHelper c = this.repoHelper.getCommit(commitName);
         TagHelper t;
 
-        // If the commit that this tag points to isn't in the commitIdMap,
-        // then that commit has not yet been pushed, so warn the user
+        // If the commit that this tag points to isn't in the commitIdMap, it's either
+        // in a page of history that hasn't been read yet, in which case the tag is made
+        // by updateTags once it has, or it has not yet been pushed, so warn the user
         if (c == null) {
-            this.tagsWithUnpushedCommits.add(tagName);
+            if (!this.repoHelper.getRepo().getObjectDatabase().has(ObjectId.fromString(commitName)))
+                this.tagsWithUnpushedCommits.add(tagName);
             return null;
         } else if (this.tagsWithUnpushedCommits.contains(tagName)) {
             this.tagsWithUnpushedCommits.remove(tagName);
@@ -208,7 +228,8 @@ public class TagModel {
         List<TagHelper> tags = new ArrayList<>();
         for (String s : tagMap.keySet()) {
             Ref r = tagMap.get(s);
-            tags.add(makeTagHelper(r, s));
+            TagHelper tag = makeTagHelper(r, s);
+            if (tag != null) tags.add(tag);
         }
         return tags;
     }
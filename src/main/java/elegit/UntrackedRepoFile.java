@@ -10,9 +10,7 @@ public class UntrackedRepoFile extends RepoFile {
 
     UntrackedRepoFile(Path filePath, RepoHelper repo) {
         super(filePath, repo);
-        diffButton.setText("UNTRACKED");
-        diffButton.setId("untrackedDiffButton");
-        diffButton.setTooltip(getToolTip("This file has not been added to git. Commit to add it."));
+        setStatus("UNTRACKED", "untrackedDiffButton", "This file has not been added to git. Commit to add it.");
     }
 
     UntrackedRepoFile(String filePathString, RepoHelper repo) {
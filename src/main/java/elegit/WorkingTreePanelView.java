@@ -7,7 +7,6 @@ import javafx.scene.control.CheckBoxTreeItem;
 import javafx.scene.control.TreeCell;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
-import javafx.scene.control.cell.CheckBoxTreeCell;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
 import javafx.util.Callback;
@@ -47,18 +46,12 @@ public class WorkingTreePanelView extends FileStructurePanelView{
     }
 
     /**
-     * @return the cell from CheckBoxTreeCell's implementation of a TreeView factory, with
-     * an added context menu for the given RepoFile
+     * @return a factory for cells with a checkbox, the file's status button and a
+     * context menu for the given RepoFile
      */
     @Override
     protected Callback<TreeView<RepoFile>, TreeCell<RepoFile>> getTreeCellFactory() {
-        return arg -> {
-            TreeCell<RepoFile> cell = CheckBoxTreeCell.<RepoFile>forTreeView().call(arg);
-            cell.setOnContextMenuRequested(event -> {
-                if(cell.getTreeItem()!= null) cell.getTreeItem().getValue().showContextMenu(cell, event.getScreenX(), event.getScreenY());
-            });
-            return cell;
-        };
+        return arg -> new RepoFileTreeCell(sessionController);
     }
 
     @Override
@@ -143,7 +136,7 @@ public class WorkingTreePanelView extends FileStructurePanelView{
 
         // Loop over every file to be shown
         for(RepoFile repoFile : updatedRepoFiles) {
-            CheckBoxTreeItem<RepoFile> newItem = new CheckBoxTreeItem<>(repoFile, repoFile.diffButton);
+            CheckBoxTreeItem<RepoFile> newItem = new CheckBoxTreeItem<>(repoFile);
 
             BooleanProperty oldHelper = isSelectedPropertyHelper;
             isSelectedPropertyHelper = new SimpleBooleanProperty();
@@ -46,6 +46,7 @@ public class BranchCheckoutController {
     @FXML private NotificationController notificationPaneController;
 
     private SessionModel sessionModel;
+    private SessionController sessionController;
     private CommitTreeModel localCommitTreeModel;
     private Stage stage;
 
@@ -59,7 +60,6 @@ public class BranchCheckoutController {
         this.repoHelper = this.sessionModel.getCurrentRepoHelper();
         this.repo = this.repoHelper.getRepo();
         this.branchModel = repoHelper.getBranchModel();
-        this.localCommitTreeModel = CommitTreeController.commitTreeModel;
         this.remoteListView.setItems(FXCollections.observableArrayList(branchModel.getRemoteBranchesTyped()));
         this.localListView.setItems(FXCollections.observableArrayList(branchModel.getLocalBranchesTyped()));
 
@@ -82,6 +82,15 @@ public class BranchCheckoutController {
         this.trackRemoteBranchButton.setGraphic(cloudDownIcon);
     }
 
+    /**
+     * Setter method for sessionController, needed to update the main window's commit tree
+     * @param sessionController the sessionController that made this window
+     */
+    void setSessionController(SessionController sessionController) {
+        this.sessionController = sessionController;
+        this.localCommitTreeModel = sessionController.commitTreeModel;
+    }
+
     /**
      * Shows the branch manager
      * @param pane AnchorPane root
@@ -202,8 +211,8 @@ public class BranchCheckoutController {
         if(selectedBranch == null) return false;
         try {
             selectedBranch.checkoutBranch();
-            CommitTreeController.focusCommitInGraph(selectedBranch.getCommit());
-            CommitTreeController.setBranchHeads(CommitTreeController.getCommitTreeModel(), theSessionModel.getCurrentRepoHelper());
+            sessionController.getCommitTreeController().focusCommitInGraph(selectedBranch.getCommit());
+            CommitTreeController.setBranchHeads(localCommitTreeModel, theSessionModel.getCurrentRepoHelper());
             return true;
         } catch (JGitInternalException e){
             showJGitInternalError(e);
@@ -86,9 +86,6 @@ public class CreateDeleteBranchWindowController {
         }));
         deleteButton2.disableProperty().bind(remoteBranchesDropdown.getSelectionModel().selectedIndexProperty().lessThan(0));
 
-        // Get the current commit tree models
-        localCommitTreeModel = CommitTreeController.getCommitTreeModel();
-
         this.notificationPaneController.bindParentBounds(anchorRoot.heightProperty());
     }
 
@@ -196,7 +193,7 @@ public class CreateDeleteBranchWindowController {
      * @param checkout boolean
      */
     private void createNewBranch(String branchName, boolean checkout) {
-        Thread th = new Thread(new Task<Void>() {
+        Task<Void> task = new Task<Void>() {
             @Override
             protected Void call() {
                 LocalBranchHelper newBranch = null;
@@ -237,10 +234,8 @@ public class CreateDeleteBranchWindowController {
                 }
                 return null;
             }
-        });
-        th.setDaemon(true);
-        th.setName("createNewBranch");
-        th.start();
+        };
+        OperationScheduler.submit("createNewBranch", OperationScheduler.Priority.INTERACTIVE, sessionModel.getCurrentRepoHelper(), task);
     }
 
     /**
@@ -253,8 +248,8 @@ public class CreateDeleteBranchWindowController {
         if(selectedBranch == null) return false;
         try {
             selectedBranch.checkoutBranch();
-            CommitTreeController.focusCommitInGraph(selectedBranch.getCommit());
-            CommitTreeController.setBranchHeads(CommitTreeController.getCommitTreeModel(), theSessionModel.getCurrentRepoHelper());
+            sessionController.getCommitTreeController().focusCommitInGraph(selectedBranch.getCommit());
+            CommitTreeController.setBranchHeads(localCommitTreeModel, theSessionModel.getCurrentRepoHelper());
             return true;
         } catch (JGitInternalException e){
             showJGitInternalError(e);
@@ -442,6 +437,7 @@ public class CreateDeleteBranchWindowController {
 
     void setSessionController(SessionController sessionController) {
         this.sessionController = sessionController;
+        this.localCommitTreeModel = sessionController.commitTreeModel;
     }
 
     @FXML
@@ -17,7 +17,10 @@ public class MenuController {
     private SessionController sessionController;
     @FXML public CheckMenuItem loggingToggle; // public so can be selected when prefs loaded in SessionController
     @FXML private CheckMenuItem commitSortToggle;
+    @FXML private CheckMenuItem collapseChainsToggle;
+    @FXML public CheckMenuItem prefetchToggle; // public so can be selected when prefs loaded in SessionController
     @FXML MenuItem gitIgnoreMenuItem; // has to be public because of SessionController.updateMenuBarEnabledStatus()
+    @FXML MenuItem findCommitMenuItem; // has to be public because of SessionController.updateMenuBarEnabledStatus()
     @FXML Menu repoMenu;
     @FXML private MenuItem cloneMenuItem;
     @FXML private MenuItem createBranchMenuItem;
@@ -31,6 +34,7 @@ public class MenuController {
     public void initialize() {
         initMenuBarShortcuts();
         commitSortToggle.setSelected(true); //default
+        collapseChainsToggle.setSelected(true); //default
     }
 
     /**
@@ -38,6 +42,7 @@ public class MenuController {
      *
      *  Combinations:
      *  CMD-N   Clone
+     *  CMD-F   Find commit
      *  Shift + CMD-B   Branch
      *  Shift + CMD-C   Commit
      *  Shift + CMD-F   Fetch
@@ -47,6 +52,7 @@ public class MenuController {
      */
     private void initMenuBarShortcuts() {
         this.cloneMenuItem.setAccelerator(new KeyCodeCombination(KeyCode.N, KeyCombination.META_DOWN));
+        this.findCommitMenuItem.setAccelerator(new KeyCodeCombination(KeyCode.F, KeyCombination.META_DOWN));
         this.createBranchMenuItem.setAccelerator(new KeyCodeCombination(KeyCode.B, KeyCombination.META_DOWN, KeyCombination.SHIFT_DOWN));
         this.commitNormalMenuItem.setAccelerator(new KeyCodeCombination(KeyCode.C, KeyCombination.META_DOWN, KeyCombination.SHIFT_DOWN));
         this.normalFetchMenuItem.setAccelerator(new KeyCodeCombination(KeyCode.F, KeyCombination.META_DOWN, KeyCombination.SHIFT_DOWN));
@@ -80,6 +86,31 @@ public class MenuController {
         assert commitSortToggle.isSelected() == TreeLayout.commitSortTopological ;
     }
 
+    public void handleShowAllBranches() {
+        sessionController.handleShowAllBranches();
+    }
+
+    public void handleShowCurrentBranch() {
+        sessionController.handleShowCurrentBranch();
+    }
+
+    public void handleShowSelectedBranches() {
+        sessionController.handleShowSelectedBranches();
+    }
+
+    public void handleShowMatchingBranches() {
+        sessionController.handleShowMatchingBranches();
+    }
+
+    public void handleCollapseChainsToggle() {
+        sessionController.handleCollapseChainsToggle(collapseChainsToggle.isSelected());
+        assert collapseChainsToggle.isSelected() == sessionController.commitTreeModel.isCollapseLinearChains();
+    }
+
+    public void handlePrefetchToggle() {
+        sessionController.handlePrefetchToggle(prefetchToggle.isSelected());
+    }
+
     public void handleAbout() {
         sessionController.handleAbout();
     }
@@ -90,6 +121,10 @@ public class MenuController {
         sessionController.handleGitIgnoreMenuItem();
     }
 
+    public void handleFindCommitMenuItem() {
+        sessionController.handleFindCommitMenuItem();
+    }
+
     // "Repository" Dropdown Menu Items (2 layers):
 
     public void handleNewBranchButton() {
@@ -148,6 +183,10 @@ public class MenuController {
         sessionController.handlePushAllButton();
     }
 
+    public void handlePushAllWithTagsButton() {
+        sessionController.handlePushAllWithTagsButton();
+    }
+
     public void handlePushTagsButton() {
         sessionController.handlePushTagsButton();
     }
@@ -4,6 +4,7 @@ import elegit.*;
 import elegit.treefx.CellLabel;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -19,9 +20,12 @@ import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.errors.*;
 import org.eclipse.jgit.lib.BranchTrackingStatus;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Controller for the merge window
@@ -44,16 +48,23 @@ public class MergeWindowController {
     @FXML private HBox localBranchBox1;
     @FXML private TabPane mergeTypePane;
     @FXML private Tab localBranchTab;
+    @FXML private Label mergePreviewText;
 
     private static final int REMOTE_PANE=0;
     private static final int LOCAL_PANE=1;
 
+    // The most conflicting or changed files listed in the merge preview
+    private static final int MAX_PREVIEW_PATHS=5;
+
     private Stage stage;
     SessionModel sessionModel;
     RepoHelper repoHelper;
     private BranchModel branchModel;
     private boolean disable;
     private CommitTreeModel localCommitTreeModel;
+    private String remoteTrackingRefName;
+    // Counts the merge previews asked for, so only the latest one is shown
+    private int previewRequest;
 
     private SessionController sessionController;
 
@@ -107,11 +118,9 @@ public class MergeWindowController {
 
         this.notificationPaneController.bindParentBounds(anchorRoot.heightProperty());
 
-        //init commit tree models
-        localCommitTreeModel = CommitTreeController.getCommitTreeModel();
-
         initText();
         initMergeButton();
+        initMergePreview();
     }
 
     /**
@@ -131,6 +140,7 @@ public class MergeWindowController {
         } else {
             disable = false;
             String curRemoteTrackingBranch = b.getRemoteTrackingBranch();
+            remoteTrackingRefName = curRemoteTrackingBranch;
             curRemoteTrackingBranch = Repository.shortenRefName(curRemoteTrackingBranch);
             localBranchName1.setText(curBranch);
             remoteTrackingBranchName.setText(curRemoteTrackingBranch);
@@ -148,6 +158,103 @@ public class MergeWindowController {
             mergeButton.disableProperty().bind(mergeTypePane.getSelectionModel().selectedIndexProperty().lessThan(1));
     }
 
+    /**
+     * Helper method that previews the merge whenever the branches to merge change
+     */
+    private void initMergePreview() {
+        branchDropdownSelector.valueProperty().addListener((observable, oldValue, newValue) -> updateMergePreview());
+        mergeTypePane.getSelectionModel().selectedIndexProperty().addListener((observable, oldValue, newValue) -> updateMergePreview());
+        updateMergePreview();
+    }
+
+    /**
+     * Works out in the background what merging the chosen branch into the current one
+     * would do, without touching the working tree, and shows it under the tabs
+     */
+    private void updateMergePreview() {
+        String theirRefName;
+        if (mergeTypePane.getSelectionModel().isSelected(LOCAL_PANE)) {
+            LocalBranchHelper selectedBranch = branchDropdownSelector.getSelectionModel().getSelectedItem();
+            theirRefName = selectedBranch == null ? null : selectedBranch.getRefPathString();
+        } else {
+            theirRefName = remoteTrackingRefName;
+        }
+
+        int request = ++previewRequest;
+        if (theirRefName == null) {
+            mergePreviewText.setText("");
+            return;
+        }
+        mergePreviewText.setText("Checking the merge...");
+
+        OperationScheduler.submit("Merge preview", OperationScheduler.Priority.INTERACTIVE, new Task<Void>() {
+            @Override
+            protected Void call() {
+                String text = "";
+                repoHelper.lockForReading();
+                try {
+                    Repository repo = repoHelper.getRepo();
+                    ObjectId ours = repo.resolve(Constants.HEAD);
+                    ObjectId theirs = repo.resolve(theirRefName);
+                    if (ours != null && theirs != null) text = describeMergePreview(MergePreview.of(repo, ours, theirs));
+                } catch (IOException e) {
+                    logger.error("IOException while previewing merge");
+                    logger.debug(e.getStackTrace());
+                } finally {
+                    repoHelper.unlockForReading();
+                }
+
+                String previewText = text;
+                Platform.runLater(() -> {
+                    if (request == previewRequest) mergePreviewText.setText(previewText);
+                });
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @param preview the preview of a merge
+     * @return a description of the preview for the merge window
+     */
+    private static String describeMergePreview(MergePreview preview) {
+        int changed = preview.getChangedFileCount();
+        String changedFiles = changed + (changed == 1 ? " file" : " files") + " changed";
+        switch (preview.getStatus()) {
+            case UP_TO_DATE:
+                return "Already up-to-date, there's nothing to merge.";
+            case FAST_FORWARD:
+                return "Fast-forward, " + changedFiles + ".";
+            case CLEAN:
+                return "No conflicts, " + changedFiles + ".";
+            case CONFLICTING:
+                List<String> conflicts = preview.getConflictingPaths();
+                return listPaths(changedFiles + ", " + conflicts.size()
+                        + (conflicts.size() == 1 ? " conflict:" : " conflicts:"), conflicts);
+            case DIRTY:
+                List<String> dirty = preview.getDirtyPaths();
+                return listPaths("The merge would fail, commit or stash the changes to "
+                        + (dirty.size() == 1 ? "this file" : "these files") + " first:", dirty);
+            case UNKNOWN:
+            default:
+                return "Conflicts can't be checked ahead of time for this merge.";
+        }
+    }
+
+    /**
+     * @return the heading followed by the first few paths, one per line
+     */
+    private static String listPaths(String heading, List<String> paths) {
+        StringBuilder text = new StringBuilder(heading);
+        for (int i = 0; i < paths.size() && i < MAX_PREVIEW_PATHS; i++) {
+            text.append("\n    ").append(paths.get(i));
+        }
+        if (paths.size() > MAX_PREVIEW_PATHS) {
+            text.append("\n    and ").append(paths.size() - MAX_PREVIEW_PATHS).append(" more");
+        }
+        return text.toString();
+    }
+
     /**
      * Helper method to hide the various items in the remote tracking pane
      * if there is no remote-tracking branch for the current branch
@@ -228,7 +335,7 @@ public class MergeWindowController {
         if (mergeResult.getMergeStatus().equals(MergeResult.MergeStatus.CONFLICTING)){
             this.showConflictsNotification();
             this.sessionController.gitStatus();
-            ConflictingFileWatcher.watchConflictingFiles(sessionModel.getCurrentRepoHelper());
+            this.sessionController.watchConflictingFiles();
 
         } else if (mergeResult.getMergeStatus().equals(MergeResult.MergeStatus.ALREADY_UP_TO_DATE)) {
             this.showUpToDateNotification();
@@ -249,6 +356,7 @@ public class MergeWindowController {
         }
         // Tell the rest of the UI to update
         sessionController.gitStatus();
+        updateMergePreview();
     }
 
     public void handleTrackDifBranch() {
@@ -275,6 +383,7 @@ public class MergeWindowController {
      */
     void setSessionController(SessionController sessionController) {
         this.sessionController = sessionController;
+        this.localCommitTreeModel = sessionController.commitTreeModel;
     }
 
     ///******* START ERROR NOTIFICATIONS *******/
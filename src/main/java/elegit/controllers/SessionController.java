@@ -45,6 +45,7 @@ import org.eclipse.jgit.transport.RemoteRefUpdate;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 
 import java.awt.*;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -95,6 +96,12 @@ public class SessionController {
 
     public CommitTreeModel commitTreeModel;
 
+    // Selection and highlighting in this session's commit tree
+    private CommitTreeController commitTreeController;
+
+    // Watches this session's repository and its remotes for changes
+    private RepositoryMonitor repositoryMonitor;
+
     public ImageView remoteImage;
 
     private String commitInfoNameText = "";
@@ -166,6 +173,7 @@ public class SessionController {
 
     Preferences preferences;
     private static final String LOGGING_LEVEL_KEY="LOGGING_LEVEL";
+    private static final String PREFETCH_KEY="PREFETCH_ENABLED";
 
     /**
      * Initializes the environment by obtaining the model
@@ -181,7 +189,10 @@ public class SessionController {
         d = new DataSubmitter();
 
         // Gives other controllers acccess to this one
-        CommitTreeController.sessionController = this;
+        if (this.commitTreeController == null)
+            this.commitTreeController = new CommitTreeController(this);
+        if (this.repositoryMonitor == null)
+            this.repositoryMonitor = new RepositoryMonitor(this.theModel, this);
         CommitController.sessionController = this;
         menuController.setSessionController(this);
         dropdownController.setSessionController(this);
@@ -189,10 +200,13 @@ public class SessionController {
 
 
         // Creates the commit tree model
-        this.commitTreeModel = new CommitTreeModel(this.theModel, this.commitTreePanelView);
-        CommitTreeController.commitTreeModel = this.commitTreeModel;
+        this.commitTreeModel = new CommitTreeModel(this.theModel, this.commitTreePanelView, this.commitTreeController);
+        this.commitTreeController.commitTreeModel = this.commitTreeModel;
 
         // Passes theModel to panel views
+        this.workingTreePanelView.setSessionController(this);
+        this.allFilesPanelView.setSessionController(this);
+        this.indexPanelView.setSessionController(this);
         this.workingTreePanelView.setSessionModel(this.theModel);
         this.allFilesPanelView.setSessionModel(this.theModel);
         this.indexPanelView.setSessionModel(this.theModel);
@@ -224,15 +238,12 @@ public class SessionController {
         VBox.setVgrow(filesTabPane, Priority.ALWAYS);
 
         // if there are conflicting files on startup, watches them for changes
-        try {
-            ConflictingFileWatcher.watchConflictingFiles(theModel.getCurrentRepoHelper());
-        } catch (GitAPIException | IOException e) {
-            e.printStackTrace();
-        }
+        this.watchConflictingFiles();
 
         tryCommandAgainWithHTTPAuth = false;
 
         this.preferences = Preferences.userNodeForPackage(this.getClass());
+        this.loadPrefetch();
     }
 
     /**
@@ -242,6 +253,7 @@ public class SessionController {
     public void setStage(Stage stage) {
         this.mainStage = stage;
         notificationPaneController.setAnchor(mainStage);
+        repositoryMonitor.watchWindowFocus(mainStage.focusedProperty());
     }
 
     /**
@@ -294,7 +306,7 @@ public class SessionController {
         if (this.theModel.getCurrentRepoHelper()==null) return;
         boolean update;
 
-        update = RepositoryMonitor.hasFoundNewRemoteChanges.get();
+        update = repositoryMonitor.hasFoundNewRemoteChanges.get();
         String fetchText = update ? "New changes to fetch" : "Up to date";
         Color fetchColor = update ? Color.FIREBRICK : Color.FORESTGREEN;
         needToFetch.setText(fetchText);
@@ -306,7 +318,7 @@ public class SessionController {
         if (update) {
             Platform.runLater(() -> {
                 currentLocalBranchLabel.setText(localBranch.getAbbrevName());
-                currentLocalBranchLabel.setOnMouseClicked((event -> CommitTreeController.focusCommitInGraph(localBranch.getCommit())));
+                currentLocalBranchLabel.setOnMouseClicked((event -> commitTreeController.focusCommitInGraph(localBranch.getCommit())));
                 addToolTip(currentLocalBranchHbox, localBranch.getRefName());
             });
         }
@@ -334,7 +346,7 @@ public class SessionController {
             Platform.runLater(() -> {
                 currentRemoteTrackingLabel.setText(remoteBranchFinal);
                 if (finalRemoteHead != null)
-                    currentRemoteTrackingLabel.setOnMouseClicked((event -> CommitTreeController.focusCommitInGraph(finalRemoteHead)));
+                    currentRemoteTrackingLabel.setOnMouseClicked((event -> commitTreeController.focusCommitInGraph(finalRemoteHead)));
                 addToolTip(currentRemoteTrackingBranchHbox, remoteBranchFullFinal);
             });
         }
@@ -342,8 +354,9 @@ public class SessionController {
         // Ahead/behind count
         int ahead=0, behind=0;
         try {
-            ahead = this.theModel.getCurrentRepoHelper().getAheadCount();
-            behind = this.theModel.getCurrentRepoHelper().getBehindCount();
+            RepoHelper repoHelper = this.theModel.getCurrentRepoHelper();
+            ahead = repoHelper.readOptimistically(repoHelper::getAheadCount);
+            behind = repoHelper.readOptimistically(repoHelper::getBehindCount);
         } catch (IOException e) {
             this.showGenericErrorNotification();
         }
@@ -382,11 +395,24 @@ public class SessionController {
     }
 
     /**
-     * Initializes the repository monitor
+     * @return the controller of this session's commit tree
+     */
+    public CommitTreeController getCommitTreeController() {
+        return this.commitTreeController;
+    }
+
+    /**
+     * @return the monitor that watches this session's repository
      */
+    public RepositoryMonitor getRepositoryMonitor() {
+        return this.repositoryMonitor;
+    }
+
+    /**
+     * Initializes the repository monitor
     private void initRepositoryMonitor() {
-        RepositoryMonitor.startWatching(theModel, this);
-        RepositoryMonitor.hasFoundNewRemoteChanges.addListener((observable, oldValue, newValue) -> {
+        repositoryMonitor.startWatching();
+        repositoryMonitor.hasFoundNewRemoteChanges.addListener((observable, oldValue, newValue) -> {
             if(newValue) updateStatusText();
         });
     }
@@ -588,6 +614,7 @@ public class SessionController {
     private void updateMenuBarEnabledStatus(boolean disable) {
         menuController.repoMenu.setDisable(disable);
         menuController.gitIgnoreMenuItem.setDisable(disable);
+        menuController.findCommitMenuItem.setDisable(disable);
     }
 
     /**
@@ -638,14 +665,17 @@ public class SessionController {
                 return;
             }
 
-            RepositoryMonitor.pause();
             BusyWindow.show();
             BusyWindow.setLoadingText("Loading the repository...");
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() {
+                    // Nothing reads or writes the new repository while it is opened. A refresh that was
+                    // waiting for it updates the views after initPanelViews, which is handed to the FX
+                    // thread before the lock is released
+                    repoHelper.lockForWriting();
                     try {
-                        TreeLayout.stopMovingCells();
+                        commitTreeModel.stopMovingCells();
 
                         refreshRecentReposInDropdown();
                         theModel.openRepoFromHelper(repoHelper);
@@ -670,15 +700,13 @@ public class SessionController {
                         showGenericErrorNotification();
                         e.printStackTrace();
                     } finally{
-                        RepositoryMonitor.unpause();
+                        repoHelper.unlockForWriting();
                         BusyWindow.hide();
                     }
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Loading existing/cloning repository");
-            th.start();
+            };
+            OperationScheduler.submit("Loading existing/cloning repository", OperationScheduler.Priority.INTERACTIVE, null, task);
         } catch(InvalidPathException e) {
             showRepoWasNotLoadedNotification();
             e.printStackTrace();
@@ -739,12 +767,15 @@ public class SessionController {
 
         this.notificationPaneController.clearAllNotifications();
         logger.info("Switching repos");
-        RepositoryMonitor.pause();
         BusyWindow.show();
         BusyWindow.setLoadingText("Opening the repository...");
-        Thread th = new Thread(new Task<Void>(){
+        Task<Void> task = new Task<Void>(){
             @Override
             protected Void call() throws Exception{
+                // Nothing reads or writes the new repository while it is opened. A refresh that was
+                // waiting for it updates the views after initPanelViews, which is handed to the FX
+                // thread before the lock is released
+                repoHelper.lockForWriting();
                 try {
                     theModel.openRepoFromHelper(repoHelper);
 
@@ -767,15 +798,13 @@ public class SessionController {
                     showGenericErrorNotification();
                     e.printStackTrace();
                 } finally{
-                    RepositoryMonitor.unpause();
+                    repoHelper.unlockForWriting();
                     BusyWindow.hide();
                 }
                 return null;
             }
-        });
-        th.setDaemon(true);
-        th.setName("Open repository from recent list");
-        th.start();
+        };
+        OperationScheduler.submit("Open repository from recent list", OperationScheduler.Priority.INTERACTIVE, null, task);
     }
 
     /**
@@ -802,7 +831,7 @@ public class SessionController {
 
             BusyWindow.show();
             BusyWindow.setLoadingText("Adding...");
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() {
                     try{
@@ -844,10 +873,8 @@ public class SessionController {
                     }
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git add");
-            th.start();
+            };
+            OperationScheduler.submit("Git add", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
         } catch (NoFilesSelectedToAddException e) {
             this.showNoFilesSelectedForAddNotification();
         } catch (NoRepoLoadedException e) {
@@ -872,7 +899,7 @@ public class SessionController {
 
             BusyWindow.show();
             BusyWindow.setLoadingText("Removing...");
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() {
                     try{
@@ -899,10 +926,8 @@ public class SessionController {
                     }
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git rm");
-            th.start();
+            };
+            OperationScheduler.submit("Git rm", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
         } catch (NoFilesSelectedToRemoveException e) {
             this.showNoFilesSelectedForRemoveNotification();
         } catch (NoRepoLoadedException e) {
@@ -936,6 +961,42 @@ public class SessionController {
         }
     }
 
+    /**
+     * Highlights the commits in the commit tree that changed the given file
+     *
+     * @param filePath the path of the file, relative to the repository
+     */
+    public void handleShowFileHistory(Path filePath) {
+        RepoHelper repoHelper = theModel.getCurrentRepoHelper();
+        if (repoHelper == null) {
+            showNoRepoLoadedNotification();
+            return;
+        }
+        String path = filePath.toString().replace(File.separatorChar, '/');
+
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() {
+                try {
+                    List<CommitHelper> history = repoHelper.getFileHistory(path);
+                    Platform.runLater(() -> {
+                        if (history.isEmpty()) {
+                            notificationPaneController.addNotification("No loaded commits changed " + path + ".");
+                        } else {
+                            commitTreeController.highlightCommits(history);
+                        }
+                    });
+                } catch (IOException e) {
+                    logger.error("IOException while finding the history of a file");
+                    logger.debug(e.getStackTrace());
+                    showGenericErrorNotification();
+                }
+                return null;
+            }
+        };
+        OperationScheduler.submit("File history", OperationScheduler.Priority.INTERACTIVE, task);
+    }
+
     /**
      * Handler for the checkout button
      */
@@ -1046,7 +1107,7 @@ public class SessionController {
         BusyWindow.show();
         BusyWindow.setLoadingText("Committing all...");
 
-        Thread th = new Thread(new Task<Void>() {
+        Task<Void> task = new Task<Void>() {
             @Override
             protected Void call() {
                 try {
@@ -1059,10 +1120,8 @@ public class SessionController {
                 }
                 return null;
             }
-        });
-        th.setDaemon(true);
-        th.setName("Git commit all");
-        th.start();
+        };
+        OperationScheduler.submit("Git commit all", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
     }
 
     private void commitNormal() throws IOException {
@@ -1097,7 +1156,7 @@ public class SessionController {
 
             if(tagName.length() == 0) throw new NoTagNameException();
 
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() {
                     try {
@@ -1133,10 +1192,8 @@ public class SessionController {
 
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git tag");
-            th.start();
+            };
+            OperationScheduler.submit("Git tag", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
         } catch(NoRepoLoadedException e){
             this.showNoRepoLoadedNotification();
             setButtonsDisabled(true);
@@ -1151,7 +1208,7 @@ public class SessionController {
         }
     }
 
-    public enum PushType {BRANCH, ALL}
+    public enum PushType {BRANCH, ALL, ALL_WITH_TAGS}
 
     public void handlePushButton() {
         pushBranchOrAllSetup(PushType.BRANCH);
@@ -1161,6 +1218,10 @@ public class SessionController {
         pushBranchOrAllSetup(PushType.ALL);
     }
 
+    public void handlePushAllWithTagsButton() {
+        pushBranchOrAllSetup(PushType.ALL_WITH_TAGS);
+    }
+
     // Set up the push command. Involves querying the user to see if remote branches should be made.
     // This query is done once.
     private void pushBranchOrAllSetup(PushType pushType)  {
@@ -1179,6 +1240,8 @@ public class SessionController {
                 push = helper.prepareToPushCurrentBranch(false);
             } else if (pushType == PushType.ALL) {
                 push = helper.prepareToPushAll();
+            } else if (pushType == PushType.ALL_WITH_TAGS) {
+                push = helper.prepareToPushAll(true);
             } else {
                 push = null;
                 assert false : "PushType enum case not handled";
@@ -1216,7 +1279,7 @@ public class SessionController {
 
             BusyWindow.show();
             BusyWindow.setLoadingText("Pushing...");
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() {
                     tryCommandAgainWithHTTPAuth = false;
@@ -1236,10 +1299,8 @@ public class SessionController {
 
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git push");
-            th.start();
+            };
+            OperationScheduler.submit("Git push", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
         } catch (CancelledAuthorizationException e) {
             this.showCommandCancelledNotification();
         }
@@ -1257,7 +1318,7 @@ public class SessionController {
                                         PushCommand push) throws
             TransportException {
         try{
-            RepositoryMonitor.resetFoundNewChanges(false);
+            repositoryMonitor.resetFoundNewChanges(false);
             RepoHelper helper = theModel.getCurrentRepoHelper();
             if (response != null) {
                 helper.ownerAuth =
@@ -1265,7 +1326,7 @@ public class SessionController {
             }
             if (pushType == PushType.BRANCH) {
                 helper.pushCurrentBranch(push);
-            } else if (pushType == PushType.ALL) {
+            } else if (pushType == PushType.ALL || pushType == PushType.ALL_WITH_TAGS) {
                 helper.pushAll(push);
             } else {
                 assert false : "PushType enum case not handled";
@@ -1274,7 +1335,7 @@ public class SessionController {
         } catch (InvalidRemoteException e) {
             showNoRemoteNotification();
         } catch (PushToAheadRemoteError e) {
-            showPushToAheadRemoteNotification(e.isAllRefsRejected());
+            showPushToAheadRemoteNotification(e.isAllRefsRejected(), e.getRejectedRefs());
         } catch (TransportException e) {
             throw e;
         } catch(Exception e) {
@@ -1307,7 +1368,7 @@ public class SessionController {
 
             BusyWindow.show();
             BusyWindow.setLoadingText("Pushing tags...");
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() {
                     tryCommandAgainWithHTTPAuth = false;
@@ -1327,10 +1388,8 @@ public class SessionController {
 
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git push --tags");
-            th.start();
+            };
+            OperationScheduler.submit("Git push --tags", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
         }catch(NoRepoLoadedException e){
             this.showNoRepoLoadedNotification();
             setButtonsDisabled(true);
@@ -1343,7 +1402,7 @@ public class SessionController {
     private void handlePushTagsButtonDetails(RepoHelperBuilder.AuthDialogResponse response) throws TransportException {
         Iterable<PushResult> results;
         try{
-            RepositoryMonitor.resetFoundNewChanges(false);
+            repositoryMonitor.resetFoundNewChanges(false);
             RepoHelper helper = theModel.getCurrentRepoHelper();
             if (response != null) {
                 helper.ownerAuth =
@@ -1370,7 +1429,7 @@ public class SessionController {
         } catch(InvalidRemoteException e){
             showNoRemoteNotification();
         } catch(PushToAheadRemoteError e) {
-            showPushToAheadRemoteNotification(e.isAllRefsRejected());
+            showPushToAheadRemoteNotification(e.isAllRefsRejected(), e.getRejectedRefs());
         } catch(MissingRepoException e) {
             showMissingRepoNotification();
             setButtonsDisabled(true);
@@ -1406,8 +1465,8 @@ public class SessionController {
             selectedBranch.checkoutBranch();
 
             // If the checkout worked, update the branch heads and focus on that commit
-            CommitTreeController.setBranchHeads(CommitTreeController.getCommitTreeModel(), theModel.getCurrentRepoHelper());
-            CommitTreeController.focusCommitInGraph(theModel.getCurrentRepoHelper().getBranchModel().getCurrentBranchHead());
+            CommitTreeController.setBranchHeads(commitTreeModel, theModel.getCurrentRepoHelper());
+            commitTreeController.focusCommitInGraph(theModel.getCurrentRepoHelper().getBranchModel().getCurrentBranchHead());
             gitStatus();
             return true;
         } catch (JGitInternalException e){
@@ -1476,7 +1535,7 @@ public class SessionController {
             BusyWindow.show();
             BusyWindow.setLoadingText("Deleting remote branch...");
 
-            Thread th = new Thread(new Task<Void>() {
+            Task<Void> task = new Task<Void>() {
                 @Override
                 protected Void call() {
                     tryCommandAgainWithHTTPAuth = false;
@@ -1496,10 +1555,8 @@ public class SessionController {
 
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git delete remote branch");
-            th.start();
+            };
+            OperationScheduler.submit("Git delete remote branch", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
 
         } catch (CancelledAuthorizationException e) {
             this.showCommandCancelledNotification();
@@ -1575,7 +1632,7 @@ public class SessionController {
 
             BusyWindow.show();
             BusyWindow.setLoadingText("Reverting...");
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() {
                     try{
@@ -1606,10 +1663,8 @@ public class SessionController {
                     }
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git revert");
-            th.start();
+            };
+            OperationScheduler.submit("Git revert", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
         }catch(NoRepoLoadedException e){
             this.showNoRepoLoadedNotification();
             setButtonsDisabled(true);
@@ -1628,7 +1683,7 @@ public class SessionController {
 
             BusyWindow.show();
             BusyWindow.setLoadingText("Reverting...");
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() {
                     try{
@@ -1657,10 +1712,8 @@ public class SessionController {
                     }
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git revert");
-            th.start();
+            };
+            OperationScheduler.submit("Git revert", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
         }catch(NoRepoLoadedException e){
             this.showNoRepoLoadedNotification();
             setButtonsDisabled(true);
@@ -1689,7 +1742,7 @@ public class SessionController {
 
             BusyWindow.show();
             BusyWindow.setLoadingText("Resetting...");
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() {
                     try{
@@ -1711,10 +1764,8 @@ public class SessionController {
                     }
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git reset");
-            th.start();
+            };
+            OperationScheduler.submit("Git reset", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
         }catch(NoRepoLoadedException e){
             this.showNoRepoLoadedNotification();
             setButtonsDisabled(true);
@@ -1825,9 +1876,7 @@ public class SessionController {
      */
     public void handleFetchButton(boolean prune, boolean pull) {
         logger.info("Fetch button clicked");
-        RepositoryMonitor.pause();
         gitFetch(prune, pull);
-        RepositoryMonitor.unpause();
         submitLog();
     }
 
@@ -1866,12 +1915,12 @@ public class SessionController {
 
             BusyWindow.show();
             BusyWindow.setLoadingText("Fetching...");
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() {
                     tryCommandAgainWithHTTPAuth = false;
                     try{
-                        RepositoryMonitor.resetFoundNewChanges(false);
+                        repositoryMonitor.resetFoundNewChanges(false);
                         RepoHelper helper = theModel.getCurrentRepoHelper();
                         if (response != null) {
                             helper.ownerAuth =
@@ -1904,10 +1953,8 @@ public class SessionController {
                         });
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git fetch");
-            th.start();
+            };
+            OperationScheduler.submit("Git fetch", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
         }catch(NoRepoLoadedException e) {
             this.showNoRepoLoadedNotification();
             setButtonsDisabled(true);
@@ -1934,7 +1981,7 @@ public class SessionController {
 
             BusyWindow.show();
             BusyWindow.setLoadingText("Merging...");
-            Thread th = new Thread(new Task<Void>(){
+            Task<Void> task = new Task<Void>(){
                 @Override
                 protected Void call() throws GitAPIException, IOException {
                     try{
@@ -1959,7 +2006,7 @@ public class SessionController {
                     } catch(ConflictingFilesException e){
                         showMergeConflictsNotification(notificationController);
                         Platform.runLater(() -> PopUpWindows.showMergeConflictsAlert(e.getConflictingFiles()));
-                        ConflictingFileWatcher.watchConflictingFiles(theModel.getCurrentRepoHelper());
+                        watchConflictingFiles();
                     } catch(MissingRepoException e){
                         showMissingRepoNotification(notificationController);
                         setButtonsDisabled(true);
@@ -1976,10 +2023,8 @@ public class SessionController {
                     }
                     return null;
                 }
-            });
-            th.setDaemon(true);
-            th.setName("Git merge FETCH_HEAD");
-            th.start();
+            };
+            OperationScheduler.submit("Git merge FETCH_HEAD", OperationScheduler.Priority.INTERACTIVE, theModel.getCurrentRepoHelper(), task);
         }catch(NoRepoLoadedException e){
             this.showNoRepoLoadedNotification(notificationController);
             this.setButtonsDisabled(true);
@@ -2021,6 +2066,78 @@ public class SessionController {
         }
     }
 
+    public void handleShowAllBranches() {
+        applyHistoryFilter(HistoryFilter.ALL);
+    }
+
+    public void handleShowCurrentBranch() {
+        applyHistoryFilter(HistoryFilter.currentBranch());
+    }
+
+    public void handleShowSelectedBranches() {
+        RepoHelper repoHelper = theModel.getCurrentRepoHelper();
+        if (repoHelper == null) {
+            showNoRepoLoadedNotification();
+            return;
+        }
+        List<BranchHelper> branches = PopUpWindows.pickBranchesToShow(repoHelper.getBranchModel().getAllBranches());
+        if (branches == null) return;
+
+        List<String> refNames = new ArrayList<>();
+        for (BranchHelper branch : branches) refNames.add(branch.getRefPathString());
+        applyHistoryFilter(HistoryFilter.selected(refNames));
+    }
+
+    public void handleShowMatchingBranches() {
+        RepoHelper repoHelper = theModel.getCurrentRepoHelper();
+        if (repoHelper == null) {
+            showNoRepoLoadedNotification();
+            return;
+        }
+        String pattern = PopUpWindows.getBranchPattern(repoHelper.getHistoryFilter().getGlob());
+        if (pattern == null) return;
+        applyHistoryFilter(HistoryFilter.matching(pattern));
+    }
+
+    /**
+     * Reads the history from the branches the given filter includes and updates the
+     * commit tree with just the commits that are shown or hidden because of it
+     * @param filter the branches to show the history of
+     */
+    public void applyHistoryFilter(HistoryFilter filter) {
+        RepoHelper repoHelper = theModel.getCurrentRepoHelper();
+        if (repoHelper == null) {
+            showNoRepoLoadedNotification();
+            return;
+        }
+
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() {
+                try {
+                    repoHelper.setHistoryFilter(filter);
+                    gitStatus();
+                } catch (IOException e) {
+                    logger.error("IOException while filtering the history");
+                    logger.debug(e.getStackTrace());
+                    showGenericErrorNotification();
+                }
+                return null;
+            }
+        };
+        OperationScheduler.submit("Filter history", OperationScheduler.Priority.INTERACTIVE, repoHelper, task);
+    }
+
+    public void handleCollapseChainsToggle(boolean enabled) {
+        commitTreeModel.setCollapseLinearChains(enabled);
+        try {
+            commitTreeModel.updateView();
+        } catch (Exception e) {
+            e.printStackTrace();
+            showGenericErrorNotification();
+        }
+    }
+
     public void handleAbout() {
         try{
             logger.info("About clicked");
@@ -2067,6 +2184,21 @@ public class SessionController {
         GitIgnoreEditor.show(SessionModel.getSessionModel().getCurrentRepoHelper(), null);
     }
 
+    /**
+     * Asks the user what commit to look for, then selects it in the commit tree
+     */
+    public void handleFindCommitMenuItem() {
+        if (theModel.getCurrentRepoHelper() == null) {
+            showNoRepoLoadedNotification();
+            return;
+        }
+        CommitHelper commit = PopUpWindows.findCommit(commitTreeModel);
+        if (commit == null) return;
+
+        commitTreeController.selectCommit(commit.getId(), false, false, false);
+        commitTreeController.focusCommitInGraph(commit);
+    }
+
 
     public void handleNewBranchButton() {
         handleCreateOrDeleteBranchButton("create");
@@ -2128,7 +2260,7 @@ public class SessionController {
     public void handleGoToCommitButton(){
         logger.info("Go to commit button clicked");
         String id = commitInfoNameText;
-        CommitTreeController.focusCommitInGraph(id);
+        commitTreeController.focusCommitInGraph(id);
     }
 
     public void handleMergeFromFetchButton(){
@@ -2173,7 +2305,7 @@ public class SessionController {
 //        showUpdatingText(true);
 //        this.gitStatus();
 //        showUpdatingText(false);
-//        CommitTreeController.focusCommitInGraph(theModel.getCurrentRepoHelper().getBranchModel().getCurrentBranchHead());
+//        commitTreeController.focusCommitInGraph(theModel.getCurrentRepoHelper().getBranchModel().getCurrentBranchHead());
 //    }
 
     /**
@@ -2203,33 +2335,59 @@ public class SessionController {
 //        }
 //    }
 
+    /**
+     * Looks up the conflicting files of the current repository and watches them, so
+     * the status is refreshed when one of them is modified
+     */
+    public void watchConflictingFiles() {
+        RepoHelper repoHelper = theModel.getCurrentRepoHelper();
+        if (repoHelper == null) return;
+
+        ConflictingFileWatcher watcher = repoHelper.getConflictingFileWatcher();
+        watcher.setOnConflictingFileModified(this::gitStatus);
+        watcher.watchConflictingFiles();
+    }
+
     /**
      * Updates the trees, changed files, and branch information. Equivalent
-     * to 'git status'
+     * to 'git status'. Requests made while an earlier one is still waiting
+     * to run are merged into it
      */
     public void gitStatus(){
-        RepositoryMonitor.pause();
-
-        Platform.runLater(() -> {
-            // If the layout is still going, don't run
-            if (commitTreePanelView.isLayoutThreadRunning) {
-                RepositoryMonitor.unpause();
+        OperationScheduler.submitRefresh("Git status", done -> {
+            RepoHelper repoHelper = theModel.getCurrentRepoHelper();
+            if (repoHelper == null) {
+                done.run();
                 return;
             }
-            try{
-                theModel.getCurrentRepoHelper().getBranchModel().updateAllBranches();
-                commitTreeModel.update();
-                workingTreePanelView.drawDirectoryView();
-                allFilesPanelView.drawDirectoryView();
-                indexPanelView.drawDirectoryView();
-                this.theModel.getCurrentRepoHelper().getTagModel().updateTags();
-                updateStatusText();
-            } catch(Exception e) {
-                showGenericErrorNotification();
-                e.printStackTrace();
-            } finally{
-                RepositoryMonitor.unpause();
-            }
+
+            // Waits here rather than on the FX thread for a write to finish. The
+            // refresh itself only reads, so it doesn't keep other reads out
+            long stamp = repoHelper.awaitReadStamp();
+
+            // Only done once the view is updated, so the next refresh doesn't start before then
+            Platform.runLater(() -> {
+                try{
+                    // If the layout is still going, or a different repository is being loaded, don't run
+                    if (commitTreePanelView.isLayoutThreadRunning || theModel.getCurrentRepoHelper() != repoHelper) return;
+
+                    theModel.getCurrentRepoHelper().getBranchModel().updateAllBranches();
+                    commitTreeModel.update();
+                    workingTreePanelView.drawDirectoryView();
+                    allFilesPanelView.drawDirectoryView();
+                    indexPanelView.drawDirectoryView();
+                    this.theModel.getCurrentRepoHelper().getTagModel().updateTags();
+                    updateStatusText();
+                } catch(Exception e) {
+                    showGenericErrorNotification();
+                    e.printStackTrace();
+                } finally{
+                    done.run();
+
+                    // Something was written while the view was being updated, so it may show a mix of both states
+                    if (!repoHelper.validateReadStamp(stamp)) gitStatus();
+                }
+            });
         });
     }
 
@@ -2365,7 +2523,7 @@ public class SessionController {
 
             // If there are no repos, reset everything
         } else if (this.theModel.getAllRepoHelpers().isEmpty()){
-            TreeLayout.stopMovingCells();
+            commitTreeModel.stopMovingCells();
             theModel.resetSessionModel();
             workingTreePanelView.resetFileStructurePanelView();
             allFilesPanelView.resetFileStructurePanelView();
@@ -2398,6 +2556,7 @@ public class SessionController {
             FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("/elegit/fxml/BranchCheckout.fxml"));
             fxmlLoader.load();
             BranchCheckoutController branchCheckoutController = fxmlLoader.getController();
+            branchCheckoutController.setSessionController(this);
             AnchorPane fxmlRoot = fxmlLoader.getRoot();
             branchCheckoutController.showStage(fxmlRoot);
         }catch(IOException e){
@@ -2613,10 +2772,11 @@ public class SessionController {
         });
     }
 
-    private void showPushToAheadRemoteNotification(boolean allRefsRejected){
+    private void showPushToAheadRemoteNotification(boolean allRefsRejected, List<String> rejectedRefs){
         Platform.runLater(() -> {
             logger.warn("Remote ahead of local warning");
             if(allRefsRejected) this.notificationPaneController.addNotification("The remote repository is ahead of the local. You need to fetch and then merge (pull) before pushing.");
+            else if(!rejectedRefs.isEmpty()) this.notificationPaneController.addNotification("These weren't pushed because the remote is ahead: " + String.join(", ", rejectedRefs) + ". You need to fetch/merge in order to push them.");
             else this.notificationPaneController.addNotification("You need to fetch/merge in order to push all of your changes.");
         });
     }
@@ -2857,6 +3017,27 @@ public class SessionController {
         });
     }
 
+    /**
+     * Initialization method that loads whether to prefetch remote changes in the
+     * background from preferences. Prefetching is off unless the user turned it on
+     */
+    private void loadPrefetch() {
+        boolean enabled = this.preferences.getBoolean(PREFETCH_KEY, false);
+        repositoryMonitor.setPrefetchEnabled(enabled);
+        menuController.prefetchToggle.setSelected(enabled);
+    }
+
+    /**
+     * Turns background prefetching of remote changes on or off, and stores
+     * the choice in preferences
+     * @param enabled whether to prefetch
+     */
+    public void handlePrefetchToggle(boolean enabled) {
+        logger.info("Toggled prefetching " + (enabled ? "on" : "off"));
+        repositoryMonitor.setPrefetchEnabled(enabled);
+        this.preferences.putBoolean(PREFETCH_KEY, enabled);
+    }
+
     /**
      * Helper method to change whether or not this session is logging, also
      * stores this in preferences
@@ -1,5 +1,8 @@
 package elegit.exceptions;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An error thrown when a push doesn't go through because
  * Remote is ahead of Local.
@@ -7,12 +10,25 @@ package elegit.exceptions;
 public class PushToAheadRemoteError extends Exception {
 
     private final boolean allRefsRejected;
+    private final List<String> rejectedRefs;
 
     public PushToAheadRemoteError(boolean allRefsRejected){
+        this(allRefsRejected, new ArrayList<>());
+    }
+
+    public PushToAheadRemoteError(boolean allRefsRejected, List<String> rejectedRefs){
         this.allRefsRejected = allRefsRejected;
+        this.rejectedRefs = rejectedRefs;
     }
 
     public boolean isAllRefsRejected(){
         return allRefsRejected;
     }
+
+    /**
+     * @return the names of the refs that were rejected, if known
+     */
+    public List<String> getRejectedRefs(){
+        return rejectedRefs;
+    }
 }
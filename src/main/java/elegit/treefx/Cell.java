@@ -1,6 +1,5 @@
 package elegit.treefx;
 
-import elegit.CommitTreeController;
 import elegit.RefHelper;
 import javafx.animation.TranslateTransition;
 import javafx.application.Platform;
@@ -19,7 +18,6 @@ import javafx.util.Duration;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * A class that represents a node in a TreeGraph
@@ -51,28 +49,27 @@ public class Cell extends Pane{
     Node view;
     private CellShape shape;
     private CellType type;
-    // The tooltip shown on hover
-    private Tooltip tooltip;
 
     // The unique ID of this cell
     private final String cellId;
     // The assigned time of this commit
     private final long time;
 
-    private ContextMenu contextMenu;
-
     private CellLabelContainer refLabel;
 
     private boolean animate;
 
     private boolean useParentAsSource;
 
-    // The list of children of this cell
-    private List<Cell> children = new ArrayList<>();
+    // The list of children of this cell, if it isn't in a model
+    private List<Cell> children;
 
-    // The parent object that holds the parents of this cell
+    // The parent object that holds the parents of this cell, if it isn't in a model
     private ParentCell parents;
 
+    // The model this cell is in, which keeps its parents and children, or null
+    private TreeGraphModel model;
+
     // All edges that have this cell as an endpoint
     List<Edge> edges = new ArrayList<>();
 
@@ -82,9 +79,22 @@ public class Cell extends Pane{
     // Whether this cell has been moved to its appropriate location
     private BooleanProperty hasUpdatedPosition;
 
+    // The graph this cell is shown in, set once it's added to the graph's view
+    private TreeGraph graph;
+
+    // The handle of this cell in its model's commit graph store, or -1 if it isn't in one
+    private int handle = -1;
+
+    // Whether this cell has any ref labels
+    private boolean hasRefLabels;
+
+    // The number of commits this cell stands for if it's the newest of a collapsed chain, otherwise 0
+    private int collapsedCount;
+
     public Cell(String s) {
         this.cellId = s;
         this.time = 0;
+        this.children = new ArrayList<>();
     }
 
     /**
@@ -94,9 +104,25 @@ public class Cell extends Pane{
      * @param type the type of cell to add
      */
     public Cell(String cellId, long time, List<Cell> parents, CellType type){
+        this(cellId, time, type);
+        this.children = new ArrayList<>();
+        this.parents = new ParentCell(this, parents);
+    }
+
+    /**
+     * Constructs a node in a model, which keeps its parents and children
+     * @param cellId the ID of this node
+     * @param type the type of cell to add
+     * @param model the model the cell is in
+     */
+    Cell(String cellId, long time, CellType type, TreeGraphModel model){
+        this(cellId, time, type);
+        this.model = model;
+    }
+
+    private Cell(String cellId, long time, CellType type){
         this.cellId = cellId;
         this.time = time;
-        this.parents = new ParentCell(this, parents);
         this.refLabel = new CellLabelContainer();
         this.type = type;
 
@@ -113,26 +139,41 @@ public class Cell extends Pane{
         rowLocationProperty.addListener((observable, oldValue, newValue) ->
                 hasUpdatedPosition.set(oldValue.intValue()==newValue.intValue() || (newValue.intValue()>-1)&&oldValue.intValue()>-1));
 
-        tooltip = new Tooltip(cellId);
-        tooltip.setWrapText(true);
-        tooltip.setMaxWidth(300);
-        Tooltip.install(this, tooltip);
-
         this.setOnMouseClicked(event -> {
             if(event.getButton() == MouseButton.PRIMARY){
-                if (event.isShiftDown())
-                    CommitTreeController.handleMouseClickedShift(this);
-                else
-                    CommitTreeController.handleMouseClicked(this.cellId);
+                if (graph != null) {
+                    if (collapsedCount > 0)
+                        graph.getController().expandCollapsedChain(this.cellId);
+                    else if (event.isShiftDown())
+                        graph.getController().handleMouseClickedShift(this);
+                    else
+                        graph.getController().handleMouseClicked(this.cellId);
+                }
             }else if(event.getButton() == MouseButton.SECONDARY){
-                if(contextMenu != null){
-                    contextMenu.show(this, event.getScreenX(), event.getScreenY());
+                if (graph != null) {
+                    // The menu isn't kept, a new one is made each time it's asked for
+                    ContextMenu contextMenu = graph.getContentFactory().getCellMenu(this.cellId);
+                    if (contextMenu != null)
+                        contextMenu.show(this, event.getScreenX(), event.getScreenY());
                 }
             }
             event.consume();
         });
-        this.setOnMouseEntered(event -> CommitTreeController.handleMouseover(this, true));
-        this.setOnMouseExited(event -> CommitTreeController.handleMouseover(this, false));
+        this.setOnMouseEntered(event -> {
+            if (graph != null) {
+                graph.getController().handleMouseover(this, true);
+                Tooltip tooltip = graph.getCellTooltip();
+                tooltip.setText(collapsedCount > 0 ? collapsedCount + " commits, click to show them"
+                        : graph.getContentFactory().getDisplayLabel(this.cellId));
+                Tooltip.install(this, tooltip);
+            }
+        });
+        this.setOnMouseExited(event -> {
+            if (graph != null) {
+                graph.getController().handleMouseover(this, false);
+                Tooltip.uninstall(this, graph.getCellTooltip());
+            }
+        });
 
         this.view=getBaseView();
     }
@@ -164,8 +205,8 @@ public class Cell extends Pane{
             });
             t.play();
 
-            if(emphasize){
-                Highlighter.emphasizeCell(this);
+            if(emphasize && graph != null){
+                graph.getHighlighter().emphasizeCell(this);
             }
         }else{
             setTranslateX(x);
@@ -177,6 +218,22 @@ public class Cell extends Pane{
             this.refLabel.setVisible(true);
     }
 
+    /**
+     * Sets the graph this cell is shown in, which handles its mouse events
+     * @param graph the graph
+     */
+    void setGraph(TreeGraph graph){
+        this.graph = graph;
+    }
+
+    int getHandle(){
+        return handle;
+    }
+
+    void setHandle(int handle){
+        this.handle = handle;
+    }
+
     /**
      * @return the basic view for this cell
      */
@@ -219,14 +276,6 @@ public class Cell extends Pane{
         this.shape = newShape;
     }
 
-    /**
-     * Sets the tooltip to display the given text
-     * @param label the text to display
-     */
-    private void setDisplayLabel(String label){
-        tooltip.setText(label);
-    }
-
     private void setRefLabel(List<RefHelper> refs){
         this.refLabel.setLabels(refs, this);
     }
@@ -235,17 +284,29 @@ public class Cell extends Pane{
         this.refLabel.setCurrentLabels(refs);
     }
 
-    void setLabels(String displayLabel, List<RefHelper> refLabels){
-        setDisplayLabel(displayLabel);
+    void setLabels(List<RefHelper> refLabels){
+        this.hasRefLabels = refLabels.size() > 0;
         setRefLabel(refLabels);
     }
 
-    void setCurrentLabels(List<String> refLabels) {
-        setCurrentRefLabels(refLabels);
+    /**
+     * @return whether this cell has the default shape and no ref labels, so it can be collapsed
+     */
+    boolean isPlain() {
+        return this.shape == DEFAULT_SHAPE && !this.hasRefLabels;
     }
 
-    void setLabelMenus(Map<RefHelper, ContextMenu> menuMap) {
-        this.refLabel.setLabelMenus(menuMap);
+    /**
+     * Makes this cell stand for a collapsed chain of commits, or stops it from doing so
+     * @param collapsedCount the number of commits in the chain, or 0 if this cell isn't collapsed
+     */
+    void setCollapsedCount(int collapsedCount) {
+        this.collapsedCount = collapsedCount;
+        this.refLabel.setChainLabel(collapsedCount, this);
+    }
+
+    void setCurrentLabels(List<String> refLabels) {
+        setCurrentRefLabels(refLabels);
     }
 
     void setRemoteLabels(List<String> branchLabels) {
@@ -256,8 +317,12 @@ public class Cell extends Pane{
 
     void setUseParentAsSource(boolean useParentAsSource) {this.useParentAsSource = useParentAsSource;}
 
-    void setContextMenu(ContextMenu contextMenu){
-        this.contextMenu = contextMenu;
+    /**
+     * @param ref the ref shown by one of this cell's labels
+     * @return a new menu for the label, or null if this cell isn't in a graph yet
+     */
+    ContextMenu getRefLabelMenu(RefHelper ref){
+        return graph == null ? null : graph.getContentFactory().getRefLabelMenu(ref);
     }
 
     /**
@@ -272,14 +337,14 @@ public class Cell extends Pane{
      * @return the list of the children of this cell
      */
     List<Cell> getCellChildren() {
-        return children;
+        return model != null ? model.getCellChildren(this) : children;
     }
 
     /**
      * @return the list of the parents of this cell
      */
     List<Cell> getCellParents(){
-        return parents.toList();
+        return model != null ? model.getCellParents(this) : parents.toList();
     }
 
     /**
@@ -292,14 +357,6 @@ public class Cell extends Pane{
      */
     boolean getUseParentAsSource() { return this.useParentAsSource; }
 
-    /**
-     * Removes the given cell from the children of this cell
-     * @param cell the cell to remove
-     */
-    void removeCellChild(Cell cell) {
-        children.remove(cell);
-    }
-
     /**
      * Checks to see if the given cell has this cell as an ancestor,
      * up to the given number of generations.
@@ -312,9 +369,9 @@ public class Cell extends Pane{
      */
     private boolean isChild(Cell cell, int depth){
         depth--;
-        if(children.contains(cell)) return true;
+        if(getCellChildren().contains(cell)) return true;
         else if(depth != 0){
-            for(Cell child : children){
+            for(Cell child : getCellChildren()){
                 if(child.isChild(cell, depth)){
                     return true;
                 }
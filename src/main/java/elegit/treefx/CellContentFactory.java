@@ -0,0 +1,30 @@
+package elegit.treefx;
+
+import elegit.RefHelper;
+import javafx.scene.control.ContextMenu;
+
+/**
+ * Creates the tooltips and menus of the cells in a tree graph. These are only
+ * needed when the user hovers over or clicks a cell, so the cells ask for them
+ * at that moment instead of holding on to their own copies.
+ */
+public interface CellContentFactory {
+
+    /**
+     * @param cellId the id of the cell
+     * @return the text to show in the tooltip of the cell
+     */
+    String getDisplayLabel(String cellId);
+
+    /**
+     * @param cellId the id of the cell
+     * @return the menu to show when the cell is right clicked, or null if there isn't one
+     */
+    ContextMenu getCellMenu(String cellId);
+
+    /**
+     * @param ref the ref that a label on a cell shows
+     * @return the menu to show when the label is clicked, or null if there isn't one
+     */
+    ContextMenu getRefLabelMenu(RefHelper ref);
+}
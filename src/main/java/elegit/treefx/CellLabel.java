@@ -9,7 +9,6 @@ import javafx.scene.control.Label;
 import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.input.MouseButton;
 import javafx.scene.layout.HBox;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Text;
@@ -24,7 +23,6 @@ public class CellLabel extends HBox {
     private Text pointer;
     private ImageView image;
     private Label label;
-    private ContextMenu contextMenu;
     public static final int MAX_CHAR_PER_LABEL=25;
 
     CellLabel(RefHelper refHelper, boolean isCurrent) {
@@ -93,21 +91,17 @@ public class CellLabel extends HBox {
     }
 
     /**
-     * Sets the context menu and clicking
-     * @param menu the menu for this label
+     * Sets up clicking on this label to show its menu, which the cell's
+     * graph creates when the label is clicked
+     * @param cell the cell this label is on
      */
-    void setContextMenu(ContextMenu menu) {
-        this.contextMenu = menu;
+    void setMenuOwner(Cell cell) {
         this.setPickOnBounds(true);
 
         this.setOnMouseClicked(event -> {
-            contextMenu.show(this, event.getScreenX(), event.getScreenY());
-            if(event.getButton() == MouseButton.PRIMARY){
-                // TODO: do something here?
-            }else if(event.getButton() == MouseButton.SECONDARY){
-                if(contextMenu != null){
-                    contextMenu.show(this, event.getScreenX(), event.getScreenY());
-                }
+            ContextMenu contextMenu = cell.getRefLabelMenu(refHelper);
+            if(contextMenu != null){
+                contextMenu.show(this, event.getScreenX(), event.getScreenY());
             }
             event.consume();
         });
@@ -7,7 +7,6 @@ import elegit.TagHelper;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.Node;
-import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
 import javafx.scene.control.Tooltip;
 import javafx.scene.layout.GridPane;
@@ -16,7 +15,6 @@ import javafx.scene.transform.Rotate;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import static elegit.treefx.Cell.BOX_SIZE;
 
@@ -28,6 +26,8 @@ public class CellLabelContainer extends GridPane {
 
     HBox basicLabels;
     List<HBox> extendedLabels;
+    // Shows how many commits a collapsed chain has
+    private Label chainLabel;
 
     /**
      * Default constructor. Doesn't do anything, but it's nice to have
@@ -96,6 +96,7 @@ public class CellLabelContainer extends GridPane {
                 }
                 else
                     label = new BranchCellLabel(helper, false);
+                label.setMenuOwner(cell);
 
                 if (row>0) {
                     extendedLabels.get(row-1).getChildren().add(label);
@@ -141,34 +142,41 @@ public class CellLabelContainer extends GridPane {
     }
 
     /**
-     * Helper method to set the current cell labels
-     * @param labels the labels that refer to the current refs
+     * Shows how many commits the cell's collapsed chain has, or hides the count
+     * @param numCommits the number of commits in the chain, or 0 if the cell isn't collapsed
+     * @param cell the cell these labels are associated with
      */
-    void setCurrentLabels(List<String> labels) {
+    void setChainLabel(int numCommits, Cell cell) {
         Platform.runLater(() -> {
-            for (Node m : getChildren()) {
-                if (m instanceof HBox) {
-                    for (Node n : ((HBox) m).getChildren()) {
-                        if (n instanceof CellLabel && labels.contains(((CellLabel) n).getLabel().getText()))
-                            ((CellLabel) n).setCurrent(true);
-                    }
-                }
+            if (chainLabel != null) getChildren().remove(chainLabel);
+            if (numCommits < 1) return;
+
+            if (chainLabel == null) {
+                chainLabel = new Label();
+                chainLabel.getStyleClass().add("chain-label");
+                GridPane.setMargin(chainLabel, new Insets(0,0,5,5));
             }
+            chainLabel.setText(numCommits + " commits");
+
+            this.setMaxHeight(20);
+            this.setRotationAxis(Rotate.X_AXIS);
+            this.setRotate(180);
+            this.visibleProperty().bind(cell.visibleProperty());
+            getChildren().add(chainLabel);
         });
     }
 
     /**
-     * Helper method to set the context menus on the ref labels
-     * @param menuMap a map between ref helpers and context menus
+     * Helper method to set the current cell labels
+     * @param labels the labels that refer to the current refs
      */
-    void setLabelMenus(Map<RefHelper, ContextMenu> menuMap) {
+    void setCurrentLabels(List<String> labels) {
         Platform.runLater(() -> {
             for (Node m : getChildren()) {
                 if (m instanceof HBox) {
                     for (Node n : ((HBox) m).getChildren()) {
-                        if (n instanceof CellLabel && menuMap.keySet().contains(((CellLabel) n).getRefHelper())) {
-                            ((CellLabel) n).setContextMenu(menuMap.get(((CellLabel) n).getRefHelper()));
-                        }
+                        if (n instanceof CellLabel && labels.contains(((CellLabel) n).getLabel().getText()))
+                            ((CellLabel) n).setCurrent(true);
                     }
                 }
             }
@@ -0,0 +1,453 @@
+package elegit.treefx;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A compact store of the commits in a tree graph and the edges between them.
+ * It's the only record of the edges: cells in a tree graph look up their
+ * parents and children here.
+ *
+ * Each commit gets a dense int handle when it's added. Times and flags are kept
+ * in primitive arrays indexed by handle, and parents and children are kept as
+ * rows of handles packed into int arrays, in compressed sparse row form. Rows
+ * have some room to grow, so adding or removing a commit only touches the rows
+ * of the commit and its neighbours.
+ *
+ * The handle of a removed commit is given to the next commit that's added.
+ */
+public class CommitGraphStore {
+
+    // Flags for each commit
+    private static final byte LOCAL = 1;
+    private static final byte REMOTE = 2;
+    private static final byte REMOVED = 4;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size;
+
+    private String[] ids;
+    private long[] times;
+    private byte[] flags;
+    // The number of parents of each commit that aren't in the store
+    private int[] numMissingParents;
+
+    private final Rows parents;
+    private final Rows children;
+
+    // Handles of removed commits, to give out again
+    private int[] freeHandles;
+    private int numFree;
+
+    // The handle of the commit currently shown for each id
+    private final Map<String, Integer> handles;
+
+    public CommitGraphStore() {
+        this.ids = new String[INITIAL_CAPACITY];
+        this.times = new long[INITIAL_CAPACITY];
+        this.flags = new byte[INITIAL_CAPACITY];
+        this.numMissingParents = new int[INITIAL_CAPACITY];
+        this.parents = new Rows();
+        this.children = new Rows();
+        this.freeHandles = new int[INITIAL_CAPACITY];
+        this.handles = new HashMap<>();
+    }
+
+    /**
+     * Adds a commit. If a commit with the same id is in the store, it's replaced,
+     * and its children become children of the new commit
+     * @param id the id of the commit
+     * @param time the time of the commit
+     * @param parentHandles the handles of the parents of the commit. Handles of commits
+     *                      that aren't in the store count as missing parents
+     * @param type the type of the commit
+     * @return the handle of the new commit
+     */
+    public synchronized int add(String id, long time, int[] parentHandles, Cell.CellType type) {
+        Integer old = handles.get(id);
+        int[] oldChildren = new int[0];
+        if (old != null) {
+            oldChildren = children.toArray(old);
+            free(old);
+        }
+
+        int handle = allocate();
+        ids[handle] = id;
+        times[handle] = time;
+        flags[handle] = toFlags(type);
+
+        int[] liveParents = new int[parentHandles.length];
+        int count = 0;
+        for (int parent : parentHandles) {
+            if (isLive(parent) && parent != handle) liveParents[count++] = parent;
+        }
+        parents.set(handle, liveParents, count);
+        numMissingParents[handle] = parentHandles.length - count;
+        for (int i = 0; i < count; i++) {
+            children.add(liveParents[i], handle);
+        }
+
+        // The children still point at the old handle, in the same place among their parents
+        for (int child : oldChildren) {
+            parents.replace(child, old, handle);
+            children.add(handle, child);
+        }
+
+        handles.put(id, handle);
+        return handle;
+    }
+
+    /**
+     * Adds a parent to a commit that's already in the store, e.g. one that was missing
+     * @param handle the handle of the commit
+     * @param parent the handle of the new parent
+     */
+    public synchronized void addParent(int handle, int parent) {
+        if (!isLive(handle) || !isLive(parent) || handle == parent || isParent(parent, handle)) return;
+
+        parents.add(handle, parent);
+        children.add(parent, handle);
+        if (numMissingParents[handle] > 0) numMissingParents[handle]--;
+    }
+
+    /**
+     * Removes a commit. Its children count it as a missing parent, and its handle
+     * is given out again
+     * @param handle the handle of the commit
+     */
+    public synchronized void remove(int handle) {
+        if (!isLive(handle)) return;
+
+        for (int child : children.toArray(handle)) {
+            parents.remove(child, handle);
+            numMissingParents[child]++;
+        }
+        free(handle);
+    }
+
+    /**
+     * Takes a free handle, or a new one if there are none
+     */
+    private int allocate() {
+        if (numFree > 0) return freeHandles[--numFree];
+
+        if (size == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            times = Arrays.copyOf(times, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            numMissingParents = Arrays.copyOf(numMissingParents, capacity);
+        }
+        parents.ensureRows(size + 1);
+        children.ensureRows(size + 1);
+        return size++;
+    }
+
+    /**
+     * Detaches a commit from its parents, forgets its rows and frees its handle. Its
+     * children are left to the caller
+     */
+    private void free(int handle) {
+        for (int parent : parents.toArray(handle)) {
+            children.remove(parent, handle);
+        }
+        parents.clear(handle);
+        children.clear(handle);
+
+        handles.remove(ids[handle], handle);
+        ids[handle] = null;
+        flags[handle] = REMOVED;
+        numMissingParents[handle] = 0;
+
+        if (numFree == freeHandles.length) freeHandles = Arrays.copyOf(freeHandles, numFree * 2);
+        freeHandles[numFree++] = handle;
+    }
+
+    /**
+     * @param id the id of a commit
+     * @return the handle of the commit, or -1 if it isn't in the store
+     */
+    public synchronized int getHandle(String id) {
+        Integer handle = handles.get(id);
+        return handle == null ? -1 : handle;
+    }
+
+    public synchronized String getId(int handle) {
+        return ids[handle];
+    }
+
+    public synchronized long getTime(int handle) {
+        return times[handle];
+    }
+
+    /**
+     * @param handle the handle to check
+     * @return whether the handle belongs to a commit that hasn't been removed
+     */
+    public synchronized boolean isLive(int handle) {
+        return handle >= 0 && handle < size && (flags[handle] & REMOVED) == 0;
+    }
+
+    public synchronized void setType(int handle, Cell.CellType type) {
+        flags[handle] = (byte) ((flags[handle] & REMOVED) | toFlags(type));
+    }
+
+    public synchronized Cell.CellType getType(int handle) {
+        boolean local = (flags[handle] & LOCAL) != 0;
+        boolean remote = (flags[handle] & REMOTE) != 0;
+        return local && remote ? Cell.CellType.BOTH : local ? Cell.CellType.LOCAL : Cell.CellType.REMOTE;
+    }
+
+    private static byte toFlags(Cell.CellType type) {
+        switch (type) {
+            case LOCAL:
+                return LOCAL;
+            case REMOTE:
+                return REMOTE;
+            case BOTH:
+            default:
+                return LOCAL | REMOTE;
+        }
+    }
+
+    /**
+     * @return one more than the highest handle given out, so every handle is below it
+     */
+    public synchronized int getCapacity() {
+        return size;
+    }
+
+    /**
+     * @return the number of commits that haven't been removed
+     */
+    public synchronized int size() {
+        return size - numFree;
+    }
+
+    /**
+     * @param handle the handle of a commit
+     * @return the handles of the parents of the commit that are in the store
+     */
+    public synchronized int[] getParents(int handle) {
+        return parents.toArray(handle);
+    }
+
+    /**
+     * @param handle the handle of a commit
+     * @return the number of parents of the commit that are in the store
+     */
+    public synchronized int getParentCount(int handle) {
+        return parents.length(handle);
+    }
+
+    /**
+     * @param handle the handle of a commit
+     * @return whether any parent of the commit isn't in the store, e.g. because it's
+     * in older history that isn't loaded
+     */
+    public synchronized boolean hasMissingParents(int handle) {
+        return numMissingParents[handle] > 0;
+    }
+
+    /**
+     * @param handle the handle of a commit
+     * @return the handles of the children of the commit
+     */
+    public synchronized int[] getChildren(int handle) {
+        return children.toArray(handle);
+    }
+
+    /**
+     * @param handle the handle of a commit
+     * @return the number of children of the commit
+     */
+    public synchronized int getChildCount(int handle) {
+        return children.length(handle);
+    }
+
+    /**
+     * Orders the live commits from newest to oldest, the way the tree is laid out
+     * @param topological whether to order the commits so that each commit comes before
+     *                    its parents, breaking ties by time. Otherwise they're ordered by
+     *                    time, with children before parents for commits with the same time
+     * @return the handles of the live commits, in order
+     */
+    public synchronized int[] getLayoutOrder(boolean topological) {
+        return topological ? getTopologicalOrder() : getTimeOrder();
+    }
+
+    /**
+     * Kahn's algorithm, starting from the commits without children and taking the
+     * newest available commit next
+     */
+    private int[] getTopologicalOrder() {
+        int[] order = new int[size()];
+        int count = 0;
+
+        int[] childrenLeft = new int[size];
+        PriorityQueue<Integer> available = new PriorityQueue<>(16, (h1, h2) -> Long.compare(times[h2], times[h1]));
+        for (int h = 0; h < size; h++) {
+            if (!isLive(h)) continue;
+            childrenLeft[h] = children.length(h);
+            if (childrenLeft[h] == 0) available.add(h);
+        }
+
+        while (!available.isEmpty()) {
+            int current = available.poll();
+            order[count++] = current;
+            for (int parent : parents.toArray(current)) {
+                if (--childrenLeft[parent] == 0) available.add(parent);
+            }
+        }
+
+        return count == order.length ? order : Arrays.copyOf(order, count);
+    }
+
+    private int[] getTimeOrder() {
+        Integer[] boxed = new Integer[size()];
+        int count = 0;
+        for (int h = 0; h < size; h++) {
+            if (isLive(h)) boxed[count++] = h;
+        }
+        Arrays.sort(boxed, (h1, h2) -> {
+            int i = Long.compare(times[h2], times[h1]);
+            if (i == 0) {
+                if (isParent(h1, h2)) return 1;
+                else if (isParent(h2, h1)) return -1;
+            }
+            return i;
+        });
+
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) order[i] = boxed[i];
+        return order;
+    }
+
+    /**
+     * @return whether the first commit is a parent of the second
+     */
+    private boolean isParent(int parent, int child) {
+        return parents.contains(child, parent);
+    }
+
+    /**
+     * One row of handles for each commit, packed into one int array. Each row has
+     * some room to grow after its values. A row that runs out of room is moved to
+     * the end of the array with twice the room, and the array is compacted when
+     * more than half of it is room that rows moved away from
+     */
+    private static class Rows {
+        private int[] start = new int[INITIAL_CAPACITY];
+        private int[] length = new int[INITIAL_CAPACITY];
+        private int[] room = new int[INITIAL_CAPACITY];
+
+        private int[] values = new int[INITIAL_CAPACITY];
+        // The end of the last row in values
+        private int used;
+        // How much of values before used isn't in any row
+        private int wasted;
+
+        void ensureRows(int count) {
+            if (count <= start.length) return;
+            int capacity = Math.max(count, start.length * 2);
+            start = Arrays.copyOf(start, capacity);
+            length = Arrays.copyOf(length, capacity);
+            room = Arrays.copyOf(room, capacity);
+        }
+
+        int length(int row) {
+            return length[row];
+        }
+
+        int[] toArray(int row) {
+            return Arrays.copyOfRange(values, start[row], start[row] + length[row]);
+        }
+
+        boolean contains(int row, int value) {
+            for (int i = start[row]; i < start[row] + length[row]; i++) {
+                if (values[i] == value) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Replaces the row with the first count of the given values
+         */
+        void set(int row, int[] rowValues, int count) {
+            clear(row);
+            if (count == 0) return;
+            reserve(row, count);
+            System.arraycopy(rowValues, 0, values, start[row], count);
+            length[row] = count;
+        }
+
+        void add(int row, int value) {
+            if (length[row] == room[row]) reserve(row, Math.max(2, room[row] * 2));
+            values[start[row] + length[row]++] = value;
+        }
+
+        /**
+         * Removes the first occurrence of the value from the row, keeping the order of the rest
+         */
+        void remove(int row, int value) {
+            int end = start[row] + length[row];
+            for (int i = start[row]; i < end; i++) {
+                if (values[i] == value) {
+                    System.arraycopy(values, i + 1, values, i, end - i - 1);
+                    length[row]--;
+                    return;
+                }
+            }
+        }
+
+        void replace(int row, int oldValue, int newValue) {
+            for (int i = start[row]; i < start[row] + length[row]; i++) {
+                if (values[i] == oldValue) values[i] = newValue;
+            }
+        }
+
+        void clear(int row) {
+            wasted += room[row];
+            start[row] = 0;
+            length[row] = 0;
+            room[row] = 0;
+        }
+
+        /**
+         * Moves the row to the end of the array, with room for the given number of values
+         */
+        private void reserve(int row, int newRoom) {
+            if (used + newRoom > values.length) {
+                if (wasted > used / 2) compact();
+                if (used + newRoom > values.length) {
+                    values = Arrays.copyOf(values, Math.max(values.length * 2, used + newRoom));
+                }
+            }
+            System.arraycopy(values, start[row], values, used, length[row]);
+            wasted += room[row];
+            start[row] = used;
+            room[row] = newRoom;
+            used += newRoom;
+        }
+
+        /**
+         * Packs the rows together, leaving no room after any of them
+         */
+        private void compact() {
+            int[] compacted = new int[values.length];
+            int next = 0;
+            for (int row = 0; row < start.length; row++) {
+                System.arraycopy(values, start[row], compacted, next, length[row]);
+                start[row] = next;
+                room[row] = length[row];
+                next += length[row];
+            }
+            values = compacted;
+            used = next;
+            wasted = 0;
+        }
+    }
+}
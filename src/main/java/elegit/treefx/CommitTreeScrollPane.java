@@ -17,9 +17,9 @@ public class CommitTreeScrollPane extends ScrollPane{
     public final IntegerProperty NumItemsProperty = new SimpleIntegerProperty(1);
 
     // The number of horizontally arranged items present in the scroll panes
-    private static int numItems = 1;
+    private int numItems = 1;
 
-    private static final DoubleProperty vPos = new SimpleDoubleProperty(-1.0);
+    private final DoubleProperty vPos = new SimpleDoubleProperty(-1.0);
 
     public CommitTreeScrollPane(Node node) {
         super(node);
@@ -47,7 +47,7 @@ public class CommitTreeScrollPane extends ScrollPane{
      * @param pos the horizontal position to scroll to when compared as a ratio
      *            to numItems
      */
-    public static void scrollTo(double pos){
+    public void scrollTo(double pos){
         if(pos < 0 || pos > numItems){
             vPos.setValue(DEFAULT_SCROLL_POS);
         }else{
@@ -6,19 +6,32 @@ import javafx.scene.shape.Shape;
 import javafx.util.Duration;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * This class provides static methods for highlighting and animating cells in a tree graph
+ * This class provides methods for highlighting and animating cells in a tree graph.
+ * Each graph has its own highlighter
  */
 public class Highlighter{
 
     // Cells that are currently blocked from being highlighted
-    private static final List<String> blockedCellIDs = new ArrayList<>();
+    private final List<String> blockedCellIDs = new ArrayList<>();
     // A map from each known cell to its state
-    private static final Map<Cell, CellState> cellStates = new HashMap<>();
+    private final Map<Cell, CellState> cellStates = new HashMap<>();
+
+    // The scroll pane the graph is shown in, scrolled to emphasized cells
+    private final CommitTreeScrollPane scrollPane;
+
+    /**
+     * @param scrollPane the scroll pane the highlighted graph is shown in
+     */
+    public Highlighter(CommitTreeScrollPane scrollPane){
+        this.scrollPane = scrollPane;
+    }
 
     /**
      * Highlights the cell corresponding to the given id in the given model, as well as
@@ -31,58 +44,56 @@ public class Highlighter{
      * @param descendants whether to highlight the cell's children
      * @param allGenerations whether to highlight further generations than just parents/children (i.e. grandparents, grandchildren etc)
      */
-    public static void highlightSelectedCell(String cellID, TreeGraphModel model, boolean enable, boolean ancestors, boolean descendants, boolean allGenerations){
+    public void highlightSelectedCell(String cellID, TreeGraphModel model, boolean enable, boolean ancestors, boolean descendants, boolean allGenerations){
         Cell cell = model.cellMap.get(cellID);
         if(cell == null) return;
         if(enable){
             highlightCell(cell, CellState.SELECTED, true);
             if(ancestors){
-                highlightCellParents(cell, CellState.HIGHLIGHTED1, allGenerations, new ArrayList<>());
+                highlightCellRelatives(cell, model, CellState.HIGHLIGHTED1, allGenerations, true);
             }
             if(descendants){
-                highlightCellChildren(cell, CellState.HIGHLIGHTED1, allGenerations, new ArrayList<>());
+                highlightCellRelatives(cell, model, CellState.HIGHLIGHTED1, allGenerations, false);
             }
         }else{
             highlightCell(cell, CellState.STANDARD, true);
             if(ancestors){
-
-                highlightCellParents(cell, CellState.STANDARD, allGenerations, new ArrayList<>());
+                highlightCellRelatives(cell, model, CellState.STANDARD, allGenerations, true);
             }
             if(descendants){
-                highlightCellChildren(cell, CellState.STANDARD, allGenerations, new ArrayList<>());
+                highlightCellRelatives(cell, model, CellState.STANDARD, allGenerations, false);
             }
         }
     }
 
     /**
-     * Recursively highlights all of cell's parents. Note that the initial cell itself is not highlighted
-     * @param cell the cell whose parents should be highlighted
-     * @param state the new state for the cell's parents
-     * @param recurse whether to recurse or not
-     * @param visited a list of all visited cells so far
+     * Highlights all of cell's parents or children, walking the model's graph store by handle.
+     * Note that the initial cell itself is not highlighted
+     * @param cell the cell whose relatives should be highlighted
+     * @param model the model wherein the cell is found
+     * @param state the new state for the cell's relatives
+     * @param allGenerations whether to go further than the direct parents or children
+     * @param ancestors whether to highlight parents, otherwise children are highlighted
      */
-    private static void highlightCellParents(Cell cell, CellState state, boolean recurse, List<Cell> visited){
-        for(Cell parent : cell.getCellParents()){
-            if(visited.contains(parent)) continue;
-            visited.add(parent);
-            highlightCell(parent, state, true);
-            if(recurse) highlightCellParents(parent, state, true, visited);
-        }
-    }
+    private void highlightCellRelatives(Cell cell, TreeGraphModel model, CellState state, boolean allGenerations, boolean ancestors){
+        CommitGraphStore store = model.getStore();
+        if(!store.isLive(cell.getHandle())) return;
 
-    /**
-     * Recursively highlights all of cell's children. Note that the initial cell itself is not highlighted
-     * @param cell the cell whose children should be highlighted
-     * @param state the new state for the cell's children
-     * @param recurse whether to recurse or not
-     * @param visited a list of all visited cells so far
-     */
-    private static void highlightCellChildren(Cell cell, CellState state, boolean recurse, List<Cell> visited){
-        for(Cell child : cell.getCellChildren()){
-            if(visited.contains(child)) continue;
-            visited.add(child);
-            highlightCell(child, state, true);
-            if(recurse) highlightCellChildren(child, state, true, visited);
+        BitSet visited = new BitSet(store.getCapacity());
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = cell.getHandle();
+        while(top > 0){
+            int current = stack[--top];
+            for(int relative : ancestors ? store.getParents(current) : store.getChildren(current)){
+                if(visited.get(relative)) continue;
+                visited.set(relative);
+                highlightCell(model.getCell(relative), state, true);
+                if(allGenerations){
+                    if(top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                    stack[top++] = relative;
+                }
+            }
         }
     }
 
@@ -95,7 +106,7 @@ public class Highlighter{
      * @param model the model wherein these cells are found
      * @param enable whether to flag these edges as visible or not
      */
-    public static void updateCellEdges(String cellID, String selectedCellID, TreeGraphModel model, boolean enable){
+    public void updateCellEdges(String cellID, String selectedCellID, TreeGraphModel model, boolean enable){
         Cell cell = model.cellMap.get(cellID);
         if(cell == null) return;
         Cell selectedCell = model.cellMap.get(selectedCellID);
@@ -121,7 +132,7 @@ public class Highlighter{
      * @param model the model wherein these cells are found
      * @param enable whether to highlight this cell or return it to the standard color
      */
-    public static void highlightCell(String cellID, String selectedCellID, TreeGraphModel model, boolean enable){
+    public void highlightCell(String cellID, String selectedCellID, TreeGraphModel model, boolean enable){
         Cell cell = model.cellMap.get(cellID);
         if(cell == null) return;
 
@@ -141,13 +152,28 @@ public class Highlighter{
         }
     }
 
+    /**
+     * Highlights the cells with the given ids with the first HIGHLIGHT_COLOR constant,
+     * until resetAll is called
+     * @param cellIDs the cells to highlight
+     * @param model the model wherein the cells are found
+     */
+    public void highlightCells(List<String> cellIDs, TreeGraphModel model){
+        List<Cell> cells = new ArrayList<>();
+        for(String cellID : cellIDs){
+            Cell cell = model.cellMap.get(cellID);
+            if(cell != null) cells.add(cell);
+        }
+        highlightAllCells(cells, CellState.HIGHLIGHTED1);
+    }
+
     /**
      * Helper method that sets the state of all cells in the given list to be
      * the given state
      * @param cells the cells to color
      * @param state the new state for the cell
      */
-    private static void highlightAllCells(List<Cell> cells, CellState state){
+    private void highlightAllCells(List<Cell> cells, CellState state){
         for(Cell cell : cells){
             highlightCell(cell, state, true);
         }
@@ -164,7 +190,7 @@ public class Highlighter{
      *                   does the new state get put in the map or will the previous
      *                   state stay in memory)
      */
-    private static void highlightCell(Cell cell, CellState state, boolean persistent){
+    private void highlightCell(Cell cell, CellState state, boolean persistent){
         if(persistent) cellStates.put(cell, state);
 
         if(blockedCellIDs.contains(cell.getCellId())) return;
@@ -182,7 +208,7 @@ public class Highlighter{
      * Resets all cell's to have the standard state. Also clears the cellStates
      * map as it is redundant with everything reset.
      */
-    public static void resetAll(){
+    public void resetAll(){
         for(Cell cell : cellStates.keySet()){
             cell.setCellState(CellState.STANDARD);
         }
@@ -193,7 +219,7 @@ public class Highlighter{
      * Resets a single cell to the stand state
      * @param cell the cell to reset to standard state
      */
-    public static void resetCell(Cell cell) {
+    public void resetCell(Cell cell) {
         cell.setCellState(CellState.STANDARD);
         cellStates.remove(cell);
     }
@@ -206,13 +232,13 @@ public class Highlighter{
      * Cells being emphasized are blocked from other highlighting.
      * @param c the cell to emphasize
      */
-    public static void emphasizeCell(Cell c){
+    public void emphasizeCell(Cell c){
         if(!blockedCellIDs.contains(c.getCellId())){
             blockedCellIDs.add(c.getCellId());
         }
 
         Platform.runLater(() -> {
-            CommitTreeScrollPane.scrollTo(c.rowLocationProperty.doubleValue());
+            scrollPane.scrollTo(c.rowLocationProperty.doubleValue());
             c.setCellState(CellState.EMPHASIZED);
 
             Shape s = (Shape) c.view;
@@ -236,7 +262,7 @@ public class Highlighter{
      * Unblocks the given cell and sets its state to standard
      * @param c the cell to end emphasis on
      */
-    private static void endEmphasisOnCell(Cell c){
+    private void endEmphasisOnCell(Cell c){
         blockedCellIDs.remove(c.getCellId());
         highlightCell(c, cellStates.getOrDefault(c, CellState.STANDARD), true);
     }
@@ -1,14 +1,19 @@
 package elegit.treefx;
 
+import elegit.CommitTreeController;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.scene.Node;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.Pane;
 import javafx.scene.transform.Rotate;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Thanks to RolandC for providing the base graph code structure:
@@ -30,12 +35,36 @@ public class TreeGraph{
     private volatile List<Node> queuedToAdd;
     private volatile List<Node> queuedToRemove;
 
+    // The cells and edges of collapsed chains, which are kept out of the cell layer
+    private Set<Node> collapsedNodes;
+    // Whether runs of commits with one parent and one child are collapsed into one cell
+    private volatile boolean collapseLinearChains = true;
+
+    // Handles mouse interaction with the cells of this graph
+    private final CommitTreeController controller;
+
+    // Highlights and emphasizes the cells of this graph
+    private final Highlighter highlighter;
+
+    // Creates the tooltips and menus of the cells when they're needed
+    private final CellContentFactory contentFactory;
+
+    // The one tooltip that is moved to whichever cell the mouse is over
+    private Tooltip cellTooltip;
+
+    // Whether the cells of this graph are still being moved into place
+    private volatile boolean movingCells;
+
     /**
      * Constructs a new graph using the given model
      * @param m the model of the graph
+     * @param controller the controller that handles interaction with the graph
+     * @param contentFactory creates the tooltips and menus of the cells
      */
-    public TreeGraph(TreeGraphModel m) {
+    public TreeGraph(TreeGraphModel m, CommitTreeController controller, CellContentFactory contentFactory) {
         this.treeGraphModel = m;
+        this.controller = controller;
+        this.contentFactory = contentFactory;
 
         cellLayer = new Pane();
         cellLayer.setRotationAxis(Rotate.X_AXIS);
@@ -50,8 +79,68 @@ public class TreeGraph{
 
         scrollPane.NumItemsProperty.bind(m.numCellsProperty);
 
+        highlighter = new Highlighter(scrollPane);
+
         queuedToAdd = new LinkedList<>();
         queuedToRemove = new LinkedList<>();
+        collapsedNodes = new HashSet<>();
+    }
+
+    /**
+     * Sets whether runs of commits with one parent and one child are collapsed into one
+     * cell. Takes effect the next time the graph is updated
+     * @param collapse whether to collapse chains
+     */
+    public void setCollapseLinearChains(boolean collapse) {
+        this.collapseLinearChains = collapse;
+    }
+
+    /**
+     * @return the controller that handles interaction with this graph
+     */
+    public CommitTreeController getController() {
+        return this.controller;
+    }
+
+    /**
+     * @return the highlighter for the cells of this graph
+     */
+    public Highlighter getHighlighter() {
+        return this.highlighter;
+    }
+
+    /**
+     * @return the factory that creates the tooltips and menus of the cells of this graph
+     */
+    CellContentFactory getContentFactory() {
+        return this.contentFactory;
+    }
+
+    /**
+     * @return the tooltip that is shared by all cells of this graph
+     */
+    Tooltip getCellTooltip() {
+        if (cellTooltip == null) {
+            cellTooltip = new Tooltip();
+            cellTooltip.setWrapText(true);
+            cellTooltip.setMaxWidth(300);
+        }
+        return cellTooltip;
+    }
+
+    boolean isMovingCells() {
+        return movingCells;
+    }
+
+    void setMovingCells(boolean movingCells) {
+        this.movingCells = movingCells;
+    }
+
+    /**
+     * Stops moving cells into place, e.g. because the graph is about to be laid out again
+     */
+    public void stopMovingCells() {
+        movingCells = false;
     }
 
     /**
@@ -67,22 +156,44 @@ public class TreeGraph{
      * date
      */
     public synchronized void update() {
-        queuedToRemove.addAll(treeGraphModel.getRemovedCells());
-        queuedToRemove.addAll(treeGraphModel.getRemovedEdges());
+        List<Node> removed = new ArrayList<>(treeGraphModel.getRemovedCells());
+        removed.addAll(treeGraphModel.getRemovedEdges());
 
-        queuedToAdd.addAll(treeGraphModel.getAddedCells());
-        queuedToAdd.addAll(treeGraphModel.getAddedEdges());
+        List<Node> added = new ArrayList<>(treeGraphModel.getAddedCells());
+        added.addAll(treeGraphModel.getAddedEdges());
 
         // merge added & removed cells with all cells
         treeGraphModel.merge();
 
+        // Only the cells and edges outside of collapsed chains go in the view. Those whose
+        // chain was expanded come back, and those that were just collapsed are taken out
+        treeGraphModel.updateCollapsedChains(collapseLinearChains);
+        Set<Node> collapsed = treeGraphModel.getCollapsedNodes();
+        Set<Node> removedSet = new HashSet<>(removed);
+        Set<Node> addedSet = new HashSet<>(added);
+
+        queuedToRemove.addAll(removed);
+        for (Node n : collapsed) {
+            if (!collapsedNodes.contains(n) && !addedSet.contains(n)) queuedToRemove.add(n);
+        }
+
+        for (Node n : added) {
+            if (!collapsed.contains(n)) queuedToAdd.add(n);
+        }
+        for (Node n : collapsedNodes) {
+            if (!collapsed.contains(n) && !removedSet.contains(n)) queuedToAdd.add(n);
+        }
+        collapsedNodes = collapsed;
+
         Platform.runLater(() -> {
             // add components to treeGraph pane
             LinkedList<Node> moreToAdd = new LinkedList<>();
             LinkedList<Node> moreToRemove = new LinkedList<>();
             for (Node n: queuedToAdd) {
-                if (n instanceof Cell)
-                    moreToAdd.add(((Cell)n).getLabel());
+                if (n instanceof Cell) {
+                    ((Cell) n).setGraph(this);
+                    moreToAdd.add(((Cell) n).getLabel());
+                }
             }
             cellLayer.getChildren().addAll(queuedToAdd);
             cellLayer.getChildren().addAll(moreToAdd);
@@ -3,41 +3,72 @@ package elegit.treefx;
 import elegit.RefHelper;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleIntegerProperty;
-import javafx.scene.control.ContextMenu;
+import javafx.scene.Node;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Thanks to RolandC for providing the base graph code structure:
  * http://stackoverflow.com/questions/30679025/graph-visualisation-like-yfiles-in-javafx/30696075#30696075
  *
  * The underlying model of a tree graph represented with generational cells and directed edges between
- * them
+ * them.
+ *
+ * Changes are recorded in the added and removed sets until they're merged into the graph, so merging
+ * a change of a few cells doesn't depend on the size of the graph. Adding and then removing the same
+ * cell or edge before a merge cancels out.
+ *
+ * Long runs of commits with one parent and one child can be collapsed into the
+ * newest commit of the run, which then stands for the whole run. The other
+ * commits of the run and the edges between them stay in the model, but aren't
+ * shown or laid out until the run is expanded.
  */
 public class TreeGraphModel{
 
-    List<Cell> allCells;
-    List<Cell> addedCells;
-    List<Cell> removedCells;
+    // Cells and edges in the order they were added
+    Set<Cell> allCells;
+    Set<Cell> addedCells;
+    Set<Cell> removedCells;
+
+    Set<Edge> allEdges;
+    Set<Edge> addedEdges;
+    Set<Edge> removedEdges;
 
-    List<Edge> allEdges;
-    List<Edge> addedEdges;
-    List<Edge> removedEdges;
+    // Edges that were removed since the last merge, including those that never made it into the graph
+    private List<Edge> detachedEdges;
 
     // Map of each cell's id to the cell itself
     public Map<String,Cell> cellMap;
 
+    // The commits and edges of the graph, by handle. Cells get their parents and children from it
+    private CommitGraphStore store;
+    // The cell for each handle in the store, or null for a handle that's free
+    private List<Cell> cellsByHandle;
+
     // Updated every time merge is called to hold the number of cells present
     IntegerProperty numCellsProperty;
 
     // Whether this graph has been through the layout process already or not
     public boolean isInitialSetupFinished;
 
-    // A list of cells in this graph that do not have the default shape
-    private List<Cell> cellsWithNonDefaultShapesOrLabels;
+    // The cells in this graph that do not have the default shape
+    private Set<Cell> cellsWithNonDefaultShapesOrLabels;
+
+    // The fewest commits in a row that are collapsed into one cell
+    static final int MIN_COLLAPSED_CHAIN_LENGTH = 3;
+    // For each cell that stands for a collapsed chain, the rest of the chain, newest first
+    private Map<Cell, List<Cell>> collapsedChains;
+    // For each cell hidden in a collapsed chain, the cell that stands for the chain
+    private Map<Cell, Cell> collapsedInto;
+    // The ids of cells that were expanded, so they aren't collapsed again
+    private Set<String> expandedIds;
 
     /**
      * Constructs a new model for a tree graph
@@ -46,24 +77,68 @@ public class TreeGraphModel{
         clear();
         numCellsProperty = new SimpleIntegerProperty();
         isInitialSetupFinished = false;
-        cellsWithNonDefaultShapesOrLabels = new ArrayList<>();
+        cellsWithNonDefaultShapesOrLabels = new LinkedHashSet<>();
     }
 
     /**
-     * Resets and creates the cell and edge lists, as well as the cell map
+     * Resets and creates the cell and edge sets, as well as the cell map
      */
     public void clear() {
 
-        allCells = new ArrayList<>();
-        addedCells = new ArrayList<>();
-        removedCells = new ArrayList<>();
+        allCells = new LinkedHashSet<>();
+        addedCells = new LinkedHashSet<>();
+        removedCells = new LinkedHashSet<>();
 
-        allEdges = new ArrayList<>();
-        addedEdges = new ArrayList<>();
-        removedEdges = new ArrayList<>();
+        allEdges = new LinkedHashSet<>();
+        addedEdges = new LinkedHashSet<>();
+        removedEdges = new LinkedHashSet<>();
+        detachedEdges = new ArrayList<>();
 
         cellMap = new HashMap<>(); // <id,cell>
 
+        store = new CommitGraphStore();
+        cellsByHandle = new ArrayList<>();
+
+        collapsedChains = new HashMap<>();
+        collapsedInto = new HashMap<>();
+        expandedIds = new HashSet<>();
+    }
+
+    /**
+     * @return the store that holds the commits and edges of this graph
+     */
+    CommitGraphStore getStore() {
+        return store;
+    }
+
+    /**
+     * @param handle the handle of a cell in the store
+     * @return the cell with the given handle
+     */
+    Cell getCell(int handle) {
+        return cellsByHandle.get(handle);
+    }
+
+    /**
+     * @param cell a cell in this model
+     * @return the parents of the cell that are in the model
+     */
+    List<Cell> getCellParents(Cell cell) {
+        return getCells(store.isLive(cell.getHandle()) ? store.getParents(cell.getHandle()) : new int[0]);
+    }
+
+    /**
+     * @param cell a cell in this model
+     * @return the children of the cell
+     */
+    List<Cell> getCellChildren(Cell cell) {
+        return getCells(store.isLive(cell.getHandle()) ? store.getChildren(cell.getHandle()) : new int[0]);
+    }
+
+    private List<Cell> getCells(int[] handles) {
+        List<Cell> cells = new ArrayList<>(handles.length);
+        for (int handle : handles) cells.add(cellsByHandle.get(handle));
+        return cells;
     }
 
     /**
@@ -81,88 +156,91 @@ public class TreeGraphModel{
         return cellMap.containsKey(id);
     }
 
+    /**
+     * @return the cells in the graph as of the last merge, in the order they were added
+     */
+    public List<Cell> getAllCells() {
+        return new ArrayList<>(allCells);
+    }
+
     /**
      * @return the cells added since the last update
      */
-    public List<Cell> getAddedCells() {
+    public Collection<Cell> getAddedCells() {
         return addedCells;
     }
 
     /**
      * @return the cells removed since the last update
      */
-    public List<Cell> getRemovedCells() {
+    public Collection<Cell> getRemovedCells() {
         return removedCells;
     }
 
     /**
      * @return the edges added since the last update
      */
-    public List<Edge> getAddedEdges() {
+    public Collection<Edge> getAddedEdges() {
         return addedEdges;
     }
     /**
      * @return the edges removed since the last update
      */
-    public List<Edge> getRemovedEdges() {
-        List<String> removedMap = new ArrayList<>();
-        for (Cell c : removedCells)
-            removedMap.add(c.getCellId());
-        List<Edge> oldRemoved = new ArrayList<>();
-        for (Edge e : removedEdges)
-            oldRemoved.add(e);
+    public Collection<Edge> getRemovedEdges() {
+        List<Edge> oldDetached = detachedEdges;
+        detachedEdges = new ArrayList<>();
 
         // If there are edges going to a cell being replaced, keep those
-        for (Edge e : oldRemoved) {
+        for (Edge e : oldDetached) {
+            Cell newSource = cellMap.get(e.getSource().getCellId());
             // Check that the old parent is being replaced and child is staying
-            if (cellMap.containsKey(e.getSource().getCellId())
-                    && removedMap.contains(e.getSource().getCellId())
-                    && cellMap.containsKey(e.getTarget().getCellId())
-                    && !removedMap.contains(e.getTarget().getCellId())) {
-                // Make a replacement edge if it doesn't already exist
-                addEdge(e.getSource().getCellId(), e.getTarget().getCellId());
-
+            if (newSource != null && newSource != e.getSource()
+                    && cellMap.get(e.getTarget().getCellId()) == e.getTarget()
+                    && !hasEdge(newSource, e.getTarget())) {
+                addEdge(newSource, e.getTarget());
             }
         }
         return removedEdges;
     }
 
+    /**
+     * @return whether there is an edge from the source to the target cell
+     */
+    private boolean hasEdge(Cell source, Cell target) {
+        for (Edge e : source.edges) {
+            if (e.getTarget() == target) return true;
+        }
+        return false;
+    }
+
     /**
      * Adds a new cell with the given ID, time, and labels to the tree whose
      * parents are the cells with the given IDs.
      * @param newId the id of the new cell
      * @param time the time of the new cell
-     * @param displayLabel the displayLabel of the new cell
-     * @param contextMenu the context contextMenu that will appear when right clicking on a cell
+     * @param refs the refs to label the new cell with
      * @param parentIds the IDs of the parents of the new cell, if any
      * @param type the type of the cell, local, remote, or both
      */
-    public void addCell(String newId, long time, String displayLabel,
-                        List<RefHelper> refs, ContextMenu contextMenu,
+    public void addCell(String newId, long time, List<RefHelper> refs,
                         List<String> parentIds, Cell.CellType type){
-        // Create a list of parents
-        List<Cell> parents = new ArrayList<>();
-        for (String parentId : parentIds) {
-            parents.add(cellMap.get(parentId));
+        // The handles of the parents, or -1 for parents that aren't in the graph
+        int[] parentHandles = new int[parentIds.size()];
+        for (int i = 0; i < parentIds.size(); i++) {
+            Cell parent = cellMap.get(parentIds.get(i));
+            parentHandles[i] = parent == null ? -1 : parent.getHandle();
         }
 
-        Cell cell;
-        switch(type) {
-            case LOCAL:
-                cell = new Cell(newId, time, parents, Cell.CellType.LOCAL);
-                break;
-            case REMOTE:
-                cell = new Cell(newId, time, parents, Cell.CellType.REMOTE);
-                break;
-            case BOTH:
-            default:
-                cell = new Cell(newId, time, parents, Cell.CellType.BOTH);
-                break;
-        }
-        setCellLabels(cell, displayLabel, refs);
-        cell.setContextMenu(contextMenu);
+        Cell cell = new Cell(newId, time, type, this);
+        setCellLabels(cell, refs);
         addCell(cell);
 
+        // The children of a cell this replaces become its children
+        int handle = store.add(newId, time, parentHandles, type);
+        cell.setHandle(handle);
+        while (cellsByHandle.size() <= handle) cellsByHandle.add(null);
+        cellsByHandle.set(handle, cell);
+
         // Note: a merge can be the result of any number of commits if it
         // is an octopus merge, so we add edges to all of them
         for (String parentId : parentIds)
@@ -170,24 +248,33 @@ public class TreeGraphModel{
     }
 
     /**
-     * Adds a cell to both the addedCells list and the cell map, and removes
+     * Adds a cell to both the addedCells set and the cell map, and removes
      * any cell with a conflicting ID
      * @param cell the cell to add
      */
     private void addCell(Cell cell) {
-        if(cellMap.containsKey(cell.getCellId())){
-            Cell oldCell = cellMap.remove(cell.getCellId());
-            for(Cell p : cell.getCellParents()){
-                p.removeCellChild(oldCell);
-            }
-            removedCells.add(oldCell);
+        Cell oldCell = cellMap.remove(cell.getCellId());
+        if(oldCell != null){
+            recordRemovedCell(oldCell);
             this.removeEdges(oldCell);
+            // The store gives the handle to the new cell
+            cellsByHandle.set(oldCell.getHandle(), null);
+            oldCell.setHandle(-1);
         }
 
         addedCells.add(cell);
         cellMap.put(cell.getCellId(), cell);
     }
 
+    /**
+     * Records that a cell was removed. If it was added since the last merge
+     * it never made it into the graph, so the addition is just forgotten
+     * @param cell the removed cell
+     */
+    private void recordRemovedCell(Cell cell) {
+        if(!addedCells.remove(cell)) removedCells.add(cell);
+    }
+
     /**
      * Adds an edge between the two cells corresponding to the given
      * IDs
@@ -207,13 +294,27 @@ public class TreeGraphModel{
      * @param target
      */
     public void addEdge(Cell source, Cell target) {
+        // The edge adds itself to the edges of both cells
         Edge edge = new Edge(source, target);
-        source.edges.add(edge);
-        target.edges.add(edge);
 
         addedEdges.add(edge);
     }
 
+    /**
+     * Adds a parent to a cell that's already in the graph, e.g. when the parent
+     * was in an older page of history that was loaded after the cell
+     * @param childId the id of the child cell
+     * @param parentId the id of the parent cell
+     */
+    public void addParentEdge(String childId, String parentId) {
+        Cell child = cellMap.get(childId);
+        Cell parent = cellMap.get(parentId);
+        if(child == null || parent == null || hasEdge(parent, child)) return;
+
+        store.addParent(child.getHandle(), parent.getHandle());
+        addEdge(parent, child);
+    }
+
     /**
      * Queues a cell to be removed by removing it from the cell map and
      * putting it into the removed cells list
@@ -221,14 +322,14 @@ public class TreeGraphModel{
      * @param id the cell id to remove
      */
     public void removeCell(String id) {
-        Cell cell = cellMap.get(id);
-        if(cell != null && cellMap.containsKey(cell.getCellId())){
-            Cell oldCell = cellMap.remove(cell.getCellId());
-            for(Cell p : cell.getCellParents()){
-                p.removeCellChild(oldCell);
-            }
-            removedCells.add(oldCell);
+        Cell oldCell = cellMap.remove(id);
+        if(oldCell != null){
+            recordRemovedCell(oldCell);
             this.removeEdges(oldCell);
+            // Frees the handle, so the next cell added can take it
+            store.remove(oldCell.getHandle());
+            cellsByHandle.set(oldCell.getHandle(), null);
+            oldCell.setHandle(-1);
         }
     }
 
@@ -237,35 +338,31 @@ public class TreeGraphModel{
      * @param cell the cell whose edges will be removed
      */
     private void removeEdges(Cell cell){
-        List<Edge> oldEdges = new ArrayList<>();
-        for (Edge e : cell.edges) {
-            oldEdges.add(e);
-        }
+        List<Edge> oldEdges = new ArrayList<>(cell.edges);
         for(Edge e : oldEdges){
-            removedEdges.add(e);
+            if(!addedEdges.remove(e)) removedEdges.add(e);
+            detachedEdges.add(e);
             e.getTarget().edges.remove(e);
             e.getSource().edges.remove(e);
         }
     }
 
     /**
-     * Sets the label for the cell with the given ID to be the given string
+     * Sets the ref labels for the cell with the given ID
      * @param cellId the id of the cell to label
-     * @param label the new label
-     * @param refs the branch names to include on the label
+     * @param refs the refs to include on the label
      */
-    public void setCellLabels(String cellId, String label, List<RefHelper> refs){
-        setCellLabels(cellMap.get(cellId), label, refs);
+    public void setCellLabels(String cellId, List<RefHelper> refs){
+        setCellLabels(cellMap.get(cellId), refs);
     }
 
     /**
      * Sets the labels for a given cell
      * @param cell the cell to set labels for
-     * @param label the labels to put on the cell
      * @param refs the list of refs to add
      */
-    private void setCellLabels(Cell cell, String label, List<RefHelper> refs){
-        cell.setLabels(label, refs);
+    private void setCellLabels(Cell cell, List<RefHelper> refs){
+        cell.setLabels(refs);
         if(refs.size() > 0) cellsWithNonDefaultShapesOrLabels.add(cell);
     }
 
@@ -277,10 +374,6 @@ public class TreeGraphModel{
         cell.setCurrentLabels(refs);
     }
 
-    public void setLabelMenus(String cellId, Map<RefHelper, ContextMenu> menuMap) {
-        cellMap.get(cellId).setLabelMenus(menuMap);
-    }
-
     public void setRemoteBranchCells(String cellId, List<String> remoteBranches) {
         cellMap.get(cellId).setRemoteLabels(remoteBranches);
     }
@@ -310,6 +403,7 @@ public class TreeGraphModel{
         if (cell == null)
             return;
         cell.setCellType(type);
+        store.setType(cell.getHandle(), type);
         if (type != Cell.CellType.BOTH)
             cellsWithNonDefaultShapesOrLabels.add(cell);
     }
@@ -319,14 +413,13 @@ public class TreeGraphModel{
      * @return a list of CellIDs corresponding to the cells that were changed
      */
     public List<String> resetCellShapes(){
-        List<String> resetIDs = new ArrayList<>();
+        Set<String> resetIDs = new LinkedHashSet<>();
         for(Cell cell : cellsWithNonDefaultShapesOrLabels){
             cell.setShape(Cell.DEFAULT_SHAPE);
-            String id = cell.getCellId();
-            if(!resetIDs.contains(id) && allCells.contains(cell)) resetIDs.add(id);
+            if(allCells.contains(cell)) resetIDs.add(cell.getCellId());
         }
-        cellsWithNonDefaultShapesOrLabels = new ArrayList<>();
-        return resetIDs;
+        cellsWithNonDefaultShapesOrLabels = new LinkedHashSet<>();
+        return new ArrayList<>(resetIDs);
     }
 
     /**
@@ -354,26 +447,132 @@ public class TreeGraphModel{
     public List<Cell> getRelatives(String cellID){
         Cell cell = cellMap.get(cellID);
         if(cell == null) return new ArrayList<>();
-        List<Cell> relatives = cell.getCellParents();
+        List<Cell> relatives = new ArrayList<>(cell.getCellParents());
         relatives.addAll(cell.getCellChildren());
         return relatives;
     }
 
     /**
-     * Updates the lists for added and removed cells, leaving the tree
-     * completely updated
+     * Works out the chains to collapse from scratch, so they follow changes to the graph and
+     * its labels. Each run of at least MIN_COLLAPSED_CHAIN_LENGTH cells of the same type
+     * with one parent, one child and no labels or special shape is collapsed into its
+     * newest cell, unless part of it was expanded. Chains expanded before are forgotten
+     * when chains aren't collapsed at all. Should be called after a merge
+     * @param collapse whether to collapse chains at all
+     */
+    public void updateCollapsedChains(boolean collapse) {
+        Map<Cell, List<Cell>> chains = new HashMap<>();
+        Map<Cell, Cell> into = new HashMap<>();
+        if (!collapse) {
+            expandedIds.clear();
+        } else {
+            for (Cell cell : allCells) {
+                // Only start from the newest cell of each run
+                if (!isCollapsible(cell) || isInSameChain(cell.getCellChildren().get(0), cell)) continue;
+
+                List<Cell> rest = new ArrayList<>();
+                Cell current = cell;
+                while (isInSameChain(current.getCellParents().get(0), cell)) {
+                    current = current.getCellParents().get(0);
+                    rest.add(current);
+                }
+                if (rest.size() + 1 >= MIN_COLLAPSED_CHAIN_LENGTH) {
+                    chains.put(cell, rest);
+                    for (Cell hidden : rest) into.put(hidden, cell);
+                }
+            }
+        }
+
+        for (Cell cell : collapsedChains.keySet()) {
+            if (!chains.containsKey(cell)) cell.setCollapsedCount(0);
+        }
+        for (Map.Entry<Cell, List<Cell>> chain : chains.entrySet()) {
+            List<Cell> old = collapsedChains.get(chain.getKey());
+            if (old == null || old.size() != chain.getValue().size())
+                chain.getKey().setCollapsedCount(chain.getValue().size() + 1);
+        }
+        collapsedChains = chains;
+        collapsedInto = into;
+    }
+
+    private boolean isCollapsible(Cell cell) {
+        int handle = cell.getHandle();
+        return store.isLive(handle) && store.getParentCount(handle) == 1 && !store.hasMissingParents(handle)
+                && store.getChildCount(handle) == 1 && cell.isPlain()
+                && !expandedIds.contains(cell.getCellId());
+    }
+
+    /**
+     * @return whether the given cell can be collapsed into the same chain as the newest cell of the chain
+     */
+    private boolean isInSameChain(Cell cell, Cell newest) {
+        return cell != null && isCollapsible(cell) && cell.getCellType() == newest.getCellType();
+    }
+
+    /**
+     * @param cell the cell to check
+     * @return whether the cell is hidden in a collapsed chain
+     */
+    public boolean isCollapsed(Cell cell) {
+        return collapsedInto.containsKey(cell);
+    }
+
+    /**
+     * @param cell a cell that stands for a collapsed chain
+     * @return the rest of the chain, newest first, or an empty list if the cell doesn't stand for a chain
+     */
+    List<Cell> getCollapsedChain(Cell cell) {
+        List<Cell> chain = collapsedChains.get(cell);
+        return chain == null ? new ArrayList<>() : chain;
+    }
+
+    /**
+     * @return the cells hidden in collapsed chains, and the edges between the cells of each chain
+     */
+    Set<Node> getCollapsedNodes() {
+        Set<Node> nodes = new HashSet<>(collapsedInto.keySet());
+        for (Cell cell : collapsedInto.keySet()) {
+            Cell newest = collapsedInto.get(cell);
+            for (Edge e : cell.edges) {
+                Cell other = e.getSource() == cell ? e.getTarget() : e.getSource();
+                if (other == newest || collapsedInto.get(other) == newest) nodes.add(e);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Expands the collapsed chain the given cell is in, if there is one. The chain is
+     * expanded the next time updateCollapsedChains is called
+     * @param cellId the id of a cell in the chain, or of the cell that stands for it
+     * @return true if there was a chain to expand
+     */
+    public boolean expandChain(String cellId) {
+        Cell cell = cellMap.get(cellId);
+        if (cell == null) return false;
+        Cell newest = collapsedInto.getOrDefault(cell, cell);
+        if (!collapsedChains.containsKey(newest)) return false;
+
+        expandedIds.add(newest.getCellId());
+        for (Cell hidden : collapsedChains.get(newest)) expandedIds.add(hidden.getCellId());
+        return true;
+    }
+
+    /**
+     * Applies the added and removed cells and edges to the graph, leaving
+     * the tree completely updated
      */
     public void merge() {
         // cells
+        for (Cell c : removedCells) allCells.remove(c);
         allCells.addAll(addedCells);
-        allCells.removeAll(removedCells);
 
         addedCells.clear();
         removedCells.clear();
 
         // edges
+        for (Edge e : removedEdges) allEdges.remove(e);
         allEdges.addAll(addedEdges);
-        allEdges.removeAll(removedEdges);
 
         addedEdges.clear();
         removedEdges.clear();
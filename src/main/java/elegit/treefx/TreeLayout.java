@@ -27,7 +27,6 @@ public class TreeLayout{
     public static int V_SPACING = Cell.BOX_SIZE * 3 + 5;
     public static int H_PAD = 10;
     public static int V_PAD = 25;
-    public static boolean movingCells;
     public static boolean commitSortTopological = true;
 
 
@@ -40,12 +39,12 @@ public class TreeLayout{
         private List<Cell> allCellsSortedByTime;
         private IntegerProperty percent;
 
-        public MoveCellService (List<Cell> allCellsSortedByTime) {
+        public MoveCellService (List<Cell> allCellsSortedByTime, TreeGraph graph) {
             this.allCellsSortedByTime = allCellsSortedByTime;
             this.max = allCellsSortedByTime.size()-1;
             this.percent = new SimpleIntegerProperty(0);
             this.currentCell = 0;
-            movingCells = true;
+            graph.setMovingCells(true);
         }
 
         public void setCurrentCell(int currentCell) { this.currentCell = currentCell; }
@@ -93,12 +92,16 @@ public class TreeLayout{
         return new Task<Void>(){
 
             private List<Cell> allCells;
+            private CommitGraphStore store;
+            // The handles of the cells in allCells, and the index in allCells of each handle
+            private int[] handles;
+            private int[] indexOfHandle;
             private List<Integer> minRowUsedInCol;
-            private List<Integer> movedCells;
+            private boolean[] movedCells;
             private boolean isInitialSetupFinished;
 
             /**
-             * Extracts the TreeGraphModel, sorts its cells by time, then relocates
+             * Extracts the TreeGraphModel, sorts its cells by handle, then relocates
              * every cell. When complete, updates the model if necessary to show
              * it has been through the layout process at least once already
              */
@@ -108,22 +111,46 @@ public class TreeLayout{
                     TreeGraphModel treeGraphModel = g.treeGraphModel;
                     isInitialSetupFinished = treeGraphModel.isInitialSetupFinished;
 
-                    allCells = treeGraphModel.allCells;
-                    if (commitSortTopological)
-                        topologicalSortListOfCells(allCells);
-                    else
-                        sortListOfCells(allCells);
+                    store = treeGraphModel.getStore();
+                    // Cells hidden in collapsed chains don't get a row of their own
+                    int[] order = store.getLayoutOrder(commitSortTopological);
+                    handles = new int[order.length];
+                    int numHandles = 0;
+                    indexOfHandle = new int[store.getCapacity()];
+                    Arrays.fill(indexOfHandle, -1);
+                    allCells = new ArrayList<>(order.length);
+                    for (int handle : order) {
+                        Cell cell = treeGraphModel.getCell(handle);
+                        if (treeGraphModel.isCollapsed(cell)) continue;
+                        indexOfHandle[handle] = numHandles;
+                        handles[numHandles++] = handle;
+                        allCells.add(cell);
+                    }
 
                     // Initialize variables
                     minRowUsedInCol = new ArrayList<>();
-                    movedCells = new ArrayList<>();
+                    movedCells = new boolean[allCells.size()];
 
                     // Compute the positions of cells recursively
                     for (int i = allCells.size() - 1; i >= 0; i--) {
                         computeCellPosition(i);
                     }
+
+                    // The hidden cells of a collapsed chain sit under the cell that stands for it,
+                    // so the edge from the oldest one to its parent starts there
+                    List<Cell> cellsToMove = new ArrayList<>(allCells);
+                    for (Cell c : allCells) {
+                        for (Cell hidden : treeGraphModel.getCollapsedChain(c)) {
+                            hidden.columnLocationProperty.set(c.columnLocationProperty.get());
+                            hidden.rowLocationProperty.set(c.rowLocationProperty.get());
+                            hidden.setAnimate(false);
+                            hidden.setUseParentAsSource(false);
+                            cellsToMove.add(hidden);
+                        }
+                    }
+
                     // Once all cell's positions have been set, move them in a service
-                    MoveCellService mover = new MoveCellService(allCells);
+                    MoveCellService mover = new MoveCellService(cellsToMove, g);
 
                     //********************* Loading Bar Start *********************
                     Pane cellLayer = g.getCellLayerPane();
@@ -162,7 +189,7 @@ public class TreeLayout{
                     //********************** Loading Bar End **********************
 
                     mover.setOnSucceeded(event1 -> {
-                        if (!Main.isAppClosed && movingCells && mover.currentCell < allCells.size() - 1) {
+                        if (!Main.isAppClosed && g.isMovingCells() && mover.currentCell < cellsToMove.size() - 1) {
                             mover.setCurrentCell(mover.currentCell + 10);
                             progressBar.setProgress(mover.percent.get() / 100.0);
                             mover.restart();
@@ -187,23 +214,27 @@ public class TreeLayout{
              */
             private void computeCellPosition(int cellPosition) {
                 // Don't try to compute a new position if the cell has already been moved
-                if (movedCells.contains(cellPosition))
+                if (movedCells[cellPosition])
                     return;
 
                 // Get cell at the inputted position
-                Cell c = allCells.get(allCells.size()-1-cellPosition);
+                int index = allCells.size()-1-cellPosition;
+                Cell c = allCells.get(index);
 
                 setCellPosition(c, getColumnOfCellInRow(minRowUsedInCol, cellPosition), cellPosition);
 
-                // Update the reserved columns in rows with the cells parents, oldest to newest
-                List<Cell> list = c.getCellParents();
-                list.sort((c1, c2) -> Long.compare(c1.getTime(), c2.getTime()));
-
-                // For each parent, oldest to newest, place it in the highest row possible recursively
-                for(Cell parent : list){
-                    if (parent.getTime()>c.getTime() || allCells.indexOf(parent)<0) break;
-                    computeCellPosition(allCells.size()-1- allCells.indexOf(parent));
-                    break;
+                // Place the oldest parent in the highest row possible recursively. The parents
+                // of a collapsed chain are those of its oldest cell
+                List<Cell> chain = g.treeGraphModel.getCollapsedChain(c);
+                int chainEnd = chain.isEmpty() ? handles[index] : chain.get(chain.size() - 1).getHandle();
+                int oldestParent = -1;
+                for (int parent : store.getParents(chainEnd)) {
+                    if (oldestParent < 0 || store.getTime(parent) < store.getTime(oldestParent))
+                        oldestParent = parent;
+                }
+                if (oldestParent >= 0 && oldestParent < indexOfHandle.length && store.getTime(oldestParent) <= store.getTime(handles[index])
+                        && indexOfHandle[oldestParent] >= 0) {
+                    computeCellPosition(allCells.size()-1-indexOfHandle[oldestParent]);
                 }
             }
 
@@ -236,7 +267,7 @@ public class TreeLayout{
                 c.setAnimate(isInitialSetupFinished && willCellMove);
                 c.setUseParentAsSource(!hasCellMoved);
 
-                this.movedCells.add(y);
+                this.movedCells[y] = true;
             }
         };
     }
@@ -348,8 +379,4 @@ public class TreeLayout{
         });
     }
 
-    public static synchronized void stopMovingCells(){
-        movingCells = false;
-    }
-
 }
@@ -4,6 +4,7 @@ import com.jcraft.jsch.*;
 import org.eclipse.jgit.api.*;
 import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.transport.*;
+import org.eclipse.jgit.util.FS;
 import org.junit.*;
 import org.junit.rules.ExpectedException;
 
@@ -257,6 +258,71 @@ public class AuthenticatedCloneTest {
         command.call();
     }
 
+    @Test
+    public void testSshSessionReuse() throws Exception {
+
+        File urlFile = new File(testFileLocation + "sshPasswordURL.txt");
+        Path passwordFile = Paths.get(testFileLocation, "sshPasswordPassword.txt");
+
+        // If a developer does not have this file present, test should just pass.
+        if ((!urlFile.exists() || !Files.exists(passwordFile) && looseTesting))
+            return;
+
+        Scanner scanner = new Scanner(urlFile);
+        String remoteURL = scanner.next();
+
+        List<String> userCredentials = Files.readAllLines(passwordFile);
+        RepoHelper helper = new RepoHelper(new ElegitUserInfoTest(userCredentials.get(0), null));
+
+        for (int i = 0; i < 2; i++) {
+            TransportCommand command = Git.lsRemoteRepository().setRemote(remoteURL);
+            helper.wrapAuthentication(command);
+            command.call();
+        }
+
+        // Only the first command should have needed a handshake
+        PooledSshSessionFactory factory = helper.getSshSessionFactory();
+        assertEquals(1, factory.getHandshakeCount());
+        assertEquals(1, factory.getReuseCount());
+
+        // The session stays open until it's been idle for long enough
+        URIish uri = new URIish(remoteURL);
+        assertTrue(factory.hasOpenSession(uri));
+        long released = System.currentTimeMillis();
+        factory.disconnectIdleSessions(released + PooledSshSessionFactory.IDLE_TIMEOUT / 2);
+        assertTrue(factory.hasOpenSession(uri));
+        factory.disconnectIdleSessions(released + PooledSshSessionFactory.IDLE_TIMEOUT + 1000);
+        assertFalse(factory.hasOpenSession(uri));
+    }
+
+    @Test
+    public void testHandedOutSshSessionIsNotReaped() throws Exception {
+
+        File urlFile = new File(testFileLocation + "sshPasswordURL.txt");
+        Path passwordFile = Paths.get(testFileLocation, "sshPasswordPassword.txt");
+
+        // If a developer does not have this file present, test should just pass.
+        if ((!urlFile.exists() || !Files.exists(passwordFile) && looseTesting))
+            return;
+
+        Scanner scanner = new Scanner(urlFile);
+        URIish uri = new URIish(scanner.next());
+
+        List<String> userCredentials = Files.readAllLines(passwordFile);
+        RepoHelper helper = new RepoHelper(new ElegitUserInfoTest(userCredentials.get(0), null));
+        PooledSshSessionFactory factory = helper.getSshSessionFactory();
+
+        // A session that's still in use, e.g. by a long clone, isn't idle however old it is
+        RemoteSession session = factory.getSession(uri, null, FS.DETECTED, 0);
+        factory.disconnectIdleSessions(System.currentTimeMillis() + 2 * PooledSshSessionFactory.IDLE_TIMEOUT);
+        assertTrue(factory.hasOpenSession(uri));
+
+        factory.releaseSession(session);
+        long released = System.currentTimeMillis();
+        factory.disconnectIdleSessions(released + PooledSshSessionFactory.IDLE_TIMEOUT + 1000);
+        assertFalse(factory.hasOpenSession(uri));
+    }
+
     @Rule
     public ExpectedException exception = ExpectedException.none();
 
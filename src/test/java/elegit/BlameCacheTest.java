@@ -0,0 +1,118 @@
+package elegit;
+
+import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class BlameCacheTest {
+
+    private TestRepository repo;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        repo.close();
+    }
+
+    private BlameCache.Key key(Path repoPath, String path, ObjectId commit) throws Exception {
+        ObjectId blob = repo.getRepository().resolve(commit.getName() + ":" + path);
+        return new BlameCache.Key(repoPath, path, blob, commit);
+    }
+
+    private BlameCache.Key key(String path, ObjectId commit) throws Exception {
+        return key(repo.getDirectory().toPath(), path, commit);
+    }
+
+    private static BlameCache.Blame blameAll(int numLines, ObjectId commit) {
+        ObjectId[] lineCommits = new ObjectId[numLines];
+        for (int i = 0; i < numLines; i++) lineCommits[i] = commit;
+        return new BlameCache.Blame(lineCommits);
+    }
+
+    private static EditList diff(String oldText, String newText) {
+        return DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM)
+                .diff(RawTextComparator.DEFAULT, new RawText(oldText.getBytes()), new RawText(newText.getBytes()));
+    }
+
+    @Test
+    public void testKeyIncludesBlobAndCommit() throws Exception {
+        ObjectId first = repo.commit("file.txt", "one\n");
+        repo.commit("other.txt", "other\n");
+        // The file is the same blob in both commits
+        ObjectId second = repo.commit("other.txt", "other 2\n");
+
+        BlameCache cache = new BlameCache(1024 * 1024);
+        cache.put(key("file.txt", first), blameAll(1, first));
+
+        assertNotNull(cache.get(key("file.txt", first)));
+        assertNull(cache.get(key("file.txt", second)));
+        Path otherRepo = repo.getDirectory().toPath().resolveSibling("other");
+        assertNull(cache.get(key(otherRepo, "file.txt", first)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedBlameIsEvicted() throws Exception {
+        repo.writeFile("first.txt", "1\n");
+        repo.writeFile("second.txt", "2\n");
+        repo.getGit().add().addFilepattern("first.txt").addFilepattern("second.txt").call();
+        ObjectId commit = repo.commit("third.txt", "3\n");
+
+        BlameCache cache = new BlameCache(3000);
+        BlameCache.Key first = key("first.txt", commit);
+        BlameCache.Key second = key("second.txt", commit);
+        BlameCache.Key third = key("third.txt", commit);
+        cache.put(first, blameAll(100, commit));
+        cache.put(second, blameAll(100, commit));
+        cache.get(first);
+        cache.put(third, blameAll(100, commit));
+
+        assertNotNull(cache.get(first));
+        assertNull(cache.get(second));
+        assertNotNull(cache.get(third));
+
+        // Too large to cache at all
+        cache.put(second, blameAll(1000, commit));
+        assertNull(cache.get(second));
+    }
+
+    @Test
+    public void testApplyMatchesBlameOfWholeHistory() throws Exception {
+        String[] versions = {"a\nb\nc\nd\ne\n", "a\nB\nc\nd\ne\nf\n", "x\na\nB\nd\ne\nf\n"};
+        ObjectId[] commits = new ObjectId[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            commits[i] = repo.commit("file.txt", versions[i]);
+        }
+
+        BlameCache.Blame blame = blameAll(5, commits[0]);
+        for (int i = 1; i < versions.length; i++) {
+            int numLines = new RawText(versions[i].getBytes()).size();
+            blame = blame.apply(diff(versions[i - 1], versions[i]), numLines, commits[i]);
+        }
+
+        assertEquals(6, blame.getLineCount());
+        try (BlameGenerator generator = new BlameGenerator(repo.getRepository(), "file.txt")) {
+            generator.push(null, commits[versions.length - 1]);
+            while (generator.next()) {
+                for (int line = generator.getResultStart(); line < generator.getResultEnd(); line++) {
+                    assertEquals(generator.getSourceCommit(), blame.getCommit(line));
+                }
+            }
+        }
+    }
+}
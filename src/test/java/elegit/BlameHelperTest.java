@@ -0,0 +1,93 @@
+package elegit;
+
+import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class BlameHelperTest {
+
+    private TestRepository repo;
+    private ExistingRepoHelper repoHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (repoHelper != null) repoHelper.closeRepo();
+        repo.close();
+    }
+
+    private BlameHelper blameHelper(String path) throws Exception {
+        if (repoHelper == null) repoHelper = new ExistingRepoHelper(repo.getDirectory().toPath(), new ElegitUserInfoTest());
+        return new BlameHelper(Paths.get(path), repoHelper);
+    }
+
+    /**
+     * Checks a blame against the one JGit works out by walking the whole history
+     */
+    private void assertMatchesHistory(String path, ObjectId commit, BlameCache.Blame blame) throws Exception {
+        assertNotNull(blame);
+        int numLines = 0;
+        try (BlameGenerator generator = new BlameGenerator(repo.getRepository(), path)) {
+            generator.push(null, commit);
+            while (generator.next()) {
+                for (int line = generator.getResultStart(); line < generator.getResultEnd(); line++) {
+                    assertEquals(generator.getSourceCommit(), blame.getCommit(line));
+                    numLines++;
+                }
+            }
+        }
+        assertEquals(numLines, blame.getLineCount());
+    }
+
+    @Test
+    public void testBlameMatchesHistory() throws Exception {
+        repo.commit("dir/file.txt", "a\nb\nc\n");
+        repo.commit("dir/file.txt", "a\nB\nc\nd\n");
+        ObjectId head = repo.commit("dir/file.txt", "x\na\nB\nd\n");
+
+        assertMatchesHistory("dir/file.txt", head, blameHelper("dir/file.txt").computeBlame(head));
+    }
+
+    @Test
+    public void testBlameIsWorkedOutFromCachedAncestor() throws Exception {
+        repo.commit("file.txt", "one\ntwo\nthree\n");
+        ObjectId cached = repo.commit("file.txt", "one\n2\nthree\n");
+        BlameHelper helper = blameHelper("file.txt");
+        assertMatchesHistory("file.txt", cached, helper.computeBlame(cached));
+
+        repo.commit("other.txt", "other\n");
+        ObjectId head = repo.commit("file.txt", "zero\none\n2\nthree\nfour\n");
+        assertMatchesHistory("file.txt", head, helper.computeBlame(head));
+    }
+
+    @Test
+    public void testBlameAcrossMerge() throws Exception {
+        ObjectId base = repo.commit("file.txt", "one\ntwo\nthree\nfour\nfive\n");
+        repo.commit("file.txt", "1\ntwo\nthree\nfour\nfive\n");
+        repo.checkoutNewBranch("side", base);
+        repo.commit("file.txt", "one\ntwo\nthree\nfour\n5\n");
+        ObjectId head = repo.getGit().merge().include(repo.getRepository().resolve("master")).call().getNewHead();
+
+        assertMatchesHistory("file.txt", head, blameHelper("file.txt").computeBlame(head));
+    }
+
+    @Test
+    public void testNoBlameForFilesThatAreNotText() throws Exception {
+        repo.writeFile("a.bin", "a\0b");
+        repo.getGit().add().addFilepattern("a.bin").call();
+        ObjectId head = repo.commit("a.txt", "a\n");
+
+        assertNull(blameHelper("a.bin").computeBlame(head));
+        assertNull(blameHelper("missing.txt").computeBlame(head));
+    }
+}
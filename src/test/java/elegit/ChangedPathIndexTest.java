@@ -0,0 +1,98 @@
+package elegit;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChangedPathIndexTest {
+
+    private TestRepository repo;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        repo.close();
+    }
+
+    @Test
+    public void testMurmur3() {
+        assertEquals(0, ChangedPathIndex.murmur3(0, ""));
+        assertEquals(0x514e28b7, ChangedPathIndex.murmur3(1, ""));
+        assertEquals(0xfaf6cdb3, ChangedPathIndex.murmur3(1234, "Hello, world!"));
+        assertEquals(0x2e4ff723, ChangedPathIndex.murmur3(0, "The quick brown fox jumps over the lazy dog"));
+    }
+
+    @Test
+    public void testHistorySkipsCommitsThatDidNotChangeThePath() throws Exception {
+        ObjectId first = repo.commit("a.txt", "a");
+        ObjectId second = repo.commit("dir/b.txt", "b");
+        ObjectId third = repo.commit("a.txt", "a2");
+        ObjectId fourth = repo.commit("dir/sub/c.txt", "c");
+        List<ObjectId> commits = Arrays.asList(fourth, third, second, first);
+
+        ChangedPathIndex index = new ChangedPathIndex(repo.getRepository());
+        // Without filters, every commit's tree is read
+        assertEquals(Arrays.asList(third, first), index.getHistory(commits, "a.txt"));
+
+        assertEquals(4, index.update(commits));
+        assertEquals(0, index.update(commits));
+        assertTrue(index.mightHaveChanged(second, "dir/b.txt"));
+        assertTrue(index.mightHaveChanged(fourth, "dir"));
+        assertTrue(index.mightHaveChanged(fourth, "dir/sub"));
+        assertFalse(index.mightHaveChanged(fourth, "a.txt"));
+
+        assertEquals(Arrays.asList(third, first), index.getHistory(commits, "a.txt"));
+        assertEquals(Arrays.asList(fourth, second), index.getHistory(commits, "dir"));
+        assertEquals(Arrays.asList(fourth), index.getHistory(commits, "dir/sub/c.txt"));
+        assertTrue(index.getHistory(commits, "missing.txt").isEmpty());
+
+        // The filters are read back from the .git directory
+        index.save();
+        ChangedPathIndex loaded = new ChangedPathIndex(repo.getRepository());
+        assertEquals(4, loaded.size());
+        assertFalse(loaded.mightHaveChanged(fourth, "a.txt"));
+        assertEquals(Arrays.asList(fourth, second), loaded.getHistory(commits, "dir"));
+    }
+
+    @Test
+    public void testNewFiltersAreAddedToTheSavedIndex() throws Exception {
+        ObjectId first = repo.commit("a.txt", "a");
+        ObjectId second = repo.commit("b.txt", "b");
+        ChangedPathIndex index = new ChangedPathIndex(repo.getRepository());
+        index.update(Arrays.asList(second, first));
+        index.save();
+        File indexFile = new File(repo.getRepository().getDirectory(), ChangedPathIndex.INDEX_FILE);
+        long savedLength = indexFile.length();
+
+        ObjectId third = repo.commit("c.txt", "c");
+        index.update(Arrays.asList(third, second, first));
+        index.save();
+        assertTrue(indexFile.length() > savedLength);
+        ChangedPathIndex loaded = new ChangedPathIndex(repo.getRepository());
+        assertEquals(3, loaded.size());
+        assertFalse(loaded.mightHaveChanged(third, "a.txt"));
+
+        // A save that was cut short keeps the filters before it, and the next save writes them all again
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+            file.setLength(indexFile.length() - 1);
+        }
+        loaded = new ChangedPathIndex(repo.getRepository());
+        assertEquals(2, loaded.size());
+        assertFalse(loaded.contains(third));
+        loaded.update(Arrays.asList(third, second, first));
+        loaded.save();
+        assertEquals(3, new ChangedPathIndex(repo.getRepository()).size());
+    }
+}
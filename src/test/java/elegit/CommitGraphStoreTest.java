@@ -0,0 +1,139 @@
+package elegit;
+
+import elegit.treefx.Cell;
+import elegit.treefx.CommitGraphStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommitGraphStoreTest {
+
+    private CommitGraphStore store;
+    private int[] handles;
+
+    /*
+             0     5
+            / \  /  \
+           1   2     6
+            \ /     /
+             3    /
+             \  /
+              4
+     */
+    @Before
+    public void setUp() {
+        store = new CommitGraphStore();
+        handles = new int[7];
+        handles[4] = store.add("cell4", 10, new int[0], Cell.CellType.LOCAL);
+        handles[3] = store.add("cell3", 20, new int[]{handles[4]}, Cell.CellType.LOCAL);
+        handles[1] = store.add("cell1", 30, new int[]{handles[3]}, Cell.CellType.LOCAL);
+        handles[2] = store.add("cell2", 40, new int[]{handles[3]}, Cell.CellType.LOCAL);
+        handles[6] = store.add("cell6", 50, new int[]{handles[4]}, Cell.CellType.REMOTE);
+        handles[0] = store.add("cell0", 60, new int[]{handles[1], handles[2]}, Cell.CellType.BOTH);
+        handles[5] = store.add("cell5", 70, new int[]{handles[2], handles[6]}, Cell.CellType.BOTH);
+    }
+
+    private void assertOrder(int[] order, String... ids) {
+        assertEquals(ids.length, order.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], store.getId(order[i]));
+        }
+    }
+
+    @Test
+    public void testParentsAndChildren() {
+        assertEquals(7, store.size());
+        assertArrayEquals(new int[]{handles[1], handles[2]}, store.getParents(handles[0]));
+        assertArrayEquals(new int[]{handles[3], handles[6]}, store.getChildren(handles[4]));
+        assertArrayEquals(new int[]{handles[0], handles[5]}, store.getChildren(handles[2]));
+        assertEquals(0, store.getChildCount(handles[5]));
+        assertEquals(handles[6], store.getHandle("cell6"));
+        assertEquals(Cell.CellType.REMOTE, store.getType(handles[6]));
+        assertEquals(-1, store.getHandle("cell7"));
+    }
+
+    @Test
+    public void testLayoutOrder() {
+        assertOrder(store.getLayoutOrder(true), "cell5", "cell0", "cell6", "cell2", "cell1", "cell3", "cell4");
+        assertOrder(store.getLayoutOrder(false), "cell5", "cell0", "cell6", "cell2", "cell1", "cell3", "cell4");
+    }
+
+    @Test
+    public void testRemovedCommitsAreSkipped() {
+        store.remove(handles[5]);
+        store.remove(handles[6]);
+
+        assertEquals(5, store.size());
+        assertFalse(store.isLive(handles[5]));
+        assertArrayEquals(new int[]{handles[3]}, store.getChildren(handles[4]));
+        assertArrayEquals(new int[]{handles[0]}, store.getChildren(handles[2]));
+        assertOrder(store.getLayoutOrder(true), "cell0", "cell2", "cell1", "cell3", "cell4");
+    }
+
+    @Test
+    public void testReplacedCommitKeepsChildren() {
+        int newHandle = store.add("cell3", 20, new int[]{handles[4]}, Cell.CellType.BOTH);
+
+        assertEquals(newHandle, store.getHandle("cell3"));
+        assertEquals(7, store.size());
+        assertEquals(7, store.getCapacity());
+        assertEquals(Cell.CellType.BOTH, store.getType(newHandle));
+        assertArrayEquals(new int[]{newHandle}, store.getParents(handles[1]));
+        assertArrayEquals(new int[]{handles[1], handles[2]}, store.getChildren(newHandle));
+        assertArrayEquals(new int[]{handles[6], newHandle}, store.getChildren(handles[4]));
+        assertOrder(store.getLayoutOrder(true), "cell5", "cell0", "cell6", "cell2", "cell1", "cell3", "cell4");
+    }
+
+    @Test
+    public void testRemovedHandleIsReused() {
+        store.remove(handles[2]);
+
+        assertFalse(store.isLive(handles[2]));
+        assertArrayEquals(new int[]{handles[1]}, store.getParents(handles[0]));
+        assertArrayEquals(new int[]{handles[6]}, store.getParents(handles[5]));
+        assertTrue(store.hasMissingParents(handles[0]));
+        assertArrayEquals(new int[]{handles[1]}, store.getChildren(handles[3]));
+
+        int newHandle = store.add("cell7", 80, new int[]{handles[5]}, Cell.CellType.LOCAL);
+        assertEquals(handles[2], newHandle);
+        assertEquals(7, store.getCapacity());
+        assertEquals(-1, store.getHandle("cell2"));
+        assertArrayEquals(new int[0], store.getChildren(newHandle));
+        assertArrayEquals(new int[]{newHandle}, store.getChildren(handles[5]));
+        assertOrder(store.getLayoutOrder(true), "cell7", "cell5", "cell0", "cell6", "cell1", "cell3", "cell4");
+    }
+
+    @Test
+    public void testManyChildrenKeepTheirOrder() {
+        // Enough children to move the rows around and compact them
+        int[] added = new int[500];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = store.add("child" + i, 100 + i, new int[]{handles[i % 2 == 0 ? 0 : 5]}, Cell.CellType.LOCAL);
+            if (i % 3 == 0) store.remove(added[i]);
+        }
+
+        int count = 0;
+        for (int i = 0; i < added.length; i += 2) {
+            if (i % 3 != 0) assertEquals(added[i], store.getChildren(handles[0])[count++]);
+        }
+        assertEquals(count, store.getChildCount(handles[0]));
+        assertArrayEquals(new int[]{handles[1], handles[2]}, store.getParents(handles[0]));
+    }
+
+    @Test
+    public void testParentAddedLater() {
+        // An older commit whose child was added before it
+        int older = store.add("cell7", 5, new int[0], Cell.CellType.LOCAL);
+        store.addParent(handles[4], older);
+        store.addParent(handles[4], older);
+        store.addParent(handles[1], older);
+
+        assertArrayEquals(new int[]{older}, store.getParents(handles[4]));
+        assertArrayEquals(new int[]{handles[3], older}, store.getParents(handles[1]));
+        assertArrayEquals(new int[]{handles[4], handles[1]}, store.getChildren(older));
+        assertArrayEquals(new int[]{handles[3]}, store.getParents(handles[2]));
+        assertFalse(store.hasMissingParents(handles[1]));
+        assertOrder(store.getLayoutOrder(true), "cell5", "cell0", "cell6", "cell2", "cell1", "cell3", "cell4", "cell7");
+    }
+}
@@ -0,0 +1,65 @@
+package elegit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CommitSearchIndexTest {
+
+    private CommitSearchIndex index;
+
+    @Before
+    public void setUp() {
+        index = new CommitSearchIndex();
+        index.add("a1b2c3d4", 10, "Add the commit tree", "Alice");
+        index.add("a1b2ffff", 20, "Fix layout of the commit tree", "Bob");
+        index.add("0badcafe", 30, "Update readme", "Alice");
+    }
+
+    @Test
+    public void testMessageAndAuthorMatches() {
+        assertEquals(Arrays.asList("a1b2ffff", "a1b2c3d4"), index.search("commit TREE", 10));
+        assertEquals(Arrays.asList("0badcafe", "a1b2c3d4"), index.search("alice", 10));
+        assertEquals(Collections.singletonList("a1b2ffff"), index.search("commit tree", 1));
+        // Every trigram is there, but not next to each other
+        assertTrue(index.search("tree commit", 10).isEmpty());
+        assertEquals(Collections.singletonList("0badcafe"), index.search("me", 10));
+    }
+
+    @Test
+    public void testIdPrefixMatches() {
+        assertEquals(Arrays.asList("a1b2c3d4", "a1b2ffff"), index.search("a1b2", 10));
+        assertEquals(Collections.singletonList("0badcafe"), index.search("0BADC", 10));
+    }
+
+    @Test
+    public void testRefMatchesComeFirst() {
+        Map<String, String> refs = new HashMap<>();
+        refs.put("origin/feature", "a1b2c3d4");
+        refs.put("update", "a1b2ffff");
+        index.setRefs(refs);
+
+        assertEquals(Collections.singletonList("a1b2c3d4"), index.search("feat", 10));
+        assertEquals(Collections.singletonList("a1b2c3d4"), index.search("origin/", 10));
+        assertEquals(Arrays.asList("a1b2ffff", "0badcafe"), index.search("update", 10));
+    }
+
+    @Test
+    public void testRemovedCommitsAreNotFound() {
+        index.remove("a1b2ffff");
+        index.add("a1b2c3d4", 10, "Add the commit tree", "Alice");
+
+        assertEquals(2, index.size());
+        assertEquals(Collections.singletonList("a1b2c3d4"), index.search("commit tree", 10));
+        assertEquals(Collections.singletonList("a1b2c3d4"), index.search("a1b2", 10));
+
+        index.add("a1b2ffff", 20, "Fix layout of the commit tree", "Bob");
+        assertEquals(Arrays.asList("a1b2ffff", "a1b2c3d4"), index.search("commit tree", 10));
+    }
+}
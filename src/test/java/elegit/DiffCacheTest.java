@@ -0,0 +1,76 @@
+package elegit;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiffCacheTest {
+
+    private static final Path REPO = Paths.get("repo");
+    private static final ObjectId BLOB = ObjectId.fromString("0123456789012345678901234567890123456789");
+
+    private FileDiff makeDiff(int numLines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < numLines; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        return FileDiff.compute(Collections.emptyList(), new byte[0], text.toString().getBytes(),
+                DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+    }
+
+    @Test
+    public void testKeyIncludesWorkTreeStat() {
+        DiffCache cache = new DiffCache(1024 * 1024);
+        FileDiff diff = makeDiff(10);
+        cache.put(new DiffCache.Key(REPO, "a.txt", BLOB, BLOB, 100, 10), diff);
+
+        assertEquals(diff, cache.get(new DiffCache.Key(REPO, "a.txt", BLOB, BLOB, 100, 10)));
+        // The file was touched, or resized, or is in a different state in the index
+        assertNull(cache.get(new DiffCache.Key(REPO, "a.txt", BLOB, BLOB, 101, 10)));
+        assertNull(cache.get(new DiffCache.Key(REPO, "a.txt", BLOB, BLOB, 100, 11)));
+        assertNull(cache.get(new DiffCache.Key(REPO, "a.txt", BLOB, null, 100, 10)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        DiffCache measure = new DiffCache(1024 * 1024);
+        measure.put(new DiffCache.Key(REPO, "a.txt", BLOB, BLOB, 0, 0), makeDiff(100));
+        long sizeOfOne = measure.getCurrentBytes();
+
+        // Room for two and a half diffs
+        DiffCache cache = new DiffCache(sizeOfOne * 2 + sizeOfOne / 2);
+
+        DiffCache.Key a = new DiffCache.Key(REPO, "a.txt", BLOB, BLOB, 0, 0);
+        DiffCache.Key b = new DiffCache.Key(REPO, "b.txt", BLOB, BLOB, 0, 0);
+        DiffCache.Key c = new DiffCache.Key(REPO, "c.txt", BLOB, BLOB, 0, 0);
+        cache.put(a, makeDiff(100));
+        cache.put(b, makeDiff(100));
+        assertNotNull(cache.get(a));
+        cache.put(c, makeDiff(100));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(a));
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(c));
+        assertTrue(cache.getCurrentBytes() <= sizeOfOne * 2 + sizeOfOne / 2);
+    }
+
+    @Test
+    public void testDiffLargerThanCacheIsSkipped() {
+        DiffCache cache = new DiffCache(1);
+        cache.put(new DiffCache.Key(REPO, "a.txt", BLOB, BLOB, 0, 0), makeDiff(1));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getCurrentBytes());
+    }
+}
@@ -0,0 +1,82 @@
+package elegit;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DiffLineIteratorTest {
+
+    private String formatWithIterator(RawText oldText, RawText newText) {
+        EditList edits = DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM)
+                .diff(RawTextComparator.DEFAULT, oldText, newText);
+        StringBuilder result = new StringBuilder();
+        DiffLineIterator iterator = new DiffLineIterator(edits, oldText, newText);
+        while (iterator.hasNext()) {
+            result.append(iterator.next()).append('\n');
+        }
+        return result.toString();
+    }
+
+    private String formatWithDiffFormatter(RawText oldText, RawText newText) throws Exception {
+        EditList edits = DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM)
+                .diff(RawTextComparator.DEFAULT, oldText, newText);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DiffFormatter formatter = new DiffFormatter(out)) {
+            formatter.format(edits, oldText, newText);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private RawText text(List<String> lines, boolean endsWithNewline) {
+        String text = String.join("\n", lines);
+        if (endsWithNewline && !lines.isEmpty()) text += "\n";
+        return new RawText(text.getBytes());
+    }
+
+    @Test
+    public void testMatchesDiffFormatter() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            List<String> oldLines = new ArrayList<>();
+            int numLines = random.nextInt(60);
+            for (int i = 0; i < numLines; i++) oldLines.add("line " + random.nextInt(20));
+
+            List<String> newLines = new ArrayList<>(oldLines);
+            int numChanges = random.nextInt(8);
+            for (int i = 0; i < numChanges; i++) {
+                int position = newLines.isEmpty() ? 0 : random.nextInt(newLines.size());
+                switch (random.nextInt(3)) {
+                    case 0:
+                        newLines.add(position, "added " + random.nextInt(100));
+                        break;
+                    case 1:
+                        if (!newLines.isEmpty()) newLines.remove(position);
+                        break;
+                    default:
+                        if (!newLines.isEmpty()) newLines.set(position, "changed " + random.nextInt(100));
+                }
+            }
+
+            RawText oldText = text(oldLines, random.nextBoolean());
+            RawText newText = text(newLines, random.nextBoolean());
+            assertEquals(formatWithDiffFormatter(oldText, newText), formatWithIterator(oldText, newText));
+        }
+    }
+
+    @Test
+    public void testIdenticalTextsHaveNoLines() {
+        RawText text = new RawText("a\nb\n".getBytes());
+        assertFalse(new DiffLineIterator(new EditList(), text, text).hasNext());
+    }
+}
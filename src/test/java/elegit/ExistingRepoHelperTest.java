@@ -1,6 +1,8 @@
 package elegit;
 
+import elegit.treefx.Cell;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -10,6 +12,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -67,4 +71,222 @@ public class ExistingRepoHelperTest {
                                                                new ElegitUserInfoTest());
         git.close();
     }
+
+    @Test
+    public void testCommitAppendsToParsedCommits() throws Exception {
+        File localPath = Files.createTempDirectory("TestGitRepo").toFile();
+        localPath.deleteOnExit();
+
+        Git git = Git.init().setDirectory(localPath).call();
+        File file = new File(localPath, "file.txt");
+        Files.write(file.toPath(), "first line\n".getBytes());
+        git.add().addFilepattern("file.txt").call();
+        git.commit().setMessage("Initial commit").call();
+
+        ExistingRepoHelper repoHelper = new ExistingRepoHelper(Paths.get(localPath.getAbsolutePath()),
+                                                               new ElegitUserInfoTest());
+        CommitHelper initialCommit = repoHelper.getCommit("HEAD");
+        assertNull(repoHelper.takeChangedCommits());
+
+        Files.write(file.toPath(), "second line\n".getBytes());
+        repoHelper.addFilePathTest(file.toPath());
+        repoHelper.commit("Second commit");
+
+        // Only the new commit is added, linked to the commit that was already parsed
+        List<CommitHelper> changedCommits = repoHelper.takeChangedCommits();
+        assertNotNull(changedCommits);
+        assertEquals(1, changedCommits.size());
+        CommitHelper newCommit = changedCommits.get(0);
+        assertEquals(git.getRepository().resolve("HEAD").getName(), newCommit.getId());
+        assertEquals(Collections.singletonList(initialCommit), newCommit.getParents());
+        assertTrue(repoHelper.getLocalCommits().contains(newCommit));
+        assertNull(repoHelper.takeChangedCommits());
+
+        // A commit made outside of the helper means everything has to be parsed again
+        Files.write(file.toPath(), "third line\n".getBytes());
+        git.commit().setAll(true).setMessage("Outside commit").call();
+        Files.write(file.toPath(), "fourth line\n".getBytes());
+        repoHelper.addFilePathTest(file.toPath());
+        repoHelper.commit("Fourth commit");
+        assertNull(repoHelper.takeChangedCommits());
+        assertNotNull(repoHelper.getCommit(git.getRepository().resolve("HEAD")));
+
+        git.close();
+        removeAllFilesFromDirectory(localPath);
+    }
+
+    @Test
+    public void testHistoryIsLoadedAPageAtATime() throws Exception {
+        File localPath = Files.createTempDirectory("TestGitRepo").toFile();
+        localPath.deleteOnExit();
+
+        Git git = Git.init().setDirectory(localPath).call();
+        File file = new File(localPath, "file.txt");
+        for (int i = 0; i < 5; i++) {
+            Files.write(file.toPath(), ("line " + i + "\n").getBytes());
+            git.add().addFilepattern("file.txt").call();
+            git.commit().setMessage("Commit " + i).call();
+        }
+
+        ExistingRepoHelper repoHelper = new ExistingRepoHelper(Paths.get(localPath.getAbsolutePath()),
+                                                               new ElegitUserInfoTest(), 2);
+        assertEquals(2, repoHelper.getLocalCommits().size());
+        assertTrue(repoHelper.hasMoreHistory());
+        CommitHelper oldestLoaded = repoHelper.getCommit("HEAD~1");
+        assertTrue(oldestLoaded.getParents().isEmpty());
+
+        // The next page is linked to the commits that were already loaded
+        assertTrue(repoHelper.loadMoreHistory());
+        List<CommitHelper> changedCommits = repoHelper.takeChangedCommits();
+        assertNotNull(changedCommits);
+        assertEquals(2, changedCommits.size());
+        assertEquals(Collections.singletonList(repoHelper.getCommit("HEAD~2")), oldestLoaded.getParents());
+        assertEquals(4, repoHelper.getLocalCommits().size());
+
+        assertTrue(repoHelper.loadMoreHistory());
+        assertEquals(5, repoHelper.getLocalCommits().size());
+        assertFalse(repoHelper.hasMoreHistory());
+        assertFalse(repoHelper.loadMoreHistory());
+
+        // Reading the history again keeps the pages that were loaded
+        repoHelper.updateModel();
+        assertEquals(5, repoHelper.getLocalCommits().size());
+
+        git.close();
+        removeAllFilesFromDirectory(localPath);
+    }
+
+    @Test
+    public void testRefsOutsideTheFirstPageAreLabelledOnceLoaded() throws Exception {
+        File localPath = Files.createTempDirectory("TestGitRepo").toFile();
+        localPath.deleteOnExit();
+
+        Git git = Git.init().setDirectory(localPath).call();
+        File file = new File(localPath, "file.txt");
+        RevCommit firstCommit = null;
+        for (int i = 0; i < 5; i++) {
+            Files.write(file.toPath(), ("line " + i + "\n").getBytes());
+            git.add().addFilepattern("file.txt").call();
+            RevCommit commit = git.commit().setMessage("Commit " + i).call();
+            if (firstCommit == null) firstCommit = commit;
+        }
+        git.branchCreate().setName("old").setStartPoint(firstCommit).call();
+        git.tag().setName("v0").setObjectId(firstCommit).call();
+
+        ExistingRepoHelper repoHelper = new ExistingRepoHelper(Paths.get(localPath.getAbsolutePath()),
+                                                               new ElegitUserInfoTest(), 2);
+        // Neither ref has a commit to be shown on yet
+        assertNull(repoHelper.getBranchModel().getBranchByName(BranchModel.BranchType.LOCAL, "old").getCommit());
+        assertFalse(repoHelper.getBranchModel().getAllBranchHeads().containsKey(null));
+        assertTrue(repoHelper.getTagModel().getAllTags().isEmpty());
+
+        while (repoHelper.loadMoreHistory());
+        repoHelper.getBranchModel().updateAllBranches();
+        repoHelper.getTagModel().updateTags();
+
+        CommitHelper first = repoHelper.getCommit(firstCommit.getId());
+        assertEquals(1, repoHelper.getBranchModel().getAllBranchHeads().get(first).size());
+        assertTrue(first.hasTag("v0"));
+
+        git.close();
+        removeAllFilesFromDirectory(localPath);
+    }
+
+    @Test
+    public void testFetchWalksOnlyFetchedCommits() throws Exception {
+        File remotePath = Files.createTempDirectory("TestGitRemote").toFile();
+        remotePath.deleteOnExit();
+        File localPath = Files.createTempDirectory("TestGitRepo").toFile();
+        localPath.deleteOnExit();
+
+        Git remoteGit = Git.init().setDirectory(remotePath).call();
+        File file = new File(remotePath, "file.txt");
+        Files.write(file.toPath(), "first line\n".getBytes());
+        remoteGit.add().addFilepattern("file.txt").call();
+        remoteGit.commit().setMessage("Initial commit").call();
+        remoteGit.branchCreate().setName("other").call();
+
+        Git.cloneRepository().setURI(remotePath.toURI().toString()).setDirectory(localPath).call().close();
+        ExistingRepoHelper repoHelper = new ExistingRepoHelper(Paths.get(localPath.getAbsolutePath()),
+                                                               new ElegitUserInfoTest());
+
+        // A new commit on the remote
+        Files.write(file.toPath(), "second line\n".getBytes());
+        RevCommit fetched = remoteGit.commit().setAll(true).setMessage("Second commit").call();
+        assertTrue(repoHelper.fetch(false));
+
+        List<CommitHelper> changedCommits = repoHelper.takeChangedCommits();
+        assertNotNull(changedCommits);
+        assertEquals(1, changedCommits.size());
+        assertEquals(fetched.getName(), changedCommits.get(0).getId());
+        assertEquals(Cell.CellType.REMOTE, repoHelper.getCommitType(changedCommits.get(0)));
+
+        // Move the other branch onto a commit that is only on the remote, then prune it
+        remoteGit.checkout().setName("other").call();
+        Files.write(file.toPath(), "other line\n".getBytes());
+        RevCommit pruned = remoteGit.commit().setAll(true).setMessage("Other commit").call();
+        repoHelper.fetch(false);
+        assertNotNull(repoHelper.getCommit(pruned.getId()));
+        assertNotNull(repoHelper.takeChangedCommits());
+
+        remoteGit.checkout().setName("master").call();
+        remoteGit.branchDelete().setBranchNames("other").setForce(true).call();
+        repoHelper.fetch(true);
+
+        changedCommits = repoHelper.takeChangedCommits();
+        assertNotNull(changedCommits);
+        assertEquals(1, changedCommits.size());
+        assertFalse(repoHelper.hasCommit(changedCommits.get(0)));
+        assertNull(repoHelper.getCommit(pruned.getId()));
+        // Pruning is only for the one fetch, not saved in the config
+        assertNull(repoHelper.getRepo().getConfig().getString("fetch", null, "prune"));
+
+        remoteGit.close();
+        removeAllFilesFromDirectory(remotePath);
+        removeAllFilesFromDirectory(localPath);
+    }
+
+    @Test
+    public void testPushAllWithTagsUpdatesPushedCommits() throws Exception {
+        File originPath = Files.createTempDirectory("TestGitOrigin").toFile();
+        originPath.deleteOnExit();
+        File remotePath = Files.createTempDirectory("TestGitRemote").toFile();
+        remotePath.deleteOnExit();
+        File localPath = Files.createTempDirectory("TestGitRepo").toFile();
+        localPath.deleteOnExit();
+
+        Git originGit = Git.init().setDirectory(originPath).call();
+        Files.write(new File(originPath, "file.txt").toPath(), "first line\n".getBytes());
+        originGit.add().addFilepattern("file.txt").call();
+        originGit.commit().setMessage("Initial commit").call();
+        originGit.close();
+        Git.cloneRepository().setURI(originPath.toURI().toString()).setDirectory(remotePath).setBare(true).call().close();
+        Git.cloneRepository().setURI(remotePath.toURI().toString()).setDirectory(localPath).call().close();
+
+        ExistingRepoHelper repoHelper = new ExistingRepoHelper(Paths.get(localPath.getAbsolutePath()),
+                                                               new ElegitUserInfoTest());
+        File file = new File(localPath, "file.txt");
+        Files.write(file.toPath(), "second line\n".getBytes());
+        repoHelper.addFilePathTest(file.toPath());
+        repoHelper.commit("Second commit");
+        CommitHelper newCommit = repoHelper.getCommit("HEAD");
+        repoHelper.getTagModel().tag("v1", newCommit.getId());
+        assertEquals(Cell.CellType.LOCAL, repoHelper.getCommitType(newCommit));
+        assertNotNull(repoHelper.takeChangedCommits());
+
+        // The branch and the tag go in one push
+        repoHelper.pushAll(repoHelper.prepareToPushAll(true));
+        Git remoteGit = Git.open(remotePath);
+        assertEquals(newCommit.getObjectId(), remoteGit.getRepository().resolve("refs/heads/master"));
+        assertEquals(newCommit.getObjectId(), remoteGit.getRepository().resolve("refs/tags/v1^{commit}"));
+        remoteGit.close();
+
+        // The pushed commit is on the remote-tracking branch now, without reparsing everything
+        assertEquals(Cell.CellType.BOTH, repoHelper.getCommitType(newCommit));
+        assertEquals(Collections.singletonList(newCommit), repoHelper.takeChangedCommits());
+
+        removeAllFilesFromDirectory(originPath);
+        removeAllFilesFromDirectory(remotePath);
+        removeAllFilesFromDirectory(localPath);
+    }
 }
\ No newline at end of file
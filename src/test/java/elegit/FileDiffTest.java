@@ -0,0 +1,80 @@
+package elegit;
+
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileDiffTest {
+
+    private TestRepository repo;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        repo.close();
+    }
+
+    private FileDiff readDiff(String path) throws Exception {
+        ObjectId headTree = repo.getRepository().resolve("HEAD^{tree}");
+        try (TreeWalk walk = TreeWalk.forPath(repo.getRepository(), path, headTree)) {
+            return FileDiff.read(repo.getRepository(), path, walk.getObjectId(0), true);
+        }
+    }
+
+    private List<String> hunkLines(FileDiff diff) {
+        List<String> lines = new ArrayList<>();
+        DiffLineIterator iterator = diff.getHunkLines();
+        while (iterator.hasNext()) lines.add(iterator.next());
+        return lines;
+    }
+
+    @Test
+    public void testChangedLinesAreShown() throws Exception {
+        repo.commit("a.txt", "one\ntwo\nthree\n");
+        repo.writeFile("a.txt", "one\n2\nthree\n");
+
+        FileDiff diff = readDiff("a.txt");
+        assertEquals(Arrays.asList("--- a/a.txt", "+++ b/a.txt"), diff.getHeader());
+        assertNull(diff.getMessage());
+        assertEquals(Arrays.asList("@@ -1,3 +1,3 @@", " one", "-two", "+2", " three"), hunkLines(diff));
+    }
+
+    @Test
+    public void testLineEndingsAreConvertedLikeCheckin() throws Exception {
+        StoredConfig config = repo.getRepository().getConfig();
+        config.setString(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_KEY_AUTOCRLF, "true");
+        config.save();
+        repo.commit("a.txt", "one\ntwo\nthree\n");
+
+        // Checked out with CRLF line endings, as autocrlf does on Windows
+        repo.writeFile("a.txt", "one\r\ntwo\r\nthree\r\n");
+        assertTrue(hunkLines(readDiff("a.txt")).isEmpty());
+
+        repo.writeFile("a.txt", "one\r\n2\r\nthree\r\n");
+        assertEquals(Arrays.asList("@@ -1,3 +1,3 @@", " one", "-two", "+2", " three"), hunkLines(readDiff("a.txt")));
+    }
+
+    @Test
+    public void testBinaryFileHasMessage() throws Exception {
+        repo.commit("a.bin", "a\0b");
+        repo.writeFile("a.bin", "a\0c");
+
+        FileDiff diff = readDiff("a.bin");
+        assertEquals("Binary file, no diff shown", diff.getMessage());
+        assertNull(diff.getHunkLines());
+    }
+}
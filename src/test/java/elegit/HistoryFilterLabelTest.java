@@ -0,0 +1,122 @@
+package elegit;
+
+import javafx.application.Application;
+import javafx.application.Platform;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class HistoryFilterLabelTest {
+
+    private TestRepository repo;
+    private ExistingRepoHelper helper;
+    private CommitTreeModel commitTreeModel;
+
+    @BeforeClass
+    public static void setUpJFX() throws Exception{
+        // Launch the Elegit application in a thread so we get control back
+        Thread t = new Thread("JavaFX Init Thread"){
+            public void run(){
+                Application.launch(Main.class);
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+
+        Main.startLatch.await();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+        commitTreeModel = Main.sessionController.commitTreeModel;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        repo.close();
+    }
+
+    /**
+     * Runs the given code on the FX thread and waits for it, rethrowing anything it throws
+     */
+    private void runOnFXThread(ThrowingRunnable runnable) throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<Exception> exception = new AtomicReference<>();
+        Platform.runLater(() -> {
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                exception.set(e);
+            } finally {
+                latch.countDown();
+            }
+        });
+        latch.await();
+        if (exception.get() != null) throw exception.get();
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    private void refreshLabels() throws Exception {
+        runOnFXThread(() -> {
+            commitTreeModel.update();
+            CommitTreeController.setBranchHeads(commitTreeModel, helper);
+            commitTreeModel.updateAllRefLabels();
+        });
+    }
+
+    @Test
+    public void testLabelsWithABranchLeftOut() throws Exception {
+        ObjectId first = repo.commit("a.txt", "one\n");
+        ObjectId master = repo.commit("a.txt", "two\n");
+        repo.checkoutNewBranch("feature", first);
+        ObjectId feature = repo.commit("b.txt", "feature\n");
+        repo.getGit().checkout().setName("master").call();
+        repo.getGit().tag().setName("v1").setObjectId(repo.getRepository().parseCommit(feature)).call();
+
+        helper = new ExistingRepoHelper(repo.getDirectory().toPath(), new ElegitUserInfoTest());
+        // Reading the history again from scratch leaves the feature branch's head unread
+        helper.setHistoryFilter(HistoryFilter.currentBranch());
+        helper.updateModel();
+        assertNull(helper.getCommit(feature));
+        SessionModel.getSessionModel().openRepoFromHelper(helper);
+        runOnFXThread(commitTreeModel::init);
+        refreshLabels();
+
+        assertTrue(commitTreeModel.containsID(master.getName()));
+        assertFalse(commitTreeModel.containsID(feature.getName()));
+        List<CommitHelper> found = commitTreeModel.searchCommits("master", 10);
+        assertEquals(1, found.size());
+        assertEquals(master.getName(), found.get(0).getId());
+        assertTrue(commitTreeModel.searchCommits("feature", 10).isEmpty());
+
+        // Showing every branch again labels the feature branch
+        helper.setHistoryFilter(HistoryFilter.ALL);
+        refreshLabels();
+
+        assertTrue(commitTreeModel.containsID(feature.getName()));
+        found = commitTreeModel.searchCommits("feature", 10);
+        assertFalse(found.isEmpty());
+        assertEquals(feature.getName(), found.get(0).getId());
+        assertTrue(helper.getCommit(feature).hasTag("v1"));
+
+        // Leaving it out again keeps the labels of the commits that are still shown
+        helper.setHistoryFilter(HistoryFilter.currentBranch());
+        refreshLabels();
+
+        assertFalse(commitTreeModel.containsID(feature.getName()));
+        assertTrue(commitTreeModel.searchCommits("feature", 10).isEmpty());
+        assertEquals(master.getName(), commitTreeModel.searchCommits("master", 10).get(0).getId());
+    }
+}
@@ -0,0 +1,62 @@
+package elegit;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class HistoryFilterTest {
+
+    private static final String MASTER = "refs/heads/master";
+    private static final String FEATURE = "refs/heads/feature/graph";
+    private static final String ORIGIN_MASTER = "refs/remotes/origin/master";
+    private static final String ORIGIN_FEATURE = "refs/remotes/origin/feature/graph/layout";
+
+    @Test
+    public void testAllIncludesEverything() {
+        assertTrue(HistoryFilter.ALL.includes(FEATURE, MASTER, ORIGIN_MASTER));
+        assertTrue(HistoryFilter.ALL.includesHead(null));
+    }
+
+    @Test
+    public void testCurrentBranchIncludesUpstream() {
+        HistoryFilter filter = HistoryFilter.currentBranch();
+        assertTrue(filter.includes(MASTER, MASTER, ORIGIN_MASTER));
+        assertTrue(filter.includes(ORIGIN_MASTER, MASTER, ORIGIN_MASTER));
+        assertFalse(filter.includes(FEATURE, MASTER, ORIGIN_MASTER));
+        assertFalse(filter.includes(ORIGIN_MASTER, MASTER, null));
+        assertTrue(filter.includesHead(null));
+    }
+
+    @Test
+    public void testSelectedBranches() {
+        HistoryFilter filter = HistoryFilter.selected(Arrays.asList(FEATURE, ORIGIN_MASTER));
+        assertTrue(filter.includes(FEATURE, MASTER, null));
+        assertTrue(filter.includes(ORIGIN_MASTER, MASTER, null));
+        assertFalse(filter.includes(MASTER, MASTER, null));
+        assertFalse(filter.includesHead(MASTER));
+        assertTrue(filter.includesHead(FEATURE));
+        assertEquals(filter, HistoryFilter.selected(Arrays.asList(ORIGIN_MASTER, FEATURE)));
+    }
+
+    @Test
+    public void testPatternMatchesShortNames() {
+        HistoryFilter filter = HistoryFilter.matching("origin/feature/*");
+        assertFalse(filter.includes(ORIGIN_FEATURE, MASTER, null));
+        assertFalse(filter.includes(FEATURE, MASTER, null));
+
+        filter = HistoryFilter.matching("origin/feature/**");
+        assertTrue(filter.includes(ORIGIN_FEATURE, MASTER, null));
+        assertFalse(filter.includes(ORIGIN_MASTER, MASTER, null));
+
+        filter = HistoryFilter.matching("feature/*");
+        assertTrue(filter.includes(FEATURE, MASTER, null));
+        assertFalse(filter.includesHead(MASTER));
+        assertTrue(filter.includesHead(FEATURE));
+
+        // Characters that mean something in a regex are matched literally
+        assertFalse(HistoryFilter.matching("m.ster").includes(MASTER, MASTER, null));
+        assertTrue(HistoryFilter.matching("m?ster").includes(MASTER, MASTER, null));
+    }
+}
@@ -0,0 +1,139 @@
+package elegit;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class MergePreviewTest {
+
+    private TestRepository repo;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = new TestRepository();
+        MergePreview.clearCache();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        repo.close();
+    }
+
+    private int countObjects() {
+        return countFiles(new File(repo.getRepository().getDirectory(), "objects"));
+    }
+
+    private int countFiles(File dir) {
+        int count = 0;
+        for (File file : dir.listFiles()) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
+
+    @Test
+    public void testUpToDateAndFastForward() throws Exception {
+        ObjectId first = repo.commit("a.txt", "a");
+        ObjectId second = repo.commit("b.txt", "b");
+
+        MergePreview upToDate = MergePreview.of(repo.getRepository(), second, first);
+        assertEquals(MergePreview.Status.UP_TO_DATE, upToDate.getStatus());
+
+        MergePreview fastForward = MergePreview.of(repo.getRepository(), first, second);
+        assertEquals(MergePreview.Status.FAST_FORWARD, fastForward.getStatus());
+        assertEquals(1, fastForward.getChangedFileCount());
+    }
+
+    @Test
+    public void testCleanMergeDoesNotWriteObjects() throws Exception {
+        ObjectId base = repo.commit("a.txt", "1\n2\n3\n4\n5\n");
+        ObjectId ours = repo.commit("a.txt", "one\n2\n3\n4\n5\n");
+        repo.checkoutNewBranch("other", base);
+        repo.commit("a.txt", "1\n2\n3\n4\nfive\n");
+        ObjectId theirs = repo.commit("b.txt", "b");
+        int objectsBefore = countObjects();
+
+        MergePreview preview = MergePreview.of(repo.getRepository(), ours, theirs);
+        assertEquals(MergePreview.Status.CLEAN, preview.getStatus());
+        assertEquals(2, preview.getChangedFileCount());
+        assertTrue(preview.getConflictingPaths().isEmpty());
+        assertEquals(objectsBefore, countObjects());
+    }
+
+    @Test
+    public void testConflictsArePredicted() throws Exception {
+        ObjectId base = repo.commit("a.txt", "a");
+        ObjectId ours = repo.commit("a.txt", "ours");
+        repo.checkoutNewBranch("other", base);
+        repo.commit("a.txt", "theirs");
+        ObjectId theirs = repo.commit("b.txt", "b");
+
+        MergePreview preview = MergePreview.of(repo.getRepository(), ours, theirs);
+        assertEquals(MergePreview.Status.CONFLICTING, preview.getStatus());
+        assertEquals(2, preview.getChangedFileCount());
+        assertEquals(Collections.singletonList("a.txt"), preview.getConflictingPaths());
+        // Neither the work tree nor the index were touched
+        assertEquals("b", new String(Files.readAllBytes(new File(repo.getDirectory(), "b.txt").toPath())));
+        assertEquals("theirs", new String(Files.readAllBytes(new File(repo.getDirectory(), "a.txt").toPath())));
+        assertTrue(repo.getGit().status().call().isClean());
+    }
+
+    @Test
+    public void testPreviewIsCachedPerPair() throws Exception {
+        ObjectId first = repo.commit("a.txt", "a");
+        ObjectId second = repo.commit("b.txt", "b");
+
+        assertNull(MergePreview.getCached(repo.getRepository(), first, second));
+        MergePreview preview = MergePreview.of(repo.getRepository(), first, second);
+        assertSame(preview, MergePreview.getCached(repo.getRepository(), first, second));
+        assertSame(preview, MergePreview.of(repo.getRepository(), first, second));
+        assertNull(MergePreview.getCached(repo.getRepository(), second, first));
+    }
+
+    @Test
+    public void testUncommittedChangesToMergedFilesArePredicted() throws Exception {
+        ObjectId base = repo.commit("a.txt", "1\n2\n3\n4\n5\n");
+        repo.checkoutNewBranch("other", base);
+        ObjectId theirs = repo.commit("a.txt", "1\n2\n3\n4\nfive\n");
+        repo.getGit().checkout().setName("master").call();
+        ObjectId ours = repo.commit("b.txt", "b");
+        assertEquals(MergePreview.Status.CLEAN, MergePreview.of(repo.getRepository(), ours, theirs).getStatus());
+
+        // Changes to files the merge doesn't touch don't stop it
+        repo.writeFile("b.txt", "changed");
+        assertEquals(MergePreview.Status.CLEAN, MergePreview.of(repo.getRepository(), ours, theirs).getStatus());
+
+        repo.writeFile("a.txt", "one\n2\n3\n4\n5\n");
+        MergePreview preview = MergePreview.of(repo.getRepository(), ours, theirs);
+        assertEquals(MergePreview.Status.DIRTY, preview.getStatus());
+        assertEquals(Collections.singletonList("a.txt"), preview.getDirtyPaths());
+        assertEquals(1, preview.getChangedFileCount());
+        // The cached preview of the commits is the same
+        assertEquals(MergePreview.Status.CLEAN, MergePreview.getCached(repo.getRepository(), ours, theirs).getStatus());
+
+        // Staged changes stop it too, even if the work tree matches HEAD again
+        repo.getGit().add().addFilepattern("a.txt").call();
+        repo.writeFile("a.txt", "1\n2\n3\n4\n5\n");
+        assertEquals(Collections.singletonList("a.txt"), MergePreview.of(repo.getRepository(), ours, theirs).getDirtyPaths());
+    }
+
+    @Test
+    public void testUntrackedFilesTheMergeWouldOverwriteArePredicted() throws Exception {
+        ObjectId ours = repo.commit("a.txt", "a");
+        repo.checkoutNewBranch("other", ours);
+        ObjectId theirs = repo.commit("b.txt", "b");
+        repo.getGit().checkout().setName("master").call();
+
+        repo.writeFile("b.txt", "untracked");
+        MergePreview preview = MergePreview.of(repo.getRepository(), ours, theirs);
+        assertEquals(MergePreview.Status.DIRTY, preview.getStatus());
+        assertEquals(Collections.singletonList("b.txt"), preview.getDirtyPaths());
+    }
+}
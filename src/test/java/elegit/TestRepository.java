@@ -0,0 +1,80 @@
+package elegit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * A repository in a temporary directory for tests that need real commits. It's
+ * deleted when it's closed
+ */
+class TestRepository implements AutoCloseable {
+
+    private final File directory;
+    private final Git git;
+
+    TestRepository() throws Exception {
+        directory = Files.createTempDirectory("TestGitRepo").toFile();
+        directory.deleteOnExit();
+        git = Git.init().setDirectory(directory).call();
+    }
+
+    Git getGit() {
+        return git;
+    }
+
+    Repository getRepository() {
+        return git.getRepository();
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes a file in the working tree, creating the directories it's in
+     * @param path the path of the file, relative to the work tree and separated by /
+     * @param contents what to write
+     */
+    void writeFile(String path, String contents) throws Exception {
+        File file = new File(directory, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes());
+    }
+
+    /**
+     * Writes a file, adds it and commits it
+     * @param path the path of the file, relative to the work tree and separated by /
+     * @param contents what to write
+     * @return the id of the new commit
+     */
+    ObjectId commit(String path, String contents) throws Exception {
+        writeFile(path, contents);
+        git.add().addFilepattern(path).call();
+        return git.commit().setMessage("Change " + path).call().getId();
+    }
+
+    /**
+     * Creates a branch at the given commit and checks it out
+     */
+    void checkoutNewBranch(String branch, ObjectId startPoint) throws Exception {
+        git.checkout().setCreateBranch(true).setName(branch).setStartPoint(startPoint.getName()).call();
+    }
+
+    @Override
+    public void close() {
+        git.close();
+        removeAllFilesFromDirectory(directory);
+        directory.delete();
+    }
+
+    private static void removeAllFilesFromDirectory(File dir) {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) removeAllFilesFromDirectory(file);
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package elegit;
+
+import elegit.treefx.Cell;
+import elegit.treefx.CellShape;
+import elegit.treefx.TreeGraphModel;
+import javafx.application.Application;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TreeGraphModelTest {
+
+    private TreeGraphModel model;
+
+    @BeforeClass
+    public static void setUpJFX() throws Exception{
+        String skipDisplay = System.getProperty("skipDisplay");
+        if(skipDisplay.length() > 0) { return; }
+
+        // Launch the Elegit application in a thread so we get control back
+        Thread t = new Thread("JavaFX Init Thread"){
+            public void run(){
+                Application.launch(Main.class);
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+
+        Main.startLatch.await();
+        // Sleep until the JavaFX environment is up and running
+        Thread.sleep(500);
+    }
+
+    /*
+         b
+         |
+         a
+     */
+    @Before
+    public void setUp() {
+        String skipDisplay = System.getProperty("skipDisplay");
+        if(skipDisplay.length() > 0) { return; }
+
+        model = new TreeGraphModel();
+        addCell("a", 1);
+        addCell("b", 2, "a");
+        model.getRemovedEdges();
+        model.merge();
+    }
+
+    private void addCell(String id, long time, String... parentIds) {
+        List<String> parents = new ArrayList<>();
+        Collections.addAll(parents, parentIds);
+        model.addCell(id, time, new ArrayList<>(), parents, Cell.CellType.BOTH);
+    }
+
+    @Test
+    public void testAddThenRemoveBeforeMergeCancelsOut() {
+        String skipDisplay = System.getProperty("skipDisplay");
+        if(skipDisplay.length() > 0) { return; }
+
+        addCell("c", 3, "b");
+        model.removeCell("c");
+
+        assertTrue(model.getAddedCells().isEmpty());
+        assertTrue(model.getRemovedCells().isEmpty());
+        assertTrue(model.getRemovedEdges().isEmpty());
+        assertTrue(model.getAddedEdges().isEmpty());
+        model.merge();
+
+        assertEquals(2, model.getAllCells().size());
+        assertFalse(model.containsID("c"));
+        assertTrue(model.isNeighbor("a", "b"));
+    }
+
+    @Test
+    public void testReplacedParentKeepsEdgeToChild() {
+        String skipDisplay = System.getProperty("skipDisplay");
+        if(skipDisplay.length() > 0) { return; }
+
+        addCell("a", 1);
+
+        assertEquals(1, model.getRemovedCells().size());
+        assertEquals(1, model.getAddedCells().size());
+        assertEquals(1, model.getRemovedEdges().size());
+        // The edge from the old a to b is replaced by one from the new a
+        assertEquals(1, model.getAddedEdges().size());
+        model.merge();
+
+        assertEquals(2, model.getAllCells().size());
+        assertTrue(model.getAddedEdges().isEmpty());
+        assertTrue(model.getRemovedEdges().isEmpty());
+    }
+
+    @Test
+    public void testResetCellShapesListsEachCellOnce() {
+        String skipDisplay = System.getProperty("skipDisplay");
+        if(skipDisplay.length() > 0) { return; }
+
+        model.setCellShape("a", CellShape.CIRCLE);
+        model.setCellShape("a", CellShape.TRIANGLE_UP);
+        model.setCellType("a", Cell.CellType.LOCAL);
+        model.setCellShape("b", CellShape.CIRCLE);
+
+        assertEquals(2, model.resetCellShapes().size());
+        assertTrue(model.resetCellShapes().isEmpty());
+    }
+
+    @Test
+    public void testLinearChainsCollapseUntilExpanded() {
+        String skipDisplay = System.getProperty("skipDisplay");
+        if(skipDisplay.length() > 0) { return; }
+
+        // a - b - c - d - e, where b, c and d have one parent and one child
+        addCell("c", 3, "b");
+        addCell("d", 4, "c");
+        addCell("e", 5, "d");
+        model.merge();
+        model.updateCollapsedChains(true);
+
+        assertFalse(model.isCollapsed(model.cellMap.get("d")));
+        assertTrue(model.isCollapsed(model.cellMap.get("c")));
+        assertTrue(model.isCollapsed(model.cellMap.get("b")));
+        assertFalse(model.isCollapsed(model.cellMap.get("a")));
+
+        // A labelled commit splits the chain, leaving too few commits to collapse
+        model.setCellShape("c", CellShape.CIRCLE);
+        model.updateCollapsedChains(true);
+        assertFalse(model.isCollapsed(model.cellMap.get("b")));
+        model.resetCellShapes();
+        model.updateCollapsedChains(true);
+        assertTrue(model.isCollapsed(model.cellMap.get("b")));
+
+        assertTrue(model.expandChain("b"));
+        model.updateCollapsedChains(true);
+        assertFalse(model.isCollapsed(model.cellMap.get("b")));
+        assertFalse(model.expandChain("b"));
+
+        // Turning collapsing off and on again collapses the expanded chain again
+        model.updateCollapsedChains(false);
+        assertFalse(model.isCollapsed(model.cellMap.get("b")));
+        model.updateCollapsedChains(true);
+        assertTrue(model.isCollapsed(model.cellMap.get("b")));
+    }
+}